@@ -0,0 +1,215 @@
+package bench;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import rmi.LatencyHistogram;
+
+/** Base class of benchmarks.
+
+    <p>
+    A benchmark measures the throughput of a single operation, given by the
+    <code>operation</code> method. The operation is called repeatedly, by one
+    or more threads, for a number of warmup iterations, whose results are
+    discarded, and then for a number of measurement iterations of fixed
+    duration. The score of the benchmark is the mean number of operations
+    completed per second over the measurement iterations.
+
+    <p>
+    Benchmarks may additionally sample the latency of each operation, by
+    overriding <code>sampleLatency</code>. This adds two calls to
+    <code>System.nanoTime</code> to every operation, and should therefore only
+    be used for operations which take at least several microseconds.
+
+    <p>
+    As with tests, the author may override <code>initialize</code> and
+    <code>clean</code> to acquire and release resources. Both are called once
+    per benchmark run, from the thread which runs the benchmark. Unlike tests,
+    benchmarks are parametrized, and are constructed by the suite in
+    {@link Benchmarks} with the parameters to be measured.
+ */
+public abstract class Benchmark
+{
+    /** Accumulates the results of operations, so that the compiler cannot
+        eliminate them as dead code. */
+    private volatile long       sink;
+
+    /** Returns the parameters of the benchmark, in a stable order, for
+        reporting. The default implementation returns no parameters. */
+    protected Map<String, String> parameters()
+    {
+        return new LinkedHashMap<String, String>();
+    }
+
+    /** Returns the name of the operation measured. The default implementation
+        returns <code>"operation"</code>. */
+    protected String operationName()
+    {
+        return "operation";
+    }
+
+    /** Returns the number of threads calling <code>operation</code>
+        concurrently. The default implementation returns one. */
+    protected int threads()
+    {
+        return 1;
+    }
+
+    /** Returns whether the latency of each operation is to be recorded. The
+        default implementation returns <code>false</code>. */
+    protected boolean sampleLatency()
+    {
+        return false;
+    }
+
+    /** Acquires the resources used by the benchmark.
+
+        @throws Exception If the benchmark cannot be set up.
+     */
+    protected void initialize() throws Exception
+    {
+    }
+
+    /** Performs the operation being measured once.
+
+        @param thread Index of the calling thread, between zero and
+                      <code>threads() - 1</code>.
+        @return Any value derived from the result of the operation.
+        @throws Exception If the operation fails. The benchmark is then
+                          aborted.
+     */
+    protected abstract long operation(int thread) throws Exception;
+
+    /** Releases the resources used by the benchmark.
+
+        @throws Exception If the resources cannot be released.
+     */
+    protected void clean() throws Exception
+    {
+    }
+
+    /** Runs the benchmark.
+
+        @param warmups Number of warmup iterations.
+        @param iterations Number of measurement iterations.
+        @param duration Duration of each iteration, in milliseconds.
+        @return The result of the benchmark.
+        @throws Exception If the benchmark cannot be set up, or if an operation
+                          fails.
+     */
+    public final BenchmarkResult run(int warmups, int iterations, long duration)
+        throws Exception
+    {
+        initialize();
+
+        try
+        {
+            for(int iteration = 0; iteration < warmups; ++iteration)
+                iterate(duration, null);
+
+            double[]            scores = new double[iterations];
+            LatencyHistogram    latency =
+                sampleLatency() ? new LatencyHistogram() : null;
+
+            for(int iteration = 0; iteration < iterations; ++iteration)
+                scores[iteration] = iterate(duration, latency);
+
+            return new BenchmarkResult(getClass().getName() + "." +
+                                       operationName(), parameters(),
+                                       threads(), warmups, iterations,
+                                       duration, scores, latency);
+        }
+        finally
+        {
+            clean();
+        }
+    }
+
+    /** Runs one iteration.
+
+        @param duration Duration of the iteration, in milliseconds.
+        @param latency Histogram receiving the latency of each operation, in
+                       microseconds, or <code>null</code>.
+        @return The number of operations completed per second.
+     */
+    private double iterate(final long duration, final LatencyHistogram latency)
+        throws Exception
+    {
+        int                         count = threads();
+        ExecutorService             executor = Executors.newFixedThreadPool(count);
+        final CyclicBarrier         barrier = new CyclicBarrier(count);
+        List<Future<long[]>>        results = new ArrayList<Future<long[]>>();
+
+        for(int thread = 0; thread < count; ++thread)
+        {
+            final int   index = thread;
+
+            results.add(executor.submit(new Callable<long[]>()
+            {
+                @Override
+                public long[] call() throws Exception
+                {
+                    barrier.await();
+
+                    long    start = System.nanoTime();
+                    long    end = start + duration * 1000000L;
+                    long    operations = 0;
+                    long    accumulated = 0;
+                    long    now = start;
+
+                    while(now < end)
+                    {
+                        if(latency == null)
+                        {
+                            accumulated += operation(index);
+                            ++operations;
+
+                            // Consult the clock only periodically, so that
+                            // it does not dominate very short operations.
+                            if((operations & 0xff) == 0)
+                                now = System.nanoTime();
+                        }
+                        else
+                        {
+                            long    before = System.nanoTime();
+
+                            accumulated += operation(index);
+                            ++operations;
+                            now = System.nanoTime();
+                            latency.record((now - before) / 1000L);
+                        }
+                    }
+
+                    if(latency == null)
+                        now = System.nanoTime();
+
+                    sink += accumulated;
+                    return new long[] {operations, now - start};
+                }
+            }));
+        }
+
+        double      throughput = 0;
+
+        try
+        {
+            for(Future<long[]> result : results)
+            {
+                long[]      measured = result.get();
+                throughput += measured[0] * 1e9 / measured[1];
+            }
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof Exception)
+                throw (Exception)e.getCause();
+            throw e;
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        return throughput;
+    }
+}
@@ -0,0 +1,165 @@
+package bench;
+
+import java.util.*;
+
+import rmi.LatencyHistogram;
+
+/** Result of a benchmark run.
+
+    <p>
+    Results are written in the JSON format produced by JMH, so that tools
+    which track JMH results across runs can also track these. The primary
+    metric is throughput, in operations per second. Its error is the standard
+    deviation across measurement iterations. The mean time per operation, and
+    latency percentiles when sampled, are given as secondary metrics.
+ */
+public class BenchmarkResult
+{
+    /** Fully qualified name of the benchmark and operation. */
+    public final String                 name;
+    /** Benchmark parameters. */
+    public final Map<String, String>    parameters;
+    /** Number of threads. */
+    public final int                    threads;
+    /** Number of warmup iterations. */
+    public final int                    warmups;
+    /** Number of measurement iterations. */
+    public final int                    iterations;
+    /** Duration of each iteration, in milliseconds. */
+    public final long                   duration;
+    /** Throughput measured in each iteration, in operations per second. */
+    public final double[]               scores;
+    /** Latency of individual operations, in microseconds, or
+        <code>null</code> if latency was not sampled. */
+    public final LatencyHistogram       latency;
+
+    BenchmarkResult(String name, Map<String, String> parameters, int threads,
+                    int warmups, int iterations, long duration,
+                    double[] scores, LatencyHistogram latency)
+    {
+        this.name = name;
+        this.parameters = parameters;
+        this.threads = threads;
+        this.warmups = warmups;
+        this.iterations = iterations;
+        this.duration = duration;
+        this.scores = scores;
+        this.latency = latency;
+    }
+
+    /** Returns the mean throughput, in operations per second. */
+    public double score()
+    {
+        double      total = 0;
+
+        for(double score : scores)
+            total += score;
+
+        return scores.length == 0 ? 0 : total / scores.length;
+    }
+
+    /** Returns the standard deviation of the throughput across iterations. */
+    public double error()
+    {
+        if(scores.length < 2)
+            return 0;
+
+        double      mean = score();
+        double      squares = 0;
+
+        for(double score : scores)
+            squares += (score - mean) * (score - mean);
+
+        return Math.sqrt(squares / (scores.length - 1));
+    }
+
+    /** Returns a one-line summary of the result. */
+    public String summary()
+    {
+        String      summary = String.format("%.1f ops/s (+- %.1f), %.1f ns/op",
+                                            score(), error(),
+                                            threads * 1e9 / score());
+
+        if(latency != null)
+        {
+            summary += String.format(", p50 %d us, p99 %d us",
+                                     latency.percentile(0.5),
+                                     latency.percentile(0.99));
+        }
+
+        return summary;
+    }
+
+    /** Returns the result as a JSON object. */
+    public String toJson()
+    {
+        StringBuilder   json = new StringBuilder();
+
+        json.append("    {\n");
+        json.append("        \"benchmark\" : ").append(quote(name)).append(",\n");
+        json.append("        \"mode\" : \"thrpt\",\n");
+        json.append("        \"threads\" : ").append(threads).append(",\n");
+        json.append("        \"forks\" : 0,\n");
+        json.append("        \"warmupIterations\" : ").append(warmups).append(",\n");
+        json.append("        \"warmupTime\" : \"").append(duration).append(" ms\",\n");
+        json.append("        \"measurementIterations\" : ").append(iterations)
+            .append(",\n");
+        json.append("        \"measurementTime\" : \"").append(duration)
+            .append(" ms\",\n");
+
+        json.append("        \"params\" : {");
+        boolean         first = true;
+        for(Map.Entry<String, String> parameter : parameters.entrySet())
+        {
+            json.append(first ? "\n" : ",\n");
+            json.append("            ").append(quote(parameter.getKey()))
+                .append(" : ").append(quote(parameter.getValue()));
+            first = false;
+        }
+        json.append(first ? "},\n" : "\n        },\n");
+
+        json.append("        \"primaryMetric\" : {\n");
+        json.append("            \"score\" : ").append(score()).append(",\n");
+        json.append("            \"scoreError\" : ").append(error()).append(",\n");
+        json.append("            \"scoreUnit\" : \"ops/s\",\n");
+        json.append("            \"rawData\" : [[");
+        for(int index = 0; index < scores.length; ++index)
+        {
+            if(index > 0)
+                json.append(", ");
+            json.append(scores[index]);
+        }
+        json.append("]]\n");
+        json.append("        },\n");
+
+        json.append("        \"secondaryMetrics\" : {\n");
+        metric(json, "time", threads * 1e9 / score(), "ns/op", latency != null);
+        if(latency != null)
+        {
+            metric(json, "latency.p50", latency.percentile(0.5), "us", true);
+            metric(json, "latency.p99", latency.percentile(0.99), "us", true);
+            metric(json, "latency.max", latency.max(), "us", false);
+        }
+        json.append("        }\n");
+        json.append("    }");
+
+        return json.toString();
+    }
+
+    /** Appends a secondary metric to a JSON object under construction. */
+    private static void metric(StringBuilder json, String name, double score,
+                               String unit, boolean more)
+    {
+        json.append("            ").append(quote(name)).append(" : {\n");
+        json.append("                \"score\" : ").append(score).append(",\n");
+        json.append("                \"scoreUnit\" : ").append(quote(unit))
+            .append("\n");
+        json.append("            }").append(more ? ",\n" : "\n");
+    }
+
+    /** Quotes a string for inclusion in JSON. */
+    private static String quote(String string)
+    {
+        return "\"" + string.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,228 @@
+package bench;
+
+import java.io.*;
+import java.util.*;
+
+/** Runs the performance benchmarks of distributed filesystem components.
+
+    <p>
+    Benchmarks run are:
+    <ul>
+    <li>{@link rmi.StubCallBenchmark}: remote call round trip on the loopback
+        interface, with several payload sizes, from one and from four
+        threads.</li>
+    <li>{@link rmi.SerializationBenchmark}: serialization of a call frame.</li>
+    <li>{@link storage.StorageBenchmark}: storage server reads and writes of
+        several sizes, at the start of a file and at a large offset.</li>
+    <li>{@link naming.NamespaceBenchmark}: lookup and insertion in wide and
+        deep directory trees, for each namespace implementation.</li>
+    <li>{@link common.PathBenchmark}: path construction, hashing and
+        comparison.</li>
+    <li>{@link naming.RegistrationBenchmark}: storage server registration with
+        large file lists.</li>
+    </ul>
+
+    <p>
+    Benchmarks, like unit tests, reside in the packages of the classes they
+    measure, under the <code>bench/</code> directory. They are run with
+    <code>make bench</code>, or with
+    <code>java -cp .:bench bench.Benchmarks</code> from the command line. The
+    following options are accepted:
+    <ul>
+    <li><code>-o</code> <em>file</em>: write results to the given file as
+        JSON.</li>
+    <li><code>-w</code> <em>n</em>: number of warmup iterations (default
+        2).</li>
+    <li><code>-i</code> <em>n</em>: number of measurement iterations (default
+        5).</li>
+    <li><code>-t</code> <em>ms</em>: duration of each iteration (default
+        1000).</li>
+    </ul>
+    Any other arguments are taken as filters: only benchmarks whose name
+    contains one of the filters are run.
+
+    <p>
+    Components under measurement may print to standard output. Standard output
+    is therefore discarded while benchmarks run, and progress is reported on
+    the original standard output stream.
+ */
+public class Benchmarks
+{
+    /** Returns the benchmark suite. */
+    private static List<Benchmark> suite()
+    {
+        List<Benchmark>     suite = new ArrayList<Benchmark>();
+        int[]               payloads = {0, 4096, 65536};
+        int[]               sizes = {4096, 65536, 1048576};
+        long[]              offsets = {0, 16L * 1024 * 1024};
+
+        for(int payload : payloads)
+        {
+            suite.add(new rmi.StubCallBenchmark(payload, 1));
+            suite.add(new rmi.StubCallBenchmark(payload, 4));
+        }
+
+        for(int payload : payloads)
+            suite.add(new rmi.SerializationBenchmark(payload));
+
+        for(String operation : new String[] {"read", "write"})
+        {
+            for(int size : sizes)
+            {
+                for(long offset : offsets)
+                    suite.add(new storage.StorageBenchmark(operation, size, offset));
+            }
+        }
+
+        for(String namespace : new String[] {"tree", "compact"})
+        {
+            for(String operation : new String[] {"lookup", "insert"})
+            {
+                suite.add(new naming.NamespaceBenchmark(namespace, operation,
+                                                        "wide", 10000));
+                suite.add(new naming.NamespaceBenchmark(namespace, operation,
+                                                        "deep", 64));
+            }
+        }
+
+        for(String operation :
+                new String[] {"parse", "child", "parent", "hash", "equals"})
+        {
+            suite.add(new common.PathBenchmark(operation, 8));
+        }
+
+        suite.add(new naming.RegistrationBenchmark(1000));
+        suite.add(new naming.RegistrationBenchmark(100000));
+
+        return suite;
+    }
+
+    /** Runs the benchmarks.
+
+        @param arguments Command line options and filters, as described above.
+     */
+    public static void main(String[] arguments)
+    {
+        String              output = null;
+        int                 warmups = 2;
+        int                 iterations = 5;
+        long                duration = 1000;
+        List<String>        filters = new ArrayList<String>();
+
+        for(int index = 0; index < arguments.length; ++index)
+        {
+            String          argument = arguments[index];
+
+            if(argument.equals("-o") && index + 1 < arguments.length)
+                output = arguments[++index];
+            else if(argument.equals("-w") && index + 1 < arguments.length)
+                warmups = Integer.parseInt(arguments[++index]);
+            else if(argument.equals("-i") && index + 1 < arguments.length)
+                iterations = Integer.parseInt(arguments[++index]);
+            else if(argument.equals("-t") && index + 1 < arguments.length)
+                duration = Long.parseLong(arguments[++index]);
+            else
+                filters.add(argument);
+        }
+
+        PrintStream             report = System.out;
+        List<BenchmarkResult>   results = new ArrayList<BenchmarkResult>();
+        boolean                 failed = false;
+
+        System.setOut(new PrintStream(new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length)
+            {
+            }
+        }));
+
+        for(Benchmark benchmark : suite())
+        {
+            String          name = benchmark.getClass().getName() + "." +
+                                   benchmark.operationName();
+
+            if(!selected(name, filters))
+                continue;
+
+            report.print("running " + name + " " + benchmark.parameters() +
+                         " threads=" + benchmark.threads() + "... ");
+            report.flush();
+
+            try
+            {
+                BenchmarkResult result =
+                    benchmark.run(warmups, iterations, duration);
+
+                results.add(result);
+                report.println(result.summary());
+            }
+            catch(Throwable t)
+            {
+                failed = true;
+                report.println("failed: " + t);
+            }
+        }
+
+        if(output != null)
+        {
+            try
+            {
+                write(results, new File(output));
+                report.println("results written to " + output);
+            }
+            catch(IOException e)
+            {
+                failed = true;
+                report.println("unable to write results: " + e);
+            }
+        }
+
+        System.exit(failed ? 2 : 0);
+    }
+
+    /** Determines whether a benchmark matches any of the filters. */
+    private static boolean selected(String name, List<String> filters)
+    {
+        if(filters.isEmpty())
+            return true;
+
+        for(String filter : filters)
+        {
+            if(name.contains(filter))
+                return true;
+        }
+
+        return false;
+    }
+
+    /** Writes results to a file as a JSON array. */
+    private static void write(List<BenchmarkResult> results, File file)
+        throws IOException
+    {
+        Writer              writer =
+            new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+        try
+        {
+            writer.write("[\n");
+
+            for(int index = 0; index < results.size(); ++index)
+            {
+                writer.write(results.get(index).toJson());
+                writer.write(index + 1 < results.size() ? ",\n" : "\n");
+            }
+
+            writer.write("]\n");
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package common;
+
+import java.util.*;
+
+import bench.*;
+
+/** Measures construction and hashing of <code>Path</code> objects.
+
+    <p>
+    Operations are performed on paths of the given depth. The
+    <code>parse</code> operation constructs a path from its string form,
+    <code>child</code> appends a component to an existing path,
+    <code>parent</code> takes the parent of a path, <code>hash</code> computes
+    the hash code of a path, and <code>equals</code> compares two equal paths
+    that are distinct objects.
+ */
+public class PathBenchmark extends Benchmark
+{
+    /** Operation measured. */
+    private final String    operation;
+    /** Number of components in the paths used. */
+    private final int       depth;
+
+    private String          string;
+    private Path            path;
+    private Path            copy;
+
+    /** Creates the benchmark.
+
+        @param operation One of <code>parse</code>, <code>child</code>,
+                         <code>parent</code>, <code>hash</code> and
+                         <code>equals</code>.
+        @param depth Number of components in the paths used.
+     */
+    public PathBenchmark(String operation, int depth)
+    {
+        this.operation = operation;
+        this.depth = depth;
+    }
+
+    @Override
+    protected Map<String, String> parameters()
+    {
+        Map<String, String>     parameters = new LinkedHashMap<String, String>();
+
+        parameters.put("depth", String.valueOf(depth));
+        return parameters;
+    }
+
+    @Override
+    protected String operationName()
+    {
+        return operation;
+    }
+
+    @Override
+    protected void initialize()
+    {
+        StringBuilder   builder = new StringBuilder();
+
+        for(int index = 0; index < depth; ++index)
+            builder.append("/component").append(index);
+
+        string = builder.toString();
+        path = new Path(string);
+        copy = new Path(string);
+    }
+
+    @Override
+    protected long operation(int thread)
+    {
+        if(operation.equals("parse"))
+            return new Path(string).hashCode();
+        else if(operation.equals("child"))
+            return new Path(path, "child").isRoot() ? 0 : 1;
+        else if(operation.equals("parent"))
+            return path.parent().isRoot() ? 0 : 1;
+        else if(operation.equals("hash"))
+            return path.hashCode();
+        else
+            return path.equals(copy) ? 1 : 0;
+    }
+}
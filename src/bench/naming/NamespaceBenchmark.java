@@ -0,0 +1,110 @@
+package naming;
+
+import java.util.*;
+
+import bench.*;
+import common.*;
+
+/** Measures lookup and insertion in the naming server's directory tree.
+
+    <p>
+    The <code>wide</code> tree has a single directory holding the given number
+    of files. The <code>deep</code> tree is a chain of the given number of
+    nested directories, with a file at the bottom. The <code>lookup</code>
+    operation finds a file in the tree. The <code>insert</code> operation adds
+    a new file next to the existing ones, and removes it again so that the tree
+    does not grow during the measurement. Each namespace implementation is
+    measured separately.
+ */
+public class NamespaceBenchmark extends Benchmark
+{
+    /** <code>tree</code> or <code>compact</code>. */
+    private final String    namespace;
+    /** <code>lookup</code> or <code>insert</code>. */
+    private final String    operation;
+    /** <code>wide</code> or <code>deep</code>. */
+    private final String    shape;
+    /** Number of files in the wide tree, or depth of the deep tree. */
+    private final int       size;
+
+    private Namespace       root;
+    private Path[]          files;
+    private Path            inserted;
+    private int             next = 0;
+
+    /** Creates the benchmark.
+
+        @param namespace <code>tree</code> or <code>compact</code>.
+        @param operation <code>lookup</code> or <code>insert</code>.
+        @param shape <code>wide</code> or <code>deep</code>.
+        @param size Number of files in the wide tree, or depth of the deep
+                    tree.
+     */
+    public NamespaceBenchmark(String namespace, String operation, String shape,
+                              int size)
+    {
+        this.namespace = namespace;
+        this.operation = operation;
+        this.shape = shape;
+        this.size = size;
+    }
+
+    @Override
+    protected Map<String, String> parameters()
+    {
+        Map<String, String>     parameters = new LinkedHashMap<String, String>();
+
+        parameters.put("namespace", namespace);
+        parameters.put("shape", shape);
+        parameters.put("size", String.valueOf(size));
+        return parameters;
+    }
+
+    @Override
+    protected String operationName()
+    {
+        return operation;
+    }
+
+    @Override
+    protected void initialize()
+    {
+        root = NamingServer.newNamespace(namespace);
+
+        Path                directory = new Path();
+
+        if(shape.equals("wide"))
+        {
+            directory = new Path(directory, "wide");
+            files = new Path[size];
+
+            for(int index = 0; index < size; ++index)
+                files[index] = new Path(directory, "file" + index);
+        }
+        else
+        {
+            for(int index = 0; index < size; ++index)
+                directory = new Path(directory, "directory" + index);
+
+            files = new Path[] {new Path(directory, "file")};
+        }
+
+        for(Path file : files)
+            root.register(file, 0);
+
+        inserted = new Path(directory, "inserted");
+    }
+
+    @Override
+    protected long operation(int thread) throws Exception
+    {
+        if(operation.equals("lookup"))
+        {
+            next = (next + 7919) % files.length;
+            return root.lookup(files[next]);
+        }
+
+        root.createFile(inserted, 0);
+        return root.delete(inserted).length;
+    }
+}
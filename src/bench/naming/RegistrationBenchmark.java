@@ -0,0 +1,89 @@
+package naming;
+
+import java.net.*;
+import java.util.*;
+
+import bench.*;
+import common.*;
+import rmi.*;
+import storage.*;
+
+/** Measures registration of a storage server with a large file list.
+
+    <p>
+    Each operation creates a new naming server and registers a storage server
+    hosting the given number of files, spread across directories of one
+    hundred files each. The naming server is not started, and registration is
+    called directly rather than through RMI.
+ */
+public class RegistrationBenchmark extends Benchmark
+{
+    /** Number of files registered. */
+    private final int       count;
+
+    private Path[]          files;
+    private Storage         storage;
+    private Command         command;
+
+    /** Creates the benchmark.
+
+        @param count Number of files registered.
+     */
+    public RegistrationBenchmark(int count)
+    {
+        this.count = count;
+    }
+
+    @Override
+    protected Map<String, String> parameters()
+    {
+        Map<String, String>     parameters = new LinkedHashMap<String, String>();
+
+        parameters.put("files", String.valueOf(count));
+        return parameters;
+    }
+
+    @Override
+    protected String operationName()
+    {
+        return "register";
+    }
+
+    @Override
+    protected boolean sampleLatency()
+    {
+        return true;
+    }
+
+    @Override
+    protected void initialize()
+    {
+        InetSocketAddress   address = new InetSocketAddress("127.0.0.1", 1);
+
+        storage = Stub.create(Storage.class, address);
+        command = Stub.create(Command.class, address);
+        files = new Path[count];
+
+        for(int index = 0; index < count; ++index)
+        {
+            Path    directory = new Path(new Path(), "directory" + index / 100);
+            files[index] = new Path(directory, "file" + index);
+        }
+    }
+
+    @Override
+    protected long operation(int thread)
+    {
+        NamingServer        server = new NamingServer();
+
+        try
+        {
+            return server.register(storage, command, files).length;
+        }
+        finally
+        {
+            // Release the unbound sockets held by the server's skeletons.
+            server.stop();
+        }
+    }
+}
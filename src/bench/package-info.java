@@ -0,0 +1,16 @@
+/** Performance benchmarks.
+
+    <p>
+    Each benchmark resides in the same package as the code it is measuring,
+    under the <code>bench/</code> directory, in the same way as unit tests
+    reside under <code>unit/</code>. This allows benchmarks to measure
+    package-private classes, such as the naming server's directory tree.
+
+    <p>
+    To create a new benchmark, derive a class from {@link bench.Benchmark} in
+    the package of the code to be measured, and add instances of it to the
+    suite in {@link bench.Benchmarks}. The suite is run with
+    <code>make bench</code>, which writes its results to
+    <code>bench-results.json</code>.
+ */
+package bench;
@@ -0,0 +1,81 @@
+package rmi;
+
+import java.io.*;
+import java.util.*;
+
+import bench.*;
+import common.Path;
+
+/** Measures the cost of serializing and deserializing a call frame.
+
+    <p>
+    The frame is the one a stub sends for a call to <code>Storage.write</code>:
+    the call header, method name, argument types, and arguments - a path, an
+    offset and a data array of the given size. The frame is written to and read
+    back from memory, so no network cost is included.
+ */
+public class SerializationBenchmark extends Benchmark
+{
+    /** Size of the data argument, in bytes. */
+    private final int       payload;
+
+    private CallHeader      header;
+    private Class<?>[]      types;
+    private Object[]        arguments;
+
+    /** Creates the benchmark.
+
+        @param payload Size of the data argument, in bytes.
+     */
+    public SerializationBenchmark(int payload)
+    {
+        this.payload = payload;
+    }
+
+    @Override
+    protected Map<String, String> parameters()
+    {
+        Map<String, String>     parameters = new LinkedHashMap<String, String>();
+
+        parameters.put("payload", String.valueOf(payload));
+        return parameters;
+    }
+
+    @Override
+    protected String operationName()
+    {
+        return "roundTrip";
+    }
+
+    @Override
+    protected void initialize()
+    {
+        header = new CallHeader(1000, 1, 2);
+        types = new Class<?>[] {Path.class, long.class, byte[].class};
+        arguments = new Object[] {new Path("/directory/subdirectory/file"),
+                                  Long.valueOf(4096), new byte[payload]};
+    }
+
+    @Override
+    protected long operation(int thread) throws Exception
+    {
+        ByteArrayOutputStream   buffer = new ByteArrayOutputStream(payload + 1024);
+        ObjectOutputStream      output = new ObjectOutputStream(buffer);
+
+        output.writeObject(header);
+        output.writeObject("write");
+        output.writeObject(types);
+        output.writeObject(arguments);
+        output.close();
+
+        ObjectInputStream       input = new ObjectInputStream(
+            new ByteArrayInputStream(buffer.toByteArray()));
+
+        input.readObject();
+        input.readObject();
+        input.readObject();
+        Object[]                read = (Object[])input.readObject();
+
+        return ((byte[])read[2]).length;
+    }
+}
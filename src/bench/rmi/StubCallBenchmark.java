@@ -0,0 +1,101 @@
+package rmi;
+
+import java.net.*;
+import java.util.*;
+
+import bench.*;
+
+/** Measures the round trip of a remote call between a stub and a skeleton on
+    the loopback interface.
+
+    <p>
+    The remote method echoes a byte array of the given size. Each call opens a
+    new connection to the skeleton, so the measurement includes connection
+    setup, serialization in both directions, and dispatch on the server.
+ */
+public class StubCallBenchmark extends Benchmark
+{
+    /** Remote interface used by the benchmark. */
+    public interface Echo
+    {
+        /** Returns its argument. */
+        public byte[] echo(byte[] data) throws RMIException;
+    }
+
+    /** Size of the payload, in bytes. */
+    private final int               payload;
+    /** Number of concurrent callers. */
+    private final int               callers;
+
+    private Skeleton<Echo>          skeleton;
+    private Echo                    stub;
+    private byte[]                  data;
+
+    /** Creates the benchmark.
+
+        @param payload Size of the payload, in bytes.
+        @param callers Number of threads making calls concurrently.
+     */
+    public StubCallBenchmark(int payload, int callers)
+    {
+        this.payload = payload;
+        this.callers = callers;
+    }
+
+    @Override
+    protected Map<String, String> parameters()
+    {
+        Map<String, String>     parameters = new LinkedHashMap<String, String>();
+
+        parameters.put("payload", String.valueOf(payload));
+        return parameters;
+    }
+
+    @Override
+    protected String operationName()
+    {
+        return "echo";
+    }
+
+    @Override
+    protected int threads()
+    {
+        return callers;
+    }
+
+    @Override
+    protected boolean sampleLatency()
+    {
+        return true;
+    }
+
+    @Override
+    protected void initialize() throws Exception
+    {
+        skeleton = new Skeleton<Echo>(Echo.class, new Echo()
+        {
+            @Override
+            public byte[] echo(byte[] data)
+            {
+                return data;
+            }
+        });
+        skeleton.start();
+
+        stub = Stub.create(Echo.class, skeleton, "127.0.0.1");
+        data = new byte[payload];
+    }
+
+    @Override
+    protected long operation(int thread) throws Exception
+    {
+        return stub.echo(data).length;
+    }
+
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+}
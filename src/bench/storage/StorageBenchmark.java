@@ -0,0 +1,102 @@
+package storage;
+
+import java.io.*;
+import java.util.*;
+
+import bench.*;
+import common.*;
+import test.TemporaryDirectory;
+
+/** Measures <code>read</code> and <code>write</code> on a storage server.
+
+    <p>
+    The storage server is called directly, without RMI, so that only the cost
+    of the storage server itself is measured. Each operation transfers the
+    given number of bytes at the given offset in a file which already extends
+    past the end of the range.
+ */
+public class StorageBenchmark extends Benchmark
+{
+    /** <code>read</code> or <code>write</code>. */
+    private final String        operation;
+    /** Number of bytes transferred by each operation. */
+    private final int           size;
+    /** Offset of the transfer in the file. */
+    private final long          offset;
+
+    private TemporaryDirectory  directory;
+    private StorageServer       server;
+    private Path                file;
+    private byte[]              data;
+
+    /** Creates the benchmark.
+
+        @param operation <code>read</code> or <code>write</code>.
+        @param size Number of bytes transferred by each operation.
+        @param offset Offset of the transfer in the file.
+     */
+    public StorageBenchmark(String operation, int size, long offset)
+    {
+        this.operation = operation;
+        this.size = size;
+        this.offset = offset;
+    }
+
+    @Override
+    protected Map<String, String> parameters()
+    {
+        Map<String, String>     parameters = new LinkedHashMap<String, String>();
+
+        parameters.put("size", String.valueOf(size));
+        parameters.put("offset", String.valueOf(offset));
+        return parameters;
+    }
+
+    @Override
+    protected String operationName()
+    {
+        return operation;
+    }
+
+    @Override
+    protected boolean sampleLatency()
+    {
+        return true;
+    }
+
+    @Override
+    protected void initialize() throws Exception
+    {
+        directory = new TemporaryDirectory();
+        directory.add(new String[] {"file"});
+
+        // Size the file directly, rather than through the server, so that
+        // setting up a large offset is not itself part of the measurement.
+        RandomAccessFile    raw = new RandomAccessFile(
+            new File(directory.root(), "file"), "rw");
+        raw.setLength(offset + size);
+        raw.close();
+
+        server = new StorageServer(directory.root());
+        file = new Path("/file");
+        data = new byte[size];
+        new Random(1).nextBytes(data);
+    }
+
+    @Override
+    protected long operation(int thread) throws Exception
+    {
+        if(operation.equals("read"))
+            return server.read(file, offset, size).length;
+
+        server.write(file, offset, data);
+        return size;
+    }
+
+    @Override
+    protected void clean()
+    {
+        if(directory != null)
+            directory.remove();
+    }
+}
@@ -2,6 +2,8 @@ package client;
 
 import java.io.*;
 import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 import rmi.*;
 import common.*;
@@ -12,10 +14,11 @@ import storage.*;
 
     <p>
     Read calls on a <code>DFSInputStream</code> are directed to a storage server
-    hosting the given file. Each read call corresponds to one network request.
-    If this behavior is not desirable, the <code>DFSInputStream</code> should be
-    wrapped in a <code>BufferedInputStream</code> or other class providing
-    buffered input.
+    hosting the given file, through a read session opened with the stream. The
+    file is read ahead in chunks, several of which are requested at once, so
+    that a file read from start to end is transferred without waiting for each
+    request in turn. The data received is checked against the checksums that
+    the storage server keeps for each block of the file.
 
     <p>
     <code>DFSInputStream</code> does not support marks.
@@ -34,6 +37,18 @@ public class DFSInputStream extends InputStream
     /** Total file length. */
     private final long      length;
 
+    /** Storage server session through which the file is read. */
+    private final long      session;
+    /** Chunk reads in flight, in file order. */
+    private final ArrayDeque<Future<byte[]>> pending =
+        new ArrayDeque<Future<byte[]>>();
+    /** Offset in the file up to which chunks have been requested. */
+    private long            requested = 0;
+    /** Chunk from which the stream is being read. */
+    private byte[]          chunk = new byte[0];
+    /** Offset in the current chunk of the stream offset. */
+    private int             chunk_offset = 0;
+
     /** Indicates that the stream has been closed. */
     private boolean         closed = false;
 
@@ -67,6 +82,7 @@ public class DFSInputStream extends InputStream
         try
         {
             length = storage_server.size(file);
+            session = storage_server.openSession(file, false);
         }
         catch(RMIException e)
         {
@@ -143,19 +159,32 @@ public class DFSInputStream extends InputStream
     /** Closes the input stream.
 
         <p>
-        The stream is marked as closed. Further attempts to use the input stream
-        will result in <code>IOException</code>.
+        The stream is marked as closed, and its session on the storage server
+        is closed. Further attempts to use the input stream will result in
+        <code>IOException</code>.
      */
     @Override
     public void close()
     {
+        if(closed)
+            return;
+
         closed = true;
+        Transfers.cancel(pending);
+
+        // A session that cannot be closed expires on the storage server.
+        try
+        {
+            storage_server.closeSession(session);
+        }
+        catch(RMIException | IOException e) { }
     }
 
     /** Reads bytes from the input stream into a byte buffer.
 
         <p>
-        The read is performed in a single request to the storage server. If the
+        The bytes are taken from the chunks read ahead, waiting for the chunks
+        that have not arrived yet. If the
         operation succeeds, the number of bytes read will be either
         <code>read_length</code> or the number of bytes remaining in the file,
         whichever is less.
@@ -218,33 +247,67 @@ public class DFSInputStream extends InputStream
         if(read_length > (length - offset))
             read_length = (int)(length - offset);
 
-        // Read bytes from file and advance the stream offset if the request
-        // succeeds.
-        byte[]      result;
+        // Copy bytes from the chunks into the buffer provided by the caller,
+        // advancing the stream offset.
+        int         copied = 0;
 
-        try
+        while(copied < read_length)
         {
-            result = storage_server.read(path, offset, read_length);
-            offset += read_length;
-        }
-        catch(FileNotFoundException e)
-        {
-            throw new IOException("file missing on storage server", e);
-        }
-        catch(RMIException e)
-        {
-            throw new IOException("unable to contact storage server", e);
-        }
+            if(chunk_offset == chunk.length)
+                nextChunk();
 
-        // Copy bytes from the buffer that was received over the network into
-        // the buffer provided by the caller.
-        for(int index = 0; index < read_length; ++index)
-            buffer[buffer_offset + index] = result[index];
+            int     count = Math.min(read_length - copied,
+                                     chunk.length - chunk_offset);
+
+            System.arraycopy(chunk, chunk_offset, buffer,
+                             buffer_offset + copied, count);
+            chunk_offset += count;
+            offset += count;
+            copied += count;
+        }
 
         // Return the number of bytes read.
         return read_length;
     }
 
+    /** Waits for the next chunk of the file, first requesting further chunks
+        until the window of chunk reads in flight is full.
+
+        <p>
+        Chunks after the first are aligned to the chunk size, so that the
+        blocks returned by the storage server hold no more than the chunk.
+
+        @throws IOException If the chunk cannot be read, or if it does not
+                            match the checksums of its blocks.
+     */
+    private void nextChunk() throws IOException
+    {
+        while(pending.size() < Transfers.WINDOW && requested < length)
+        {
+            final long  chunk_start = requested;
+            final int   chunk_length =
+                (int)Math.min(Transfers.CHUNK - requested % Transfers.CHUNK,
+                              length - requested);
+
+            pending.add(Transfers.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception
+                {
+                    // Check the data against the checksums computed when it
+                    // was written.
+                    return storage_server.readSession(session, chunk_start,
+                                                      chunk_length)
+                                         .verify(chunk_start, chunk_length);
+                }
+            }));
+
+            requested += chunk_length;
+        }
+
+        chunk = Transfers.result(pending.remove());
+        chunk_offset = 0;
+    }
+
     /** Reads a single byte from the input stream.
 
         @return The value of the byte read, as an integer between <code>0</code>
@@ -296,6 +359,17 @@ public class DFSInputStream extends InputStream
         if(count > (length - offset))
             count = length - offset;
 
+        // Skipping past the current chunk abandons the chunks read ahead.
+        if(count <= chunk.length - chunk_offset)
+            chunk_offset += count;
+        else
+        {
+            Transfers.cancel(pending);
+            chunk = new byte[0];
+            chunk_offset = 0;
+            requested = offset + count;
+        }
+
         offset += count;
 
         return count;
@@ -2,6 +2,8 @@ package client;
 
 import java.io.*;
 import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 import rmi.*;
 import common.*;
@@ -12,9 +14,12 @@ import storage.*;
 
     <p>
     Write calls on a <code>DFSOutputStream</code> are directed to a storage
-    server hosting the given file. Each call corresponds to one network request.
-    If this is not desirable, the <code>DFSOutputStream</code> should be wrapped
-    in a <code>BufferedOutputStream</code> object.
+    server hosting the given file, through a write session opened with the
+    stream. The bytes written are gathered into chunks, several of which are
+    sent at once, so that the stream only waits for the storage server when
+    too many chunks are in flight. The bytes written reach the storage server
+    when the stream is flushed, and its disk when the stream is closed. An
+    error in sending a chunk is reported by the next call on the stream.
 
     <p>
     Creating a <code>DFSOutputStream</code> for a file does not cause the file
@@ -34,6 +39,17 @@ public class DFSOutputStream extends OutputStream
     /** Current write offset in the file. */
     private long            offset = 0;
 
+    /** Storage server session through which the file is written. */
+    private final long      session;
+    /** Chunk writes in flight. */
+    private final ArrayDeque<Future<Void>> pending =
+        new ArrayDeque<Future<Void>>();
+    /** Bytes written to the stream and not yet sent, ending at the stream
+        offset. */
+    private final byte[]    chunk = new byte[Transfers.CHUNK];
+    /** Number of bytes in the current chunk. */
+    private int             chunk_length = 0;
+
     /** Indicates that the stream has been closed. */
     private boolean         closed = false;
 
@@ -63,6 +79,16 @@ public class DFSOutputStream extends OutputStream
             throw new IOException("could not contact naming server", e);
         }
 
+        // Open a session for writing the file.
+        try
+        {
+            session = storage_server.openSession(file, true);
+        }
+        catch(RMIException e)
+        {
+            throw new IOException("could not contact storage server", e);
+        }
+
         path = file;
         this.naming_server = naming_server;
     }
@@ -133,19 +159,65 @@ public class DFSOutputStream extends OutputStream
     /** Closes the output stream.
 
         <p>
-        The stream is marked as closed. Further attempts to use the output
-        stream will result in <code>IOException</code>.
+        The bytes not yet sent are sent, and the session on the storage server
+        is closed once they reach its disk. The stream is then marked as
+        closed. Further attempts to use the output stream will result in
+        <code>IOException</code>.
+
+        @throws IOException If the bytes cannot be sent or written to disk, or
+                            if the storage server cannot be contacted.
      */
     @Override
     public void close() throws IOException
     {
-        closed = true;
+        if(closed)
+            return;
+
+        try
+        {
+            flush();
+            storage_server.closeSession(session);
+        }
+        catch(RMITimeoutException e)
+        {
+            throw new IOException("storage server did not respond in time", e);
+        }
+        catch(RMIException e)
+        {
+            throw new IOException("unable to contact storage server", e);
+        }
+        finally
+        {
+            Transfers.cancel(pending);
+            closed = true;
+        }
+    }
+
+    /** Sends the bytes written so far, and waits for the storage server to
+        write them.
+
+        @throws IOException If the stream is closed, or if the bytes cannot be
+                            sent or written on the storage server.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        if(closed)
+        {
+            throw new IOException("distributed filesystem output stream " +
+                                  "already closed");
+        }
+
+        send();
+
+        while(!pending.isEmpty())
+            Transfers.result(pending.remove());
     }
 
     /** Writes bytes from a buffer to the output stream.
 
         <p>
-        The write is performed in a single request to the storage server.
+        The bytes are added to the current chunk, which is sent when full.
 
         @param buffer Buffer containing bytes to be written.
         @param buffer_offset Offset into the buffer from which bytes are to be
@@ -191,41 +263,55 @@ public class DFSOutputStream extends OutputStream
         if(write_length == 0)
             return;
 
-        // Create the data buffer that will be sent over the network. If the
-        // buffer offset is zero and all the bytes in the user-provided buffer
-        // are to be written, the user-provided buffer will be serialized
-        // directly. Otherwise, make a new buffer, copy the requisite number of
-        // bytes from the proper offset in the user-provided buffer to the new
-        // buffer, and later serialize the new buffer.
-        byte[]      data;
-
-        if((buffer_offset == 0) && (buffer.length == write_length))
-            data = buffer;
-        else
+        // Copy the bytes into the current chunk, sending it whenever it is
+        // full, and advance the stream offset.
+        int         copied = 0;
+
+        while(copied < write_length)
         {
-            data = new byte[write_length];
+            int     count = Math.min(write_length - copied,
+                                     chunk.length - chunk_length);
 
-            for(int index = 0; index < write_length; ++index)
-                data[index] = buffer[buffer_offset + index];
-        }
+            System.arraycopy(buffer, buffer_offset + copied, chunk,
+                             chunk_length, count);
+            chunk_length += count;
+            offset += count;
+            copied += count;
 
-        // Send the write request to the server. If the write request succeds,
-        // advance the stream offset.
-        try
-        {
-            storage_server.write(path, offset, data);
-            offset += write_length;
-        }
-        catch(FileNotFoundException e)
-        {
-            throw new IOException("file missing on storage server", e);
-        }
-        catch(RMIException e)
-        {
-            throw new IOException("unable to contact storage server", e);
+            if(chunk_length == chunk.length)
+                send();
         }
     }
 
+    /** Sends the current chunk, first waiting for a chunk write in flight if
+        the window is full.
+
+        @throws IOException If an earlier chunk could not be sent or written
+                            on the storage server.
+     */
+    private void send() throws IOException
+    {
+        if(chunk_length == 0)
+            return;
+
+        while(pending.size() >= Transfers.WINDOW)
+            Transfers.result(pending.remove());
+
+        final long      chunk_start = offset - chunk_length;
+        final byte[]    data = Arrays.copyOf(chunk, chunk_length);
+
+        pending.add(Transfers.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception
+            {
+                storage_server.writeSession(session, chunk_start, data);
+                return null;
+            }
+        }));
+
+        chunk_length = 0;
+    }
+
     /** Writes a single byte to the output stream.
 
         @param b Value of the byte to be written. The argument is taken modulo
@@ -259,6 +345,8 @@ public class DFSOutputStream extends OutputStream
         if(count < 0)
             return;
 
+        // The current chunk holds the bytes just before the stream offset.
+        send();
         offset += count;
     }
 }
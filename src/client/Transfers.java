@@ -0,0 +1,109 @@
+package client;
+
+import java.io.*;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+import rmi.*;
+
+/** Chunked transfers between the client streams and storage servers.
+
+    <p>
+    The streams move a file through a storage server session in chunks of
+    <code>CHUNK</code> bytes, keeping up to <code>WINDOW</code> chunk requests
+    in flight at once. Each request is made on a thread of a pool shared by
+    all streams, so that the stream only waits when its window is full.
+ */
+class Transfers
+{
+    /** Size of the chunks in which files are transferred. */
+    static final int        CHUNK = 1 << 20;
+    /** Number of chunk requests kept in flight by each stream. */
+    static final int        WINDOW = 4;
+
+    /** Threads making the chunk requests. */
+    private static final ExecutorService   requests =
+        Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread      thread = new Thread(runnable, "dfs-transfer");
+
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    /** Prevents the class from being instantiated. */
+    private Transfers()
+    {
+    }
+
+    /** Starts a chunk request.
+
+        @param request The request.
+        @return The pending result of the request.
+     */
+    static <T> Future<T> submit(Callable<T> request)
+    {
+        return requests.submit(request);
+    }
+
+    /** Waits for a chunk request to complete.
+
+        @param request The pending result of the request.
+        @return The result of the request.
+        @throws IOException If the request failed, or if the file is missing
+                            on the storage server, or if the storage server
+                            cannot be contacted.
+     */
+    static <T> T result(Future<T> request) throws IOException
+    {
+        try
+        {
+            return request.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for " +
+                                             "storage server");
+        }
+        catch(ExecutionException e)
+        {
+            Throwable   cause = e.getCause();
+
+            if(cause instanceof FileNotFoundException)
+                throw new IOException("file missing on storage server", cause);
+
+            if(cause instanceof RMITimeoutException)
+            {
+                throw new IOException("storage server did not respond in time",
+                                      cause);
+            }
+
+            if(cause instanceof RMIException)
+                throw new IOException("unable to contact storage server", cause);
+
+            if(cause instanceof IOException)
+                throw (IOException)cause;
+
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+
+            throw new IOException("chunk transfer failed", cause);
+        }
+    }
+
+    /** Abandons the requests in flight.
+
+        @param pending The pending results of the requests.
+     */
+    static <T> void cancel(Queue<Future<T>> pending)
+    {
+        for(Future<T> request : pending)
+            request.cancel(false);
+
+        pending.clear();
+    }
+}
@@ -0,0 +1,334 @@
+package common;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Structured logging for the filesystem components.
+
+    <p>
+    Each subsystem, such as <code>rmi</code>, <code>naming</code> or
+    <code>storage</code>, logs through its own <code>Log</code>, obtained from
+    <code>get</code>. A record is kept only if its level is at least the level
+    of its subsystem: the value of the system property
+    <code>log.</code><em>subsystem</em><code>.level</code>, or else of
+    <code>log.level</code>, or else <code>INFO</code>. A subsystem is turned
+    off with the level <code>OFF</code>, and levels may be changed while the
+    process runs. Whether a level is enabled is a single field read, so that
+    records which are not kept cost nothing on request paths.
+
+    <p>
+    Logging never blocks the calling thread on the console or on a file.
+    Records are put in a ring buffer holding the most recent
+    <code>log.buffer</code> records (8192 by default), from which a daemon
+    thread writes them every <code>log.interval</code> milliseconds (100 by
+    default), one JSON object per line, to the file named by
+    <code>log.file</code>, or else to the standard error stream. If the buffer
+    wraps before the writer catches up, the oldest records are overwritten,
+    and the writer logs how many were lost. The records left are written when
+    the process exits.
+ */
+public final class Log
+{
+    /** Levels of records, in increasing order of severity. A subsystem at
+        level <code>OFF</code> keeps no records. */
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    /** Logged event. */
+    public static final class Record implements RingBuffer.Entry
+    {
+        // Position of the record in the ring buffer.
+        final long sequence;
+        private final long time;
+        private final Level level;
+        private final String subsystem;
+        private final String thread;
+        private final String message;
+        private final Throwable cause;
+
+        Record(long sequence, Level level, String subsystem, String message,
+               Throwable cause)
+        {
+            this.sequence = sequence;
+            this.time = System.currentTimeMillis();
+            this.level = level;
+            this.subsystem = subsystem;
+            this.thread = Thread.currentThread().getName();
+            this.message = message;
+            this.cause = cause;
+        }
+
+        /** Returns the position of the record in the ring buffer. */
+        @Override
+        public long sequence()
+        {
+            return sequence;
+        }
+
+        /** Returns the time of the record, in milliseconds. */
+        public long time()
+        {
+            return time;
+        }
+
+        /** Returns the level of the record. */
+        public Level level()
+        {
+            return level;
+        }
+
+        /** Returns the subsystem that logged the record. */
+        public String subsystem()
+        {
+            return subsystem;
+        }
+
+        /** Returns the message of the record. */
+        public String message()
+        {
+            return message;
+        }
+
+        /** Returns the exception logged with the record, or
+            <code>null</code>. */
+        public Throwable cause()
+        {
+            return cause;
+        }
+
+        /** Formats the record as a JSON object on a single line. */
+        public String toJson()
+        {
+            StringBuilder json = new StringBuilder(128);
+            json.append("{\"time\":").append(time);
+            json.append(",\"level\":\"").append(level).append('"');
+            json.append(",\"subsystem\":");
+            quote(json, subsystem);
+            json.append(",\"thread\":");
+            quote(json, thread);
+            json.append(",\"message\":");
+            quote(json, message);
+
+            if (cause != null) {
+                StringWriter trace = new StringWriter();
+                cause.printStackTrace(new PrintWriter(trace));
+                json.append(",\"exception\":");
+                quote(json, trace.toString());
+            }
+            return json.append('}').toString();
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Log> logs =
+        new ConcurrentHashMap<String, Log>();
+
+    /** Records logged by this process. */
+    static final RingBuffer<Record> buffer =
+        new RingBuffer<Record>(Integer.getInteger("log.buffer", 8192));
+
+    // Number of records seen by the writer, and the stream it writes to.
+    private static long cursor = 0;
+    private static final PrintStream output = open(System.getProperty("log.file"));
+
+    static {
+        startWriting(Long.getLong("log.interval", 100L));
+    }
+
+    private final String subsystem;
+    private volatile Level level;
+
+    // Creates the log of a subsystem, at the level given by the properties.
+    private Log(String subsystem)
+    {
+        this.subsystem = subsystem;
+        String configured = System.getProperty("log." + subsystem + ".level",
+                System.getProperty("log.level", "INFO"));
+        this.level = Level.valueOf(configured.toUpperCase(Locale.ROOT));
+    }
+
+    /** Returns the log of a subsystem.
+
+        @param subsystem Name of the subsystem.
+        @throws IllegalArgumentException If the level configured for the
+                                         subsystem is not a level.
+     */
+    public static Log get(String subsystem)
+    {
+        Log log = logs.get(subsystem);
+
+        if (log == null) {
+            logs.putIfAbsent(subsystem, new Log(subsystem));
+            log = logs.get(subsystem);
+        }
+        return log;
+    }
+
+    /** Returns the level of the subsystem. */
+    public Level level()
+    {
+        return level;
+    }
+
+    /** Sets the level of the subsystem. */
+    public void setLevel(Level level)
+    {
+        if (level == null) {
+            throw new NullPointerException("Level is null.");
+        }
+        this.level = level;
+    }
+
+    /** Determines whether records of a level are kept. Callers building
+        costly messages check this first. */
+    public boolean isEnabled(Level level)
+    {
+        return level != Level.OFF && level.compareTo(this.level) >= 0;
+    }
+
+    /** Logs a message at level <code>DEBUG</code>. */
+    public void debug(String message)
+    {
+        log(Level.DEBUG, message, null);
+    }
+
+    /** Logs a message at level <code>INFO</code>. */
+    public void info(String message)
+    {
+        log(Level.INFO, message, null);
+    }
+
+    /** Logs a message and an exception at level <code>WARN</code>. The
+        exception may be <code>null</code>. */
+    public void warn(String message, Throwable cause)
+    {
+        log(Level.WARN, message, cause);
+    }
+
+    /** Logs a message and an exception at level <code>ERROR</code>. The
+        exception may be <code>null</code>. */
+    public void error(String message, Throwable cause)
+    {
+        log(Level.ERROR, message, cause);
+    }
+
+    /** Logs a message, unless its level is not enabled.
+
+        @param level Level of the record.
+        @param message The message.
+        @param cause Exception to log with the message, or <code>null</code>.
+     */
+    public void log(Level level, String message, Throwable cause)
+    {
+        if (isEnabled(level)) {
+            buffer.publish(new Record(buffer.claim(), level, subsystem, message, cause));
+        }
+    }
+
+    /** Returns the records of this process still held in the ring buffer,
+        oldest first. */
+    public static List<Record> recent()
+    {
+        List<Record> records = new ArrayList<Record>();
+        buffer.read(0, records);
+        return records;
+    }
+
+    /** Writes the records not yet written, and returns once they are. */
+    public static synchronized void flush()
+    {
+        List<Record> records = new ArrayList<Record>();
+        long next = buffer.read(cursor, records);
+        long lost = next - cursor - records.size();
+
+        if (lost > 0) {
+            output.println(new Record(-1, Level.WARN, "log",
+                    lost + " records lost before they could be written", null).toJson());
+        }
+        for (Record record : records) {
+            output.println(record.toJson());
+        }
+        output.flush();
+        cursor = next;
+    }
+
+    // Opens the stream to which records are written: the named file,
+    // appended to, or the standard error stream.
+    private static PrintStream open(String file)
+    {
+        if (file != null) {
+            try {
+                return new PrintStream(new BufferedOutputStream(
+                        new FileOutputStream(file, true)), false, "UTF-8");
+            } catch (IOException e) {
+                System.err.println("Unable to open log file " + file + ": " + e);
+            }
+        }
+        return System.err;
+    }
+
+    // Starts a daemon thread that writes new records at the given interval,
+    // and writes the records left when the process exits.
+    private static void startWriting(final long interval)
+    {
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    flush();
+                }
+            }
+        }, "log writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, "log flush"));
+    }
+
+    // Appends a string to a JSON document as a quoted string.
+    private static void quote(StringBuilder json, String value)
+    {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+
+        json.append('"');
+        for (int index = 0; index < value.length(); index++) {
+            char c = value.charAt(index);
+            switch (c) {
+            case '"':
+                json.append("\\\"");
+                break;
+            case '\\':
+                json.append("\\\\");
+                break;
+            case '\n':
+                json.append("\\n");
+                break;
+            case '\r':
+                json.append("\\r");
+                break;
+            case '\t':
+                json.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+        }
+        json.append('"');
+    }
+}
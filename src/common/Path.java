@@ -32,12 +32,34 @@ import java.util.*;
 public class Path implements Iterable<String>, Serializable
 {
     private static final long serialVersionUID = 6641292594239992029L;
-    public ArrayList<String> filePath;
+
+    // Paths are stored as a chain of immutable nodes, each holding its last
+    // component and a reference to its parent. Appending a component shares
+    // the whole parent chain, and parent() returns the stored reference, so
+    // neither copies anything. Components are interned, so that the many
+    // paths naming files in the same directories share their strings.
+    private final Path parent;
+    private final String component;
+    private final int depth;
+    private final int hash;
+
+    // Components read from a serialized path, held only until readResolve
+    // replaces the deserialized object with a properly linked one.
+    private transient ArrayList<String> serialized;
+
+    // The serialized form is the one used by earlier versions of this class:
+    // a single ArrayList of components. This keeps paths exchangeable with
+    // peers running those versions.
+    private static final ObjectStreamField[] serialPersistentFields =
+        {new ObjectStreamField("filePath", ArrayList.class)};
 
     /** Creates a new path which represents the root directory. */
     public Path()
     {
-        filePath = new ArrayList<String>();
+        this.parent = null;
+        this.component = null;
+        this.depth = 0;
+        this.hash = 0;
     }
 
     /** Creates a new path by appending the given component to an existing path.
@@ -55,22 +77,19 @@ public class Path implements Iterable<String>, Serializable
             throw new IllegalArgumentException("Component has '/', ':' or is empty");
         }
 
-        ArrayList<String> getPathComponents = path.getPathComponents();
-        filePath = new ArrayList<String>();
-
-        for (String paths : getPathComponents){
-            filePath.add(paths);
-        }
-
-        this.filePath.add(component);
+        this.parent = path;
+        this.component = component.intern();
+        this.depth = path.depth + 1;
+        this.hash = 31 * path.hash + this.component.hashCode();
     }
 
-    public Path(ArrayList<String> parentFilePath) {
-        this.filePath = (ArrayList<String>) parentFilePath.clone();
-    }
-
-    private ArrayList<String> getPathComponents() {
-        return this.filePath;
+    // Appends an already validated component.
+    private Path(String component, Path path)
+    {
+        this.parent = path;
+        this.component = component.intern();
+        this.depth = path.depth + 1;
+        this.hash = 31 * path.hash + this.component.hashCode();
     }
 
     /** Creates a new path from a path string.
@@ -92,15 +111,76 @@ public class Path implements Iterable<String>, Serializable
                     "                                         a forward slash, or if the path\n" +
                     "                                         contains a colon character.");
         }
-        filePath = new ArrayList<String>();
 
-        // It breaks the whole path in tokens where '/' has been encountered and then add all the tokens.
+        // Link all but the last component, then take the last one as this
+        // path's own component.
+        Path prefix = new Path();
+        String last = null;
         StringTokenizer tokens = new StringTokenizer(path, "/");
         while (tokens.hasMoreTokens()) {
-            filePath.add(tokens.nextToken());
+            if (last != null) {
+                prefix = new Path(last, prefix);
+            }
+            last = tokens.nextToken();
         }
+
+        if (last == null) {
+            this.parent = null;
+            this.component = null;
+            this.depth = 0;
+            this.hash = 0;
+        } else {
+            this.parent = prefix;
+            this.component = last.intern();
+            this.depth = prefix.depth + 1;
+            this.hash = 31 * prefix.hash + this.component.hashCode();
+        }
+    }
+
+    /** Returns the number of components in the path.
+
+        @return The number of components. The root directory has none.
+     */
+    public int depth()
+    {
+        return this.depth;
     }
 
+    /** Returns the ancestor of this path with the given number of components.
+
+        <p>
+        The ancestor is one of the paths this path was built from, so no new
+        path is created.
+
+        @param depth Number of components of the ancestor.
+        @return The ancestor. If <code>depth</code> is the depth of this path,
+                the path itself is returned.
+        @throws IndexOutOfBoundsException If <code>depth</code> is negative or
+                                          greater than the depth of this path.
+     */
+    public Path ancestor(int depth)
+    {
+        if (depth < 0 || depth > this.depth) {
+            throw new IndexOutOfBoundsException("No ancestor at depth " + depth + ".");
+        }
+
+        Path ancestor = this;
+        while (ancestor.depth > depth) {
+            ancestor = ancestor.parent;
+        }
+        return ancestor;
+    }
+
+    // Returns the components of the path in order from the root.
+    private String[] components() {
+        String[] components = new String[this.depth];
+        Path path = this;
+        for (int index = this.depth - 1; index >= 0; index--) {
+            components[index] = path.component;
+            path = path.parent;
+        }
+        return components;
+    }
 
     /** Returns an iterator over the components of the path.
 
@@ -117,20 +197,25 @@ public class Path implements Iterable<String>, Serializable
     }
 
     class PathIterator implements Iterator<String> {
-        Iterator<String> iterator;
+        String[] components;
+        int index;
 
         public PathIterator() {
-            iterator = filePath.iterator();
+            components = components();
+            index = 0;
         }
 
         @Override
         public boolean hasNext() {
-            return this.iterator.hasNext();
+            return this.index < this.components.length;
         }
 
         @Override
         public String next() {
-            return this.iterator.next();
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more components.");
+            }
+            return this.components[this.index++];
         }
 
         @Override
@@ -193,7 +278,7 @@ public class Path implements Iterable<String>, Serializable
      */
     public boolean isRoot()
     {
-        return this.filePath.isEmpty();
+        return this.depth == 0;
     }
 
     /** Returns the path to the parent of this path.
@@ -206,10 +291,7 @@ public class Path implements Iterable<String>, Serializable
         if (this.isRoot()){
             throw new IllegalArgumentException("Path represents the root directory and has no parents.");
         }
-        ArrayList<String> parentFilePath = new ArrayList<String>();
-        parentFilePath.addAll(filePath);
-        parentFilePath.remove(this.filePath.size()-1);
-        return new Path(parentFilePath);
+        return this.parent;
     }
 
     /** Returns the last component in the path.
@@ -223,7 +305,7 @@ public class Path implements Iterable<String>, Serializable
         if (this.isRoot()){
             throw new IllegalArgumentException("Path represent the root, and have no Last component.");
         }else {
-            return this.filePath.get(this.filePath.size()-1);
+            return this.component;
         }
     }
 
@@ -239,19 +321,10 @@ public class Path implements Iterable<String>, Serializable
      */
     public boolean isSubpath(Path other)
     {
-        Iterator<String> otherIterator = other.iterator();
-        Iterator<String> thisIterator = this.iterator();
-
-        if (other.getPathComponents().size() > this.filePath.size()){
+        if (other.depth > this.depth){
             return false;
         }
-
-        while (otherIterator.hasNext()){
-            if (!otherIterator.next().equals(thisIterator.next())){
-                return false;
-            }
-        }
-        return true;
+        return ancestor(other.depth).equals(other);
     }
 
     /** Converts the path to <code>File</code> object.
@@ -276,18 +349,28 @@ public class Path implements Iterable<String>, Serializable
     @Override
     public boolean equals(Object other)
     {
-        ArrayList<String> stringArrayList = ((Path)other).getPathComponents();
-
-        if (stringArrayList.size() != this.filePath.size()){
+        if (!(other instanceof Path)) {
             return false;
         }
 
-        Iterator<String> otherIterator = stringArrayList.iterator();
-        Iterator<String> thisIterator = this.filePath.iterator();
-        while (thisIterator.hasNext()){
-            if (!thisIterator.next().equals(otherIterator.next())){
+        Path that = (Path) other;
+        Path path = this;
+
+        // Walk both chains up together, stopping as soon as they meet at a
+        // shared ancestor. Components are interned, so comparing them is
+        // usually a reference comparison.
+        while (path != that) {
+            if (path.depth != that.depth || path.hash != that.hash) {
+                return false;
+            }
+            if (path.isRoot()) {
+                return true;
+            }
+            if (!path.component.equals(that.component)) {
                 return false;
             }
+            path = path.parent;
+            that = that.parent;
         }
         return true;
     }
@@ -296,13 +379,7 @@ public class Path implements Iterable<String>, Serializable
     @Override
     public int hashCode()
     {
-        int hashCode = 0;
-        int multiplier = 31;
-        for (String filepath : filePath){
-            hashCode += multiplier * filepath.hashCode();
-            multiplier *=31;
-        }
-        return hashCode;
+        return this.hash;
     }
 
     /** Converts the path to a string.
@@ -316,15 +393,58 @@ public class Path implements Iterable<String>, Serializable
     @Override
     public String toString()
     {
-        StringBuilder stringbuilder = new StringBuilder();
         if (this.isRoot()){
-            stringbuilder.append("/");
+            return "/";
         }
 
-        for (String filepath : filePath){
+        StringBuilder stringbuilder = new StringBuilder();
+        for (String filepath : components()){
             stringbuilder.append("/");
             stringbuilder.append(filepath);
         }
         return stringbuilder.toString();
     }
+
+    // Writes the path in the serialized form of earlier versions: the list of
+    // components.
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("filePath", new ArrayList<String>(Arrays.asList(components())));
+        out.writeFields();
+    }
+
+    // Reads the list of components. The fields of the path are final, so the
+    // linked path is built by readResolve.
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream.GetField fields = in.readFields();
+        Object filePath = fields.get("filePath", null);
+
+        if (!(filePath instanceof ArrayList)) {
+            throw new InvalidObjectException("Path has no component list.");
+        }
+
+        ArrayList<String> components = new ArrayList<String>();
+        for (Object component : (ArrayList<?>) filePath) {
+            if (!(component instanceof String) || ((String) component).isEmpty()
+                    || ((String) component).contains("/")
+                    || ((String) component).contains(":")) {
+                throw new InvalidObjectException("Invalid path component.");
+            }
+            components.add((String) component);
+        }
+        this.serialized = components;
+    }
+
+    // Replaces the deserialized object with the equivalent linked path.
+    private Object readResolve() throws ObjectStreamException
+    {
+        Path path = new Path();
+        for (String component : this.serialized) {
+            path = new Path(component, path);
+        }
+        return path;
+    }
 }
@@ -0,0 +1,87 @@
+package common;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** Fixed-size ring buffer of sequenced entries, such as log records and
+    trace spans.
+
+    <p>
+    Recording never blocks and never allocates beyond the entry itself. Each
+    entry takes the next sequence number with <code>claim</code>, is created
+    carrying it, and is then stored in its slot with <code>publish</code>.
+    When the buffer is full, the oldest entries are overwritten. Readers keep
+    a cursor, stop at entries whose slot is not yet filled, skip entries
+    overwritten by a later lap, and are told how many entries they missed.
+ */
+public class RingBuffer<T extends RingBuffer.Entry>
+{
+    /** Entry of a ring buffer. */
+    public interface Entry
+    {
+        /** Returns the sequence number claimed for the entry. */
+        long sequence();
+    }
+
+    private final AtomicReferenceArray<T>   slots;
+    /** Number of entries ever claimed. */
+    private final AtomicLong                written = new AtomicLong();
+
+    /** Creates a ring buffer.
+
+        @param capacity Number of entries kept. Capacities below one are
+                        taken as one.
+     */
+    public RingBuffer(int capacity)
+    {
+        slots = new AtomicReferenceArray<T>(Math.max(1, capacity));
+    }
+
+    /** Claims the sequence number of the next entry. */
+    public long claim()
+    {
+        return written.getAndIncrement();
+    }
+
+    /** Stores an entry in the slot of its sequence number. */
+    public void publish(T entry)
+    {
+        slots.set((int) (entry.sequence() % slots.length()), entry);
+    }
+
+    /** Returns the number of entries ever claimed, which is the cursor from
+        which a reader would see only entries recorded from now on. */
+    public long position()
+    {
+        return written.get();
+    }
+
+    /** Copies entries published since the given cursor, in order.
+
+        @param cursor Number of entries already seen by the reader.
+        @param out List receiving the entries.
+        @return The new cursor. If it exceeds <code>cursor</code> by more than
+                the number of entries added to <code>out</code>, the
+                difference were overwritten before they could be read.
+     */
+    public long read(long cursor, List<? super T> out)
+    {
+        long end = written.get();
+        long first = Math.max(cursor, end - slots.length());
+
+        for (long n = first; n < end; n++) {
+            T entry = slots.get((int) (n % slots.length()));
+
+            // An entry claimed but not yet published holds up the reader
+            // until the next read; one already overwritten is missed.
+            if (entry == null || entry.sequence() < n) {
+                return n;
+            }
+            if (entry.sequence() == n) {
+                out.add(entry);
+            }
+        }
+        return end;
+    }
+}
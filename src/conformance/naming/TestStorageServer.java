@@ -155,6 +155,17 @@ class TestStorageServer implements Storage, Command
         throw new UnsupportedOperationException("read method not implemented");
     }
 
+    /** Throws <code>UnsupportedOperationException</code>. */
+    @Override
+    public Blocks readBlocks(Path file, long offset, int length)
+    {
+        test.failure(new TestFailed("unexpected call to readBlocks method " +
+                                    "in storage server"));
+
+        throw new UnsupportedOperationException("readBlocks method not " +
+                                                "implemented");
+    }
+
     /** Throws <code>UnsupportedOperationException</code>. */
     @Override
     public void write(Path file, long offset, byte[] data)
@@ -165,6 +176,61 @@ class TestStorageServer implements Storage, Command
         throw new UnsupportedOperationException("write method not implemented");
     }
 
+    /** Throws <code>UnsupportedOperationException</code>. */
+    @Override
+    public long checksum(Path file, long offset, long length)
+    {
+        test.failure(new TestFailed("unexpected call to checksum method in " +
+                                    "storage server"));
+
+        throw new UnsupportedOperationException("checksum method not " +
+                                                "implemented");
+    }
+
+    /** Throws <code>UnsupportedOperationException</code>. */
+    @Override
+    public long openSession(Path file, boolean write)
+    {
+        test.failure(new TestFailed("unexpected call to openSession method " +
+                                    "in storage server"));
+
+        throw new UnsupportedOperationException("openSession method not " +
+                                                "implemented");
+    }
+
+    /** Throws <code>UnsupportedOperationException</code>. */
+    @Override
+    public Blocks readSession(long session, long offset, int length)
+    {
+        test.failure(new TestFailed("unexpected call to readSession method " +
+                                    "in storage server"));
+
+        throw new UnsupportedOperationException("readSession method not " +
+                                                "implemented");
+    }
+
+    /** Throws <code>UnsupportedOperationException</code>. */
+    @Override
+    public void writeSession(long session, long offset, byte[] data)
+    {
+        test.failure(new TestFailed("unexpected call to writeSession method " +
+                                    "in storage server"));
+
+        throw new UnsupportedOperationException("writeSession method not " +
+                                                "implemented");
+    }
+
+    /** Throws <code>UnsupportedOperationException</code>. */
+    @Override
+    public void closeSession(long session)
+    {
+        test.failure(new TestFailed("unexpected call to closeSession method " +
+                                    "in storage server"));
+
+        throw new UnsupportedOperationException("closeSession method not " +
+                                                "implemented");
+    }
+
     /** Throws <code>UnsupportedOperationException</code>. */
     @Override
     public boolean create(Path file)
@@ -175,6 +241,17 @@ class TestStorageServer implements Storage, Command
         throw new UnsupportedOperationException("create method not implemented");
     }
 
+    /** Throws <code>UnsupportedOperationException</code>. */
+    @Override
+    public boolean rename(Path from, Path to)
+    {
+        test.failure(new TestFailed("unexpected call to rename method in " +
+                                    "storage server"));
+
+        throw new UnsupportedOperationException("rename method not " +
+                                                "implemented");
+    }
+
     /** Throws <code>UnsupportedOperationException</code>. */
     @Override
     public boolean delete(Path file)
@@ -186,6 +263,16 @@ class TestStorageServer implements Storage, Command
                                                 "implemented");
     }
 
+    /** Throws <code>UnsupportedOperationException</code>. */
+    @Override
+    public long copy(Path file, Storage source, long bandwidth)
+    {
+        test.failure(new TestFailed("unexpected call to copy method in " +
+                                    "storage server"));
+
+        throw new UnsupportedOperationException("copy method not implemented");
+    }
+
     /** Client interface skeleton.
 
         <p>
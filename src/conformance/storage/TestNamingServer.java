@@ -133,6 +133,48 @@ class TestNamingServer implements naming.Registration
             return new Path[0];
     }
 
+    // Detailed documentation in Registration.java. The test server does not
+    // monitor storage servers, so heartbeats are ignored.
+    @Override
+    public void heartbeat(Command command_stub, long used, long capacity)
+        throws RMIException
+    {
+    }
+
+    // The storage server tests do not corrupt files, so reports are ignored.
+    @Override
+    public void reportCorruption(Command command_stub, Path file)
+        throws RMIException
+    {
+    }
+
+    // The storage server tests do not list attributes, so reports are
+    // ignored.
+    @Override
+    public void reportAttributes(Command command_stub, Path[] files,
+                                 long[] sizes, long[] modified)
+        throws RMIException
+    {
+    }
+
+    // The test server hosts no files of its own, so a storage server that
+    // drains from it is drained at once.
+    @Override
+    public void drain(Command command_stub) throws RMIException
+    {
+    }
+
+    @Override
+    public boolean isDrained(Command command_stub) throws RMIException
+    {
+        return true;
+    }
+
+    @Override
+    public void deregister(Command command_stub) throws RMIException
+    {
+    }
+
     /** Retrieves a registration stub for the test server.
 
         @return The stub.
@@ -0,0 +1,86 @@
+package naming;
+
+import java.io.Serializable;
+
+/** Attributes of a directory entry, as kept by the naming server.
+
+    <p>
+    Returned with each entry by <code>Service.listAttributes</code>, so that a
+    directory can be shown in detail without a further call per entry. The
+    size and modification time of a file are those last reported by its
+    storage servers after a write, and may briefly lag behind the file itself.
+ */
+public class Attributes implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final boolean directory;
+    private final long size;
+    private final long modified;
+    private final int replicas;
+    private final int primary;
+
+    /** Creates the attributes of an entry.
+
+        @param name Name of the entry.
+        @param directory <code>true</code> if the entry is a directory.
+        @param size Size of the file in bytes, or zero for a directory.
+        @param modified Time of the last write to the file, in milliseconds,
+                        or zero if it is not known or the entry is a
+                        directory.
+        @param replicas Number of storage servers hosting the file, or zero
+                        for a directory.
+        @param primary Identifier of the primary storage server of the file,
+                       or -1 for a directory.
+     */
+    public Attributes(String name, boolean directory, long size, long modified,
+                      int replicas, int primary)
+    {
+        this.name = name;
+        this.directory = directory;
+        this.size = size;
+        this.modified = modified;
+        this.replicas = replicas;
+        this.primary = primary;
+    }
+
+    /** Returns the name of the entry. */
+    public String name()
+    {
+        return name;
+    }
+
+    /** Returns <code>true</code> if the entry is a directory. */
+    public boolean isDirectory()
+    {
+        return directory;
+    }
+
+    /** Returns the size of the file in bytes, or zero for a directory. */
+    public long size()
+    {
+        return size;
+    }
+
+    /** Returns the time of the last write to the file, in milliseconds, or
+        zero if it is not known or the entry is a directory. */
+    public long modified()
+    {
+        return modified;
+    }
+
+    /** Returns the number of storage servers hosting the file, or zero for a
+        directory. */
+    public int replicas()
+    {
+        return replicas;
+    }
+
+    /** Returns the identifier of the primary storage server of the file, or
+        -1 for a directory. */
+    public int primary()
+    {
+        return primary;
+    }
+}
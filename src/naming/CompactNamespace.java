@@ -0,0 +1,867 @@
+package naming;
+
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import common.Path;
+
+/** Namespace kept in primitive arrays, with names stored off-heap.
+
+    <p>
+    Each directory and file is an <em>inode</em>: an index into parallel
+    arrays holding its parent, the handle of its name in a
+    <code>NameTable</code>, and its primary storage server identifier, or
+    <code>DIRECTORY</code>. Each directory also has an array of the inodes of
+    its entries, sorted by name and searched by binary search. The first
+    element of this array is the number of entries. The same slot holds, for a
+    file with replicas, the count and identifiers of its other storage
+    servers, and is empty for a file with a single location. Two further
+    arrays hold the size and modification time of each file. An inode
+    therefore costs a
+    fixed number of bytes of heap memory, no matter how long its name is, and
+    the garbage collector sees a handful of large arrays rather than one
+    object per entry.
+
+    <p>
+    Each directory also keeps the number of objects beneath it, and the
+    number of files beneath it hosted by each storage server. Every change
+    adjusts these counts in the directory holding it and its ancestors, so
+    the counts of the root are those of the whole namespace, and the storage
+    servers of a subtree are known without walking it.
+
+    <p>
+    Trashed inodes are re-parented to a hidden directory inode, not reachable
+    from the root, which keeps no array of entries: the trash index holds the
+    inode of each entry. Trashing or restoring an entry detaches or attaches
+    its inode, and subtracts or adds its counts along its ancestors, so it
+    takes time in proportion to the depth of the entry and the number of
+    storage servers, however large the entry is.
+
+    <p>
+    The inodes of deleted and purged entries are reused. They are released a
+    batch at a time as new inodes are needed, so that deleting or purging a
+    large directory does not hold the namespace for a walk of all of it. When
+    more than half of the name table is taken up by deleted names, live names
+    are copied into a new table.
+ */
+class CompactNamespace implements Namespace
+{
+    /** Inode of the root directory. */
+    private static final int ROOT = 0;
+    /** Inode of the hidden trash directory. */
+    private static final int TRASH = 1;
+    /** Storage value of unused inodes. */
+    private static final int FREE = -2;
+    /** Largest number of inodes released at a time. */
+    private static final int RELEASE_BATCH = 64;
+    /** Number of inodes allocated initially. */
+    private static final int INITIAL_CAPACITY = 1024;
+    /** Smallest amount of deleted name data that triggers compaction. */
+    private static final long COMPACTION_THRESHOLD = 1 << 20;
+
+    // Parent of each inode. For unused inodes, the next unused inode.
+    private int[] parents;
+    // Handle of the name of each inode.
+    private long[] names;
+    // Primary storage server of each file, DIRECTORY, or FREE.
+    private int[] storage;
+    // Entries of each directory: the count, then the inodes in name order.
+    // For files, null or the count and identifiers of the other locations.
+    private int[][] children;
+    // Size and modification time of each file, as last reported.
+    private long[] sizes;
+    private long[] times;
+    // Number of objects beneath each directory, and number of files beneath
+    // it hosted by each storage server. Null for files.
+    private long[] objects;
+    private long[][] hosted;
+
+    private NameTable nameTable;
+    private final Trash<Integer> trash = new Trash<Integer>();
+    private int count;
+    private int free;
+    // Deleted and purged inodes not yet released. The inodes beneath them
+    // are released with them.
+    private int[] released = new int[16];
+    private int releasedCount;
+
+    /** Creates a namespace containing only the root directory. */
+    CompactNamespace()
+    {
+        parents = new int[INITIAL_CAPACITY];
+        names = new long[INITIAL_CAPACITY];
+        storage = new int[INITIAL_CAPACITY];
+        children = new int[INITIAL_CAPACITY][];
+        sizes = new long[INITIAL_CAPACITY];
+        times = new long[INITIAL_CAPACITY];
+        objects = new long[INITIAL_CAPACITY];
+        hosted = new long[INITIAL_CAPACITY][];
+        nameTable = new NameTable();
+
+        parents[ROOT] = -1;
+        names[ROOT] = -1;
+        storage[ROOT] = DIRECTORY;
+        children[ROOT] = new int[1];
+        hosted[ROOT] = new long[0];
+        parents[TRASH] = -1;
+        names[TRASH] = -1;
+        storage[TRASH] = DIRECTORY;
+        count = 2;
+        free = -1;
+    }
+
+    @Override
+    public synchronized int lookup(Path path) throws FileNotFoundException
+    {
+        int inode = find(path);
+
+        if (inode < 0) {
+            throw new FileNotFoundException("Path is Alone, it represents no file.....!!!!");
+        }
+        return storage[inode];
+    }
+
+    @Override
+    public synchronized int[] locations(Path file) throws FileNotFoundException
+    {
+        int inode = file(file);
+        int[] replicas = children[inode];
+
+        if (replicas == null) {
+            return new int[] {storage[inode]};
+        }
+
+        int[] locations = new int[replicas[0] + 1];
+        locations[0] = storage[inode];
+        System.arraycopy(replicas, 1, locations, 1, replicas[0]);
+        return locations;
+    }
+
+    @Override
+    public synchronized boolean addLocation(Path file, int storage)
+        throws FileNotFoundException
+    {
+        int inode = file(file);
+        int[] replicas = children[inode];
+
+        if (this.storage[inode] == storage || indexOf(replicas, storage) > 0) {
+            return false;
+        }
+
+        if (replicas == null) {
+            replicas = new int[2];
+        } else if (replicas[0] + 1 == replicas.length) {
+            replicas = Arrays.copyOf(replicas, replicas.length + 1);
+        }
+        replicas[++replicas[0]] = storage;
+        children[inode] = replicas;
+        host(parents[inode], storage, 1);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean moveLocation(Path file, int from, int to)
+        throws FileNotFoundException
+    {
+        int inode = file(file);
+        int[] replicas = children[inode];
+
+        if (this.storage[inode] == to || indexOf(replicas, to) > 0) {
+            return false;
+        }
+
+        if (this.storage[inode] == from) {
+            this.storage[inode] = to;
+        } else {
+            int index = indexOf(replicas, from);
+            if (index < 0) {
+                return false;
+            }
+            replicas[index] = to;
+        }
+        host(parents[inode], from, -1);
+        host(parents[inode], to, 1);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeLocation(Path file, int storage)
+        throws FileNotFoundException
+    {
+        int inode = file(file);
+        int[] replicas = children[inode];
+
+        if (replicas == null) {
+            return false;
+        }
+
+        // Removing the primary promotes the first replica.
+        int index = this.storage[inode] == storage ? 1 : indexOf(replicas, storage);
+        if (index < 0) {
+            return false;
+        }
+
+        if (index == 1 && this.storage[inode] == storage) {
+            this.storage[inode] = replicas[1];
+        }
+        System.arraycopy(replicas, index + 1, replicas, index, replicas[0] - index);
+        if (--replicas[0] == 0) {
+            children[inode] = null;
+        }
+        host(parents[inode], storage, -1);
+        return true;
+    }
+
+    @Override
+    public synchronized String[] list(Path directory) throws FileNotFoundException
+    {
+        int[] entries = children[directory(directory)];
+        String[] list = new String[entries[0]];
+
+        for (int index = 0; index < list.length; index++) {
+            list[index] = nameTable.get(names[entries[index + 1]]);
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized String[] list(Path directory, String after, int limit)
+        throws FileNotFoundException
+    {
+        int inode = directory(directory);
+        int[] entries = children[inode];
+        int start = start(inode, after);
+        String[] list = new String[length(inode, start, limit)];
+
+        for (int index = 0; index < list.length; index++) {
+            list[index] = nameTable.get(names[entries[start + index]]);
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized Attributes[] attributes(Path directory, String after, int limit)
+        throws FileNotFoundException
+    {
+        int inode = directory(directory);
+        int[] entries = children[inode];
+        int start = start(inode, after);
+        Attributes[] attributes = new Attributes[length(inode, start, limit)];
+
+        for (int index = 0; index < attributes.length; index++) {
+            attributes[index] = attributes(entries[start + index]);
+        }
+        return attributes;
+    }
+
+    @Override
+    public synchronized Attributes attributes(Path path) throws FileNotFoundException
+    {
+        int inode = find(path);
+
+        if (inode < 0) {
+            throw new FileNotFoundException("Path is Alone, it represents no file.....!!!!");
+        }
+        return attributes(inode);
+    }
+
+    @Override
+    public synchronized boolean setAttributes(Path file, int storage, long size, long modified)
+    {
+        int inode = find(file);
+
+        if (inode < 0 || this.storage[inode] == DIRECTORY) {
+            return false;
+        }
+        if (this.storage[inode] != storage && indexOf(children[inode], storage) < 0) {
+            return false;
+        }
+
+        sizes[inode] = size;
+        if (modified >= 0) {
+            times[inode] = modified;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized Path[] files(int storage)
+    {
+        return files(storage, null, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized Path[] files(int storage, Path after, int limit)
+    {
+        ArrayList<Path> files = new ArrayList<Path>();
+        collectFiles(ROOT, new Path(), storage, after, limit, files);
+        return files.toArray(new Path[0]);
+    }
+
+    @Override
+    public synchronized boolean createFile(Path file, int storage)
+        throws FileNotFoundException
+    {
+        return add(directory(file.parent()), NameTable.encode(file.last()), storage);
+    }
+
+    @Override
+    public synchronized boolean createDirectory(Path directory)
+        throws FileNotFoundException
+    {
+        return add(directory(directory.parent()), NameTable.encode(directory.last()),
+                   DIRECTORY);
+    }
+
+    @Override
+    public synchronized boolean register(Path file, int storage)
+    {
+        int directory = ROOT;
+        int depth = 0;
+
+        for (String component : file) {
+            byte[] name = NameTable.encode(component);
+
+            if (++depth == file.depth()) {
+                return add(directory, name, storage);
+            }
+
+            int position = search(directory, name);
+            if (position > 0) {
+                directory = children[directory][position];
+                if (this.storage[directory] != DIRECTORY) {
+                    return false;
+                }
+            } else {
+                directory = insert(directory, -position - 1, name, DIRECTORY);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized int[] delete(Path path) throws FileNotFoundException
+    {
+        int inode = find(path);
+
+        if (inode < 0) {
+            throw new FileNotFoundException("Path is Alone, it represents no file.....!!!!");
+        }
+
+        int[] ids = ids(inode);
+        int parent = parents[inode];
+        detach(inode);
+        propagate(parent, inode, -1);
+        discard(inode);
+
+        compactIfNeeded();
+        return ids;
+    }
+
+    @Override
+    public synchronized int[] rename(Path from, Path to) throws FileNotFoundException
+    {
+        int inode = find(from);
+
+        if (inode < 0) {
+            throw new FileNotFoundException("Path is Alone, it represents no file.....!!!!");
+        }
+
+        int target = directory(to.parent());
+        byte[] name = NameTable.encode(to.last());
+        if (search(target, name) > 0) {
+            return null;
+        }
+
+        int parent = parents[inode];
+        detach(inode);
+        propagate(parent, inode, -1);
+        if (!from.last().equals(to.last())) {
+            nameTable.free(names[inode]);
+            names[inode] = nameTable.add(name);
+        }
+        attach(target, -search(target, name) - 1, inode);
+        propagate(target, inode, 1);
+
+        compactIfNeeded();
+        return ids(inode);
+    }
+
+    @Override
+    public synchronized long trash(Path path, long time) throws FileNotFoundException
+    {
+        int inode = find(path);
+
+        if (inode < 0) {
+            throw new FileNotFoundException("Path is Alone, it represents no file.....!!!!");
+        }
+
+        int parent = parents[inode];
+        detach(inode);
+        propagate(parent, inode, -1);
+        parents[inode] = TRASH;
+        return trash.add(path, time, inode).id;
+    }
+
+    @Override
+    public synchronized boolean restore(Path path) throws FileNotFoundException
+    {
+        int parent = directory(path.parent());
+        Trash.Entry<Integer> entry = trash.latest(path);
+
+        if (entry == null) {
+            return false;
+        }
+
+        int inode = entry.node;
+        int position = search(parent, nameTable.bytes(names[inode]));
+        if (position > 0) {
+            return false;
+        }
+
+        trash.remove(entry.id);
+        attach(parent, -position - 1, inode);
+        propagate(parent, inode, 1);
+        return true;
+    }
+
+    @Override
+    public synchronized long[] trashed(Path path)
+    {
+        return trash.overlapping(path);
+    }
+
+    @Override
+    public synchronized long[] expired(long time, int limit)
+    {
+        return trash.expired(time, limit);
+    }
+
+    @Override
+    public synchronized Path trashPath(long entry)
+    {
+        Trash.Entry<Integer> found = trash.get(entry);
+        return found == null ? null : found.path;
+    }
+
+    @Override
+    public synchronized int[] purge(long entry)
+    {
+        Trash.Entry<Integer> removed = trash.remove(entry);
+
+        if (removed == null) {
+            return null;
+        }
+
+        // The counts of the ancestors were updated when the entry was
+        // trashed, and those of the entry are kept with it.
+        int[] ids = ids(removed.node);
+        discard(removed.node);
+
+        compactIfNeeded();
+        return ids;
+    }
+
+    @Override
+    public synchronized long count(int storage)
+    {
+        return hosted(ROOT, storage);
+    }
+
+    @Override
+    public synchronized long size()
+    {
+        return objects[ROOT];
+    }
+
+    /** Returns the number of bytes of off-heap memory used for names. */
+    synchronized long offHeapBytes()
+    {
+        return nameTable.allocated();
+    }
+
+    // Returns the inode at the given path, or -1 if there is none.
+    private int find(Path path)
+    {
+        int inode = ROOT;
+
+        for (String component : path) {
+            if (storage[inode] != DIRECTORY) {
+                return -1;
+            }
+
+            int position = search(inode, NameTable.encode(component));
+            if (position < 0) {
+                return -1;
+            }
+            inode = children[inode][position];
+        }
+        return inode;
+    }
+
+    // Returns the attributes of an inode.
+    private Attributes attributes(int inode)
+    {
+        String name = inode == ROOT ? "/" : nameTable.get(names[inode]);
+
+        if (storage[inode] == DIRECTORY) {
+            return new Attributes(name, true, 0, 0, 0, DIRECTORY);
+        }
+
+        int replicas = children[inode] == null ? 0 : children[inode][0];
+        return new Attributes(name, false, sizes[inode], times[inode], replicas + 1,
+                storage[inode]);
+    }
+
+    // Adds the paths of files beneath a directory hosted by a storage server
+    // to a list, in path order, until the list holds the given number. If
+    // the path after which to start is beneath the directory, the walk
+    // starts there.
+    private void collectFiles(int directory, Path path, int storage, Path after, int limit,
+                              ArrayList<Path> files)
+    {
+        int start = 1;
+        if (after != null && after.depth() > path.depth()) {
+            String name = after.ancestor(path.depth() + 1).last();
+            int position = search(directory, NameTable.encode(name));
+
+            if (position > 0) {
+                int inode = children[directory][position];
+                if (this.storage[inode] == DIRECTORY && hosted(inode, storage) > 0) {
+                    collectFiles(inode, new Path(path, name), storage, after, limit, files);
+                }
+                start = position + 1;
+            } else {
+                start = -position - 1;
+            }
+        }
+
+        for (int index = start; index <= children[directory][0] && files.size() < limit;
+                index++) {
+            int inode = children[directory][index];
+
+            // Directories holding no file of the storage server are skipped
+            // whole.
+            if (this.storage[inode] == DIRECTORY) {
+                if (hosted(inode, storage) > 0) {
+                    collectFiles(inode, new Path(path, nameTable.get(names[inode])), storage,
+                                 null, limit, files);
+                }
+            } else if (this.storage[inode] == storage
+                    || indexOf(children[inode], storage) > 0) {
+                files.add(new Path(path, nameTable.get(names[inode])));
+            }
+        }
+    }
+
+    // Returns the inode of the directory at the given path.
+    private int directory(Path path) throws FileNotFoundException
+    {
+        int inode = find(path);
+
+        if (inode < 0 || storage[inode] != DIRECTORY) {
+            throw new FileNotFoundException("Given Path does not refer to a directory!");
+        }
+        return inode;
+    }
+
+    // Returns the inode of the file at the given path.
+    private int file(Path path) throws FileNotFoundException
+    {
+        int inode = find(path);
+
+        if (inode < 0 || storage[inode] == DIRECTORY) {
+            throw new FileNotFoundException("Path does not refer to a file!");
+        }
+        return inode;
+    }
+
+    // Returns the position of a storage server among the replicas of a file,
+    // or -1 if it is not one of them.
+    private static int indexOf(int[] replicas, int storage)
+    {
+        for (int index = 1; replicas != null && index <= replicas[0]; index++) {
+            if (replicas[index] == storage) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the position of the first entry of a directory listed after
+    // the given name, or of the first entry if the name is null.
+    private int start(int directory, String after)
+    {
+        if (after == null) {
+            return 1;
+        }
+
+        int position = search(directory, after.getBytes(StandardCharsets.UTF_8));
+        return position > 0 ? position + 1 : -position - 1;
+    }
+
+    // Returns the number of entries of a directory listed from a position,
+    // given the largest number requested.
+    private int length(int directory, int start, int limit)
+    {
+        return (int) Math.max(0, Math.min(children[directory][0] + 1, (long) start + limit) - start);
+    }
+
+    // Searches a directory for an entry. Returns the position of the entry in
+    // the directory's array of entries if it is found. Otherwise, returns
+    // -(p + 1), where p is the position at which the entry would be inserted.
+    private int search(int directory, byte[] name)
+    {
+        int[] entries = children[directory];
+        int low = 1;
+        int high = entries[0];
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = nameTable.compare(names[entries[middle]], name);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    // Adds an entry to a directory, unless an entry of the same name exists.
+    private boolean add(int directory, byte[] name, int storage)
+    {
+        int position = search(directory, name);
+
+        if (position > 0) {
+            return false;
+        }
+
+        insert(directory, -position - 1, name, storage);
+        return true;
+    }
+
+    // Creates an inode and inserts it in a directory at the given position.
+    private int insert(int directory, int position, byte[] name, int storage)
+    {
+        int inode = allocate();
+        parents[inode] = directory;
+        names[inode] = nameTable.add(name);
+        this.storage[inode] = storage;
+        children[inode] = storage == DIRECTORY ? new int[1] : null;
+        sizes[inode] = 0;
+        times[inode] = 0;
+        objects[inode] = 0;
+        hosted[inode] = storage == DIRECTORY ? new long[0] : null;
+        attach(directory, position, inode);
+        propagate(directory, inode, 1);
+        return inode;
+    }
+
+    // Inserts an inode in a directory's array of entries at the given
+    // position.
+    private void attach(int directory, int position, int inode)
+    {
+        int[] entries = children[directory];
+        if (entries[0] + 1 == entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(4, entries.length * 2));
+            children[directory] = entries;
+        }
+        System.arraycopy(entries, position, entries, position + 1, entries[0] + 1 - position);
+        entries[position] = inode;
+        entries[0]++;
+        parents[inode] = directory;
+    }
+
+    // Detaches an inode from its parent directory.
+    private void detach(int inode)
+    {
+        int parent = parents[inode];
+        int[] entries = children[parent];
+        int position = search(parent, nameTable.bytes(names[inode]));
+        System.arraycopy(entries, position + 1, entries, position, entries[0] - position);
+        entries[0]--;
+    }
+
+    // Adds the counts of an entry, times the given sign, to a directory and
+    // its ancestors: one object for the entry and one for each object beneath
+    // it, and its files hosted by each storage server.
+    private void propagate(int directory, int inode, int sign)
+    {
+        long delta = sign * (storage[inode] == DIRECTORY ? objects[inode] + 1 : 1);
+        for (int current = directory; current >= 0; current = parents[current]) {
+            objects[current] += delta;
+        }
+
+        if (storage[inode] != DIRECTORY) {
+            int[] replicas = children[inode];
+            host(directory, storage[inode], sign);
+            for (int index = 1; replicas != null && index <= replicas[0]; index++) {
+                host(directory, replicas[index], sign);
+            }
+            return;
+        }
+
+        long[] counts = hosted[inode];
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] != 0) {
+                host(directory, id, sign * counts[id]);
+            }
+        }
+    }
+
+    // Adds a delta to the number of files hosted by a storage server beneath
+    // a directory and each of its ancestors.
+    private void host(int directory, int storage, long delta)
+    {
+        for (int current = directory; current >= 0; current = parents[current]) {
+            if (storage >= hosted[current].length) {
+                hosted[current] = Arrays.copyOf(hosted[current], storage + 1);
+            }
+            hosted[current][storage] += delta;
+        }
+    }
+
+    // Returns the number of files beneath a directory hosted by a storage
+    // server.
+    private long hosted(int directory, int storage)
+    {
+        long[] counts = hosted[directory];
+        return storage < counts.length ? counts[storage] : 0;
+    }
+
+    // Returns the identifiers of the storage servers hosting a file, or files
+    // beneath a directory, in increasing order.
+    private int[] ids(int inode)
+    {
+        BitSet storageSet = new BitSet();
+
+        if (storage[inode] == DIRECTORY) {
+            long[] counts = hosted[inode];
+            for (int id = 0; id < counts.length; id++) {
+                if (counts[id] > 0) {
+                    storageSet.set(id);
+                }
+            }
+        } else {
+            int[] replicas = children[inode];
+            storageSet.set(storage[inode]);
+            for (int index = 1; replicas != null && index <= replicas[0]; index++) {
+                storageSet.set(replicas[index]);
+            }
+        }
+        return ids(storageSet);
+    }
+
+    // Returns the members of a set of storage server identifiers, in
+    // increasing order.
+    private static int[] ids(BitSet storageSet)
+    {
+        int[] result = new int[storageSet.cardinality()];
+        int index = 0;
+        for (int id = storageSet.nextSetBit(0); id >= 0; id = storageSet.nextSetBit(id + 1)) {
+            result[index++] = id;
+        }
+        return result;
+    }
+
+    // Returns an unused inode, releasing a batch of discarded inodes or
+    // growing the arrays if there is none.
+    private int allocate()
+    {
+        if (free < 0) {
+            reclaim();
+        }
+
+        if (free >= 0) {
+            int inode = free;
+            free = parents[inode];
+            return inode;
+        }
+
+        if (count == parents.length) {
+            int capacity = count + (count >> 1);
+            parents = Arrays.copyOf(parents, capacity);
+            names = Arrays.copyOf(names, capacity);
+            storage = Arrays.copyOf(storage, capacity);
+            children = Arrays.copyOf(children, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            times = Arrays.copyOf(times, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+            hosted = Arrays.copyOf(hosted, capacity);
+        }
+        return count++;
+    }
+
+    // Returns an inode to the list of unused inodes.
+    private void release(int inode)
+    {
+        nameTable.free(names[inode]);
+        storage[inode] = FREE;
+        children[inode] = null;
+        hosted[inode] = null;
+        parents[inode] = free;
+        free = inode;
+    }
+
+    // Queues a detached inode, and the inodes beneath it, to be released,
+    // and releases a first batch.
+    private void discard(int inode)
+    {
+        if (releasedCount == released.length) {
+            released = Arrays.copyOf(released, released.length * 2);
+        }
+        released[releasedCount++] = inode;
+        reclaim();
+    }
+
+    // Releases a batch of the inodes queued by discard. The entries of a
+    // directory are queued as it is released.
+    private void reclaim()
+    {
+        for (int batch = 0; batch < RELEASE_BATCH && releasedCount > 0; batch++) {
+            int inode = released[--releasedCount];
+
+            if (storage[inode] == DIRECTORY) {
+                int[] entries = children[inode];
+                if (releasedCount + entries[0] > released.length) {
+                    released = Arrays.copyOf(released,
+                            Math.max(released.length * 2, releasedCount + entries[0]));
+                }
+                System.arraycopy(entries, 1, released, releasedCount, entries[0]);
+                releasedCount += entries[0];
+            }
+            release(inode);
+        }
+    }
+
+    // Compacts the name table when more than half of it is taken up by
+    // deleted names.
+    private void compactIfNeeded()
+    {
+        if (nameTable.garbage() > COMPACTION_THRESHOLD
+                && nameTable.garbage() > nameTable.live()) {
+            compact();
+        }
+    }
+
+    // Copies the names of all inodes not yet released into a new name table.
+    private void compact()
+    {
+        NameTable compacted = new NameTable();
+
+        // The root and the trash have no names.
+        for (int inode = TRASH + 1; inode < count; inode++) {
+            if (storage[inode] != FREE) {
+                names[inode] = compacted.add(nameTable.bytes(names[inode]));
+            }
+        }
+        nameTable = compacted;
+    }
+}
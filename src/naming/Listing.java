@@ -0,0 +1,71 @@
+package naming;
+
+import java.io.Serializable;
+
+/** Page of the contents of a directory.
+
+    <p>
+    Returned by <code>Service.list</code> when a directory is listed a page
+    at a time, and by <code>Service.listAttributes</code> with the attributes
+    of each entry. Entries are in the order of the code points of their names.
+    The listing continues by passing the token of each page to the next call,
+    until a page has no token.
+ */
+public class Listing implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String[] names;
+    private final Attributes[] attributes;
+    private final String token;
+
+    /** Creates the page.
+
+        @param names Names of the entries on the page.
+        @param token Token from which the next page starts, or
+                     <code>null</code> if this is the last page.
+     */
+    public Listing(String[] names, String token)
+    {
+        this.names = names;
+        this.attributes = null;
+        this.token = token;
+    }
+
+    /** Creates a page with the attributes of its entries.
+
+        @param attributes Attributes of the entries on the page.
+        @param token Token from which the next page starts, or
+                     <code>null</code> if this is the last page.
+     */
+    public Listing(Attributes[] attributes, String token)
+    {
+        this.names = new String[attributes.length];
+        this.attributes = attributes;
+        this.token = token;
+
+        for (int index = 0; index < names.length; index++) {
+            names[index] = attributes[index].name();
+        }
+    }
+
+    /** Returns the names of the entries on the page. */
+    public String[] names()
+    {
+        return names;
+    }
+
+    /** Returns the attributes of the entries on the page, in the order of
+        their names, or <code>null</code> if they were not requested. */
+    public Attributes[] attributes()
+    {
+        return attributes;
+    }
+
+    /** Returns the token from which the next page starts, or
+        <code>null</code> if this is the last page. */
+    public String token()
+    {
+        return token;
+    }
+}
@@ -0,0 +1,147 @@
+package naming;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/** Off-heap storage for directory entry names.
+
+    <p>
+    Names are stored in UTF-8, each preceded by its two-byte length, in direct
+    byte buffers allocated outside the Java heap. A name is referred to by a
+    handle giving the index of its buffer in the upper half and its offset
+    within the buffer in the lower half. Buffers start small and double in size
+    up to a fixed maximum, so that small namespaces do not reserve large
+    amounts of memory.
+
+    <p>
+    The table is append-only: freeing a name only accounts for the space it
+    occupied. The owner of the table is expected to copy live names into a new
+    table when the amount of freed space becomes large. Comparing names in
+    UTF-8 byte order gives the same order as comparing their code points.
+
+    <p>
+    This class is not synchronized.
+ */
+class NameTable
+{
+    /** Character set of stored names. */
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    /** Size of the first buffer. */
+    private static final int FIRST_BUFFER = 1 << 16;
+    /** Size of the largest buffer. */
+    private static final int LARGEST_BUFFER = 1 << 26;
+    /** Longest name that can be stored, in bytes. */
+    static final int MAXIMUM_LENGTH = 0xffff;
+
+    private final ArrayList<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    private long allocated;
+    private long used;
+    private long freed;
+
+    /** Encodes a name for storage or comparison.
+
+        @param name The name.
+        @return The UTF-8 encoding of the name.
+        @throws IllegalArgumentException If the encoded name is longer than
+                                         <code>MAXIMUM_LENGTH</code>.
+     */
+    static byte[] encode(String name)
+    {
+        byte[] bytes = name.getBytes(UTF8);
+        if (bytes.length > MAXIMUM_LENGTH) {
+            throw new IllegalArgumentException("Name is too long: " + name);
+        }
+        return bytes;
+    }
+
+    /** Stores a name.
+
+        @param name The encoded name.
+        @return The handle of the stored name.
+     */
+    long add(byte[] name)
+    {
+        int length = name.length + 2;
+        ByteBuffer buffer = buffers.isEmpty() ? null : buffers.get(buffers.size() - 1);
+
+        if (buffer == null || buffer.capacity() - buffer.position() < length) {
+            int capacity = buffer == null ? FIRST_BUFFER
+                                          : Math.min(buffer.capacity() * 2, LARGEST_BUFFER);
+            buffer = ByteBuffer.allocateDirect(Math.max(capacity, length));
+            buffers.add(buffer);
+            allocated += buffer.capacity();
+        }
+
+        long handle = ((long) (buffers.size() - 1) << 32) | buffer.position();
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+        used += length;
+        return handle;
+    }
+
+    /** Returns a stored name. */
+    String get(long handle)
+    {
+        return new String(bytes(handle), UTF8);
+    }
+
+    /** Returns the encoded form of a stored name. */
+    byte[] bytes(long handle)
+    {
+        ByteBuffer buffer = buffers.get((int) (handle >>> 32));
+        int offset = (int) handle;
+        byte[] bytes = new byte[buffer.getShort(offset) & 0xffff];
+
+        for (int index = 0; index < bytes.length; index++) {
+            bytes[index] = buffer.get(offset + 2 + index);
+        }
+        return bytes;
+    }
+
+    /** Compares a stored name with an encoded name.
+
+        @return A negative number, zero, or a positive number if the stored name
+                orders before, the same as, or after the given name.
+     */
+    int compare(long handle, byte[] name)
+    {
+        ByteBuffer buffer = buffers.get((int) (handle >>> 32));
+        int offset = (int) handle;
+        int length = buffer.getShort(offset) & 0xffff;
+        int common = Math.min(length, name.length);
+
+        for (int index = 0; index < common; index++) {
+            int difference = (buffer.get(offset + 2 + index) & 0xff) - (name[index] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - name.length;
+    }
+
+    /** Accounts for the space of a name that is no longer used. */
+    void free(long handle)
+    {
+        ByteBuffer buffer = buffers.get((int) (handle >>> 32));
+        freed += (buffer.getShort((int) handle) & 0xffff) + 2;
+    }
+
+    /** Returns the number of bytes held by live names. */
+    long live()
+    {
+        return used - freed;
+    }
+
+    /** Returns the number of bytes held by freed names. */
+    long garbage()
+    {
+        return freed;
+    }
+
+    /** Returns the number of bytes of off-heap memory allocated. */
+    long allocated()
+    {
+        return allocated;
+    }
+}
@@ -0,0 +1,334 @@
+package naming;
+
+import java.io.FileNotFoundException;
+
+import common.Path;
+
+/** Directory tree of the naming server.
+
+    <p>
+    A namespace records the directories and files of the filesystem and, for
+    each file, the set of storage servers hosting it. The first storage server
+    in the set is the file's <em>primary</em> location; the others hold
+    replicas. Storage servers are referred to by the small integer identifiers
+    assigned to them by the naming server when they register. The namespace
+    does not communicate with storage servers; the naming server issues the
+    corresponding commands.
+
+    <p>
+    Two implementations are available. <code>TreeNamespace</code> keeps one
+    object per directory and file. <code>CompactNamespace</code> keeps entries
+    in primitive arrays and names off-heap, for naming servers with very large
+    directory trees. The implementation is selected with the
+    <code>naming.namespace</code> system property, which may be
+    <code>tree</code> (the default) or <code>compact</code>.
+
+    <p>
+    Deleted objects may be moved to a <em>trash</em> rather than removed. The
+    object is detached from its parent directory, with everything beneath it,
+    and is no longer found by any path, listed, or counted among the files of
+    its storage servers; but the namespace keeps it, so that it can be
+    restored to the path it was deleted from. Each trashed object is an entry
+    of the trash, with its own identifier, until it is restored or purged.
+
+    <p>
+    Each file also has a size and a modification time, as last reported by
+    its storage servers. Both are zero until a report arrives, and follow the
+    file when it is renamed, trashed or restored.
+
+    <p>
+    Implementations are safe for use by multiple threads.
+ */
+interface Namespace
+{
+    /** Value returned by <code>lookup</code> for directories. */
+    int DIRECTORY = -1;
+
+    /** Looks up an object in the namespace.
+
+        @param path The path to the object.
+        @return <code>DIRECTORY</code> if the object is a directory, or the
+                identifier of its primary storage server if it is a file.
+        @throws FileNotFoundException If the object does not exist.
+     */
+    int lookup(Path path) throws FileNotFoundException;
+
+    /** Returns the storage servers hosting a file.
+
+        @param file The path to the file.
+        @return The identifiers of the storage servers, primary first.
+        @throws FileNotFoundException If the path does not refer to a file.
+     */
+    int[] locations(Path file) throws FileNotFoundException;
+
+    /** Adds a storage server to the locations of a file.
+
+        @param file The path to the file.
+        @param storage Identifier of the storage server.
+        @return <code>true</code> if the storage server was added,
+                <code>false</code> if it was already a location of the file.
+        @throws FileNotFoundException If the path does not refer to a file.
+     */
+    boolean addLocation(Path file, int storage) throws FileNotFoundException;
+
+    /** Removes a storage server from the locations of a file.
+
+        <p>
+        If the primary location is removed, the next location becomes the
+        primary. The last location of a file cannot be removed; the file must
+        be deleted instead.
+
+        @param file The path to the file.
+        @param storage Identifier of the storage server.
+        @return <code>true</code> if the storage server was removed,
+                <code>false</code> if it was not a location of the file, or was
+                its only location.
+        @throws FileNotFoundException If the path does not refer to a file.
+     */
+    boolean removeLocation(Path file, int storage) throws FileNotFoundException;
+
+    /** Replaces one location of a file with another storage server.
+
+        <p>
+        The new location takes the place of the old one, so the primary
+        location of the file is moved if the old location was the primary.
+        Readers of the locations see either the old or the new location, never
+        both or neither.
+
+        @param file The path to the file.
+        @param from Identifier of the storage server to remove.
+        @param to Identifier of the storage server to add.
+        @return <code>true</code> if the location was replaced,
+                <code>false</code> if <code>from</code> was not a location of
+                the file, or <code>to</code> already was.
+        @throws FileNotFoundException If the path does not refer to a file.
+     */
+    boolean moveLocation(Path file, int from, int to) throws FileNotFoundException;
+
+    /** Lists the contents of a directory.
+
+        @param directory The directory to be listed.
+        @return The names of the directory entries.
+        @throws FileNotFoundException If the path does not refer to a
+                                      directory.
+     */
+    String[] list(Path directory) throws FileNotFoundException;
+
+    /** Lists part of the contents of a directory.
+
+        <p>
+        Both implementations keep the entries of each directory in the order
+        of the code points of their names, so that a directory can be listed
+        a page at a time, each page starting after the last name of the
+        previous one, without skipping or repeating entries that exist
+        throughout.
+
+        @param directory The directory to be listed.
+        @param after The name after which the page starts, or
+                     <code>null</code> to start with the first entry. It need
+                     not be the name of an entry.
+        @param limit The largest number of names returned.
+        @return The names of the entries, in order.
+        @throws FileNotFoundException If the path does not refer to a
+                                      directory.
+     */
+    String[] list(Path directory, String after, int limit)
+        throws FileNotFoundException;
+
+    /** Lists part of the contents of a directory, with the attributes of
+        each entry.
+
+        @param directory The directory to be listed.
+        @param after The name after which the page starts, as for
+                     <code>list</code>.
+        @param limit The largest number of entries returned.
+        @return The attributes of the entries, in the order of their names.
+        @throws FileNotFoundException If the path does not refer to a
+                                      directory.
+     */
+    Attributes[] attributes(Path directory, String after, int limit)
+        throws FileNotFoundException;
+
+    /** Returns the attributes of a file or directory.
+
+        @param path The path to the object.
+        @return The attributes of the object, named by the last component of
+                its path.
+        @throws FileNotFoundException If the object does not exist.
+     */
+    Attributes attributes(Path path) throws FileNotFoundException;
+
+    /** Records the size and modification time of a file, as reported by one
+        of its storage servers.
+
+        @param file The path to the file.
+        @param storage Identifier of the storage server reporting.
+        @param size Size of the file in bytes.
+        @param modified Time of the last write to the file, in milliseconds,
+                        or a negative value to keep the time recorded.
+        @return <code>true</code> if the attributes were recorded,
+                <code>false</code> if the path does not refer to a file, or
+                the storage server is not one of its locations.
+     */
+    boolean setAttributes(Path file, int storage, long size, long modified);
+
+    /** Lists the files hosted by a storage server.
+
+        <p>
+        This walks the whole namespace, and is meant for infrequent operations
+        such as handling the failure of a storage server.
+
+        @param storage Identifier of the storage server.
+        @return The paths of all files for which the storage server is one of
+                the locations.
+     */
+    Path[] files(int storage);
+
+    /** Lists some of the files hosted by a storage server, in path order.
+
+        <p>
+        Directories are walked in name order, and the walk stops once enough
+        files are found, so that a long listing can be taken a page at a
+        time. The order is the same as that of <code>list</code> at each
+        level.
+
+        @param storage Identifier of the storage server.
+        @param after The path after which the listing starts, usually the last
+                     path of the previous page, or <code>null</code> to start
+                     at the beginning. It need not exist.
+        @param limit The largest number of paths returned.
+        @return The paths of the files found. Fewer than <code>limit</code>
+                paths are returned only at the end of the namespace.
+     */
+    Path[] files(int storage, Path after, int limit);
+
+    /** Returns the number of files hosted by a storage server.
+
+        @param storage Identifier of the storage server.
+        @return The number of files for which the storage server is one of the
+                locations.
+     */
+    long count(int storage);
+
+    /** Adds a file to an existing directory.
+
+        @param file Path of the new file.
+        @param storage Identifier of the storage server hosting the file.
+        @return <code>true</code> if the file was added, <code>false</code> if
+                an object with the same path already exists.
+        @throws FileNotFoundException If the parent of the path is not a
+                                      directory.
+     */
+    boolean createFile(Path file, int storage) throws FileNotFoundException;
+
+    /** Adds a directory to an existing directory.
+
+        @param directory Path of the new directory.
+        @return <code>true</code> if the directory was added, <code>false</code>
+                if an object with the same path already exists.
+        @throws FileNotFoundException If the parent of the path is not a
+                                      directory.
+     */
+    boolean createDirectory(Path directory) throws FileNotFoundException;
+
+    /** Adds a file reported by a registering storage server.
+
+        <p>
+        Missing parent directories are created.
+
+        @param file Path of the file.
+        @param storage Identifier of the storage server hosting the file.
+        @return <code>true</code> if the file was added, or if the path is the
+                root directory. <code>false</code> if an object with the same
+                path already exists, or if one of the parents is a file.
+     */
+    boolean register(Path file, int storage);
+
+    /** Removes an object, and all objects beneath it if it is a directory.
+
+        @param path The path to the object. This must not be the root
+                    directory.
+        @return The identifiers of the storage servers hosting any of the
+                removed files, without duplicates and in increasing order.
+        @throws FileNotFoundException If the object does not exist.
+     */
+    int[] delete(Path path) throws FileNotFoundException;
+
+    /** Moves an object, and all objects beneath it if it is a directory, to
+        another path.
+
+        <p>
+        The object is re-linked into its new parent directory as a whole.
+        The objects beneath it are only visited to collect the storage
+        servers of their files.
+
+        @param from The path to the object. This must not be the root
+                    directory.
+        @param to The new path. This must not be the root directory, nor
+                  <code>from</code> or a path beneath it.
+        @return The identifiers of the storage servers hosting any of the
+                moved files, without duplicates and in increasing order, or
+                <code>null</code> if an object with the new path already
+                exists.
+        @throws FileNotFoundException If the object does not exist, or the
+                                      parent of the new path is not a
+                                      directory.
+     */
+    int[] rename(Path from, Path to) throws FileNotFoundException;
+
+    /** Moves an object, and all objects beneath it if it is a directory, to
+        the trash.
+
+        <p>
+        The object is re-attached to the trash as a whole. The objects beneath
+        it are only visited to update the counts of files and objects.
+
+        @param path The path to the object. This must not be the root
+                    directory.
+        @param time The time of deletion, in milliseconds.
+        @return The identifier of the trash entry.
+        @throws FileNotFoundException If the object does not exist.
+     */
+    long trash(Path path, long time) throws FileNotFoundException;
+
+    /** Moves the object most recently trashed from a path back to the path.
+
+        @param path The path the object was deleted from.
+        @return <code>true</code> if the object was restored,
+                <code>false</code> if no object was trashed from the path, or
+                an object with the same path exists.
+        @throws FileNotFoundException If the parent of the path is not a
+                                      directory.
+     */
+    boolean restore(Path path) throws FileNotFoundException;
+
+    /** Returns the trash entries whose objects were deleted from a path, from
+        one of its ancestors, or from beneath it. The storage servers of these
+        entries may still hold files at or beneath the path. */
+    long[] trashed(Path path);
+
+    /** Returns the trash entries deleted no later than a given time.
+
+        @param time The time, in milliseconds.
+        @param limit The largest number of entries returned.
+        @return The identifiers of the entries, oldest first.
+     */
+    long[] expired(long time, int limit);
+
+    /** Returns the path a trash entry was deleted from, or <code>null</code>
+        if there is no such entry. */
+    Path trashPath(long entry);
+
+    /** Removes a trash entry for good.
+
+        @param entry Identifier of the trash entry.
+        @return The identifiers of the storage servers hosting any of the
+                removed files, without duplicates and in increasing order, or
+                <code>null</code> if there is no such entry.
+     */
+    int[] purge(long entry);
+
+    /** Returns the number of files and directories in the namespace, not
+        counting the root directory. */
+    long size();
+}
@@ -30,6 +30,65 @@ import storage.*;
     specifying the remote network address. To make this possible, the client and
     registration interfaces are available at well-known ports defined in
     <code>NamingStubs</code>.
+
+    <p>
+    Storage servers report that they are alive through heartbeats. A storage
+    server that stops sending heartbeats for longer than the timeout given by
+    the <code>naming.heartbeat.timeout</code> system property (in milliseconds,
+    default 5000) is considered failed: it is given no new files, and its files
+    are copied from their remaining locations to other storage servers. The
+    naming server keeps as many copies of each file as given by the
+    <code>naming.replication</code> property (default 1), and limits the
+    bandwidth of these copies to <code>naming.replication.bandwidth</code>
+    bytes per second (default 8 MB).
+
+    <p>
+    A storage server may leave the cluster gracefully by draining: it is given
+    no new files, its files are copied to the remaining storage servers, and it
+    then deregisters.
+
+    <p>
+    Storage servers also report their used space and capacity with each
+    heartbeat. Every <code>naming.rebalance.interval</code> milliseconds
+    (default 30000, zero to disable), the naming server moves files from the
+    storage servers that are fullest, relative to their capacity, to those that
+    are emptiest, until no two storage servers differ in utilization by more
+    than <code>naming.rebalance.threshold</code> (default 0.1). These moves are
+    limited to <code>naming.rebalance.bandwidth</code> bytes per second
+    (default 4 MB). If <code>naming.rebalance.dryrun</code> is
+    <code>true</code>, the moves are only logged.
+
+    <p>
+    Deleted files and directories are moved to the trash of the directory
+    tree, and their files are left on the storage servers, so that a deletion
+    is quick whatever the size of the directory deleted, and can be undone
+    with <code>restore</code>. Trash older than
+    <code>naming.trash.retention</code> milliseconds (default 3600000) is
+    purged in the background, as described in <code>TrashCollector</code>. A
+    retention of zero disables the trash: deletions are then made at once on
+    the storage servers. Creating a file at a path overlapping the trash purges
+    the trash entries in the way first. A deletion that a storage server
+    cannot make at once is kept until it can: storage servers that were
+    unavailable are given the paths to delete as duplicates when they register
+    again, while files of the trash that they register are left in place.
+
+    <p>
+    A rename is likewise kept, in order, for each storage server that hosts
+    files beneath the renamed path and cannot make it at once. The files that
+    such a storage server registers are taken at their new paths, and the
+    renames are made on it at its next heartbeat, before any deletion and
+    before it is handed out by <code>getStorage</code>.
+
+    <p>
+    The naming server records the size and modification time of each file, as
+    reported by its storage servers after each write, and returns them with
+    the other attributes of each entry from <code>listAttributes</code>.
+    Clients write to a single copy of a file, so when a storage server
+    reports a write, the other copies of the file become <em>stale</em>. They
+    remain locations of the file, and still hold it as it was, but
+    <code>getStorage</code> no longer hands them out, and the replicator
+    brings them up to date from the written copy, transferring only the
+    chunks that differ.
  */
 
 //References :- https://www.geeksforgeeks.org/java-util-random-class-java/
@@ -44,30 +103,108 @@ public class NamingServer implements Service, Registration
 {
     Skeleton<Service> serviceSkeleton;
     Skeleton<Registration> registrationSkeleton;
-    PathNode pathNode;
-    public ArrayList<Command> commandArrayList;
-    public HashMap<Command, Storage> commandStorageHashMap;
-    public HashMap<Storage, Command> storageCommandHashMap;
-    public HashMap<Path, Set<Storage>> pathStorageSetMap;
+    Namespace namespace;
+    // Stubs of the registered storage servers. A storage server's identifier
+    // is its index in these arrays, assigned densely at registration.
+    Storage[] storageStubs;
+    Command[] commandStubs;
+    int storageCount;
+    // Identifiers of the registered storage servers by command stub. Stub
+    // hashing goes through the proxy, so this is consulted only on
+    // registration.
+    HashMap<Command, Integer> commandIds;
+    // Time of the last heartbeat from each storage server, from
+    // System.nanoTime, or zero if it has sent none. Storage servers that have
+    // sent no heartbeat are not monitored.
+    long[] heartbeats;
+    // State of each storage server: one of LIVE, DRAINING, FAILED and
+    // REMOVED.
+    byte[] states;
+    // Space used by and capacity of each storage server, in bytes, as last
+    // reported in a heartbeat. A capacity of zero means no report.
+    long[] used;
+    long[] capacity;
+
+    // Failure timeout, in milliseconds.
+    long heartbeatTimeout;
+    // Number of copies to keep of each file.
+    int replication;
+    Replicator replicator;
+    Rebalancer rebalancer;
+    // Time for which deleted objects are kept in the trash, in milliseconds.
+    long trashRetention;
+    TrashCollector collector;
+    // Paths removed from the namespace for good whose deletion has not yet
+    // been made, by storage server. A storage server that was unavailable
+    // deletes its paths when it registers again.
+    HashMap<Integer, HashSet<Path>> undeleted;
+    // Renames not yet made, as pairs of paths, by storage server and in the
+    // order in which they were made in the namespace. The list of a storage
+    // server is also locked while its renames are being made, so that they
+    // are made once and in order.
+    HashMap<Integer, ArrayList<Path[]>> unrenamed;
+    // Files that have stale copies, or copies in progress, with their
+    // bookkeeping. Other files have none.
+    HashMap<Path, Writes> writes;
+    Thread detector;
+
+    /** State of a storage server that is given new files. */
+    static final byte LIVE = 0;
+    /** State of a storage server whose files are being moved elsewhere. It
+        still serves the files that it hosts, but is given no new ones. */
+    static final byte DRAINING = 1;
+    /** State of a storage server whose heartbeats stopped. */
+    static final byte FAILED = 2;
+    /** State of a storage server that drained and deregistered. */
+    static final byte REMOVED = 3;
 
     /** Creates the naming server object.
 
         <p>
-        The naming server is not started.
+        The naming server is not started. The directory tree is kept by the
+        implementation named by the <code>naming.namespace</code> system
+        property: <code>tree</code> (the default) or <code>compact</code>.
      */
     public NamingServer()
     {
-        this.pathNode = new PathNode("/", new Path());
-        this.commandArrayList = new ArrayList<Command>();
-        this.commandStorageHashMap = new HashMap<Command, Storage>();
-        this.pathStorageSetMap = new HashMap<Path, Set<Storage>>();
-        this.storageCommandHashMap = new HashMap<Storage, Command>();
+        this.namespace = newNamespace(System.getProperty("naming.namespace", "tree"));
+        this.storageStubs = new Storage[4];
+        this.commandStubs = new Command[4];
+        this.storageCount = 0;
+        this.commandIds = new HashMap<Command, Integer>();
+        this.heartbeats = new long[4];
+        this.states = new byte[4];
+        this.used = new long[4];
+        this.capacity = new long[4];
+
+        this.heartbeatTimeout = Long.getLong("naming.heartbeat.timeout", 5000L);
+        this.replication = Math.max(1, Integer.getInteger("naming.replication", 1));
+        this.replicator = new Replicator(this,
+                Long.getLong("naming.replication.bandwidth", 8L << 20));
+        this.rebalancer = new Rebalancer(this);
+        this.trashRetention = Long.getLong("naming.trash.retention", 3600000L);
+        this.collector = new TrashCollector(this);
+        this.undeleted = new HashMap<Integer, HashSet<Path>>();
+        this.unrenamed = new HashMap<Integer, ArrayList<Path[]>>();
+        this.writes = new HashMap<Path, Writes>();
 
         serviceSkeleton = new Skeleton<Service>(Service.class, this, new InetSocketAddress(NamingStubs.SERVICE_PORT));
         registrationSkeleton = new Skeleton<Registration>(Registration.class, this,
                 new InetSocketAddress(NamingStubs.REGISTRATION_PORT));
     }
 
+    // Creates the namespace implementation with the given name.
+    static Namespace newNamespace(String kind)
+    {
+        if (kind.equals("tree")) {
+            return new TreeNamespace();
+        }
+        if (kind.equals("compact")) {
+            return new CompactNamespace();
+        }
+        throw new IllegalArgumentException("Unknown namespace implementation: " + kind);
+    }
+
     /** Starts the naming server.
 
         <p>
@@ -83,6 +220,53 @@ public class NamingServer implements Service, Registration
     {
         this.serviceSkeleton.start();
         this.registrationSkeleton.start();
+        startMonitoring();
+    }
+
+    // Starts the failure detector and the background threads.
+    synchronized void startMonitoring()
+    {
+        if (detector != null) {
+            return;
+        }
+
+        detector = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long period = Math.max(10, heartbeatTimeout / 4);
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        Thread.sleep(period);
+                        detectFailures();
+                    }
+                } catch (InterruptedException e) {
+                }
+            }
+        }, "naming server failure detector");
+        detector.setDaemon(true);
+        detector.start();
+        replicator.start();
+        rebalancer.start();
+        if (trashRetention > 0) {
+            collector.start();
+        }
+    }
+
+    // Stops the failure detector and the background threads.
+    void stopMonitoring()
+    {
+        Thread stopping;
+        synchronized (this) {
+            stopping = detector;
+            detector = null;
+        }
+
+        if (stopping != null) {
+            stopping.interrupt();
+        }
+        replicator.stop();
+        rebalancer.stop();
+        collector.stop();
     }
 
     /** Stops the naming server.
@@ -96,6 +280,7 @@ public class NamingServer implements Service, Registration
      */
     public void stop()
     {
+        stopMonitoring();
         this.serviceSkeleton.stop();
         this.registrationSkeleton.stop();
         stopped(null);
@@ -121,7 +306,7 @@ public class NamingServer implements Service, Registration
         if (path.isRoot()) {
             return true;
         }
-        return pathNode.getNodeByPath(path).isDirectory();
+        return namespace.lookup(path) == Namespace.DIRECTORY;
     }
 
     @Override
@@ -132,25 +317,53 @@ public class NamingServer implements Service, Registration
                     "Given Path does not refer to a directory!");
         }
 
-        ArrayList<PathNode1> listContents;
+        return namespace.list(directory);
+    }
 
-        if (directory.isRoot()) {
-            listContents = this.pathNode.files;
-            System.out.println("Map1 "+listContents);
-        } else {
-            listContents = ((PathNode) pathNode.getNodeByPath(directory)).files;
-            System.out.println("Map2 "+listContents);
+    @Override
+    public Listing list(Path directory, String token, int limit)
+        throws FileNotFoundException
+    {
+        // One name more than the page is read, to tell whether the page is
+        // the last. The token is the last name on the page.
+        int size = pageSize(directory, limit);
+        String[] names = namespace.list(directory, token, size + 1);
+
+        if (names.length <= size) {
+            return new Listing(names, null);
+        }
+
+        String[] page = Arrays.copyOf(names, size);
+        return new Listing(page, page[size - 1]);
+    }
+
+    @Override
+    public Listing listAttributes(Path directory, String token, int limit)
+        throws FileNotFoundException
+    {
+        int size = pageSize(directory, limit);
+        Attributes[] entries = namespace.attributes(directory, token, size + 1);
+
+        if (entries.length <= size) {
+            return new Listing(entries, null);
         }
 
-        String[] stringArray = new String[0];
-        ArrayList<String> stringArrayList = new ArrayList<String>();
+        Attributes[] page = Arrays.copyOf(entries, size);
+        return new Listing(page, page[size - 1].name());
+    }
 
-        for (PathNode1 pathNode1 : listContents) {
-            stringArrayList.add(pathNode1.getName());
+    // Checks the arguments of a paged listing, and returns the number of
+    // entries on the page.
+    private static int pageSize(Path directory, int limit)
+    {
+        if (directory == null) {
+            throw new NullPointerException("Given Path is Empty!");
         }
 
-        System.out.println("ArrayList"+stringArrayList);
-        return stringArrayList.toArray(stringArray);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive.");
+        }
+        return Math.min(limit, MAXIMUM_PAGE);
     }
 
     @Override
@@ -165,54 +378,36 @@ public class NamingServer implements Service, Registration
             return false;
         }
 
-        Path parentPath = file.parent();
-        ArrayList<PathNode1> pathNodes;
-
         if (!isDirectory(file.parent())) {
             throw new FileNotFoundException(
                     "directory not exist.");
         }
 
-        if (parentPath.isRoot()) {
-            pathNodes = this.pathNode.files;
-        } else {
-            pathNodes = ((PathNode) pathNode.getNodeByPath(parentPath)).files;
-        }
-
-        for (PathNode1 pathNode1 : pathNodes) {
-            if (pathNode1.getName().equals(file.last())) {
-                return false;
+        // Give it to a storage server selected at random
+        int storage;
+        synchronized (this) {
+            int[] live = liveStorage();
+            if (live.length == 0) {
+                throw new IllegalStateException("No storage servers are connected.");
             }
+            storage = live[new Random().nextInt(live.length)];
         }
 
-        if (parentPath.isRoot()) {
-            Path path = new Path(this.pathNode.getPath(), file.last());
-
-            Random randomGenerator = new Random();
-            int getRandomIndex = randomGenerator.nextInt(commandArrayList.size());
-            Command command = commandArrayList.get(getRandomIndex);
-            Storage storage = this.commandStorageHashMap.get(command);
-
-            this.pathNode.files.add(new ServerStubs(file.last(), path,
-                    storage, command));
-
-            command.create(file);
-        } else {
-            PathNode pathNode5 = (PathNode) pathNode.getNodeByPath(parentPath);
-            Path path1 = new Path(pathNode5.getPath(), file.last());
-            // Give it to a storage using a randomly selected command stub
-            Random random = new Random();
-            int getRandomIndex = random.nextInt(commandArrayList.size());
-
-            Command command1 = commandArrayList.get(getRandomIndex);
-            Storage storage1 = this.commandStorageHashMap.get(command1);
+        // Storage servers may still hold files of the trash at the path.
+        for (long entry : namespace.trashed(file)) {
+            purge(entry);
+        }
+        deleteRemaining(file);
 
-            // Add it to the list of Files in the tree
-            pathNode5.files.add(new ServerStubs(file.last(), path1, storage1,
-                    command1));
+        // Add it to the tree, then create it on the storage server
+        if (!namespace.createFile(file, storage)) {
+            return false;
+        }
 
-            // Now create it in the storage server
-            command1.create(file);
+        command(storage).create(file);
+        // The storage server may have started draining since it was chosen.
+        if (replication > 1 || !isLive(storage)) {
+            replicator.schedule(file);
         }
         return true;
     }
@@ -228,40 +423,203 @@ public class NamingServer implements Service, Registration
             return false;
         }
 
-        Path parentPath = directory.parent();
-
-        if (!isDirectory(parentPath)) {
+        if (!isDirectory(directory.parent())) {
             throw new FileNotFoundException(
                     "Injustice to Directory...SHe's not present...!!!");
         }
 
-        ArrayList<PathNode1> pathNode1s;
+        return namespace.createDirectory(directory);
+    }
 
-        if (parentPath.isRoot()) {
-            pathNode1s = this.pathNode.files;
-        } else {
-            pathNode1s = ((PathNode) pathNode.getNodeByPath(parentPath)).files;
+    @Override
+    public boolean delete(Path path) throws FileNotFoundException, RMIException {
+        if (path == null) {
+            throw new NullPointerException("Path is Empty!!!!");
         }
 
-        for (PathNode1 pathNode3 : pathNode1s) {
-            if (pathNode3.getName().equals(directory.last())) {
-                return false;
+        if (path.isRoot()) {
+            return false;
+        }
+
+        if (trashRetention > 0) {
+            namespace.trash(path, System.currentTimeMillis());
+            return true;
+        }
+
+        // Remove the object from the tree, then from every storage server
+        // that hosted a file beneath it.
+        deleteFiles(path, namespace.delete(path));
+        return true;
+    }
+
+    @Override
+    public boolean rename(Path from, Path to)
+        throws RMIException, FileNotFoundException
+    {
+        if (from == null || to == null) {
+            throw new NullPointerException("Path is Empty!!!!");
+        }
+
+        if (from.isRoot() || to.isRoot() || to.isSubpath(from)) {
+            return false;
+        }
+
+        namespace.lookup(from);
+        if (!isDirectory(to.parent())) {
+            throw new FileNotFoundException("Given Path does not refer to a directory!");
+        }
+        try {
+            namespace.lookup(to);
+            return false;
+        } catch (FileNotFoundException e) {
+            // The new path is free.
+        }
+
+        // Storage servers may still hold files of the trash at either path,
+        // which would be moved along or be in the way.
+        for (long entry : namespace.trashed(from)) {
+            purge(entry);
+        }
+        for (long entry : namespace.trashed(to)) {
+            purge(entry);
+        }
+        deleteRemaining(from);
+        deleteRemaining(to);
+
+        // Re-link the object in the tree, then have every storage server
+        // that hosted a file beneath it rename its copy. The rename is
+        // recorded first, and forgotten only once each storage server has
+        // made it, so that a storage server that is unavailable or fails
+        // makes it later rather than being left with its files at the old
+        // paths.
+        int[] storageSet = namespace.rename(from, to);
+        if (storageSet == null) {
+            return false;
+        }
+
+        synchronized (this) {
+            renamed(from, to);
+            for (int storage : storageSet) {
+                ArrayList<Path[]> renames = unrenamed.get(storage);
+                if (renames == null) {
+                    renames = new ArrayList<Path[]>();
+                    unrenamed.put(storage, renames);
+                }
+                renames.add(new Path[] {from, to});
             }
         }
 
-        if (parentPath.isRoot()) {
-            Path path2 = new Path(this.pathNode.getPath(), directory.last());
-            this.pathNode.files.add(new PathNode(directory.last(), path2));
-        } else {
-            PathNode pathNode6 = (PathNode) pathNode.getNodeByPath(parentPath);
-            Path path2 = new Path(pathNode6.getPath(), directory.last());
-            pathNode6.files.add(new PathNode(directory.last(), path2));
+        for (int storage : storageSet) {
+            if (isAvailable(storage)) {
+                renameRemaining(storage);
+            }
         }
         return true;
     }
 
+    // Makes the renames not yet made on a storage server, in order. Renames
+    // on a storage server that deregistered are dropped. Returns whether none
+    // are left; if one fails, it and those after it are kept.
+    boolean renameRemaining(int id)
+    {
+        ArrayList<Path[]> renames;
+        synchronized (this) {
+            renames = unrenamed.get(id);
+            if (renames == null) {
+                return true;
+            }
+            if (states[id] == REMOVED) {
+                unrenamed.remove(id);
+                return true;
+            }
+        }
+
+        synchronized (renames) {
+            while (true) {
+                Path[] rename;
+                synchronized (this) {
+                    if (renames.isEmpty()) {
+                        if (unrenamed.get(id) == renames) {
+                            unrenamed.remove(id);
+                        }
+                        return true;
+                    }
+                    rename = renames.get(0);
+                }
+
+                // A storage server that no longer holds the old path, or
+                // already holds the new one, has nothing left to rename.
+                try {
+                    command(id).rename(rename[0], rename[1]);
+                } catch (RMIException e) {
+                    return false;
+                }
+
+                synchronized (this) {
+                    renames.remove(0);
+                }
+            }
+        }
+    }
+
+    // Returns the path to which a path was moved by a list of renames, made
+    // in order.
+    private static Path moved(Path path, List<Path[]> renames)
+    {
+        for (Path[] rename : renames) {
+            if (path.isSubpath(rename[0])) {
+                path = moved(path, rename[0], rename[1]);
+            }
+        }
+        return path;
+    }
+
+    // Returns the path at which a path at or beneath a renamed path is found
+    // after the rename.
+    private static Path moved(Path path, Path from, Path to)
+    {
+        Path moved = to;
+        int depth = 0;
+        for (String component : path) {
+            if (depth++ >= from.depth()) {
+                moved = new Path(moved, component);
+            }
+        }
+        return moved;
+    }
+
+    // Moves the bookkeeping of the stale copies of files at or beneath a
+    // renamed path to the new paths. Copies in progress under the old paths
+    // are told of a write, so that they are abandoned. The caller holds the
+    // lock.
+    private void renamed(Path from, Path to)
+    {
+        ArrayList<Path> moved = new ArrayList<Path>();
+        for (Path file : writes.keySet()) {
+            if (file.isSubpath(from)) {
+                moved.add(file);
+            }
+        }
+
+        for (Path file : moved) {
+            Writes entry = writes.get(file);
+            Path path = moved(file, from, to);
+
+            if (!entry.stale.isEmpty()) {
+                Writes renamed = new Writes();
+                renamed.stale.addAll(entry.stale);
+                writes.put(path, renamed);
+                replicator.schedule(path);
+            }
+            entry.stale.clear();
+            entry.count++;
+            release(file, entry);
+        }
+    }
+
     @Override
-    public boolean delete(Path path) throws FileNotFoundException, RMIException {
+    public boolean restore(Path path) throws RMIException, FileNotFoundException
+    {
         if (path == null) {
             throw new NullPointerException("Path is Empty!!!!");
         }
@@ -270,41 +628,200 @@ public class NamingServer implements Service, Registration
             return false;
         }
 
-        PathNode1 ancestor = this.pathNode.getNodeByPath(path.parent());
-        PathNode1 deleteFile = this.pathNode.getNodeByPath(path);
+        if (!isDirectory(path.parent())) {
+            throw new FileNotFoundException("Given Path does not refer to a directory!");
+        }
+
+        try {
+            namespace.lookup(path);
+            return false;
+        } catch (FileNotFoundException e) {
+            // The path is free.
+        }
+
+        // Storage servers may hold files of other trash entries at or around
+        // the path, which would shadow the files restored; only the most
+        // recent entry at the path is kept.
+        long[] overlapping = namespace.trashed(path);
+        long latest = -1;
+        for (long entry : overlapping) {
+            if (path.equals(namespace.trashPath(entry))) {
+                latest = Math.max(latest, entry);
+            }
+        }
+
+        if (latest < 0) {
+            return false;
+        }
+
+        for (long entry : overlapping) {
+            if (entry != latest) {
+                purge(entry);
+            }
+        }
+        deleteRemaining(path);
+        return namespace.restore(path);
+    }
+
+    // Removes an entry of the trash for good, and deletes its files from the
+    // storage servers that hosted them. Does nothing if the entry was
+    // already restored or purged.
+    void purge(long entry) throws RMIException
+    {
+        Path path = namespace.trashPath(entry);
+        int[] storageSet = namespace.purge(entry);
+
+        if (path == null || storageSet == null) {
+            return;
+        }
+        deleteFiles(path, storageSet);
+    }
+
+    // Deletes a path removed from the namespace for good from the storage
+    // servers that hosted files beneath it. The deletion is recorded first,
+    // and forgotten only once each storage server has made it, so that the
+    // files are not brought back if a storage server is unavailable or the
+    // command fails.
+    private void deleteFiles(Path path, int[] storageSet) throws RMIException
+    {
+        synchronized (this) {
+            forget(path);
+            for (int storage : storageSet) {
+                HashSet<Path> paths = undeleted.get(storage);
+                if (paths == null) {
+                    paths = new HashSet<Path>();
+                    undeleted.put(storage, paths);
+                }
+                paths.add(path);
+            }
+        }
+        deleteRemaining(path);
+    }
 
-        Set<Storage> storageSet = pathStorageSetMap.remove(path);
+    // Drops the bookkeeping of the stale copies of files at or beneath a path
+    // removed for good. Copies in progress are told of a write.
+    private void forget(Path path)
+    {
+        ArrayList<Path> removed = new ArrayList<Path>();
+        for (Path file : writes.keySet()) {
+            if (file.isSubpath(path)) {
+                removed.add(file);
+            }
+        }
 
-        if (!deleteFile.isDirectory()) {
-            for(Storage s : storageSet) {
-                Command commandToDeleteFile = storageCommandHashMap.get(s);
-                commandToDeleteFile.delete(path);
+        for (Path file : removed) {
+            Writes entry = writes.get(file);
+            entry.stale.clear();
+            entry.count++;
+            release(file, entry);
+        }
+    }
+
+    // Makes the deletions not yet made of paths at, above or beneath the
+    // given path, on the storage servers that are available. Deletions on
+    // storage servers that deregistered are dropped. Throws the first failure
+    // once every deletion has been tried; the deletions that failed are kept.
+    void deleteRemaining(Path path) throws RMIException
+    {
+        ArrayList<Integer> storageIds = new ArrayList<Integer>();
+        ArrayList<Path> paths = new ArrayList<Path>();
+
+        synchronized (this) {
+            if (undeleted.isEmpty()) {
+                return;
             }
-            return ((PathNode) ancestor).deleteChild(path);
-        } else {
 
-            Set<Storage> storageSet1;
+            Iterator<Map.Entry<Integer, HashSet<Path>>> servers =
+                undeleted.entrySet().iterator();
+            while (servers.hasNext()) {
+                Map.Entry<Integer, HashSet<Path>> server = servers.next();
+                int id = server.getKey();
+
+                if (states[id] == REMOVED) {
+                    servers.remove();
+                } else if (isAvailable(id)) {
+                    for (Path undeletedPath : server.getValue()) {
+                        if (undeletedPath.isSubpath(path) || path.isSubpath(undeletedPath)) {
+                            storageIds.add(id);
+                            paths.add(undeletedPath);
+                        }
+                    }
+                }
+            }
+        }
 
+        RMIException failure = null;
+        for (int index = 0; index < paths.size(); index++) {
+            int id = storageIds.get(index);
+            // The storage server holds the files at their old paths until
+            // it has made its renames.
+            if (!renameRemaining(id)) {
+                continue;
+            }
             try {
-                storageSet1 = ((PathNode) deleteFile).deleteDirectory();
-            } catch(InterruptedException e) {
-                return false;
+                command(id).delete(paths.get(index));
+            } catch (RMIException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                continue;
             }
-            for(Storage storageIteration : storageSet1) {
-                Command commandToDeleteFile1 = storageCommandHashMap.get(storageIteration);
-                commandToDeleteFile1.delete(path);
+
+            synchronized (this) {
+                HashSet<Path> remaining = undeleted.get(id);
+                if (remaining != null) {
+                    remaining.remove(paths.get(index));
+                    if (remaining.isEmpty()) {
+                        undeleted.remove(id);
+                    }
+                }
             }
-            ((PathNode) ancestor).files.remove(deleteFile);
         }
-        return true;
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Determines whether a path is at or beneath one of a set of paths.
+    private static boolean beneath(Path path, HashSet<Path> paths)
+    {
+        for (int depth = 0; depth <= path.depth(); depth++) {
+            if (paths.contains(path.ancestor(depth))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public Storage getStorage(Path file) throws RMIException, FileNotFoundException {
-        if (this.pathNode.getNodeByPath(file).isDirectory()) {
-            throw new FileNotFoundException("Path referred to a directory!");
+        // Stale copies are not handed out, and are not failed over to.
+        int[] fresh = fresh(file, order(namespace.locations(file)));
+        for (int location : fresh) {
+            if (isAvailable(location)) {
+                renameRemaining(location);
+            }
+        }
+        Storage primary = storage(fresh[0]);
+
+        ArrayList<Storage> replicas = new ArrayList<Storage>();
+        for (int index = 1; index < fresh.length; index++) {
+            if (isAvailable(fresh[index])) {
+                replicas.add(storage(fresh[index]));
+            }
+        }
+        if (replicas.isEmpty()) {
+            return primary;
+        }
+
+        try {
+            return Stub.withReplicas(primary, replicas.toArray(new Storage[replicas.size()]));
+        } catch (IllegalArgumentException e) {
+            // Storage servers registered directly, rather than through stubs,
+            // cannot fail over.
+            return primary;
         }
-        return ((ServerStubs) this.pathNode.getNodeByPath(file)).getStorage();
     }
 
 
@@ -316,33 +833,565 @@ public class NamingServer implements Service, Registration
             throw new NullPointerException("Empty!!!");
         }
 
+        int id;
+        boolean returning = false;
+        synchronized (this) {
+            Integer existing = this.commandIds.get(command_stub);
+
+            if (existing != null && states[existing] != FAILED
+                    && states[existing] != REMOVED) {
+                throw new IllegalStateException("Already Registered!!!");
+            }
+
+            if (existing != null) {
+                // A storage server considered failed, or that deregistered, is
+                // registering again. It keeps its identifier, and files still
+                // recorded on it are not duplicates.
+                id = existing;
+                returning = true;
+            } else {
+                if (storageCount == storageStubs.length) {
+                    storageStubs = Arrays.copyOf(storageStubs, storageCount * 2);
+                    commandStubs = Arrays.copyOf(commandStubs, storageCount * 2);
+                    heartbeats = Arrays.copyOf(heartbeats, storageCount * 2);
+                    states = Arrays.copyOf(states, storageCount * 2);
+                    used = Arrays.copyOf(used, storageCount * 2);
+                    capacity = Arrays.copyOf(capacity, storageCount * 2);
+                }
+
+                id = storageCount++;
+                this.commandStubs[id] = command_stub;
+                this.commandIds.put(command_stub, id);
+            }
 
-        if (this.commandArrayList.contains(command_stub)) {
-            throw new IllegalStateException("Already Registered!!!");
+            this.storageStubs[id] = client_stub;
+            this.heartbeats[id] = 0;
+            this.states[id] = LIVE;
+            this.capacity[id] = 0;
         }
 
-        this.commandArrayList.add(command_stub);
-        this.commandStorageHashMap.put(command_stub, client_stub);
-        this.storageCommandHashMap.put(client_stub, command_stub);
+        replicator.storageAdded();
+
+        // Deletions that could not be made while the storage server was
+        // away are made by the storage server itself, as duplicates. Its
+        // files are taken at the paths to which renames it has not yet made
+        // move them; the renames are made at its next heartbeat, as the
+        // storage server cannot be commanded while it registers.
+        HashSet<Path> deleted;
+        ArrayList<Path[]> renames = new ArrayList<Path[]>();
+        synchronized (this) {
+            deleted = undeleted.remove(id);
+            if (unrenamed.containsKey(id)) {
+                renames.addAll(unrenamed.get(id));
+            }
+        }
 
         ArrayList<Path> duplicatePathList = new ArrayList<Path>();
         Path[] pathOfDuplicateList = new Path[0];
 
-        for (Path pathUseInRegistration : files) {
-            boolean created = pathNode.addChild(pathUseInRegistration, command_stub,
-                    client_stub);
-            if (created == false) {
-                duplicatePathList.add(pathUseInRegistration);
-            } else {
-                if (pathStorageSetMap.containsKey(pathUseInRegistration)) {
-                    pathStorageSetMap.get(pathUseInRegistration).add(client_stub);
-                } else {
-                    Set<Storage> storageSetForRegistration = new HashSet<Storage>();
-                    storageSetForRegistration.add(client_stub);
-                    pathStorageSetMap.put(pathUseInRegistration, storageSetForRegistration);
-                }
+        for (Path reported : files) {
+            Path pathUseInRegistration = moved(reported, renames);
+
+            if (deleted != null && beneath(pathUseInRegistration, deleted)) {
+                duplicatePathList.add(reported);
+                continue;
+            }
+
+            // Files of the trash are neither brought back nor deleted: they
+            // are kept for restore, and deleted when purged.
+            if (namespace.trashed(pathUseInRegistration).length > 0) {
+                continue;
+            }
+
+            boolean created = namespace.register(pathUseInRegistration, id);
+            if (created == false && !(returning && hosts(pathUseInRegistration, id))) {
+                duplicatePathList.add(reported);
+            } else if (replication > 1) {
+                replicator.schedule(pathUseInRegistration);
             }
         }
         return duplicatePathList.toArray(pathOfDuplicateList);
     }
+
+    @Override
+    public void heartbeat(Command command_stub, long used, long capacity)
+    {
+        if (command_stub == null) {
+            throw new NullPointerException("Empty!!!");
+        }
+
+        int id;
+        synchronized (this) {
+            id = registered(command_stub);
+
+            // Zero means that no heartbeat was received.
+            heartbeats[id] = Math.max(1, System.nanoTime());
+            this.used[id] = Math.max(0, used);
+            this.capacity[id] = Math.max(0, capacity);
+        }
+
+        // Renames that the storage server missed are made now. Those that
+        // fail again are made at a later heartbeat.
+        if (isAvailable(id)) {
+            renameRemaining(id);
+        }
+    }
+
+    @Override
+    public void reportCorruption(Command command_stub, Path file)
+    {
+        if (command_stub == null || file == null) {
+            throw new NullPointerException("Empty!!!");
+        }
+
+        int id;
+        synchronized (this) {
+            id = registered(command_stub);
+        }
+
+        try {
+            if (!namespace.removeLocation(file, id)) {
+                return;
+            }
+        } catch (FileNotFoundException e) {
+            // Deleted in the meantime.
+            return;
+        }
+
+        try {
+            command(id).delete(file);
+        } catch (RMIException e) {
+            // The copy is no longer a location; it is harmless if left.
+        }
+        replicator.schedule(file);
+    }
+
+    @Override
+    public void reportAttributes(Command command_stub, Path[] files, long[] sizes,
+                                 long[] modified)
+    {
+        if (command_stub == null || files == null || sizes == null || modified == null) {
+            throw new NullPointerException("Empty!!!");
+        }
+
+        if (sizes.length != files.length || modified.length != files.length) {
+            throw new IllegalArgumentException("Attribute arrays differ in length.");
+        }
+
+        int id;
+        synchronized (this) {
+            id = registered(command_stub);
+        }
+
+        // Files deleted, or moved off the storage server, in the meantime are
+        // skipped by the namespace.
+        for (int index = 0; index < files.length; index++) {
+            if (namespace.setAttributes(files[index], id, sizes[index], modified[index])
+                    && modified[index] > 0) {
+                written(files[index], id);
+            }
+        }
+    }
+
+    // Marks the copies of a file other than the one on the given storage
+    // server, which was written, as stale, and schedules the file so that
+    // they are brought up to date. The written copy is no longer stale.
+    private void written(Path file, int written)
+    {
+        int[] locations;
+        try {
+            locations = namespace.locations(file);
+        } catch (FileNotFoundException e) {
+            return;
+        }
+
+        boolean stale;
+        synchronized (this) {
+            Writes entry = writes.get(file);
+            if (entry == null) {
+                if (locations.length == 1) {
+                    return;
+                }
+                entry = new Writes();
+                writes.put(file, entry);
+            }
+
+            entry.count++;
+            for (int location : locations) {
+                entry.stale.add(location);
+            }
+            entry.stale.remove(written);
+            stale = !entry.stale.isEmpty();
+            release(file, entry);
+        }
+
+        if (stale) {
+            replicator.schedule(file);
+        }
+    }
+
+    // Returns the locations of a file, in the given order, whose copies are
+    // not stale. If every copy is stale, which happens only if the written
+    // copy was lost, all of them are returned.
+    synchronized int[] fresh(Path file, int[] locations)
+    {
+        Writes entry = writes.get(file);
+        if (entry == null || entry.stale.isEmpty()) {
+            return locations;
+        }
+
+        int[] fresh = new int[locations.length];
+        int count = 0;
+        for (int location : locations) {
+            if (!entry.stale.contains(location)) {
+                fresh[count++] = location;
+            }
+        }
+        return count == 0 ? locations : Arrays.copyOf(fresh, count);
+    }
+
+    // Returns the locations of a file whose copies are stale.
+    synchronized int[] stale(Path file, int[] locations)
+    {
+        Writes entry = writes.get(file);
+        if (entry == null || entry.stale.isEmpty()) {
+            return new int[0];
+        }
+
+        int[] stale = new int[locations.length];
+        int count = 0;
+        for (int location : locations) {
+            if (entry.stale.contains(location)) {
+                stale[count++] = location;
+            }
+        }
+        return Arrays.copyOf(stale, count);
+    }
+
+    // Marks the copy of a file on a storage server as up to date.
+    synchronized void refreshed(Path file, int location)
+    {
+        Writes entry = writes.get(file);
+        if (entry != null) {
+            entry.stale.remove(location);
+            release(file, entry);
+        }
+    }
+
+    // Notes that a copy of a file is starting, and returns the number of
+    // writes reported so far, to be passed to unwritten. Every call must be
+    // followed by a call to endCopy.
+    synchronized long beginCopy(Path file)
+    {
+        Writes entry = writes.get(file);
+        if (entry == null) {
+            entry = new Writes();
+            writes.put(file, entry);
+        }
+        entry.copying++;
+        return entry.count;
+    }
+
+    // Determines whether no write to a file being copied was reported since
+    // beginCopy returned the given count. The caller holds the lock, so that
+    // the locations it then changes are seen by the next report.
+    boolean unwritten(Path file, long count)
+    {
+        Writes entry = writes.get(file);
+        return entry != null && entry.count == count;
+    }
+
+    // Notes that a copy of a file started with beginCopy has finished.
+    synchronized void endCopy(Path file)
+    {
+        Writes entry = writes.get(file);
+        if (entry != null) {
+            entry.copying--;
+            release(file, entry);
+        }
+    }
+
+    // Forgets the bookkeeping of a file once it has no stale copies and no
+    // copies in progress.
+    private void release(Path file, Writes entry)
+    {
+        if (entry.stale.isEmpty() && entry.copying <= 0) {
+            writes.remove(file);
+        }
+    }
+
+    @Override
+    public void drain(Command command_stub)
+    {
+        if (command_stub == null) {
+            throw new NullPointerException("Empty!!!");
+        }
+
+        int id;
+        synchronized (this) {
+            id = registered(command_stub);
+            if (states[id] == DRAINING) {
+                return;
+            }
+            states[id] = DRAINING;
+        }
+
+        for (Path file : namespace.files(id)) {
+            replicator.schedule(file);
+        }
+    }
+
+    @Override
+    public boolean isDrained(Command command_stub)
+    {
+        if (command_stub == null) {
+            throw new NullPointerException("Empty!!!");
+        }
+
+        int id;
+        synchronized (this) {
+            Integer existing = commandIds.get(command_stub);
+            if (existing == null) {
+                throw new IllegalStateException("Storage server is not registered.");
+            }
+            id = existing;
+            if (states[id] != DRAINING) {
+                return false;
+            }
+        }
+        return namespace.count(id) == 0;
+    }
+
+    @Override
+    public void deregister(Command command_stub)
+    {
+        if (command_stub == null) {
+            throw new NullPointerException("Empty!!!");
+        }
+
+        synchronized (this) {
+            int id = registered(command_stub);
+            // Files are only placed on live storage servers, so a drained
+            // storage server cannot gain files under the lock.
+            if (states[id] != DRAINING || namespace.count(id) != 0) {
+                throw new IllegalStateException("Storage server is not drained.");
+            }
+            states[id] = REMOVED;
+            heartbeats[id] = 0;
+        }
+    }
+
+    // Returns the identifier of a registered storage server that is live or
+    // draining.
+    private int registered(Command command_stub)
+    {
+        Integer id = commandIds.get(command_stub);
+
+        if (id == null || states[id] == REMOVED) {
+            throw new IllegalStateException("Storage server is not registered.");
+        }
+        if (states[id] == FAILED) {
+            throw new IllegalStateException("Storage server was considered failed "
+                    + "and must register again.");
+        }
+        return id;
+    }
+
+    // Considers failed the storage servers whose heartbeats are overdue, and
+    // schedules their files for re-replication.
+    void detectFailures()
+    {
+        ArrayList<Integer> newlyFailed = new ArrayList<Integer>();
+        long now = System.nanoTime();
+
+        synchronized (this) {
+            for (int id = 0; id < storageCount; id++) {
+                if (heartbeats[id] != 0 && isAvailable(id)
+                        && now - heartbeats[id] > heartbeatTimeout * 1000000L) {
+                    states[id] = FAILED;
+                    newlyFailed.add(id);
+                }
+            }
+        }
+
+        for (int id : newlyFailed) {
+            for (Path file : namespace.files(id)) {
+                try {
+                    // The last location of a file is kept, so that the file
+                    // becomes available again if the storage server returns,
+                    // and so is its only copy that is not stale.
+                    int[] fresh = fresh(file, namespace.locations(file));
+                    if (fresh.length == 1 && fresh[0] == id
+                            && namespace.locations(file).length > 1) {
+                        replicator.schedule(file);
+                    } else if (namespace.removeLocation(file, id)) {
+                        replicator.schedule(file);
+                    }
+                } catch (FileNotFoundException e) {
+                    // Deleted in the meantime.
+                }
+            }
+        }
+    }
+
+    // Determines whether a storage server is one of the locations of a file.
+    boolean hosts(Path file, int id)
+    {
+        try {
+            for (int location : namespace.locations(file)) {
+                if (location == id) {
+                    return true;
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // A directory.
+        }
+        return false;
+    }
+
+    // Returns the identifiers of the storage servers that may be given new
+    // files.
+    synchronized int[] liveStorage()
+    {
+        int[] live = new int[storageCount];
+        int count = 0;
+
+        for (int id = 0; id < storageCount; id++) {
+            if (states[id] == LIVE) {
+                live[count++] = id;
+            }
+        }
+        return Arrays.copyOf(live, count);
+    }
+
+    // Determines whether a storage server may be given new files.
+    synchronized boolean isLive(int id)
+    {
+        return states[id] == LIVE;
+    }
+
+    // Determines whether a storage server still serves the files it hosts:
+    // whether it is live or draining.
+    synchronized boolean isAvailable(int id)
+    {
+        return states[id] == LIVE || states[id] == DRAINING;
+    }
+
+    // Orders the locations of a file so that live storage servers come first,
+    // then draining ones, then those considered failed. The order among
+    // storage servers in the same state is kept.
+    private synchronized int[] order(int[] locations)
+    {
+        int[] ordered = new int[locations.length];
+        int count = 0;
+
+        for (byte state = LIVE; state <= REMOVED; state++) {
+            for (int location : locations) {
+                if (states[location] == state) {
+                    ordered[count++] = location;
+                }
+            }
+        }
+        return ordered;
+    }
+
+    // Has one storage server copy a file from another, limiting the
+    // bandwidth used to the given number of bytes per second. Any existing
+    // copy on the target is brought up to date, transferring only the chunks
+    // that differ. Returns the size of the copy.
+    long copy(Path file, int source, int target, long bandwidth)
+        throws IOException, RMIException
+    {
+        return command(target).copy(file, storage(source), bandwidth);
+    }
+
+    // Moves a file from one storage server to another: copies it, replaces
+    // the source with the target among the file's locations, then deletes
+    // the copy on the source. Returns false if the file was deleted, written,
+    // or its locations changed, during the copy, or if the source is stale.
+    boolean move(Path file, int source, int target, long bandwidth)
+        throws IOException, RMIException
+    {
+        long count = beginCopy(file);
+        try {
+            long size = copy(file, source, target, bandwidth);
+
+            // A write to the source since the copy was made would be lost
+            // with the source, so the source must still match the copy, and
+            // no write may have been reported since the copy started. Writes
+            // reported later find the target among the locations.
+            boolean moved = matches(file, source, target, size);
+            if (moved) {
+                synchronized (this) {
+                    try {
+                        moved = unwritten(file, count)
+                                && stale(file, new int[] {source}).length == 0
+                                && namespace.moveLocation(file, source, target);
+                    } catch (FileNotFoundException e) {
+                        moved = false;
+                    }
+                }
+            }
+
+            if (!moved) {
+                // Keep the copy if the target became a location in the
+                // meantime.
+                if (!hosts(file, target)) {
+                    command(target).delete(file);
+                }
+                return false;
+            }
+
+            synchronized (this) {
+                used[source] = Math.max(0, used[source] - size);
+                used[target] += size;
+            }
+            command(source).delete(file);
+            return true;
+        } finally {
+            endCopy(file);
+        }
+    }
+
+    // Determines whether the copy of a file on the source still has the given
+    // size, and the same contents as the copy on the target. A file that
+    // shrank or was deleted while it was checked does not match.
+    boolean matches(Path file, int source, int target, long size)
+        throws RMIException
+    {
+        try {
+            return storage(source).size(file) == size
+                    && storage(source).checksum(file, 0, size)
+                        == storage(target).checksum(file, 0, size);
+        } catch (IOException e) {
+            return false;
+        } catch (IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    // Returns the command stub of the storage server with the given
+    // identifier.
+    synchronized Command command(int id)
+    {
+        return commandStubs[id];
+    }
+
+    // Returns the client stub of the storage server with the given
+    // identifier.
+    synchronized Storage storage(int id)
+    {
+        return storageStubs[id];
+    }
+
+    // Bookkeeping of a file whose copies are stale or being made.
+    static class Writes
+    {
+        // Locations whose copies miss writes reported since they were made.
+        final HashSet<Integer> stale = new HashSet<Integer>();
+        // Number of writes reported while the bookkeeping was kept.
+        long count;
+        // Number of copies of the file in progress.
+        int copying;
+    }
 }
@@ -1,248 +1,163 @@
 package naming;
 
 import common.Path;
-import storage.Command;
-import storage.Storage;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
- * Storage and Command stub pair
+ * Directory entry: its children, in the order of their names' code points,
+ * which is also the order of their UTF-8 encodings.
  */
 //References :- https://www.youtube.com/watch?v=AWaSacP-hTE
 //References :- https://www.baeldung.com/java-binary-tree
 //References :- https://www.youtube.com/watch?v=GURClZeR96E
 //References :- https://www.researchgate.net/figure/The-tree-structure-of-Domain-Name-System_fig3_2563251
+class PathNode extends PathNode1{
 
-class ServerStubs extends PathNode1{
-    public Storage storageStub;
-    public Command commandStub;
-
-    public ServerStubs(String name, Path path, Storage storageStub, Command commandStub) {
-        super(name, path);
-        this.storageStub = storageStub;
-        this.commandStub = commandStub;
-    }
-
-    public Storage getStorage(){
-        return this.storageStub;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        ServerStubs that = (ServerStubs) o;
-
-        return storageStub.equals(that.storageStub) && commandStub.equals(that.commandStub);
-    }
-
-
-    @Override
-    public int hashCode() {
-        int result = storageStub.hashCode();
-        result = 31 * result + commandStub.hashCode();
-
-        return result;
-    }
-
-    @Override
-    public boolean isDirectory() {
-        return false;
-    }
-}
+    public ArrayList<PathNode1> files;
+    // Number of objects beneath the directory, and number of files beneath
+    // it hosted by each storage server.
+    long objects;
+    private long[] hosted = new long[0];
 
-abstract class PathNode1 {
-    private String name;
-    private Path nodePath;
-    private int accessTime;
-    private ServerStubs serverStubs;    // Storage server of the original copy
-    private HashSet<ServerStubs> replicaStubs;
-    private HashMap<String, PathNode> childNodes;
-
-    public PathNode1(String name, Path p) {
-        this.name = name;
-        this.nodePath = p;
-        accessTime = 0;
-        serverStubs = null;
-        replicaStubs = new HashSet<>();
-        childNodes = new HashMap<>();
+    public PathNode(String name){
+        super(name);
+        this.files = new ArrayList<PathNode1>();
     }
 
-    public String getName() {
-        return this.name;
+    // Adds a delta to the number of files beneath the directory hosted by a
+    // storage server.
+    void host(int storage, long delta) {
+        if (storage >= hosted.length) {
+            hosted = Arrays.copyOf(hosted, storage + 1);
+        }
+        hosted[storage] += delta;
     }
 
-    public Path getPath() {
-        return this.nodePath;
+    // Returns the number of files beneath the directory hosted by a storage
+    // server.
+    long hosted(int storage) {
+        return storage < hosted.length ? hosted[storage] : 0;
     }
 
-    public abstract boolean isDirectory();
-
-    public boolean isFile() { return serverStubs != null; }
-
-    public ServerStubs getStubs() { return serverStubs; }
-
-    public void setStubs(ServerStubs stubs) { serverStubs = stubs; }
-
-    public HashMap<String, PathNode> getChildren() { return childNodes; }
-
-    public HashSet<ServerStubs> getReplicaStubs() {
-        return replicaStubs;
+    // Returns the number of storage servers for which hosted counts are kept.
+    int hostedLength() {
+        return hosted.length;
     }
 
-    public void addReplicaStub(ServerStubs serverStubs) {
-        // Naming server will ensure the nodes calling
-        // this method refers to a file, not a directory
-        replicaStubs.add(serverStubs);
+    // Returns the child with the given name, or null if there is none.
+    PathNode1 getChild(String name) {
+        int position = position(name);
+        return position >= 0 ? files.get(position) : null;
     }
 
-    public int getReplicaSize() {
-        return replicaStubs.size();
+    // Adds a child in name order. There must be no child of the same name.
+    void add(PathNode1 child) {
+        files.add(-position(child.getName()) - 1, child);
     }
 
-    public void removeReplicaStub(ServerStubs serverStubs) {
-        replicaStubs.remove(serverStubs);
-    }
+    // Searches the children for a name. Returns the position of the child
+    // if it is found. Otherwise, returns -(p + 1), where p is the position
+    // at which the child would be inserted.
+    int position(String name) {
+        int low = 0;
+        int high = files.size() - 1;
 
-    /** Increase the node's access time
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(files.get(middle).getName(), name);
 
-     <p>
-     Return true if the access time is beyond the pre-set multiple
-     and then reset the access time to 0.
-     */
-    public boolean incAccessTime(int multiple) {
-        if (++accessTime > multiple) {
-            accessTime = 0;
-            return true;
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
         }
-
-        return false;
+        return -(low + 1);
     }
 
-    public void resetAccessTime() {
-        accessTime = 0;
-    }
+    // Compares names in the order of their code points. This differs from
+    // String.compareTo only in that surrogates, which encode the code points
+    // beyond the first 65536, order after all other characters.
+    static int compare(String first, String second) {
+        int length = Math.min(first.length(), second.length());
 
-}
+        for (int index = 0; index < length; index++) {
+            char a = first.charAt(index);
+            char b = second.charAt(index);
 
-class PathNode extends PathNode1{
-
-    public ArrayList<PathNode1> files;
-
-    public PathNode(String name, Path path){
-        super(name, path);
-        this.files = new ArrayList<PathNode1>();
+            if (a != b) {
+                boolean surrogate = Character.isSurrogate(a);
+                if (surrogate != Character.isSurrogate(b)) {
+                    return surrogate ? 1 : -1;
+                }
+                return a - b;
+            }
+        }
+        return first.length() - second.length();
     }
 
     public PathNode1 getNodeByPath(Path path) throws FileNotFoundException {
 
-        Path path1 = new Path(path.filePath);
-        return getNodeByPathHelper(path1);
-    }
-
-    public PathNode1 getNodeByPathHelper(Path path1) throws FileNotFoundException {
+        PathNode1 node = this;
 
-        if (path1.filePath.size() == 0) {
-            return this;
-        }
-
-        String firstNode = path1.filePath.get(0);
-
-        if (path1.filePath.size() == 1) {
-            for (PathNode1 pathNode1 : files) {
-                if (pathNode1.getName().equals(firstNode)) {
-                    return pathNode1;
-                }
+        for (String component : path) {
+            if (!node.isDirectory()) {
+                throw new FileNotFoundException("Enter Path Correctly, Man !!!");
             }
-        } else {
-            for (PathNode1 pathNode2 : this.files) {
-                if (pathNode2.getName().equals(firstNode) && pathNode2.isDirectory()) {
-                    path1.filePath.remove(0);
-                    return ((PathNode) pathNode2).getNodeByPathHelper(path1);
-                } else if (pathNode2.getName().equals(firstNode) && !pathNode2.isDirectory()) {
-                    throw new FileNotFoundException("Enter Path Correctly, Man !!!");
-                }
+
+            node = ((PathNode) node).getChild(component);
+            if (node == null) {
+                throw new FileNotFoundException("Path is Alone, it represents no file.....!!!!");
             }
         }
-        throw new FileNotFoundException("Path is Alone, it represents no file.....!!!!");
+        return node;
     }
 
-    public boolean addChild(Path path, Command command,
-                                   Storage storage) {
+    public boolean addChild(Path path, int storage) {
         if (path.isRoot()) {
             return true;
         }
-        Path path1 = new Path(path.filePath);
-        return addChildHelper(path1, command, storage, new Path());
-    }
 
-    public boolean addChildHelper(Path path1, Command command, Storage storage,
-                          Path path2) {
+        // Walk down to the parent directory, creating missing directories.
+        PathNode directory = this;
+        int depth = 1;
 
-        if (path1.filePath.size() == 0) {
-            return true;
-        }
+        for (String component : path) {
+            PathNode1 child = directory.getChild(component);
 
-        String firstNode = path1.filePath.get(0);
-        path2.filePath.add(firstNode);
-
-        if (path1.filePath.size() == 1) {
-            for (PathNode1 pathNode1 : files) {
-                if (pathNode1.getName().equals(firstNode)) {
+            if (depth == path.depth()) {
+                if (child != null) {
                     return false;
                 }
+                directory.add(new ServerStubs(component, storage));
+                return true;
             }
-            this.files.add(new ServerStubs(firstNode, path2, storage, command));
-            return true;
-        }
-
-        for (PathNode1 pathNode2 : files) {
 
-            if (pathNode2.getName().equals(firstNode) && pathNode2.isDirectory()) {
-                path1.filePath.remove(0);
-                return ((PathNode) pathNode2).addChildHelper(path1, command, storage, path2);
-            }
-            else if (pathNode2.getName().equals(firstNode) && !(pathNode2.isDirectory())) {
+            if (child == null) {
+                child = new PathNode(component);
+                directory.add(child);
+            } else if (!child.isDirectory()) {
                 return false;
             }
-        }
 
-        PathNode pathNode3 = new PathNode(firstNode, path2);
-        this.files.add(pathNode3);
-        path1.filePath.remove(0);
-
-        return pathNode3.addChildHelper(path1, command, storage, path2);
-    }
-
-
-    public Set<Storage> deleteDirectory() throws InterruptedException {
-        Set<Storage> storageSet = new HashSet<Storage>();
-        for (PathNode1 pathNode1 : this.files) {
-            if (!pathNode1.isDirectory()) {
-                storageSet.add(((ServerStubs) pathNode1).getStorage());
-            } else {
-                Set<Storage> s1 = ((PathNode) pathNode1).deleteDirectory();
-                storageSet.addAll(s1);
-            }
+            directory = (PathNode) child;
+            depth++;
         }
-        return storageSet;
+        return true;
     }
 
     public boolean deleteChild(Path path) {
-        String roadToLeaf = path.filePath.get(path.filePath.size()-1);
-        for (PathNode1 pathNode1 : files) {
-            if (pathNode1.getName().equals(roadToLeaf)) {
-                files.remove(pathNode1);
-                return true;
-            }
+        int position = position(path.last());
+        if (position < 0) {
+            return false;
         }
-        return false;
+        files.remove(position);
+        return true;
     }
 
     @Override
@@ -0,0 +1,22 @@
+package naming;
+
+/**
+ * Entry of the directory tree: a directory or a file, known by its name.
+ */
+abstract class PathNode1 {
+    private String name;
+
+    public PathNode1(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public abstract boolean isDirectory();
+}
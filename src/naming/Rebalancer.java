@@ -0,0 +1,339 @@
+package naming;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Log;
+import common.Path;
+
+/** Background rebalancing of files between storage servers.
+
+    <p>
+    Storage servers that join the cluster start empty, while those that were
+    there before keep their files. The rebalancer periodically compares the
+    utilization of the live storage servers - the space used by their files
+    relative to their capacity, as reported in heartbeats - and moves files
+    from the fullest storage server to the emptiest, until their utilizations
+    are within a threshold of each other. A file is moved by copying it to the
+    target, replacing the source with the target among the file's locations,
+    and deleting the copy on the source. The target reads the file directly
+    from the source with limited bandwidth, and a round moves at most as many
+    bytes as the bandwidth allows in one interval.
+
+    <p>
+    In dry-run mode, the moves are planned and logged, but not made.
+
+    <p>
+    Before the locations of a file are switched, the source is checked
+    against the copy, by size and checksum. If the source was written during
+    the copy, or a write was reported for it, the move is abandoned and the
+    copy deleted; the file is considered again in a later round. A stale
+    copy, which misses writes made to another copy, is never moved.
+ */
+class Rebalancer implements Runnable
+{
+    private static final Log logger = Log.get("naming");
+
+    /** Maximum number of files of each source considered in a round. */
+    private static final int MAX_CANDIDATES = 256;
+
+    /** Planned move of a file. */
+    static class Move
+    {
+        final Path file;
+        final int source;
+        final int target;
+        final long size;
+
+        Move(Path file, int source, int target, long size)
+        {
+            this.file = file;
+            this.source = source;
+            this.target = target;
+            this.size = size;
+        }
+
+        @Override
+        public String toString()
+        {
+            return file + " from storage server " + source + " to " + target
+                    + " (" + size + " bytes)";
+        }
+    }
+
+    private final NamingServer server;
+    private final long bandwidth;
+    private final AtomicLong moves = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    // Path after which the files of each storage server are next listed, so
+    // that successive rounds consider different files.
+    private final HashMap<Integer, Path> cursors = new HashMap<Integer, Path>();
+    private Thread thread;
+
+    // Time between rounds, in milliseconds. Zero or less disables the thread.
+    long interval;
+    // Largest acceptable difference in utilization between storage servers.
+    double threshold;
+    // Whether moves are only logged.
+    boolean dryRun;
+
+    /** Creates a rebalancer for a naming server, configured by system
+        properties as described in <code>NamingServer</code>.
+
+        @param server The naming server.
+     */
+    Rebalancer(NamingServer server)
+    {
+        this.server = server;
+        this.interval = Long.getLong("naming.rebalance.interval", 30000L);
+        this.threshold = Double.parseDouble(
+                System.getProperty("naming.rebalance.threshold", "0.1"));
+        this.dryRun = Boolean.getBoolean("naming.rebalance.dryrun");
+
+        this.bandwidth = Long.getLong("naming.rebalance.bandwidth", 4L << 20);
+    }
+
+    /** Starts the rebalancing thread, unless rebalancing is disabled. */
+    synchronized void start()
+    {
+        if (thread == null && interval > 0) {
+            thread = new Thread(this, "naming server rebalancer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Stops the rebalancing thread. */
+    void stop()
+    {
+        Thread stopping;
+        synchronized (this) {
+            stopping = thread;
+            thread = null;
+        }
+
+        if (stopping != null) {
+            stopping.interrupt();
+        }
+    }
+
+    /** Returns the number of files moved so far. */
+    long moves()
+    {
+        return moves.get();
+    }
+
+    /** Returns the number of bytes moved so far. */
+    long bytes()
+    {
+        return bytes.get();
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(interval);
+                rebalance();
+            }
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /** Plans one round of moves and, unless in dry-run mode, makes them.
+
+        @return The moves planned. If the thread is interrupted, the remaining
+                moves are not made.
+     */
+    List<Move> rebalance()
+    {
+        List<Move> plan = plan();
+
+        for (Move move : plan) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+
+            if (dryRun) {
+                logger.info("Rebalancer (dry run): would move " + move);
+                continue;
+            }
+
+            // The storage servers may have changed state since planning.
+            if (!server.isLive(move.target) || !server.isAvailable(move.source)) {
+                continue;
+            }
+
+            try {
+                if (server.move(move.file, move.source, move.target, bandwidth)) {
+                    moves.incrementAndGet();
+                    bytes.addAndGet(move.size);
+                }
+            } catch (Exception e) {
+                logger.warn("Unable to move " + move, e);
+            }
+        }
+        return plan;
+    }
+
+    /** Plans the moves that bring the utilizations of the live storage
+        servers within the threshold of each other.
+
+        <p>
+        Moves are planned from the fullest storage server to the emptiest,
+        choosing each time the largest file that does not take either past the
+        average utilization.
+
+        @return The moves, in the order in which they should be made.
+     */
+    List<Move> plan()
+    {
+        int[] ids;
+        long[] used;
+        long[] capacity;
+
+        synchronized (server) {
+            int[] live = server.liveStorage();
+            int count = 0;
+
+            ids = new int[live.length];
+            for (int id : live) {
+                if (server.capacity[id] > 0) {
+                    ids[count++] = id;
+                }
+            }
+
+            used = new long[count];
+            capacity = new long[count];
+            for (int index = 0; index < count; index++) {
+                used[index] = server.used[ids[index]];
+                capacity[index] = server.capacity[ids[index]];
+            }
+        }
+
+        List<Move> plan = new ArrayList<Move>();
+        if (used.length < 2) {
+            return plan;
+        }
+
+        long totalUsed = 0;
+        long totalCapacity = 0;
+        for (int index = 0; index < used.length; index++) {
+            totalUsed += used[index];
+            totalCapacity += capacity[index];
+        }
+        double average = (double) totalUsed / totalCapacity;
+
+        long budget = Long.MAX_VALUE;
+        if (bandwidth > 0 && interval > 0) {
+            budget = bandwidth * interval / 1000;
+        }
+
+        boolean[] exhausted = new boolean[used.length];
+        HashMap<Integer, List<Move>> candidates = new HashMap<Integer, List<Move>>();
+        HashSet<Path> planned = new HashSet<Path>();
+
+        while (budget > 0) {
+            int source = -1;
+            int target = -1;
+            for (int index = 0; index < used.length; index++) {
+                double utilization = (double) used[index] / capacity[index];
+                if (!exhausted[index] && (source < 0
+                        || utilization > (double) used[source] / capacity[source])) {
+                    source = index;
+                }
+                if (target < 0 || utilization < (double) used[target] / capacity[target]) {
+                    target = index;
+                }
+            }
+
+            if (source < 0 || source == target
+                    || (double) used[source] / capacity[source]
+                       - (double) used[target] / capacity[target] <= threshold) {
+                break;
+            }
+
+            long excess = used[source] - (long) (average * capacity[source]);
+            long room = (long) (average * capacity[target]) - used[target];
+            long wanted = Math.min(budget, Math.min(excess, room));
+
+            if (!candidates.containsKey(source)) {
+                candidates.put(source, candidates(ids[source]));
+            }
+            Move move = pick(candidates.get(source), ids[target], wanted, planned);
+
+            if (move == null) {
+                exhausted[source] = true;
+                continue;
+            }
+
+            plan.add(move);
+            planned.add(move.file);
+            used[source] -= move.size;
+            used[target] += move.size;
+            budget -= move.size;
+        }
+        return plan;
+    }
+
+    // Lists some of the files hosted by a storage server, continuing from
+    // where the previous round left off, and returns them as moves with no
+    // target. Sizes are those recorded by the namespace.
+    private List<Move> candidates(int source)
+    {
+        List<Move> candidates = new ArrayList<Move>();
+        Path[] files;
+
+        synchronized (cursors) {
+            files = server.namespace.files(source, cursors.get(source), MAX_CANDIDATES);
+
+            // Start again from the beginning once the end is reached.
+            if (files.length < MAX_CANDIDATES) {
+                cursors.remove(source);
+            } else {
+                cursors.put(source, files[files.length - 1]);
+            }
+        }
+
+        for (Path file : files) {
+            try {
+                long size = server.namespace.attributes(file).size();
+                if (size > 0) {
+                    candidates.add(new Move(file, source, -1, size));
+                }
+            } catch (FileNotFoundException e) {
+                // Deleted in the meantime.
+            }
+        }
+        return candidates;
+    }
+
+    // Picks the largest candidate that is no larger than the given size, is
+    // not already hosted by the target, and is not already planned. Returns
+    // null if there is none.
+    private Move pick(List<Move> candidates, int target, long wanted,
+                      HashSet<Path> planned)
+    {
+        Move best = null;
+
+        for (Move candidate : candidates) {
+            if (candidate.size > wanted || planned.contains(candidate.file)
+                    || (best != null && candidate.size <= best.size)) {
+                continue;
+            }
+            if (!server.hosts(candidate.file, target)) {
+                best = candidate;
+            }
+        }
+
+        if (best == null) {
+            return null;
+        }
+        return new Move(best.file, best.source, target, best.size);
+    }
+}
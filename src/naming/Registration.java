@@ -7,7 +7,10 @@ import rmi.RMIException;
 /** Naming server registration interface.
 
     <p>
-    This interface is used once, on startup, by each storage server.
+    This interface is used by each storage server on startup, to register, and
+    then periodically, to report that it is still alive. A storage server
+    leaving the cluster first drains, and deregisters once its files are hosted
+    elsewhere.
  */
 public interface Registration
 {
@@ -47,4 +50,142 @@ public interface Registration
      */
     public Path[] register(Storage client_stub, Command command_stub,
                            Path[] files) throws RMIException;
+
+    /** Reports that a registered storage server is alive.
+
+        <p>
+        Storage servers call this method periodically after registering. Once
+        a storage server has sent a heartbeat, the naming server considers it
+        failed if no further heartbeat arrives within a timeout. A failed
+        storage server is no longer given new files, and the naming server
+        makes new copies of its files from their remaining replicas. Storage
+        servers that never send heartbeats are never considered failed.
+
+        <p>
+        Each heartbeat also reports how much space the storage server uses and
+        how much it may use. The naming server moves files from the fullest
+        storage servers to the emptiest ones according to these reports.
+
+        <p>
+        A storage server that has been considered failed must register again.
+        Files that it hosts which have since been replicated elsewhere are then
+        returned as duplicates to delete.
+
+        @param command_stub Storage server command service stub, as given to
+                            <code>register</code>.
+        @param used Number of bytes used by the files of the storage server.
+        @param capacity Number of bytes that the storage server may use, or
+                        zero if unknown.
+        @throws IllegalStateException If the storage server is not registered,
+                                      or has been considered failed.
+        @throws NullPointerException If <code>command_stub</code> is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void heartbeat(Command command_stub, long used, long capacity)
+        throws RMIException;
+
+    /** Reports that a file is corrupted on a storage server.
+
+        <p>
+        If the file has other locations, the naming server removes the
+        storage server from them, commands it to delete its copy, and copies
+        the file again from another location. The only copy of a file is kept.
+
+        @param command_stub Storage server command service stub, as given to
+                            <code>register</code>.
+        @param file Path to the corrupted file.
+        @throws IllegalStateException If the storage server is not registered,
+                                      or has been considered failed.
+        @throws NullPointerException If either argument is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void reportCorruption(Command command_stub, Path file)
+        throws RMIException;
+
+    /** Reports the sizes and modification times of files on a storage
+        server.
+
+        <p>
+        Storage servers report the files written since their last report, and
+        after registering, the files they registered. The naming server
+        records the attributes of each file of which the storage server is a
+        location, and ignores the others.
+
+        @param command_stub Storage server command service stub, as given to
+                            <code>register</code>.
+        @param files Paths to the files.
+        @param sizes Size of each file, in bytes.
+        @param modified Time of the last write to each file, in milliseconds,
+                        or a negative value if it is not known.
+        @throws IllegalStateException If the storage server is not registered,
+                                      or has been considered failed.
+        @throws IllegalArgumentException If the arrays differ in length.
+        @throws NullPointerException If any of the arguments is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void reportAttributes(Command command_stub, Path[] files, long[] sizes,
+                                 long[] modified)
+        throws RMIException;
+
+    /** Starts draining a registered storage server.
+
+        <p>
+        A draining storage server is given no new files. Its files are copied
+        in the background to other storage servers, unless they already have
+        as many copies elsewhere as the replication factor. Once a file has a
+        copy on a storage server that is not draining, the draining storage
+        server is no longer one of its locations, and clients are directed to
+        the other copies. Until then, the draining storage server continues to
+        serve the file.
+
+        <p>
+        Draining a storage server that is already draining has no effect.
+
+        @param command_stub Storage server command service stub, as given to
+                            <code>register</code>.
+        @throws IllegalStateException If the storage server is not registered,
+                                      or has been considered failed.
+        @throws NullPointerException If <code>command_stub</code> is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void drain(Command command_stub) throws RMIException;
+
+    /** Determines whether a draining storage server may deregister.
+
+        @param command_stub Storage server command service stub, as given to
+                            <code>register</code>.
+        @return <code>true</code> if the storage server is draining and no
+                longer hosts any file, <code>false</code> otherwise.
+        @throws IllegalStateException If the storage server is not registered.
+        @throws NullPointerException If <code>command_stub</code> is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public boolean isDrained(Command command_stub) throws RMIException;
+
+    /** Removes a drained storage server from the cluster.
+
+        <p>
+        After this call, the storage server may be stopped. It must not send
+        further heartbeats. It may later register again, as a new storage
+        server with no files.
+
+        @param command_stub Storage server command service stub, as given to
+                            <code>register</code>.
+        @throws IllegalStateException If the storage server is not registered,
+                                      or is not drained.
+        @throws NullPointerException If <code>command_stub</code> is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void deregister(Command command_stub) throws RMIException;
 }
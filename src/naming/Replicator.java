@@ -0,0 +1,381 @@
+package naming;
+
+import java.io.FileNotFoundException;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Log;
+import common.Path;
+
+/** Background re-replication of files.
+
+    <p>
+    The replicator keeps a queue of files that may have fewer live copies than
+    the naming server's replication factor. A single background thread takes
+    files from the queue and copies each one from a live location to a live
+    storage server that does not yet host it, until the file has as many copies
+    as the replication factor, or as there are live storage servers. The target
+    storage server reads the file directly from the source, with limited
+    bandwidth, so that recovery does not starve client requests.
+
+    <p>
+    Files are scheduled when a storage server fails, and, if the replication
+    factor is greater than one, when files are created or registered. Files
+    that cannot have as many copies as the replication factor, for lack of live
+    storage servers, are set aside and scheduled again when a storage server
+    registers.
+
+    <p>
+    Copies on draining storage servers do not count towards the replication
+    factor, but are used as sources when the file has no other copy. Once a
+    file has a copy on a live storage server, and either has as many live
+    copies as the replication factor or cannot have more, the draining storage
+    servers are removed from its locations.
+
+    <p>
+    A replica is a copy of the file as it was when the replica was made. When
+    a copy is written, the naming server marks the other copies stale and
+    schedules the file. Stale copies on available storage servers are brought
+    up to date from a copy that is not stale before any new copy is made; the
+    storage server holding the stale copy transfers only the chunks that
+    differ. A stale copy is marked up to date, and a new copy added to the
+    locations, only if no write was reported while it was being made, and
+    the source still matches it. Otherwise the file is checked again.
+ */
+class Replicator implements Runnable
+{
+    private static final Log logger = Log.get("naming");
+
+    /** Delay before retrying a file whose copy failed, in milliseconds. */
+    private static final long RETRY_DELAY = 1000;
+
+    private final NamingServer server;
+    private final long bandwidth;
+    private final LinkedHashSet<Path> queue = new LinkedHashSet<Path>();
+    private final LinkedHashSet<Path> deferred = new LinkedHashSet<Path>();
+    private final Random random = new Random();
+    private final AtomicLong copies = new AtomicLong();
+    private Thread thread;
+
+    /** Creates a replicator for a naming server.
+
+        @param server The naming server.
+        @param bandwidth Limit on the bandwidth of copies, in bytes per second.
+     */
+    Replicator(NamingServer server, long bandwidth)
+    {
+        this.server = server;
+        this.bandwidth = bandwidth;
+    }
+
+    /** Starts the replication thread. */
+    synchronized void start()
+    {
+        if (thread == null) {
+            thread = new Thread(this, "naming server replicator");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Stops the replication thread. Files still queued are not copied. */
+    void stop()
+    {
+        Thread stopping;
+        synchronized (this) {
+            stopping = thread;
+            thread = null;
+        }
+
+        if (stopping != null) {
+            stopping.interrupt();
+        }
+    }
+
+    /** Adds a file to the queue of files to check. */
+    synchronized void schedule(Path file)
+    {
+        if (queue.add(file)) {
+            notifyAll();
+        }
+    }
+
+    /** Schedules again the files set aside for lack of storage servers. This
+        is called when a storage server registers. */
+    synchronized void storageAdded()
+    {
+        if (!deferred.isEmpty()) {
+            queue.addAll(deferred);
+            deferred.clear();
+            notifyAll();
+        }
+    }
+
+    // Sets a file aside until a storage server registers.
+    private synchronized void defer(Path file)
+    {
+        deferred.add(file);
+    }
+
+    /** Returns the number of files waiting to be checked. */
+    synchronized int pending()
+    {
+        return queue.size();
+    }
+
+    /** Returns the number of copies made so far. */
+    long copies()
+    {
+        return copies.get();
+    }
+
+    @Override
+    public void run()
+    {
+        while (!Thread.currentThread().isInterrupted()) {
+            Path file;
+
+            try {
+                synchronized (this) {
+                    while (queue.isEmpty()) {
+                        wait();
+                    }
+                    file = queue.iterator().next();
+                    queue.remove(file);
+                }
+
+                if (!replicate(file)) {
+                    Thread.sleep(RETRY_DELAY);
+                    schedule(file);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /** Makes one new copy of a file, if it needs one.
+
+        @return <code>false</code> if a copy was needed but could not be made.
+     */
+    boolean replicate(Path file)
+    {
+        int[] locations;
+        try {
+            locations = server.namespace.locations(file);
+        } catch (FileNotFoundException e) {
+            // Deleted since it was scheduled.
+            return true;
+        }
+
+        // Stale copies are brought up to date before more are made, and are
+        // not used as sources.
+        int[] stale = server.stale(file, locations);
+        if (stale.length > 0) {
+            return refresh(file, locations, stale);
+        }
+
+        int[] live = server.liveStorage();
+        int source = -1;
+        int draining = -1;
+        int copies = 0;
+        for (int location : locations) {
+            if (server.isLive(location)) {
+                if (source < 0) {
+                    source = location;
+                }
+                copies++;
+            } else if (draining < 0 && server.isAvailable(location)) {
+                draining = location;
+            }
+        }
+
+        // With no live copy left, the file stays unavailable until one of its
+        // storage servers registers again.
+        if (source < 0 && draining < 0) {
+            defer(file);
+            return true;
+        }
+
+        int target = -1;
+        if (copies < server.replication) {
+            target = pickTarget(live, locations);
+        }
+
+        if (target < 0) {
+            // Draining copies are kept until the file has a live one.
+            if (copies > 0 && draining >= 0) {
+                release(file, locations);
+            }
+            if (copies < server.replication) {
+                defer(file);
+            }
+            return true;
+        }
+
+        if (source < 0) {
+            source = draining;
+        }
+
+        long count = server.beginCopy(file);
+        try {
+            long size = server.copy(file, source, target, bandwidth);
+
+            // The new copy becomes a location only if the source still
+            // matches it and no write was reported in the meantime; a write
+            // reported later marks it stale.
+            boolean current = server.matches(file, source, target, size);
+            synchronized (server) {
+                current = current && server.unwritten(file, count)
+                        && server.namespace.addLocation(file, target);
+            }
+
+            if (!current) {
+                if (!server.hosts(file, target)) {
+                    server.command(target).delete(file);
+                }
+                return false;
+            }
+        } catch (FileNotFoundException e) {
+            // Deleted while it was being copied: remove the new copy.
+            try {
+                server.command(target).delete(file);
+            } catch (Exception ignored) {
+            }
+            return true;
+        } catch (Exception e) {
+            logger.warn("Unable to copy " + file + " from storage server " + source
+                    + " to " + target, e);
+            return false;
+        } finally {
+            server.endCopy(file);
+        }
+
+        this.copies.incrementAndGet();
+
+        // Check the file again if it needs more copies, still has draining
+        // locations, or the target started draining during the copy.
+        if (copies + 1 < server.replication || draining >= 0
+                || !server.isLive(target)) {
+            schedule(file);
+        }
+        return true;
+    }
+
+    // Brings the stale copies of a file on available storage servers up to
+    // date from an available copy that is not stale. A file is set aside if
+    // every copy that is not stale is unavailable. If no location holds
+    // a copy that is not stale, the stale copies are the latest left, and
+    // are kept as they are.
+    private boolean refresh(Path file, int[] locations, int[] stale)
+    {
+        if (stale.length == locations.length) {
+            for (int location : stale) {
+                server.refreshed(file, location);
+            }
+            schedule(file);
+            return true;
+        }
+
+        int source = -1;
+        for (int location : server.fresh(file, locations)) {
+            if (server.isAvailable(location)) {
+                source = location;
+                break;
+            }
+        }
+
+        if (source < 0) {
+            defer(file);
+            return true;
+        }
+
+        boolean waiting = false;
+        for (int target : stale) {
+            if (!server.isAvailable(target)) {
+                waiting = true;
+                continue;
+            }
+
+            long count = server.beginCopy(file);
+            try {
+                long size = server.copy(file, source, target, bandwidth);
+
+                // A write reported during the copy has scheduled the file
+                // again.
+                boolean current = server.matches(file, source, target, size);
+                synchronized (server) {
+                    if (!server.unwritten(file, count)) {
+                        return true;
+                    }
+                    if (current) {
+                        server.refreshed(file, target);
+                    }
+                }
+                if (!current) {
+                    return false;
+                }
+            } catch (FileNotFoundException e) {
+                // Deleted in the meantime.
+                return true;
+            } catch (Exception e) {
+                logger.warn("Unable to refresh " + file + " on storage server "
+                        + target + " from " + source, e);
+                return false;
+            } finally {
+                server.endCopy(file);
+            }
+            this.copies.incrementAndGet();
+        }
+
+        if (waiting) {
+            defer(file);
+        } else {
+            schedule(file);
+        }
+        return true;
+    }
+
+    // Removes the draining storage servers from the locations of a file that
+    // has a live copy.
+    private void release(Path file, int[] locations)
+    {
+        for (int location : locations) {
+            if (!server.isLive(location) && server.isAvailable(location)) {
+                try {
+                    server.namespace.removeLocation(file, location);
+                } catch (FileNotFoundException e) {
+                    // Deleted in the meantime.
+                    return;
+                }
+            }
+        }
+    }
+
+    // Picks a live storage server that is not among the given locations, or
+    // returns -1 if there is none.
+    private int pickTarget(int[] live, int[] locations)
+    {
+        int[] candidates = new int[live.length];
+        int count = 0;
+
+        for (int id : live) {
+            boolean hosting = false;
+            for (int location : locations) {
+                hosting |= location == id;
+            }
+            if (!hosting) {
+                candidates[count++] = id;
+            }
+        }
+
+        if (count == 0) {
+            return -1;
+        }
+
+        synchronized (random) {
+            return candidates[random.nextInt(count)];
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package naming;
+
+import java.util.Arrays;
+
+/**
+ * File entry: the identifiers of the storage servers hosting the file,
+ * primary first, and the size and modification time last reported by them.
+ */
+class ServerStubs extends PathNode1{
+    public int[] storage;
+    public long size;
+    public long modified;
+
+    public ServerStubs(String name, int storage) {
+        super(name);
+        this.storage = new int[] {storage};
+    }
+
+    public int getStorage(){
+        return this.storage[0];
+    }
+
+    public int[] getLocations(){
+        return this.storage.clone();
+    }
+
+    public boolean addLocation(int id) {
+        for (int location : storage) {
+            if (location == id) {
+                return false;
+            }
+        }
+        storage = Arrays.copyOf(storage, storage.length + 1);
+        storage[storage.length - 1] = id;
+        return true;
+    }
+
+    public boolean moveLocation(int from, int to) {
+        int index = -1;
+        for (int position = 0; position < storage.length; position++) {
+            if (storage[position] == to) {
+                return false;
+            }
+            if (storage[position] == from) {
+                index = position;
+            }
+        }
+        if (index < 0) {
+            return false;
+        }
+        int[] moved = storage.clone();
+        moved[index] = to;
+        storage = moved;
+        return true;
+    }
+
+    public boolean removeLocation(int id) {
+        if (storage.length == 1) {
+            return false;
+        }
+        for (int index = 0; index < storage.length; index++) {
+            if (storage[index] == id) {
+                int[] remaining = new int[storage.length - 1];
+                System.arraycopy(storage, 0, remaining, 0, index);
+                System.arraycopy(storage, index + 1, remaining, index, remaining.length - index);
+                storage = remaining;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return false;
+    }
+}
@@ -2,6 +2,7 @@ package naming;
 
 import java.io.*;
 import common.*;
+import rmi.Idempotent;
 import rmi.RMIException;
 import storage.Storage;
 
@@ -16,6 +17,9 @@ import storage.Storage;
  */
 public interface Service
 {
+    /** Largest number of entries in a page of a directory listing. */
+    public static final int MAXIMUM_PAGE = 4096;
+
     /** Determines whether a path refers to a directory.
 
         @param path The object to be checked.
@@ -26,6 +30,7 @@ public interface Service
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Idempotent
     public boolean isDirectory(Path path)
         throws RMIException, FileNotFoundException;
 
@@ -39,9 +44,66 @@ public interface Service
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Idempotent
     public String[] list(Path directory)
         throws RMIException, FileNotFoundException;
 
+    /** Lists a page of the contents of a directory.
+
+        <p>
+        Large directories are best listed a page at a time, so that no single
+        response holds every entry. Entries are listed in the order of the
+        code points of their names. The first page is requested with a
+        <code>null</code> token, and each following page with the token of
+        the page before it. Entries that exist throughout the listing are
+        listed exactly once; entries created or deleted meanwhile may or may
+        not be.
+
+        @param directory The directory to be listed.
+        @param token Token returned with the previous page, or
+                     <code>null</code> for the first page.
+        @param limit The largest number of entries on the page. Pages hold no
+                     more than <code>MAXIMUM_PAGE</code> entries, whatever the
+                     limit.
+        @return The page. Its token is <code>null</code> if it is the last.
+        @throws IllegalArgumentException If the limit is not positive.
+        @throws FileNotFoundException If the given path does not refer to a
+                                      directory.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    @Idempotent
+    public Listing list(Path directory, String token, int limit)
+        throws RMIException, FileNotFoundException;
+
+    /** Lists a page of the contents of a directory, with the attributes of
+        each entry.
+
+        <p>
+        Pages are requested as for <code>list</code>. Each entry comes with
+        whether it is a directory and, for files, the size, modification time,
+        number of copies and primary storage server recorded by the naming
+        server, so that the directory can be shown in detail without calling
+        the naming server or the storage servers again for each entry.
+
+        @param directory The directory to be listed.
+        @param token Token returned with the previous page, or
+                     <code>null</code> for the first page.
+        @param limit The largest number of entries on the page. Pages hold no
+                     more than <code>MAXIMUM_PAGE</code> entries, whatever the
+                     limit.
+        @return The page, with its attributes. Its token is <code>null</code>
+                if it is the last.
+        @throws IllegalArgumentException If the limit is not positive.
+        @throws FileNotFoundException If the given path does not refer to a
+                                      directory.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    @Idempotent
+    public Listing listAttributes(Path directory, String token, int limit)
+        throws RMIException, FileNotFoundException;
+
     /** Creates the given file, if it does not exist.
 
         @param file Path at which the file is to be created.
@@ -83,14 +145,63 @@ public interface Service
      */
     public boolean delete(Path path) throws RMIException, FileNotFoundException;
 
+    /** Renames a file or directory, moving it to another path.
+
+        <p>
+        The object keeps its contents and, if it is a directory, everything
+        beneath it. No data is copied: the object is re-linked in the
+        directory tree, and the storage servers hosting its files rename them
+        in place.
+
+        @param from Path to the file or directory to be renamed.
+        @param to New path of the file or directory.
+        @return <code>true</code> if the object is renamed;
+                <code>false</code> otherwise. The object is not renamed if an
+                object already exists at the new path, if the new path is the
+                old one or lies beneath it, or if either path is the root
+                directory.
+        @throws FileNotFoundException If the object does not exist, or the
+                                      parent directory of the new path does
+                                      not exist.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public boolean rename(Path from, Path to)
+        throws RMIException, FileNotFoundException;
+
+    /** Restores a deleted file or directory.
+
+        <p>
+        Deleted objects are kept for a time before their files are removed
+        from the storage servers. Until then, the object most recently deleted
+        from a path may be restored to it, with everything that was beneath
+        it.
+
+        @param path Path from which the file or directory was deleted.
+        @return <code>true</code> if the object is restored;
+                <code>false</code> if no deleted object is kept for the path,
+                or an object with the same path exists. The root directory
+                cannot be restored.
+        @throws FileNotFoundException If the parent directory does not exist.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public boolean restore(Path path) throws RMIException, FileNotFoundException;
+
     /** Returns a stub for the storage server hosting a file.
 
+        <p>
+        The stub is for the preferred copy of the file. Calls to idempotent
+        methods that fail are retried on the other up-to-date copies, if
+        any, as the stub's retry policy directs.
+
         @param file Path to the file.
         @return A stub for communicating with the storage server.
         @throws FileNotFoundException If the file does not exist.
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Idempotent
     public Storage getStorage(Path file)
         throws RMIException, FileNotFoundException;
 }
@@ -0,0 +1,198 @@
+package naming;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import common.Path;
+
+/** Entries moved to the trash of a namespace.
+
+    <p>
+    Deleting an object detaches it from its parent directory and records it
+    here, under the path it was deleted from, until it is restored or purged.
+    The trash only keeps track of entries; the namespace holding it keeps the
+    objects themselves, in a form given by the type parameter.
+
+    <p>
+    Entries are kept in the order in which they were trashed, so that expired
+    entries are found from the oldest. Entries are also indexed by path, so
+    that the entries overlapping a path - trashed from the path itself, from
+    one of its ancestors, or from beneath it - are found without a scan of the
+    whole trash in the common case where there are none.
+
+    <p>
+    This class is not safe for use by multiple threads; the namespace holding
+    it provides the synchronization.
+
+    @param <N> Type of the handle by which the namespace refers to a trashed
+               object.
+ */
+class Trash<N>
+{
+    /** An object in the trash. */
+    static class Entry<N>
+    {
+        final long id;
+        final Path path;
+        final long time;
+        final N node;
+
+        Entry(long id, Path path, long time, N node)
+        {
+            this.id = id;
+            this.path = path;
+            this.time = time;
+            this.node = node;
+        }
+    }
+
+    // Entries by identifier, in the order in which they were trashed.
+    private final LinkedHashMap<Long, Entry<N>> entries =
+        new LinkedHashMap<Long, Entry<N>>();
+    // Entries by the path they were trashed from, oldest first.
+    private final HashMap<Path, ArrayList<Entry<N>>> paths =
+        new HashMap<Path, ArrayList<Entry<N>>>();
+    // Number of entries trashed from strictly beneath each path.
+    private final HashMap<Path, Integer> beneath = new HashMap<Path, Integer>();
+    private long next = 1;
+
+    /** Records an object moved to the trash.
+
+        @param path The path the object was deleted from.
+        @param time The time of deletion, in milliseconds.
+        @param node The namespace's handle for the object.
+        @return The new entry.
+     */
+    Entry<N> add(Path path, long time, N node)
+    {
+        Entry<N> entry = new Entry<N>(next++, path, time, node);
+
+        entries.put(entry.id, entry);
+
+        ArrayList<Entry<N>> list = paths.get(path);
+        if (list == null) {
+            list = new ArrayList<Entry<N>>(1);
+            paths.put(path, list);
+        }
+        list.add(entry);
+
+        for (int depth = 0; depth < path.depth(); depth++) {
+            Path ancestor = path.ancestor(depth);
+            Integer count = beneath.get(ancestor);
+            beneath.put(ancestor, count == null ? 1 : count + 1);
+        }
+        return entry;
+    }
+
+    /** Returns the entry with the given identifier, or <code>null</code> if
+        there is none. */
+    Entry<N> get(long id)
+    {
+        return entries.get(id);
+    }
+
+    /** Removes an entry, when it is restored or purged.
+
+        @param id Identifier of the entry.
+        @return The entry removed, or <code>null</code> if there was none.
+     */
+    Entry<N> remove(long id)
+    {
+        Entry<N> entry = entries.remove(id);
+
+        if (entry == null) {
+            return null;
+        }
+
+        ArrayList<Entry<N>> list = paths.get(entry.path);
+        list.remove(entry);
+        if (list.isEmpty()) {
+            paths.remove(entry.path);
+        }
+
+        for (int depth = 0; depth < entry.path.depth(); depth++) {
+            Path ancestor = entry.path.ancestor(depth);
+            int count = beneath.get(ancestor);
+            if (count == 1) {
+                beneath.remove(ancestor);
+            } else {
+                beneath.put(ancestor, count - 1);
+            }
+        }
+        return entry;
+    }
+
+    /** Returns the most recent entry trashed from a path, or
+        <code>null</code> if there is none. */
+    Entry<N> latest(Path path)
+    {
+        ArrayList<Entry<N>> list = paths.get(path);
+        return list == null ? null : list.get(list.size() - 1);
+    }
+
+    /** Returns the identifiers of the entries trashed from a path, from one
+        of its ancestors, or from beneath it. */
+    long[] overlapping(Path path)
+    {
+        ArrayList<Entry<N>> found = new ArrayList<Entry<N>>();
+
+        for (int depth = 0; depth <= path.depth(); depth++) {
+            ArrayList<Entry<N>> list = paths.get(path.ancestor(depth));
+            if (list != null) {
+                found.addAll(list);
+            }
+        }
+
+        // Entries beneath the path are rare, and only then is the trash
+        // scanned.
+        if (beneath.containsKey(path)) {
+            for (Entry<N> entry : entries.values()) {
+                if (entry.path.depth() > path.depth() && entry.path.isSubpath(path)) {
+                    found.add(entry);
+                }
+            }
+        }
+        return ids(found);
+    }
+
+    /** Returns the identifiers of the oldest entries trashed no later than a
+        given time.
+
+        @param time The time, in milliseconds.
+        @param limit The largest number of identifiers returned.
+        @return The identifiers, oldest first.
+     */
+    long[] expired(long time, int limit)
+    {
+        ArrayList<Entry<N>> found = new ArrayList<Entry<N>>();
+        Iterator<Entry<N>> iterator = entries.values().iterator();
+
+        while (found.size() < limit && iterator.hasNext()) {
+            Entry<N> entry = iterator.next();
+            if (entry.time > time) {
+                break;
+            }
+            found.add(entry);
+        }
+        return ids(found);
+    }
+
+    /** Returns the number of entries in the trash. */
+    int size()
+    {
+        return entries.size();
+    }
+
+    // Returns the identifiers of a list of entries.
+    private static <N> long[] ids(ArrayList<Entry<N>> list)
+    {
+        long[] ids = new long[list.size()];
+
+        for (int index = 0; index < ids.length; index++) {
+            ids[index] = list.get(index).id;
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,139 @@
+package naming;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Log;
+import common.Path;
+
+/** Background purging of expired trash.
+
+    <p>
+    Deleting an object through the naming server moves it to the trash of the
+    namespace, and leaves its files on the storage servers. Every
+    <code>naming.trash.interval</code> milliseconds (default 60000), the
+    collector purges the trash entries older than the naming server's
+    retention time: it removes each one from the namespace for good, and
+    commands the storage servers hosting its files to delete them. Entries are
+    purged in batches, at no more than <code>naming.trash.rate</code> entries
+    per second (default 1000, zero for no limit), so that a large backlog of
+    deletions does not flood the storage servers.
+
+    <p>
+    Deletions that failed in an earlier round are tried again at the start of
+    each round. Those on storage servers that are unavailable are left to the
+    storage servers, which make them when they register again.
+ */
+class TrashCollector implements Runnable
+{
+    private static final Log logger = Log.get("naming");
+
+    /** Largest number of entries purged in one batch. */
+    private static final int BATCH = 64;
+
+    private final NamingServer server;
+    private final AtomicLong purged = new AtomicLong();
+    private Thread thread;
+
+    // Time between rounds, in milliseconds. Zero or less disables the thread.
+    long interval;
+    // Limit on the number of entries purged per second.
+    long rate;
+
+    /** Creates a collector for a naming server, configured by system
+        properties as described above.
+
+        @param server The naming server.
+     */
+    TrashCollector(NamingServer server)
+    {
+        this.server = server;
+        this.interval = Long.getLong("naming.trash.interval", 60000L);
+        this.rate = Long.getLong("naming.trash.rate", 1000L);
+    }
+
+    /** Starts the collecting thread, unless collection is disabled. */
+    synchronized void start()
+    {
+        if (thread == null && interval > 0) {
+            thread = new Thread(this, "naming server trash collector");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+    }
+
+    /** Stops the collecting thread. */
+    void stop()
+    {
+        Thread stopping;
+        synchronized (this) {
+            stopping = thread;
+            thread = null;
+        }
+
+        if (stopping != null) {
+            stopping.interrupt();
+        }
+    }
+
+    /** Returns the number of trash entries purged so far. */
+    long purged()
+    {
+        return purged.get();
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(interval);
+                collect();
+            }
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /** Purges the trash entries that have expired, a batch at a time.
+
+        @throws InterruptedException If the thread is interrupted between
+                                     batches.
+     */
+    void collect() throws InterruptedException
+    {
+        long expiry = System.currentTimeMillis() - server.trashRetention;
+
+        try {
+            server.deleteRemaining(new Path());
+        } catch (Exception e) {
+            logger.warn("Unable to delete the files of purged trash", e);
+        }
+
+        while (true) {
+            long[] entries = server.namespace.expired(expiry, BATCH);
+
+            if (entries.length == 0) {
+                return;
+            }
+
+            long started = System.nanoTime();
+            for (long entry : entries) {
+                try {
+                    server.purge(entry);
+                } catch (Exception e) {
+                    logger.warn("Unable to purge trash entry " + entry, e);
+                }
+                purged.incrementAndGet();
+            }
+
+            // Spread the batches out to keep to the rate.
+            if (rate > 0) {
+                long elapsed = (System.nanoTime() - started) / 1000000L;
+                long wait = entries.length * 1000L / rate - elapsed;
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+            }
+        }
+    }
+}
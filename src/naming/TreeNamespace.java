@@ -0,0 +1,533 @@
+package naming;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import common.Path;
+
+/** Namespace kept as a tree of <code>PathNode</code> objects.
+
+    <p>
+    Each directory is a <code>PathNode</code> holding a list of its entries,
+    kept in name order and searched by binary search, and
+    each file is a <code>ServerStubs</code> holding the identifiers of its
+    storage servers and its attributes.
+
+    <p>
+    Each directory also keeps the number of objects beneath it, and the
+    number of files beneath it hosted by each storage server. Every change
+    adjusts these counts in the directory holding it and its ancestors, so
+    the counts of the root are those of the whole namespace, and the storage
+    servers of a subtree are known without walking it.
+
+    <p>
+    Trashed nodes are detached from the tree whole, and held only by the
+    trash index. Trashing or restoring an entry subtracts or adds its counts
+    along its ancestors, and purging it only drops the node, so these take
+    time in proportion to the depth of the entry and the number of storage
+    servers, however large the entry is.
+ */
+class TreeNamespace implements Namespace
+{
+    private final PathNode root;
+    private final Trash<PathNode1> trash = new Trash<PathNode1>();
+
+    /** Creates a namespace containing only the root directory. */
+    TreeNamespace()
+    {
+        this.root = new PathNode("/");
+    }
+
+    @Override
+    public synchronized int lookup(Path path) throws FileNotFoundException
+    {
+        PathNode1 node = root.getNodeByPath(path);
+        return node.isDirectory() ? DIRECTORY : ((ServerStubs) node).getStorage();
+    }
+
+    @Override
+    public synchronized int[] locations(Path file) throws FileNotFoundException
+    {
+        return file(file).getLocations();
+    }
+
+    @Override
+    public synchronized boolean addLocation(Path file, int storage)
+        throws FileNotFoundException
+    {
+        if (!file(file).addLocation(storage)) {
+            return false;
+        }
+        host(file.parent(), storage, 1);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean moveLocation(Path file, int from, int to)
+        throws FileNotFoundException
+    {
+        if (!file(file).moveLocation(from, to)) {
+            return false;
+        }
+        host(file.parent(), from, -1);
+        host(file.parent(), to, 1);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeLocation(Path file, int storage)
+        throws FileNotFoundException
+    {
+        if (!file(file).removeLocation(storage)) {
+            return false;
+        }
+        host(file.parent(), storage, -1);
+        return true;
+    }
+
+    @Override
+    public synchronized String[] list(Path directory) throws FileNotFoundException
+    {
+        ArrayList<PathNode1> files = directory(directory).files;
+        String[] names = new String[files.size()];
+
+        for (int index = 0; index < names.length; index++) {
+            names[index] = files.get(index).getName();
+        }
+        return names;
+    }
+
+    @Override
+    public synchronized String[] list(Path directory, String after, int limit)
+        throws FileNotFoundException
+    {
+        PathNode node = directory(directory);
+        int start = start(node, after);
+        String[] names = new String[length(node, start, limit)];
+
+        for (int index = 0; index < names.length; index++) {
+            names[index] = node.files.get(start + index).getName();
+        }
+        return names;
+    }
+
+    @Override
+    public synchronized Attributes[] attributes(Path directory, String after, int limit)
+        throws FileNotFoundException
+    {
+        PathNode node = directory(directory);
+        int start = start(node, after);
+        Attributes[] attributes = new Attributes[length(node, start, limit)];
+
+        for (int index = 0; index < attributes.length; index++) {
+            attributes[index] = attributes(node.files.get(start + index));
+        }
+        return attributes;
+    }
+
+    @Override
+    public synchronized Attributes attributes(Path path) throws FileNotFoundException
+    {
+        return attributes(root.getNodeByPath(path));
+    }
+
+    @Override
+    public synchronized boolean setAttributes(Path file, int storage, long size, long modified)
+    {
+        ServerStubs node;
+        try {
+            node = file(file);
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+
+        for (int location : node.storage) {
+            if (location == storage) {
+                node.size = size;
+                if (modified >= 0) {
+                    node.modified = modified;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized Path[] files(int storage)
+    {
+        return files(storage, null, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized Path[] files(int storage, Path after, int limit)
+    {
+        ArrayList<Path> files = new ArrayList<Path>();
+        collectFiles(root, new Path(), storage, after, limit, files);
+        return files.toArray(new Path[0]);
+    }
+
+    @Override
+    public synchronized boolean createFile(Path file, int storage)
+        throws FileNotFoundException
+    {
+        PathNode parent = directory(file.parent());
+
+        if (parent.getChild(file.last()) != null) {
+            return false;
+        }
+
+        ServerStubs node = new ServerStubs(file.last(), storage);
+        parent.add(node);
+        propagate(file.parent(), node, 1);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean createDirectory(Path directory)
+        throws FileNotFoundException
+    {
+        PathNode parent = directory(directory.parent());
+
+        if (parent.getChild(directory.last()) != null) {
+            return false;
+        }
+
+        PathNode node = new PathNode(directory.last());
+        parent.add(node);
+        propagate(directory.parent(), node, 1);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean register(Path file, int storage)
+    {
+        if (file.isRoot()) {
+            return true;
+        }
+
+        // Count the parent directories that will be created along with the
+        // file.
+        int existing = 0;
+        PathNode1 node = root;
+        for (String component : file) {
+            if (!node.isDirectory()) {
+                break;
+            }
+            node = ((PathNode) node).getChild(component);
+            if (node == null) {
+                break;
+            }
+            existing++;
+        }
+
+        if (!root.addChild(file, storage)) {
+            return false;
+        }
+
+        // Each directory on the way holds the nodes created beneath it.
+        int depth = 0;
+        for (PathNode directory : ancestors(file.parent())) {
+            directory.objects += file.depth() - Math.max(depth++, existing);
+            directory.host(storage, 1);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized int[] delete(Path path) throws FileNotFoundException
+    {
+        PathNode parent = directory(path.parent());
+        PathNode1 node = parent.getChild(path.last());
+
+        if (node == null) {
+            throw new FileNotFoundException("Path is Alone, it represents no file.....!!!!");
+        }
+
+        parent.deleteChild(path);
+        propagate(path.parent(), node, -1);
+        return ids(node);
+    }
+
+    @Override
+    public synchronized int[] rename(Path from, Path to) throws FileNotFoundException
+    {
+        PathNode source = directory(from.parent());
+        PathNode1 node = source.getChild(from.last());
+
+        if (node == null) {
+            throw new FileNotFoundException("Path is Alone, it represents no file.....!!!!");
+        }
+
+        PathNode target = directory(to.parent());
+        if (target.getChild(to.last()) != null) {
+            return null;
+        }
+
+        source.deleteChild(from);
+        propagate(from.parent(), node, -1);
+        node.setName(to.last());
+        target.add(node);
+        propagate(to.parent(), node, 1);
+        return ids(node);
+    }
+
+    @Override
+    public synchronized long trash(Path path, long time) throws FileNotFoundException
+    {
+        PathNode parent = directory(path.parent());
+        PathNode1 node = parent.getChild(path.last());
+
+        if (node == null) {
+            throw new FileNotFoundException("Path is Alone, it represents no file.....!!!!");
+        }
+
+        parent.deleteChild(path);
+        propagate(path.parent(), node, -1);
+        return trash.add(path, time, node).id;
+    }
+
+    @Override
+    public synchronized boolean restore(Path path) throws FileNotFoundException
+    {
+        PathNode parent = directory(path.parent());
+        Trash.Entry<PathNode1> entry = trash.latest(path);
+
+        if (entry == null || parent.getChild(path.last()) != null) {
+            return false;
+        }
+
+        trash.remove(entry.id);
+        parent.add(entry.node);
+        propagate(path.parent(), entry.node, 1);
+        return true;
+    }
+
+    @Override
+    public synchronized long[] trashed(Path path)
+    {
+        return trash.overlapping(path);
+    }
+
+    @Override
+    public synchronized long[] expired(long time, int limit)
+    {
+        return trash.expired(time, limit);
+    }
+
+    @Override
+    public synchronized Path trashPath(long entry)
+    {
+        Trash.Entry<PathNode1> found = trash.get(entry);
+        return found == null ? null : found.path;
+    }
+
+    @Override
+    public synchronized int[] purge(long entry)
+    {
+        Trash.Entry<PathNode1> removed = trash.remove(entry);
+
+        if (removed == null) {
+            return null;
+        }
+
+        // The counts of the ancestors were updated when the node was trashed,
+        // and those of the node are kept with it.
+        return ids(removed.node);
+    }
+
+    @Override
+    public synchronized long count(int storage)
+    {
+        return root.hosted(storage);
+    }
+
+    @Override
+    public synchronized long size()
+    {
+        return root.objects;
+    }
+
+    // Adds the counts of a node, times the given sign, to a directory and its
+    // ancestors: one object for the node and one for each object beneath it,
+    // and its files hosted by each storage server.
+    private void propagate(Path directory, PathNode1 node, int sign)
+    {
+        for (PathNode ancestor : ancestors(directory)) {
+            if (!node.isDirectory()) {
+                ancestor.objects += sign;
+                for (int id : ((ServerStubs) node).storage) {
+                    ancestor.host(id, sign);
+                }
+                continue;
+            }
+
+            PathNode subtree = (PathNode) node;
+            ancestor.objects += sign * (subtree.objects + 1);
+            for (int id = 0; id < subtree.hostedLength(); id++) {
+                if (subtree.hosted(id) != 0) {
+                    ancestor.host(id, sign * subtree.hosted(id));
+                }
+            }
+        }
+    }
+
+    // Adds a delta to the number of files hosted by a storage server beneath
+    // a directory and each of its ancestors.
+    private void host(Path directory, int storage, long delta)
+    {
+        for (PathNode ancestor : ancestors(directory)) {
+            ancestor.host(storage, delta);
+        }
+    }
+
+    // Returns the directories from the root down to the given one, which
+    // must exist.
+    private PathNode[] ancestors(Path directory)
+    {
+        PathNode[] ancestors = new PathNode[directory.depth() + 1];
+        PathNode node = root;
+        int index = 0;
+
+        ancestors[index++] = node;
+        for (String component : directory) {
+            node = (PathNode) node.getChild(component);
+            ancestors[index++] = node;
+        }
+        return ancestors;
+    }
+
+    // Returns the identifiers of the storage servers hosting a file, or files
+    // beneath a directory, in increasing order.
+    private static int[] ids(PathNode1 node)
+    {
+        BitSet storageSet = new BitSet();
+
+        if (node.isDirectory()) {
+            PathNode directory = (PathNode) node;
+            for (int id = 0; id < directory.hostedLength(); id++) {
+                if (directory.hosted(id) > 0) {
+                    storageSet.set(id);
+                }
+            }
+        } else {
+            for (int id : ((ServerStubs) node).storage) {
+                storageSet.set(id);
+            }
+        }
+        return ids(storageSet);
+    }
+
+    // Returns the members of a set of storage server identifiers, in
+    // increasing order.
+    private static int[] ids(BitSet storageSet)
+    {
+        int[] storage = new int[storageSet.cardinality()];
+        int index = 0;
+        for (int id = storageSet.nextSetBit(0); id >= 0; id = storageSet.nextSetBit(id + 1)) {
+            storage[index++] = id;
+        }
+        return storage;
+    }
+
+    // Adds the paths of files beneath a directory hosted by a storage server
+    // to a list, in path order, until the list holds the given number. If
+    // the path after which to start is beneath the directory, the walk
+    // starts there.
+    private void collectFiles(PathNode directory, Path path, int storage, Path after,
+                              int limit, ArrayList<Path> files)
+    {
+        int start = 0;
+        if (after != null && after.depth() > path.depth()) {
+            String name = after.ancestor(path.depth() + 1).last();
+            int position = directory.position(name);
+
+            if (position >= 0) {
+                PathNode1 node = directory.files.get(position);
+                if (node.isDirectory() && ((PathNode) node).hosted(storage) > 0) {
+                    collectFiles((PathNode) node, new Path(path, name), storage, after,
+                                 limit, files);
+                }
+                start = position + 1;
+            } else {
+                start = -position - 1;
+            }
+        }
+
+        for (int index = start; index < directory.files.size() && files.size() < limit;
+                index++) {
+            PathNode1 node = directory.files.get(index);
+
+            // Directories holding no file of the storage server are skipped
+            // whole.
+            if (node.isDirectory()) {
+                if (((PathNode) node).hosted(storage) > 0) {
+                    collectFiles((PathNode) node, new Path(path, node.getName()), storage,
+                                 null, limit, files);
+                }
+                continue;
+            }
+
+            for (int location : ((ServerStubs) node).storage) {
+                if (location == storage) {
+                    files.add(new Path(path, node.getName()));
+                    break;
+                }
+            }
+        }
+    }
+
+    // Returns the attributes of a directory entry.
+    private static Attributes attributes(PathNode1 node)
+    {
+        if (node.isDirectory()) {
+            return new Attributes(node.getName(), true, 0, 0, 0, DIRECTORY);
+        }
+
+        ServerStubs file = (ServerStubs) node;
+        return new Attributes(file.getName(), false, file.size, file.modified,
+                file.storage.length, file.storage[0]);
+    }
+
+    // Returns the position of the first entry of a directory listed after
+    // the given name, or of the first entry if the name is null.
+    private static int start(PathNode directory, String after)
+    {
+        if (after == null) {
+            return 0;
+        }
+
+        int position = directory.position(after);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    // Returns the number of entries of a directory listed from a position,
+    // given the largest number requested.
+    private static int length(PathNode directory, int start, int limit)
+    {
+        return (int) Math.max(0, Math.min(directory.files.size(), (long) start + limit) - start);
+    }
+
+    // Returns the directory at the given path.
+    private PathNode directory(Path path) throws FileNotFoundException
+    {
+        PathNode1 node = root.getNodeByPath(path);
+
+        if (!node.isDirectory()) {
+            throw new FileNotFoundException("Given Path does not refer to a directory!");
+        }
+        return (PathNode) node;
+    }
+
+    // Returns the file at the given path.
+    private ServerStubs file(Path path) throws FileNotFoundException
+    {
+        PathNode1 node = root.getNodeByPath(path);
+
+        if (node.isDirectory()) {
+            throw new FileNotFoundException("Path does not refer to a file!");
+        }
+        return (ServerStubs) node;
+    }
+}
@@ -0,0 +1,29 @@
+package rmi;
+
+import java.io.Serializable;
+
+/** Header sent by the stub ahead of each remote call.
+
+    <p>
+    The header carries per-call metadata which is not part of the method
+    invocation itself.
+ */
+class CallHeader implements Serializable
+{
+    private static final long serialVersionUID = 2913478150324497410L;
+
+    /** Time remaining until the caller's deadline when the request was sent,
+        in milliseconds, or zero if the call has no deadline. */
+    long timeout;
+    /** Trace to which the call belongs. */
+    long trace;
+    /** Client span of the call, which is the parent of the server span. */
+    long span;
+
+    CallHeader(long timeout, long trace, long span)
+    {
+        this.timeout = timeout;
+        this.trace = trace;
+        this.span = span;
+    }
+}
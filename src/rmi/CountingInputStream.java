@@ -0,0 +1,48 @@
+package rmi;
+
+import java.io.*;
+
+/** Input stream which counts the bytes read through it. */
+class CountingInputStream extends FilterInputStream
+{
+    private long    count = 0;
+
+    CountingInputStream(InputStream in)
+    {
+        super(in);
+    }
+
+    /** Returns the number of bytes read so far. */
+    long count()
+    {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int b = super.read();
+        if (b >= 0) {
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException
+    {
+        int n = super.read(buffer, offset, length);
+        if (n > 0) {
+            count += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = super.skip(n);
+        count += skipped;
+        return skipped;
+    }
+}
@@ -0,0 +1,34 @@
+package rmi;
+
+import java.io.*;
+
+/** Output stream which counts the bytes written through it. */
+class CountingOutputStream extends FilterOutputStream
+{
+    private long    count = 0;
+
+    CountingOutputStream(OutputStream out)
+    {
+        super(out);
+    }
+
+    /** Returns the number of bytes written so far. */
+    long count()
+    {
+        return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException
+    {
+        out.write(buffer, offset, length);
+        count += length;
+    }
+}
@@ -0,0 +1,76 @@
+package rmi;
+
+/** Per-thread deadlines for remote calls.
+
+    <p>
+    A deadline set by a thread applies to every remote call subsequently made
+    by that thread through any stub, until the deadline is cleared. The time
+    remaining until the deadline is carried to the skeleton with each request.
+    The skeleton drops requests whose deadline has expired by the time they are
+    read, and installs the remaining time as the deadline of the service thread
+    while the method runs. Remote calls made by the server while handling the
+    request are therefore bounded by the deadline of the original caller.
+
+    <p>
+    A stub may additionally carry its own timeout, set with
+    <code>Stub.setTimeout</code>. When both are present, the earlier of the two
+    applies.
+ */
+public final class Deadline
+{
+    /** Value returned by <code>remaining</code> when no deadline is set. */
+    public static final long        NONE = Long.MAX_VALUE;
+
+    /** Absolute deadline of the current thread, in <code>System.nanoTime</code>
+        units, or <code>null</code> if the thread has no deadline. */
+    private static final ThreadLocal<Long>  current = new ThreadLocal<Long>();
+
+    /** Prevents instantiation. */
+    private Deadline()
+    {
+    }
+
+    /** Sets the deadline for remote calls made by the current thread.
+
+        @param timeout Time from now until the deadline, in milliseconds.
+        @throws IllegalArgumentException If <code>timeout</code> is not
+                                         positive.
+     */
+    public static void set(long timeout)
+    {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+
+        current.set(System.nanoTime() + timeout * 1000000L);
+    }
+
+    /** Removes the deadline of the current thread. */
+    public static void clear()
+    {
+        current.remove();
+    }
+
+    /** Returns the time remaining until the deadline of the current thread.
+
+        @return The remaining time in milliseconds, which is zero or negative if
+                the deadline has passed, or <code>NONE</code> if the thread has
+                no deadline.
+     */
+    public static long remaining()
+    {
+        Long deadline = current.get();
+        if (deadline == null) {
+            return NONE;
+        }
+
+        long nanos = deadline - System.nanoTime();
+        if (nanos <= 0) {
+            return nanos / 1000000L;
+        }
+
+        // Round up so that a deadline which has not yet passed is never
+        // reported as expired.
+        return (nanos + 999999L) / 1000000L;
+    }
+}
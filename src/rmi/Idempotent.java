@@ -0,0 +1,20 @@
+package rmi;
+
+import java.lang.annotation.*;
+
+/** Marks a remote method as idempotent.
+
+    <p>
+    An idempotent method may be executed more than once, on one or more
+    servers, with the same effect as executing it once. Stubs may therefore
+    retry calls to such methods after transient network failures, fail over to
+    replicas, and issue hedged requests, as directed by the stub's
+    <code>RetryPolicy</code>. Calls to methods that are not marked are made
+    exactly once.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Idempotent
+{
+}
@@ -0,0 +1,147 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Histogram of latencies with logarithmic buckets.
+
+    <p>
+    Values are recorded in microseconds. Values below sixteen are counted
+    exactly. Larger values fall into buckets whose width is one sixteenth of the
+    power of two below them, so that every value is reported with a relative
+    error of at most about six percent, as in HdrHistogram with one
+    significant digit.
+
+    <p>
+    Recording is lock-free and does not allocate, so histograms may be updated
+    from every service thread. Reads are not atomic with respect to concurrent
+    recording: a percentile computed while values are being recorded reflects
+    some, but not necessarily all, of them.
+ */
+public class LatencyHistogram
+{
+    /** Number of bits of each value kept beyond its leading bit. */
+    private static final int        SUB_BUCKET_BITS = 4;
+    /** Number of buckets per power of two. */
+    private static final int        SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Total number of buckets, covering all positive <code>long</code>
+        values. */
+    private static final int        BUCKETS =
+        (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray   counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong        count = new AtomicLong();
+    private final AtomicLong        sum = new AtomicLong();
+    private final AtomicLong        max = new AtomicLong();
+
+    /** Records a value.
+
+        @param micros The value, in microseconds. Negative values are recorded
+                      as zero.
+     */
+    public void record(long micros)
+    {
+        if (micros < 0) {
+            micros = 0;
+        }
+
+        counts.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get();
+        }
+    }
+
+    /** Returns the number of values recorded. */
+    public long count()
+    {
+        return count.get();
+    }
+
+    /** Returns the mean of the values recorded, or zero if there are none. */
+    public double mean()
+    {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /** Returns the sum of the values recorded. */
+    public long sum()
+    {
+        return sum.get();
+    }
+
+    /** Returns the largest value recorded, or zero if there are none. */
+    public long max()
+    {
+        return max.get();
+    }
+
+    /** Returns a percentile of the values recorded.
+
+        @param percentile The percentile, between zero and one.
+        @return The highest value equivalent to the percentile, or zero if no
+                values have been recorded.
+     */
+    public long percentile(double percentile)
+    {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /** Discards all recorded values. */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /** Returns the bucket holding the given non-negative value. */
+    static int index(long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int top = 63 - Long.numberOfLeadingZeros(value);
+        int shift = top - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift);
+
+        return (shift + 1) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+    }
+
+    /** Returns the largest value held by the given bucket. */
+    static long highest(int index)
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,52 @@
+package rmi;
+
+import java.util.Arrays;
+
+/** Window of recently observed call latencies.
+
+    <p>
+    Used by stubs to decide when an attempt has become slow enough to be
+    hedged.
+ */
+class LatencySamples
+{
+    /** Number of samples kept. */
+    private static final int    WINDOW = 256;
+    /** Number of samples required before percentiles are reported. */
+    private static final int    MINIMUM = 20;
+
+    private final long[]        samples = new long[WINDOW];
+    private int                 next = 0;
+    private int                 count = 0;
+
+    /** Records a latency, in milliseconds. */
+    synchronized void record(long latency)
+    {
+        samples[next] = latency;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) {
+            count++;
+        }
+    }
+
+    /** Returns the given percentile of the recorded latencies.
+
+        @param percentile Percentile, between zero and one.
+        @return The latency in milliseconds, or <code>-1</code> if too few
+                samples have been recorded.
+     */
+    long percentile(double percentile)
+    {
+        long[] sorted;
+        synchronized (this) {
+            if (count < MINIMUM) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,165 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Call statistics for one method of a remote interface, on one side of the
+    connection.
+
+    <p>
+    Stubs keep client-side statistics, which include time spent on the network
+    and in retries. Skeletons keep server-side statistics, which cover reading
+    the request, executing the method, and writing the result. Instances are
+    obtained from {@link Metrics}.
+ */
+public class MethodMetrics implements MethodMetricsMBean
+{
+    /** The call returned normally. */
+    static final int                OK = 0;
+    /** The remote method threw an exception. */
+    static final int                EXCEPTION = 1;
+    /** The call failed in the RMI layer. */
+    static final int                ERROR = 2;
+
+    /** <code>"client"</code> or <code>"server"</code>. */
+    final String                    side;
+    /** Name of the remote interface. */
+    final String                    interface_name;
+    /** Name of the method. */
+    final String                    method;
+
+    private final LongAdder         calls = new LongAdder();
+    private final LongAdder         errors = new LongAdder();
+    private final LongAdder         exceptions = new LongAdder();
+    private final LongAdder         bytes_in = new LongAdder();
+    private final LongAdder         bytes_out = new LongAdder();
+    private final AtomicLong        in_flight = new AtomicLong();
+    private final LatencyHistogram  latency = new LatencyHistogram();
+
+    MethodMetrics(String side, String interface_name, String method)
+    {
+        this.side = side;
+        this.interface_name = interface_name;
+        this.method = method;
+    }
+
+    /** Marks the start of a call.
+
+        @return The time at which the call started, to be passed to
+                <code>end</code>.
+     */
+    long begin()
+    {
+        in_flight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /** Marks the end of a call.
+
+        @param start Value returned by the matching call to <code>begin</code>.
+        @param outcome <code>OK</code>, <code>EXCEPTION</code> or
+                       <code>ERROR</code>.
+     */
+    void end(long start, int outcome)
+    {
+        latency.record((System.nanoTime() - start) / 1000L);
+        in_flight.decrementAndGet();
+        calls.increment();
+
+        if (outcome == EXCEPTION) {
+            exceptions.increment();
+        } else if (outcome == ERROR) {
+            errors.increment();
+        }
+    }
+
+    /** Adds to the byte counters. */
+    void transferred(long in, long out)
+    {
+        bytes_in.add(in);
+        bytes_out.add(out);
+    }
+
+    /** Returns the latency histogram, in microseconds. */
+    public LatencyHistogram latency()
+    {
+        return latency;
+    }
+
+    @Override
+    public long getCalls()
+    {
+        return calls.sum();
+    }
+
+    @Override
+    public long getErrors()
+    {
+        return errors.sum();
+    }
+
+    @Override
+    public long getExceptions()
+    {
+        return exceptions.sum();
+    }
+
+    @Override
+    public long getBytesIn()
+    {
+        return bytes_in.sum();
+    }
+
+    @Override
+    public long getBytesOut()
+    {
+        return bytes_out.sum();
+    }
+
+    @Override
+    public long getInFlight()
+    {
+        return in_flight.get();
+    }
+
+    @Override
+    public double getMeanLatency()
+    {
+        return latency.mean();
+    }
+
+    @Override
+    public long getP50Latency()
+    {
+        return latency.percentile(0.5);
+    }
+
+    @Override
+    public long getP99Latency()
+    {
+        return latency.percentile(0.99);
+    }
+
+    @Override
+    public long getP999Latency()
+    {
+        return latency.percentile(0.999);
+    }
+
+    @Override
+    public long getMaxLatency()
+    {
+        return latency.max();
+    }
+
+    @Override
+    public void reset()
+    {
+        calls.reset();
+        errors.reset();
+        exceptions.reset();
+        bytes_in.reset();
+        bytes_out.reset();
+        latency.reset();
+    }
+}
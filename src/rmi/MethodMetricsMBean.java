@@ -0,0 +1,35 @@
+package rmi;
+
+/** Management interface of {@link MethodMetrics}.
+
+    <p>
+    Latencies are given in microseconds.
+ */
+public interface MethodMetricsMBean
+{
+    /** Returns the number of calls completed. */
+    public long getCalls();
+    /** Returns the number of calls that failed in the RMI layer. */
+    public long getErrors();
+    /** Returns the number of calls for which the remote method threw an
+        exception. */
+    public long getExceptions();
+    /** Returns the number of bytes received for the method. */
+    public long getBytesIn();
+    /** Returns the number of bytes sent for the method. */
+    public long getBytesOut();
+    /** Returns the number of calls currently in progress. */
+    public long getInFlight();
+    /** Returns the mean call latency. */
+    public double getMeanLatency();
+    /** Returns the median call latency. */
+    public long getP50Latency();
+    /** Returns the 99th percentile of call latency. */
+    public long getP99Latency();
+    /** Returns the 99.9th percentile of call latency. */
+    public long getP999Latency();
+    /** Returns the largest call latency. */
+    public long getMaxLatency();
+    /** Discards all counts and latencies, except the in-flight gauge. */
+    public void reset();
+}
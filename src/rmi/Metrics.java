@@ -0,0 +1,299 @@
+package rmi;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.*;
+
+/** Registry of call statistics kept by stubs and skeletons.
+
+    <p>
+    Statistics are kept per remote interface and method, separately for the
+    client and server sides. Each <code>MethodMetrics</code> object is
+    registered with the platform MBean server under the name
+    <code>rmi:type=Method,side=</code><em>side</em><code>,interface=</code>
+    <em>interface</em><code>,method=</code><em>method</em>. The registry itself
+    is registered as <code>rmi:type=Metrics</code>, and provides a text report
+    of all statistics. Requests for methods that the remote interface does not
+    declare are counted together, so that callers cannot create statistics at
+    will.
+
+    <p>
+    The report uses the Prometheus text exposition format, with latencies in
+    microseconds. If the system property <code>rmi.metrics.file</code> is set,
+    the report is periodically written to that file, replacing its contents,
+    so that it can be collected by a text file scraper. The period is given by
+    <code>rmi.metrics.interval</code>, in milliseconds, and defaults to ten
+    seconds.
+ */
+public class Metrics implements MetricsMBean
+{
+    /** Client-side statistics, by interface and method name. */
+    private static final ConcurrentHashMap<Class<?>,
+        ConcurrentHashMap<String, MethodMetrics>>   client =
+            new ConcurrentHashMap<Class<?>,
+                ConcurrentHashMap<String, MethodMetrics>>();
+    /** Server-side statistics, by interface and method name. */
+    private static final ConcurrentHashMap<Class<?>,
+        ConcurrentHashMap<String, MethodMetrics>>   server =
+            new ConcurrentHashMap<Class<?>,
+                ConcurrentHashMap<String, MethodMetrics>>();
+
+    /** Number of requests received for methods not in the remote
+        interface. */
+    private static final AtomicLong unknown_methods = new AtomicLong();
+
+    /** Percentiles included in the report. */
+    private static final double[]   QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    static {
+        register(new Metrics(), "rmi:type=Metrics");
+
+        String file = System.getProperty("rmi.metrics.file");
+        if (file != null) {
+            startDumping(new File(file), Long.getLong("rmi.metrics.interval", 10000L));
+        }
+    }
+
+    /** Only the registry's own MBean is ever created. */
+    private Metrics()
+    {
+    }
+
+    /** Returns the client-side statistics for a method.
+
+        @param c The remote interface.
+        @param method The name of the method.
+     */
+    public static MethodMetrics client(Class<?> c, String method)
+    {
+        return lookup(client, "client", c, method);
+    }
+
+    /** Returns the server-side statistics for a method.
+
+        @param c The remote interface.
+        @param method The name of the method.
+     */
+    public static MethodMetrics server(Class<?> c, String method)
+    {
+        return lookup(server, "server", c, method);
+    }
+
+    /** Counts a request for a method which the remote interface does not
+        declare. */
+    static void unknownMethod()
+    {
+        unknown_methods.incrementAndGet();
+    }
+
+    /** Returns the number of requests received for methods which their
+        remote interface does not declare. */
+    public static long unknownMethods()
+    {
+        return unknown_methods.get();
+    }
+
+    private static MethodMetrics lookup(
+            ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, MethodMetrics>> side_map,
+            String side, Class<?> c, String method)
+    {
+        ConcurrentHashMap<String, MethodMetrics> methods = side_map.get(c);
+        if (methods == null) {
+            side_map.putIfAbsent(c, new ConcurrentHashMap<String, MethodMetrics>());
+            methods = side_map.get(c);
+        }
+
+        MethodMetrics metrics = methods.get(method);
+        if (metrics == null) {
+            MethodMetrics created = new MethodMetrics(side, c.getName(), method);
+            metrics = methods.putIfAbsent(method, created);
+            if (metrics == null) {
+                metrics = created;
+                register(created, "rmi:type=Method,side=" + side + ",interface="
+                        + c.getName() + ",method=" + method);
+            }
+        }
+        return metrics;
+    }
+
+    /** Registers an MBean, ignoring failures: statistics are still kept and
+        reported if JMX is unavailable. */
+    private static void register(Object mbean, String name)
+    {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean,
+                    new ObjectName(name));
+        } catch (JMException e) {
+        } catch (SecurityException e) {
+        }
+    }
+
+    /** Returns a text report of all call statistics. */
+    public static String report()
+    {
+        StringBuilder out = new StringBuilder();
+        List<MethodMetrics> all = all();
+
+        counter(out, all, "rmi_calls_total", "counter", "Calls completed.");
+        counter(out, all, "rmi_errors_total", "counter", "Calls failed in the RMI layer.");
+        counter(out, all, "rmi_exceptions_total", "counter", "Calls ended by a remote exception.");
+        counter(out, all, "rmi_bytes_in_total", "counter", "Bytes received.");
+        counter(out, all, "rmi_bytes_out_total", "counter", "Bytes sent.");
+        counter(out, all, "rmi_in_flight", "gauge", "Calls in progress.");
+
+        out.append("# HELP rmi_unknown_methods_total Requests for methods not in the remote interface.\n");
+        out.append("# TYPE rmi_unknown_methods_total counter\n");
+        out.append("rmi_unknown_methods_total ").append(unknown_methods.get()).append('\n');
+
+        out.append("# HELP rmi_latency_us Call latency in microseconds.\n");
+        out.append("# TYPE rmi_latency_us summary\n");
+        for (MethodMetrics m : all) {
+            LatencyHistogram latency = m.latency();
+            for (double q : QUANTILES) {
+                out.append("rmi_latency_us{").append(labels(m)).append(",quantile=\"")
+                        .append(q).append("\"} ").append(latency.percentile(q)).append('\n');
+            }
+            out.append("rmi_latency_us_sum{").append(labels(m)).append("} ")
+                    .append(latency.sum()).append('\n');
+            out.append("rmi_latency_us_count{").append(labels(m)).append("} ")
+                    .append(latency.count()).append('\n');
+            out.append("rmi_latency_us_max{").append(labels(m)).append("} ")
+                    .append(latency.max()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, List<MethodMetrics> all, String name,
+                                String type, String help)
+    {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (MethodMetrics m : all) {
+            long value;
+            if (name.equals("rmi_calls_total")) {
+                value = m.getCalls();
+            } else if (name.equals("rmi_errors_total")) {
+                value = m.getErrors();
+            } else if (name.equals("rmi_exceptions_total")) {
+                value = m.getExceptions();
+            } else if (name.equals("rmi_bytes_in_total")) {
+                value = m.getBytesIn();
+            } else if (name.equals("rmi_bytes_out_total")) {
+                value = m.getBytesOut();
+            } else {
+                value = m.getInFlight();
+            }
+            out.append(name).append('{').append(labels(m)).append("} ").append(value).append('\n');
+        }
+    }
+
+    private static String labels(MethodMetrics m)
+    {
+        return "side=\"" + m.side + "\",interface=\"" + m.interface_name
+                + "\",method=\"" + m.method + "\"";
+    }
+
+    /** Returns all statistics, sorted by side, interface and method. */
+    private static List<MethodMetrics> all()
+    {
+        List<MethodMetrics> all = new ArrayList<MethodMetrics>();
+        for (ConcurrentHashMap<String, MethodMetrics> methods : client.values()) {
+            all.addAll(methods.values());
+        }
+        for (ConcurrentHashMap<String, MethodMetrics> methods : server.values()) {
+            all.addAll(methods.values());
+        }
+
+        Collections.sort(all, new Comparator<MethodMetrics>() {
+            @Override
+            public int compare(MethodMetrics a, MethodMetrics b) {
+                int order = a.side.compareTo(b.side);
+                if (order == 0) {
+                    order = a.interface_name.compareTo(b.interface_name);
+                }
+                if (order == 0) {
+                    order = a.method.compareTo(b.method);
+                }
+                return order;
+            }
+        });
+        return all;
+    }
+
+    /** Writes the report to a file.
+
+        <p>
+        The report is first written to a temporary file in the same directory,
+        which then replaces the target, so that readers never see a partial
+        report.
+
+        @param file The file to be written.
+        @throws IOException If the file cannot be written.
+     */
+    public static void dump(File file) throws IOException
+    {
+        File parent = file.getAbsoluteFile().getParentFile();
+        File temporary = new File(parent, file.getName() + ".tmp");
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8");
+        try {
+            writer.write(report());
+        } finally {
+            writer.close();
+        }
+
+        if (!temporary.renameTo(file)) {
+            file.delete();
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        }
+    }
+
+    /** Starts a daemon thread that writes the report to a file
+        periodically. */
+    private static void startDumping(final File file, final long interval)
+    {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(interval);
+                        dump(file);
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (IOException e) {
+                        // Try again at the next interval.
+                    }
+                }
+            }
+        }, "rmi-metrics");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    public String getReport()
+    {
+        return report();
+    }
+
+    @Override
+    public long getUnknownMethods()
+    {
+        return unknownMethods();
+    }
+
+    @Override
+    public void reset()
+    {
+        for (MethodMetrics m : all()) {
+            m.reset();
+        }
+        unknown_methods.set(0);
+    }
+}
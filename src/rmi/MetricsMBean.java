@@ -0,0 +1,14 @@
+package rmi;
+
+/** Management interface of {@link Metrics}. */
+public interface MetricsMBean
+{
+    /** Returns the text report of all call statistics, as produced by
+        <code>Metrics.report</code>. */
+    public String getReport();
+    /** Returns the number of requests received for methods not in the
+        remote interface. */
+    public long getUnknownMethods();
+    /** Discards all call statistics. */
+    public void reset();
+}
@@ -0,0 +1,29 @@
+package rmi;
+
+/** RMI exception raised when a remote call does not complete before its
+    deadline.
+
+    <p>
+    The exception is raised by the stub when the connection or the response
+    takes longer than the time remaining for the call, and by the skeleton when
+    a request arrives after the caller's deadline has already expired. In the
+    latter case the remote method is not executed.
+ */
+public class RMITimeoutException extends RMIException
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Creates an <code>RMITimeoutException</code> with the given message
+        string. */
+    public RMITimeoutException(String message)
+    {
+        super(message);
+    }
+
+    /** Creates an <code>RMITimeoutException</code> with a message string and
+        the given cause. */
+    public RMITimeoutException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
@@ -3,14 +3,19 @@ package rmi;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.Socket;
 
+import common.Log;
+
 //Reference :- https://www.w3schools.com/java/java_threads.asp
 //Reference :- https://www.javatpoint.com/creating-thread
 //Reference :- https://www.tutorialspoint.com/java/lang/class_getdeclaredmethod.htm
 
 public class ReadingThread<T> implements Runnable {
+    private static final Log logger = Log.get("rmi");
+
     Socket socket;
     ObjectInputStream objectInputStream = null;
     ObjectOutputStream objectOutputStream = null;
@@ -26,22 +31,72 @@ public class ReadingThread<T> implements Runnable {
     }
 
     public void run() {
+        CountingInputStream countingInput = null;
+        CountingOutputStream countingOutput = null;
+        MethodMetrics metrics = null;
+        Trace.Context span = null;
+        String methodName = null;
+        long received = 0;
+        int outcome = MethodMetrics.ERROR;
+
         try {
             if (!stop) {
-                this.objectOutputStream = new ObjectOutputStream(
-                        this.socket.getOutputStream());
+                countingOutput = new CountingOutputStream(this.socket.getOutputStream());
+                countingInput = new CountingInputStream(this.socket.getInputStream());
+                this.objectOutputStream = new ObjectOutputStream(countingOutput);
                 this.objectOutputStream.flush();
-                this.objectInputStream = new ObjectInputStream(
-                        this.socket.getInputStream());
+                this.objectInputStream = new ObjectInputStream(countingInput);
 
-                String methodName = (String) objectInputStream.readObject();
+                // The caller's deadline is measured from the moment the
+                // request starts arriving.
+                received = System.nanoTime();
+                CallHeader header = (CallHeader) objectInputStream.readObject();
+                methodName = (String) objectInputStream.readObject();
                 Class[] argTypes = (Class[]) objectInputStream.readObject();
                 Object[] args = (Object[]) objectInputStream.readObject();
-                Method m = c.getDeclaredMethod(methodName, argTypes);
-                Object result = m.invoke(server, args);
+
+                // Statistics are only kept for methods of the interface, so
+                // that a caller cannot create them for arbitrary names.
+                Method m;
+                try {
+                    m = c.getDeclaredMethod(methodName, argTypes);
+                } catch (NoSuchMethodException e) {
+                    Metrics.unknownMethod();
+                    throw e;
+                }
+                metrics = Metrics.server(c, methodName);
+                metrics.begin();
+                span = Trace.serve(header.trace, header.span);
+
+                long remaining = 0;
+                if (header.timeout > 0) {
+                    remaining = header.timeout - (System.nanoTime() - received) / 1000000L;
+                    if (remaining <= 0) {
+                        // The caller has already given up - drop the work.
+                        objectOutputStream.writeObject(false);
+                        objectOutputStream.writeObject(new RMITimeoutException(
+                                "Deadline expired before " + methodName + " was executed"));
+                        socket.close();
+                        return;
+                    }
+                }
+
+                Object result;
+                if (remaining > 0) {
+                    Deadline.set(remaining);
+                }
+                try {
+                    result = m.invoke(server, args);
+                } catch (InvocationTargetException e) {
+                    outcome = MethodMetrics.EXCEPTION;
+                    throw e;
+                } finally {
+                    Deadline.clear();
+                }
                 objectOutputStream.writeObject(true);
                 objectOutputStream.writeObject(result);
                 socket.close();
+                outcome = MethodMetrics.OK;
             }
         } catch (Exception e) {
             try {
@@ -49,7 +104,17 @@ public class ReadingThread<T> implements Runnable {
                 objectOutputStream.writeObject(e.getCause());
                 socket.close();
             } catch (IOException e1) {
-                System.out.println("Error in writing exception to user.");
+                logger.warn("Unable to send the exception to the caller", e1);
+            }
+        } finally {
+            if (metrics != null) {
+                metrics.transferred(countingInput.count(), countingOutput.count());
+                metrics.end(received, outcome);
+            }
+            if (span != null) {
+                Trace.record(span, "server", c.getName(), methodName,
+                        outcome != MethodMetrics.OK);
+                Trace.restore(null);
             }
         }
     }
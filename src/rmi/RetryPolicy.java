@@ -0,0 +1,119 @@
+package rmi;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/** Retry, failover and hedging policy for idempotent remote calls.
+
+    <p>
+    The policy applies only to methods of the remote interface marked
+    {@link Idempotent}. A failed attempt - one which could not connect to the
+    skeleton or did not receive a complete response - is retried after a
+    randomly jittered, exponentially growing backoff, until the number of
+    attempts is exhausted or the call's deadline expires. Exceptions thrown by
+    the remote method itself, and calls which run out of time, are not
+    retried. Successive attempts rotate through the stub's replicas, if any
+    were given using <code>Stub.withReplicas</code>.
+
+    <p>
+    If hedging is enabled and the stub has replicas, an attempt which has not
+    completed within the given percentile of the stub's recently observed
+    latency for the method is duplicated on the next replica. The first
+    response received is used.
+
+    <p>
+    Policy objects are immutable.
+ */
+public class RetryPolicy implements Serializable
+{
+    private static final long serialVersionUID = -4166139253780843624L;
+
+    /** Policy under which every call is made exactly once. */
+    public static final RetryPolicy     NONE = new RetryPolicy(1, 0, 0, 0);
+    /** Policy given to new stubs: three attempts, backoff starting at 50 ms
+        and limited to one second, and no hedging. */
+    public static final RetryPolicy     DEFAULT =
+        new RetryPolicy(3, 50, 1000, 0);
+    /** As <code>DEFAULT</code>, additionally hedging attempts slower than the
+        95th percentile of recent latency. */
+    public static final RetryPolicy     HEDGED =
+        new RetryPolicy(3, 50, 1000, 0.95);
+
+    /** Source of backoff jitter. */
+    private static final Random         jitter = new Random();
+
+    /** Maximum number of attempts, including the first. */
+    private final int                   attempts;
+    /** Backoff before the first retry, in milliseconds. */
+    private final long                  backoff;
+    /** Upper limit of the backoff, in milliseconds. */
+    private final long                  max_backoff;
+    /** Latency percentile after which an attempt is hedged, or zero if
+        attempts are not hedged. */
+    private final double                hedge_percentile;
+
+    /** Creates a retry policy.
+
+        @param attempts Maximum number of attempts, including the first.
+        @param backoff Backoff before the first retry, in milliseconds. The
+                       backoff doubles with each retry. The actual delay is
+                       chosen uniformly at random between zero and the
+                       backoff.
+        @param max_backoff Upper limit of the backoff, in milliseconds.
+        @param hedge_percentile Latency percentile, strictly between zero and
+                                one, after which an attempt is duplicated on a
+                                replica, or zero to disable hedging.
+        @throws IllegalArgumentException If any of the arguments is out of
+                                         range.
+     */
+    public RetryPolicy(int attempts, long backoff, long max_backoff,
+                       double hedge_percentile)
+    {
+        if (attempts < 1 || backoff < 0 || max_backoff < backoff) {
+            throw new IllegalArgumentException("Invalid retry limits");
+        }
+
+        if (hedge_percentile < 0 || hedge_percentile >= 1) {
+            throw new IllegalArgumentException("Invalid hedging percentile");
+        }
+
+        this.attempts = attempts;
+        this.backoff = backoff;
+        this.max_backoff = max_backoff;
+        this.hedge_percentile = hedge_percentile;
+    }
+
+    /** Returns the maximum number of attempts, including the first. */
+    public int attempts()
+    {
+        return attempts;
+    }
+
+    /** Returns the latency percentile after which attempts are hedged, or zero
+        if hedging is disabled. */
+    public double hedgePercentile()
+    {
+        return hedge_percentile;
+    }
+
+    /** Returns the delay before the given retry, in milliseconds.
+
+        @param retry Number of the retry, starting at zero for the first.
+     */
+    long delay(int retry)
+    {
+        long limit = backoff;
+        for (int i = 0; i < retry && limit < max_backoff; i++) {
+            limit *= 2;
+        }
+        limit = Math.min(limit, max_backoff);
+
+        if (limit == 0) {
+            return 0;
+        }
+
+        synchronized (jitter) {
+            return (long) (jitter.nextDouble() * limit);
+        }
+    }
+}
@@ -5,6 +5,8 @@ import java.lang.reflect.Method;
 import java.net.*;
 import java.util.Arrays;
 
+import common.Log;
+
 /** RMI skeleton
 
     <p>
@@ -34,11 +36,14 @@ import java.util.Arrays;
 
 public class Skeleton<T>
 {
+    private static final Log logger = Log.get("rmi");
+
     Class<T> c;
     InetSocketAddress addr;
     ServerSocket serverSocket;
     T server;
     boolean stop = false;
+    Thread listener;
 
     /** Creates a <code>Skeleton</code> with no initial server address. The
         address will be determined by the system when <code>start</code> is
@@ -78,7 +83,7 @@ public class Skeleton<T>
         try {
             this.serverSocket = new ServerSocket();
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.error("Unable to create the server socket", e);
         }
 
 
@@ -128,7 +133,7 @@ public class Skeleton<T>
         try {
             this.serverSocket = new ServerSocket();
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.error("Unable to create the server socket", e);
         }
 
         this.addr = address;
@@ -216,15 +221,18 @@ public class Skeleton<T>
     public synchronized void start() throws RMIException
     {
         try {
+            // Allow a well-known port to be bound again while connections
+            // from a previous server are still in TIME_WAIT.
+            this.serverSocket.setReuseAddress(true);
             this.serverSocket.bind(addr);
             if (this.addr == null) {
                 this.addr = (InetSocketAddress) serverSocket
                         .getLocalSocketAddress();
             }
-            Thread t = new Thread(new l_thread());
-            t.start();
+            listener = new Thread(new l_thread());
+            listener.start();
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.error("Unable to start the skeleton at " + addr, e);
             throw new RMIException("Failed to create the thread!");
         }
     }
@@ -261,7 +269,23 @@ public class Skeleton<T>
         try {
             this.serverSocket.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.warn("Unable to close the server socket", e);
+        }
+
+        // The socket is only released once the listening thread has left
+        // accept, so wait for it before reporting that the server stopped.
+        if (listener != null && listener != Thread.currentThread()) {
+            boolean interrupted = false;
+            while (listener.isAlive()) {
+                try {
+                    listener.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
         stopped(null);
     }
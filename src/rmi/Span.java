@@ -0,0 +1,93 @@
+package rmi;
+
+import common.RingBuffer;
+
+/** Record of one timed operation in a distributed trace.
+
+    <p>
+    A <em>client</em> span covers a remote call as seen by the stub, including
+    retries. A <em>server</em> span covers the same call as seen by the
+    skeleton, and has the client span as its parent. A <em>local</em> span is
+    started and finished explicitly by the application using
+    <code>Trace.start</code> and <code>Trace.finish</code>. All spans caused,
+    directly or indirectly, by the same root operation carry the same trace
+    identifier, even when they are recorded by different processes.
+
+    <p>
+    Span objects are immutable.
+ */
+public class Span implements RingBuffer.Entry
+{
+    /** Position of the span in the ring buffer of the process. */
+    private final long      sequence;
+    /** Trace to which the span belongs. */
+    public final long       trace;
+    /** Identifier of the span. */
+    public final long       id;
+    /** Identifier of the parent span, or zero if the span is a root. */
+    public final long       parent;
+    /** <code>"client"</code>, <code>"server"</code> or
+        <code>"local"</code>. */
+    public final String     kind;
+    /** Name of the remote interface, or the empty string for local spans. */
+    public final String     interface_name;
+    /** Name of the remote method or local operation. */
+    public final String     operation;
+    /** Wall clock time at which the span started, in microseconds since the
+        epoch. */
+    public final long       start;
+    /** Duration of the span, in microseconds. */
+    public final long       duration;
+    /** Whether the operation failed. */
+    public final boolean    error;
+
+    Span(long sequence, long trace, long id, long parent, String kind,
+         String interface_name, String operation, long start, long duration,
+         boolean error)
+    {
+        this.sequence = sequence;
+        this.trace = trace;
+        this.id = id;
+        this.parent = parent;
+        this.kind = kind;
+        this.interface_name = interface_name;
+        this.operation = operation;
+        this.start = start;
+        this.duration = duration;
+        this.error = error;
+    }
+
+    /** Returns the position of the span in the ring buffer of the process
+        which recorded it. */
+    @Override
+    public long sequence()
+    {
+        return sequence;
+    }
+
+    /** Returns the span as a single line of JSON, identifying the process
+        which recorded it. */
+    String toJson(String process)
+    {
+        return "{\"trace\":\"" + Long.toHexString(trace)
+            + "\",\"span\":\"" + Long.toHexString(id)
+            + "\",\"parent\":\"" + Long.toHexString(parent)
+            + "\",\"kind\":\"" + kind
+            + "\",\"interface\":\"" + interface_name
+            + "\",\"operation\":\"" + operation.replace("\\", "\\\\").replace("\"", "\\\"")
+            + "\",\"process\":\"" + process
+            + "\",\"start_us\":" + start
+            + ",\"duration_us\":" + duration
+            + ",\"error\":" + error + "}";
+    }
+
+    @Override
+    public String toString()
+    {
+        String name = interface_name.isEmpty() ? operation
+                                               : interface_name + "." + operation;
+        return kind + " " + name + " trace "
+            + Long.toHexString(trace) + " span " + Long.toHexString(id)
+            + " parent " + Long.toHexString(parent) + " " + duration + " us";
+    }
+}
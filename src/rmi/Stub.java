@@ -7,7 +7,10 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
 
 /** RMI stub factory.
 
@@ -189,6 +192,131 @@ public abstract class Stub
         T stub = (T) Proxy.newProxyInstance(c.getClassLoader(), new Class[]{c}, proxyClass);
         return stub;
     }
+
+    /** Sets the timeout applied to every call made through a stub.
+
+        <p>
+        The timeout covers both establishing the connection to the skeleton and
+        waiting for its response. A call which does not complete in time fails
+        with <code>RMITimeoutException</code>. If the calling thread has also
+        set a deadline using <code>Deadline.set</code>, the earlier of the two
+        applies. The timeout is carried with the stub when it is serialized.
+
+        <p>
+        Stubs are created with the timeout given by the <code>rmi.timeout</code>
+        system property, in milliseconds, or with no timeout if the property is
+        not set.
+
+        @param stub The stub to be configured.
+        @param timeout The timeout in milliseconds, or zero for no timeout.
+        @throws IllegalArgumentException If <code>stub</code> is not a stub
+                                         created by this class, or if
+                                         <code>timeout</code> is negative.
+        @throws NullPointerException If <code>stub</code> is <code>null</code>.
+     */
+    public static void setTimeout(Object stub, long timeout)
+    {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Negative timeout");
+        }
+
+        handler(stub).timeout = timeout;
+    }
+
+    /** Returns the timeout applied to every call made through a stub.
+
+        @param stub The stub.
+        @return The timeout in milliseconds, or zero if the stub has no timeout.
+        @throws IllegalArgumentException If <code>stub</code> is not a stub
+                                         created by this class.
+        @throws NullPointerException If <code>stub</code> is <code>null</code>.
+     */
+    public static long getTimeout(Object stub)
+    {
+        return handler(stub).timeout;
+    }
+
+    /** Sets the retry policy applied to idempotent calls made through a stub.
+
+        <p>
+        Only methods marked {@link Idempotent} are retried. Stubs are created
+        with <code>RetryPolicy.DEFAULT</code>. The policy is carried with the
+        stub when it is serialized.
+
+        @param stub The stub to be configured.
+        @param policy The new policy.
+        @throws IllegalArgumentException If <code>stub</code> is not a stub
+                                         created by this class.
+        @throws NullPointerException If either argument is <code>null</code>.
+     */
+    public static void setRetryPolicy(Object stub, RetryPolicy policy)
+    {
+        if (policy == null) {
+            throw new NullPointerException("Policy is null");
+        }
+
+        handler(stub).policy = policy;
+    }
+
+    /** Creates a stub which may fail over to replicas of a remote object.
+
+        <p>
+        The new stub connects to the same skeleton as <code>stub</code>, and is
+        equal to it. When a call to an idempotent method fails, or is hedged,
+        further attempts are directed to the skeletons of the replica stubs in
+        turn. Calls to other methods are always directed to the skeleton of
+        <code>stub</code>. The new stub has the timeout and retry policy of
+        <code>stub</code>.
+
+        @param stub Stub for the preferred remote object.
+        @param replicas Stubs for the replicas, which must implement the same
+                        remote interface.
+        @return The new stub.
+        @throws IllegalArgumentException If any of the arguments is not a stub
+                                         created by this class, or if the
+                                         replicas implement a different
+                                         interface.
+        @throws NullPointerException If any argument is <code>null</code>.
+     */
+    @SafeVarargs
+    @SuppressWarnings("unchecked")
+    public static <T> T withReplicas(T stub, T... replicas)
+    {
+        ProxyClass primary = handler(stub);
+        InetSocketAddress[] addresses = new InetSocketAddress[replicas.length];
+
+        for (int i = 0; i < replicas.length; i++) {
+            ProxyClass replica = handler(replicas[i]);
+            if (!replica.c.equals(primary.c)) {
+                throw new IllegalArgumentException("Replica implements a different interface");
+            }
+            addresses[i] = replica.address;
+        }
+
+        ProxyClass proxyClass = new ProxyClass(primary.address, primary.c);
+        proxyClass.timeout = primary.timeout;
+        proxyClass.policy = primary.policy;
+        proxyClass.replicas = addresses;
+
+        T replicated = (T) Proxy.newProxyInstance(primary.c.getClassLoader(),
+                new Class<?>[]{primary.c}, proxyClass);
+        return replicated;
+    }
+
+    /** Returns the invocation handler of a stub. */
+    static ProxyClass handler(Object stub)
+    {
+        if (stub == null) {
+            throw new NullPointerException("Stub is null");
+        }
+
+        if (!Proxy.isProxyClass(stub.getClass()) ||
+                !(Proxy.getInvocationHandler(stub) instanceof ProxyClass)) {
+            throw new IllegalArgumentException("Object is not an RMI stub");
+        }
+
+        return (ProxyClass) Proxy.getInvocationHandler(stub);
+    }
 }
 
 //References :- https://www.javatpoint.com/serialization-in-java
@@ -199,21 +327,42 @@ public abstract class Stub
 //Proxy Class...This will implement Invocation Handler and Serializable to handle the logic of Proxy Class
 //and send object to skeleton by using serializable...
 class 	ProxyClass implements InvocationHandler, Serializable {
+    private static final long serialVersionUID = 1L;
+
     public InetSocketAddress address;
     public Class<?> c;
+    public long timeout;
+    public RetryPolicy policy;
+    public InetSocketAddress[] replicas;
+
+    // Hedged attempts run on these threads, so that the caller can wait for
+    // whichever attempt answers first.
+    private static final ExecutorService hedgingPool =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "rmi-hedge");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private transient volatile ConcurrentHashMap<String, LatencySamples> latencies;
 
     public ProxyClass(InetSocketAddress address,Class<?> c) {
         this.address = address;
         this.c = c;
+        this.timeout = Long.getLong("rmi.timeout", 0L);
+        this.policy = RetryPolicy.DEFAULT;
+        this.replicas = new InetSocketAddress[0];
     }
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args)
             throws Throwable {
         String methodName = method.getName();
-        Class[] argTypes = method.getParameterTypes();
-        Object result = null;
-        boolean success = false;
+        Class<?>[] argTypes = method.getParameterTypes();
+        Reply reply;
 
 
         //Implementing toString logic...
@@ -235,37 +384,274 @@ class 	ProxyClass implements InvocationHandler, Serializable {
         } else if (methodName.equals("hashCode")) {
             return this.c.hashCode() + this.address.hashCode();
         } else {
-            Socket clientSocket = new Socket();
+            // The call is bounded by the earlier of the thread's deadline and
+            // the stub's own timeout.
+            long deadline = Deadline.remaining();
+            if (this.timeout > 0 && this.timeout < deadline) {
+                deadline = this.timeout;
+            }
+            if (deadline <= 0) {
+                throw new RMITimeoutException("Deadline expired before calling " + methodName);
+            }
+            long expiry = deadline == Deadline.NONE ? Deadline.NONE
+                    : System.nanoTime() + deadline * 1000000L;
+
+            MethodMetrics metrics = Metrics.client(c, methodName);
+            Trace.Context span = Trace.call();
+            long started = metrics.begin();
+            int outcome = MethodMetrics.ERROR;
             try {
-                ObjectOutputStream out = null;
-                ObjectInputStream in   = null;
+                if (method.isAnnotationPresent(Idempotent.class)) {
+                    reply = callWithRetries(methodName, argTypes, args, expiry, span);
+                } else {
+                    reply = call(this.address, methodName, argTypes, args, expiry, span);
+                }
+                outcome = reply.success ? MethodMetrics.OK : MethodMetrics.EXCEPTION;
+            } finally {
+                metrics.end(started, outcome);
+                Trace.record(span, "client", c.getName(), methodName,
+                        outcome != MethodMetrics.OK);
+            }
 
-                clientSocket.connect(this.address);
+            if (reply.success == false) {
+                throw ((Throwable) reply.result);
+            }
+        }
+        return reply.result;
+    }
+
+    // Makes one attempt at the call against the skeleton at the given address.
+    private Reply call(InetSocketAddress target, String methodName, Class<?>[] argTypes,
+                       Object[] args, long expiry, Trace.Context span) throws RMIException, java.io.IOException {
+        return call(target, methodName, argTypes, args, expiry, span, new Socket());
+    }
+
+    // As above, over the given unconnected socket. Closing the socket from
+    // another thread abandons the attempt.
+    private Reply call(InetSocketAddress target, String methodName, Class<?>[] argTypes,
+                       Object[] args, long expiry, Trace.Context span,
+                       Socket clientSocket) throws RMIException, java.io.IOException {
+        long start = System.nanoTime();
+        long deadline = Deadline.NONE;
+        if (expiry != Deadline.NONE) {
+            deadline = (expiry - start) / 1000000L;
+            if (deadline <= 0) {
+                throw new RMITimeoutException("Deadline expired before calling " + methodName);
+            }
+        }
+
+        Reply reply = new Reply();
+        CountingInputStream countingInput = null;
+        CountingOutputStream countingOutput = null;
+        try {
+            ObjectOutputStream out = null;
+            ObjectInputStream in   = null;
+
+            if (deadline == Deadline.NONE) {
+                clientSocket.connect(target);
+            } else {
+                clientSocket.connect(target, toSocketTimeout(deadline));
+            }
 
-                out = new ObjectOutputStream(clientSocket.getOutputStream());
-                out.flush();
-                in = new ObjectInputStream(clientSocket.getInputStream());
+            // Whatever is left after connecting bounds the response.
+            long remaining = 0;
+            if (deadline != Deadline.NONE) {
+                remaining = (expiry - System.nanoTime()) / 1000000L;
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Deadline expired after connecting");
+                }
+                clientSocket.setSoTimeout(toSocketTimeout(remaining));
+            }
+
+            countingOutput = new CountingOutputStream(clientSocket.getOutputStream());
+            countingInput = new CountingInputStream(clientSocket.getInputStream());
+            out = new ObjectOutputStream(countingOutput);
+            out.flush();
+            in = new ObjectInputStream(countingInput);
+
+            out.writeObject(new CallHeader(remaining, span.trace, span.span));
 
-                out.writeObject(methodName);
+            out.writeObject(methodName);
 
-                out.writeObject(argTypes);
+            out.writeObject(argTypes);
 
-                out.writeObject(args);
+            out.writeObject(args);
 
-                success = (boolean) in.readObject();
-                result = in.readObject();
+            reply.success = (boolean) in.readObject();
+            reply.result = in.readObject();
 
-                clientSocket.close();
+            clientSocket.close();
+        }
+        catch (SocketTimeoutException e) {
+            clientSocket.close();
+            throw new RMITimeoutException("Call to " + methodName + " timed out after "
+                    + deadline + " ms", e);
+        }
+        catch (Exception e) {
+            clientSocket.close();
+            throw new RMIException("Hey man, you fail!!", e);
+        }
+        finally {
+            // Either stream may be missing if the socket failed before both
+            // were created.
+            long received = countingInput == null ? 0 : countingInput.count();
+            long sent = countingOutput == null ? 0 : countingOutput.count();
+            if (received > 0 || sent > 0) {
+                Metrics.client(c, methodName).transferred(received, sent);
             }
-            catch (Exception e) {
-                clientSocket.close();
-                throw new RMIException("Hey man, you fail!!");
+        }
+
+        samples(methodName).record((System.nanoTime() - start) / 1000000L);
+        return reply;
+    }
+
+    // Makes up to policy.attempts() attempts at an idempotent call, rotating
+    // through the replicas and backing off between attempts.
+    private Reply callWithRetries(String methodName, Class<?>[] argTypes, Object[] args,
+                                  long expiry, Trace.Context span) throws RMIException, java.io.IOException {
+        InetSocketAddress[] targets = new InetSocketAddress[replicas.length + 1];
+        targets[0] = this.address;
+        System.arraycopy(replicas, 0, targets, 1, replicas.length);
+        int attempts = policy.attempts();
+
+        for (int attempt = 0; ; attempt++) {
+            InetSocketAddress target = targets[attempt % targets.length];
+            InetSocketAddress hedge = targets[(attempt + 1) % targets.length];
+
+            try {
+                if (policy.hedgePercentile() > 0 && hedge != target) {
+                    return hedgedCall(target, hedge, methodName, argTypes, args, expiry, span);
+                }
+                return call(target, methodName, argTypes, args, expiry, span);
+            } catch (RMITimeoutException e) {
+                // The call's time is used up - there is nothing left to retry in.
+                throw e;
+            } catch (RMIException e) {
+                if (attempt + 1 >= attempts) {
+                    throw e;
+                }
+            }
+
+            long delay = policy.delay(attempt);
+            if (expiry != Deadline.NONE) {
+                delay = Math.min(delay, (expiry - System.nanoTime()) / 1000000L);
             }
-            if (success == false) {
-                throw ((Throwable) result);
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RMIException("Interrupted while retrying " + methodName, e);
+                }
             }
         }
-        return result;
+    }
+
+    // Starts the call against target, and duplicates it against hedge if it
+    // is slower than the policy's latency percentile. The first reply wins,
+    // and the attempt still outstanding is abandoned.
+    private Reply hedgedCall(final InetSocketAddress target, final InetSocketAddress hedge,
+                             final String methodName, final Class<?>[] argTypes,
+                             final Object[] args, final long expiry,
+                             final Trace.Context span)
+            throws RMIException, java.io.IOException {
+        long delay = samples(methodName).percentile(policy.hedgePercentile());
+        if (delay < 0) {
+            // Not enough history yet to tell what counts as slow.
+            return call(target, methodName, argTypes, args, expiry, span);
+        }
+
+        CompletionService<Reply> attempts = new ExecutorCompletionService<Reply>(hedgingPool);
+        final Socket[] sockets = {new Socket(), new Socket()};
+        List<Future<Reply>> futures = new ArrayList<Future<Reply>>(2);
+        futures.add(attempts.submit(new Callable<Reply>() {
+            @Override
+            public Reply call() throws Exception {
+                return ProxyClass.this.call(target, methodName, argTypes, args, expiry, span,
+                        sockets[0]);
+            }
+        }));
+        int outstanding = 1;
+
+        try {
+            Future<Reply> done = attempts.poll(delay, TimeUnit.MILLISECONDS);
+            if (done == null) {
+                futures.add(attempts.submit(new Callable<Reply>() {
+                    @Override
+                    public Reply call() throws Exception {
+                        return ProxyClass.this.call(hedge, methodName, argTypes, args, expiry, span,
+                                sockets[1]);
+                    }
+                }));
+                outstanding++;
+            }
+
+            RMIException failure = null;
+            while (outstanding > 0) {
+                if (done == null) {
+                    done = attempts.take();
+                }
+                outstanding--;
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RMIException) {
+                        failure = (RMIException) e.getCause();
+                    } else {
+                        failure = new RMIException("Hey man, you fail!!", e.getCause());
+                    }
+                }
+                done = null;
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RMIException("Interrupted while waiting for " + methodName, e);
+        } finally {
+            // Closing the socket unblocks an attempt waiting on the network,
+            // which an interrupt alone does not.
+            for (int i = 0; i < futures.size(); i++) {
+                if (!futures.get(i).isDone()) {
+                    futures.get(i).cancel(true);
+                    try {
+                        sockets[i].close();
+                    } catch (java.io.IOException e) {
+                        // The attempt is abandoned either way.
+                    }
+                }
+            }
+        }
+    }
+
+    private LatencySamples samples(String methodName) {
+        ConcurrentHashMap<String, LatencySamples> map = latencies;
+        if (map == null) {
+            synchronized (this) {
+                if (latencies == null) {
+                    latencies = new ConcurrentHashMap<String, LatencySamples>();
+                }
+                map = latencies;
+            }
+        }
+
+        LatencySamples samples = map.get(methodName);
+        if (samples == null) {
+            map.putIfAbsent(methodName, new LatencySamples());
+            samples = map.get(methodName);
+        }
+        return samples;
+    }
+
+    // Socket timeouts are ints, and zero would mean no timeout at all.
+    private static int toSocketTimeout(long millis) {
+        return (int) Math.max(1, Math.min(millis, Integer.MAX_VALUE));
+    }
+
+    // Outcome of a call: the result when success is true, or the exception
+    // thrown by the remote method otherwise.
+    private static class Reply {
+        boolean success;
+        Object result;
     }
 
 }
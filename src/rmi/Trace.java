@@ -0,0 +1,257 @@
+package rmi;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import common.RingBuffer;
+
+/** Distributed tracing of remote calls.
+
+    <p>
+    Every remote call carries the identifier of the trace it belongs to and
+    of the client span which made it. The skeleton records a server span under
+    the client span, and makes it the current span of the service thread, so
+    that remote calls made while handling the request become its children. A
+    single client operation can therefore be followed across every server it
+    reaches.
+
+    <p>
+    Calls made by a thread with no current span start a new trace. An
+    application may group several calls under one trace by surrounding them
+    with <code>start</code> and <code>finish</code>.
+
+    <p>
+    Finished spans are kept in a ring buffer in each process, holding the most
+    recent <code>rmi.trace.buffer</code> spans (65536 by default). If the
+    system property <code>rmi.trace.file</code> is set, new spans are appended
+    to that file every <code>rmi.trace.interval</code> milliseconds (one second
+    by default), one JSON object per line. The files written by all processes
+    can be merged and grouped by trace to reconstruct call trees.
+ */
+public final class Trace
+{
+    /** Span in progress on a thread. */
+    static final class Context
+    {
+        final long      trace;
+        final long      span;
+        final long      parent;
+        final String    operation;
+        final long      start_wall;
+        final long      start;
+        /** Context to restore when this span finishes. */
+        final Context   enclosing;
+
+        Context(long trace, long span, long parent, String operation,
+                Context enclosing)
+        {
+            this.trace = trace;
+            this.span = span;
+            this.parent = parent;
+            this.operation = operation;
+            this.start_wall = System.currentTimeMillis() * 1000L;
+            this.start = System.nanoTime();
+            this.enclosing = enclosing;
+        }
+
+        /** Returns the time elapsed since the span started, in
+            microseconds. */
+        long elapsed()
+        {
+            return (System.nanoTime() - start) / 1000L;
+        }
+    }
+
+    private static final ThreadLocal<Context>   current =
+        new ThreadLocal<Context>();
+
+    /** Spans recorded by this process. */
+    static final RingBuffer<Span>               buffer =
+        new RingBuffer<Span>(Integer.getInteger("rmi.trace.buffer", 65536));
+
+    static {
+        String file = System.getProperty("rmi.trace.file");
+        if (file != null) {
+            startExporting(new File(file), Long.getLong("rmi.trace.interval", 1000L));
+        }
+    }
+
+    /** Prevents instantiation. */
+    private Trace()
+    {
+    }
+
+    /** Starts a local span on the current thread.
+
+        <p>
+        If the thread already has a current span, the new span is its child.
+        Otherwise, the new span starts a new trace. Remote calls made by the
+        thread until the span finishes become children of the span.
+
+        @param operation Name of the operation.
+        @return The identifier of the trace.
+     */
+    public static long start(String operation)
+    {
+        Context enclosing = current.get();
+        Context context;
+
+        if (enclosing == null) {
+            context = new Context(newId(), newId(), 0, operation, null);
+        } else {
+            context = new Context(enclosing.trace, newId(), enclosing.span,
+                                  operation, enclosing);
+        }
+
+        current.set(context);
+        return context.trace;
+    }
+
+    /** Finishes the most recently started local span of the current thread,
+        and records it.
+
+        @throws IllegalStateException If the thread has no local span in
+                                      progress.
+     */
+    public static void finish()
+    {
+        Context context = current.get();
+        if (context == null || context.operation == null) {
+            throw new IllegalStateException("No local span in progress");
+        }
+
+        record(context, "local", "", context.operation, false);
+        restore(context.enclosing);
+    }
+
+    /** Returns the identifier of the current thread's trace, or zero if the
+        thread has no current span. */
+    public static long currentTrace()
+    {
+        Context context = current.get();
+        return context == null ? 0 : context.trace;
+    }
+
+    /** Returns the spans recorded by this process that are still held in the
+        ring buffer, oldest first. */
+    public static List<Span> spans()
+    {
+        List<Span> spans = new ArrayList<Span>();
+        buffer.read(0, spans);
+        return spans;
+    }
+
+    /** Returns the current span of the thread, or <code>null</code>. */
+    static Context current()
+    {
+        return current.get();
+    }
+
+    /** Makes the given span current, or clears the current span if
+        <code>context</code> is <code>null</code>. */
+    static void restore(Context context)
+    {
+        if (context == null) {
+            current.remove();
+        } else {
+            current.set(context);
+        }
+    }
+
+    /** Begins the client span for a call made by a stub. The span is a child
+        of the current span of the thread, if any, but does not itself become
+        current. */
+    static Context call()
+    {
+        Context enclosing = current.get();
+
+        if (enclosing == null) {
+            return new Context(newId(), newId(), 0, null, null);
+        }
+        return new Context(enclosing.trace, newId(), enclosing.span, null, null);
+    }
+
+    /** Begins the server span for a call received by a skeleton, and makes it
+        the current span of the service thread.
+
+        @param trace Trace identifier sent by the client, or zero if none was
+                     sent.
+        @param parent Client span identifier sent by the client.
+     */
+    static Context serve(long trace, long parent)
+    {
+        Context context = new Context(trace == 0 ? newId() : trace, newId(),
+                                      parent, null, null);
+        current.set(context);
+        return context;
+    }
+
+    /** Records a finished span. */
+    static void record(Context context, String kind, String interface_name,
+                       String operation, boolean error)
+    {
+        buffer.publish(new Span(buffer.claim(), context.trace, context.span,
+                                context.parent, kind, interface_name,
+                                operation, context.start_wall,
+                                context.elapsed(), error));
+    }
+
+    /** Returns a new random non-zero identifier. */
+    static long newId()
+    {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /** Starts a daemon thread that appends new spans to a file. */
+    private static void startExporting(final File file, final long interval)
+    {
+        final String process = ManagementFactory.getRuntimeMXBean().getName();
+
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long cursor = buffer.position();
+                List<Span> spans = new ArrayList<Span>();
+
+                while (true) {
+                    try {
+                        Thread.sleep(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    spans.clear();
+                    long next = buffer.read(cursor, spans);
+                    if (spans.isEmpty()) {
+                        cursor = next;
+                        continue;
+                    }
+
+                    try {
+                        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                                new FileOutputStream(file, true), "UTF-8"));
+                        try {
+                            for (Span span : spans) {
+                                writer.write(span.toJson(process));
+                                writer.write('\n');
+                            }
+                        } finally {
+                            writer.close();
+                        }
+                        cursor = next;
+                    } catch (IOException e) {
+                        // Keep the cursor, and try again at the next interval.
+                    }
+                }
+            }
+        }, "rmi-trace-export");
+        t.setDaemon(true);
+        t.start();
+    }
+}
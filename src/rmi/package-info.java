@@ -70,5 +70,31 @@
     client. To avoid this, the RMI library allows the client to create an
     initial stub by directly providing a network address to a version of
     <code>create</code>.
+
+    <p>
+    Remote calls may be bounded in time, either for all calls made through a
+    stub, using <code>Stub.setTimeout</code>, or for all calls made by a thread,
+    using <code>Deadline</code>. The remaining time is sent to the skeleton with
+    each request, so that requests arriving after their deadline are dropped
+    rather than executed. Calls that run out of time fail with
+    <code>RMITimeoutException</code>.
+
+    <p>
+    Methods of a remote interface which may safely be repeated can be marked
+    {@link rmi.Idempotent}. Stubs retry such calls after transient network
+    failures, and may direct retries and hedged requests to replicas of the
+    remote object, as described by the stub's {@link rmi.RetryPolicy}.
+
+    <p>
+    Stubs and skeletons record call counts, errors, bytes transferred, calls in
+    progress and latency histograms for each remote method. These are available
+    through {@link rmi.Metrics}, over JMX, and as a periodically written text
+    report.
+
+    <p>
+    Each call also carries a trace identifier and the identifier of the calling
+    span, so that calls made on behalf of one operation can be correlated
+    across processes. Spans are recorded in a ring buffer in each process, and
+    may be exported to a file. See {@link rmi.Trace}.
  */
 package rmi;
@@ -0,0 +1,177 @@
+package storage;
+
+import java.io.*;
+import java.util.zip.CRC32C;
+
+import common.*;
+
+/** Per-block checksums of the files of a storage server.
+
+    <p>
+    Each file is divided into blocks of <code>BLOCK</code> bytes, the last of
+    which may be shorter. The CRC-32C checksum of each block is kept by the
+    storage engine alongside the file: the file engine keeps them, four bytes
+    per block, in a sidecar file at the same path under the
+    <code>.dfs/checksums</code> directory of the storage server's root, and the
+    container engine in its index.
+
+    <p>
+    Files without complete checksums, such as those placed in the root
+    directory while the storage server was not running, have their checksums
+    computed from their current contents when they are first verified.
+
+    <p>
+    Checksums are computed, loaded and verified <code>BATCH</code> blocks at a
+    time, so that the memory used does not grow with the size of the file.
+
+    <p>
+    The storage server calls these methods with its lock held.
+ */
+class BlockChecksums
+{
+    /** Size of a checksummed block. */
+    static final int BLOCK = 1 << 16;
+    /** Number of blocks whose checksums are handled at once. */
+    static final int BATCH = 1024;
+    /** Checksum of a whole block of zeros. */
+    static final int ZERO = checksum(new byte[BLOCK], BLOCK);
+
+    private BlockChecksums()
+    {
+    }
+
+    /** Returns the number of blocks in a file of the given length. */
+    static long blocks(long length)
+    {
+        return (length + BLOCK - 1) / BLOCK;
+    }
+
+    /** Recomputes the checksums of the blocks of a file that overlap the
+        given range, and drops those of blocks past the end of the file.
+
+        @param file The open file.
+        @param from Start of the range that changed.
+        @param to End of the range that changed.
+        @throws IOException If the file or its checksums cannot be accessed.
+     */
+    static void update(StorageEngine.Handle file, long from, long to)
+        throws IOException
+    {
+        update(file, from, to, 0, 0);
+    }
+
+    /** Recomputes the checksums of the blocks of a file that overlap the
+        given range, and drops those of blocks past the end of the file.
+        Blocks wholly within the given hole, a range of zeros left by a write
+        past the end of the file, are not read.
+
+        @param file The open file.
+        @param from Start of the range that changed.
+        @param to End of the range that changed.
+        @param holeFrom Start of the hole.
+        @param holeTo End of the hole.
+        @throws IOException If the file or its checksums cannot be accessed.
+     */
+    static void update(StorageEngine.Handle file, long from, long to,
+                       long holeFrom, long holeTo)
+        throws IOException
+    {
+        long length = file.length();
+
+        // The checksums of the blocks before the range must already be known.
+        // They are stored in order, so it is enough that the last one is.
+        long first = Math.min(from / BLOCK, blocks(length));
+        if (first > 0 && file.loadChecksums(first - 1, 1) == null) {
+            first = 0;
+            to = length;
+        }
+
+        long end = blocks(Math.min(to, length));
+        byte[] buffer = new byte[BLOCK];
+        do {
+            int[] checksums = new int[(int) Math.max(0, Math.min(BATCH, end - first))];
+            for (int index = 0; index < checksums.length; index++) {
+                long start = (first + index) * BLOCK;
+                if (start >= holeFrom && start + BLOCK <= holeTo) {
+                    checksums[index] = ZERO;
+                } else {
+                    int count = read(file, first + index, buffer);
+                    checksums[index] = checksum(buffer, count);
+                }
+            }
+            // Storing the first batch also drops the checksums past the end.
+            file.storeChecksums(first, checksums);
+            first += checksums.length;
+        } while (first < end);
+    }
+
+    /** Returns the stored checksums of a sequence of blocks of a file,
+        computing the checksums of the whole file first if they are missing.
+
+        @param file The open file.
+        @param first Index of the first block.
+        @param count Number of blocks.
+        @return The checksums.
+        @throws IOException If the file or its checksums cannot be accessed.
+     */
+    static int[] load(StorageEngine.Handle file, long first, int count)
+        throws IOException
+    {
+        int[] checksums = file.loadChecksums(first, count);
+        if (checksums == null) {
+            update(file, 0, file.length());
+            checksums = file.loadChecksums(first, count);
+        }
+        return checksums;
+    }
+
+    /** Verifies the blocks of a file that overlap the given range.
+
+        @param path Path to the file, reported in a checksum failure.
+        @param file The open file.
+        @param offset Start of the range.
+        @param length Length of the range.
+        @throws ChecksumException If a block does not match its checksum.
+        @throws IOException If the file or its checksums cannot be accessed.
+     */
+    static void verify(Path path, StorageEngine.Handle file, long offset,
+                       long length)
+        throws IOException
+    {
+        if (length == 0) {
+            return;
+        }
+
+        long end = (offset + length - 1) / BLOCK + 1;
+        byte[] buffer = new byte[BLOCK];
+
+        for (long first = offset / BLOCK; first < end; first += BATCH) {
+            int count = (int) Math.min(BATCH, end - first);
+            int[] checksums = load(file, first, count);
+
+            for (int index = 0; index < count; index++) {
+                int read = read(file, first + index, buffer);
+                if (checksum(buffer, read) != checksums[index]) {
+                    throw new ChecksumException(path, (first + index) * BLOCK);
+                }
+            }
+        }
+    }
+
+    /** Returns the CRC-32C checksum of the beginning of a buffer. */
+    static int checksum(byte[] buffer, int count)
+    {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer, 0, count);
+        return (int) crc.getValue();
+    }
+
+    // Reads a block of a file into a buffer, and returns its length.
+    private static int read(StorageEngine.Handle file, long block, byte[] buffer)
+        throws IOException
+    {
+        int count = (int) Math.min(BLOCK, file.length() - block * BLOCK);
+        file.read(block * BLOCK, buffer, 0, count);
+        return count;
+    }
+}
@@ -0,0 +1,78 @@
+package storage;
+
+import java.io.Serializable;
+import java.util.zip.CRC32C;
+
+import common.*;
+
+/** Blocks of a file, with their checksums.
+
+    <p>
+    Returned by <code>Storage.readBlocks</code>. The blocks cover the sequence
+    requested, extended to block boundaries, so that the client can verify each
+    block against the checksum that the storage server computed when the block
+    was written.
+ */
+public class Blocks implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final Path file;
+    private final long offset;
+    private final int blockSize;
+    private final byte[] data;
+    private final int[] checksums;
+
+    /** Creates the blocks.
+
+        @param file Path to the file.
+        @param offset Offset of the first block in the file.
+        @param blockSize Size of each block but the last.
+        @param data Contents of the blocks.
+        @param checksums CRC-32C checksum of each block.
+     */
+    public Blocks(Path file, long offset, int blockSize, byte[] data,
+                  int[] checksums)
+    {
+        this.file = file;
+        this.offset = offset;
+        this.blockSize = blockSize;
+        this.data = data;
+        this.checksums = checksums;
+    }
+
+    /** Verifies the blocks, and returns a sequence of bytes from them.
+
+        @param offset Offset into the file of the sequence.
+        @param length Length of the sequence.
+        @return The bytes of the sequence.
+        @throws ChecksumException If a block overlapping the sequence does not
+                                  match its checksum.
+        @throws IndexOutOfBoundsException If the sequence is not within the
+                                          blocks.
+     */
+    public byte[] verify(long offset, int length) throws ChecksumException
+    {
+        if (length < 0 || offset < this.offset
+                || offset + length > this.offset + data.length) {
+            throw new IndexOutOfBoundsException("Sequence is outside of the blocks.");
+        }
+
+        int start = (int) (offset - this.offset);
+        int end = start + length;
+        for (int block = start / blockSize; block * blockSize < end; block++) {
+            int blockStart = block * blockSize;
+            int blockLength = Math.min(blockSize, data.length - blockStart);
+
+            CRC32C crc = new CRC32C();
+            crc.update(data, blockStart, blockLength);
+            if ((int) crc.getValue() != checksums[block]) {
+                throw new ChecksumException(file, this.offset + blockStart);
+            }
+        }
+
+        byte[] sequence = new byte[length];
+        System.arraycopy(data, start, sequence, 0, length);
+        return sequence;
+    }
+}
@@ -0,0 +1,193 @@
+package storage;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import common.*;
+
+/** Cache of open file channels, keyed by path.
+
+    <p>
+    Opening a file for each request costs more than the request itself when
+    files are accessed in small pieces. The cache keeps up to a given number
+    of channels open, closing the least recently used one when another is
+    opened. Each channel is counted while leased, and a leased channel is
+    never closed: the cache may hold more channels than its capacity while
+    they are all in use. A channel invalidated while leased, because its file
+    is deleted, is closed when the last lease is returned.
+ */
+class ChannelCache
+{
+    private static final Log logger = Log.get("storage");
+
+    private final int capacity;
+    private final LinkedHashMap<Path, Lease> channels =
+        new LinkedHashMap<Path, Lease>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+
+    /** Creates an empty cache.
+
+        @param capacity Number of channels kept open when not in use.
+     */
+    ChannelCache(int capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    /** Leases the channel of a file, opening the file if its channel is not
+        cached. The file is opened for reading and writing if permitted, and
+        for reading otherwise.
+
+        @param path Path by which the channel is cached.
+        @param file The file.
+        @param create Whether to create the file if it does not exist.
+        @throws FileNotFoundException If the file does not exist, and is not
+                                      to be created, or cannot be opened.
+     */
+    synchronized Lease acquire(Path path, File file, boolean create)
+        throws FileNotFoundException
+    {
+        Lease lease = channels.get(path);
+        if (lease != null) {
+            hits++;
+        } else {
+            misses++;
+            lease = new Lease(path, open(file, create));
+            channels.put(path, lease);
+            evict();
+        }
+
+        lease.references++;
+        return lease;
+    }
+
+    // Opens a file, for reading and writing if permitted.
+    private static FileChannel open(File file, boolean create)
+        throws FileNotFoundException
+    {
+        try {
+            try {
+                return create
+                    ? FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+                    : FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE);
+            } catch (AccessDeniedException e) {
+                return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(file + " does not exist.");
+        } catch (IOException e) {
+            throw new FileNotFoundException("Unable to open " + file + ": "
+                    + e.getMessage());
+        }
+    }
+
+    // Closes the least recently used channels not in use, until no more than
+    // the capacity remain open.
+    private void evict()
+    {
+        Iterator<Lease> leases = channels.values().iterator();
+        while (channels.size() > capacity && leases.hasNext()) {
+            Lease lease = leases.next();
+            if (lease.references == 0) {
+                leases.remove();
+                lease.shut();
+            }
+        }
+    }
+
+    /** Drops the channels of a file, or of all files beneath a directory.
+        Channels not in use are closed at once, and the others when
+        returned. */
+    synchronized void invalidate(Path path)
+    {
+        Iterator<Lease> leases = channels.values().iterator();
+        while (leases.hasNext()) {
+            Lease lease = leases.next();
+            if (lease.path.isSubpath(path)) {
+                leases.remove();
+                lease.invalid = true;
+                if (lease.references == 0) {
+                    lease.shut();
+                }
+            }
+        }
+    }
+
+    /** Closes the channels not in use, and drops the others. */
+    synchronized void clear()
+    {
+        for (Lease lease : channels.values()) {
+            lease.invalid = true;
+            if (lease.references == 0) {
+                lease.shut();
+            }
+        }
+        channels.clear();
+    }
+
+    /** Returns the number of leases served by a cached channel. */
+    synchronized long hits()
+    {
+        return hits;
+    }
+
+    /** Returns the number of leases that opened a file. */
+    synchronized long misses()
+    {
+        return misses;
+    }
+
+    /** A channel leased from the cache. */
+    class Lease implements Closeable
+    {
+        private final Path path;
+        private final FileChannel channel;
+        private int references;
+        private boolean invalid;
+
+        private Lease(Path path, FileChannel channel)
+        {
+            this.path = path;
+            this.channel = channel;
+        }
+
+        /** Returns the channel. */
+        FileChannel channel()
+        {
+            return channel;
+        }
+
+        /** Returns the lease to the cache. */
+        @Override
+        public void close()
+        {
+            synchronized (ChannelCache.this) {
+                references--;
+                if (references == 0) {
+                    if (invalid) {
+                        shut();
+                    } else {
+                        evict();
+                    }
+                }
+            }
+        }
+
+        // Closes the channel.
+        private void shut()
+        {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Unable to close a cached channel", e);
+            }
+        }
+    }
+}
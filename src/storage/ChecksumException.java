@@ -0,0 +1,45 @@
+package storage;
+
+import java.io.IOException;
+
+import common.*;
+
+/** Indicates that a block of a file does not match its checksum.
+
+    <p>
+    Storage servers raise this exception when the data they hold has been
+    corrupted on disk. Clients raise it when the data they receive does not
+    match the checksums sent with it.
+ */
+public class ChecksumException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final Path file;
+    private final long offset;
+
+    /** Creates the exception.
+
+        @param file Path to the corrupted file.
+        @param offset Offset of the corrupted block in the file.
+     */
+    public ChecksumException(Path file, long offset)
+    {
+        super("Block at offset " + offset + " of " + file
+              + " does not match its checksum.");
+        this.file = file;
+        this.offset = offset;
+    }
+
+    /** Returns the path to the corrupted file. */
+    public Path getFile()
+    {
+        return file;
+    }
+
+    /** Returns the offset of the corrupted block in the file. */
+    public long getOffset()
+    {
+        return offset;
+    }
+}
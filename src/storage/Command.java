@@ -36,6 +36,11 @@ public interface Command
         If the file is a directory and cannot be deleted, some, all, or none of
         its contents may be deleted by this operation.
 
+        <p>
+        The file or directory is removed from the storage server before the
+        call returns, but the space it takes may be freed later, in the
+        background.
+
         @param path Path to the file or directory to be deleted. The root
                     directory cannot be deleted.
         @return <code>true</code> if the file or directory is deleted;
@@ -44,4 +49,61 @@ public interface Command
                              error.
      */
     public boolean delete(Path path) throws RMIException;
+
+    /** Renames a file or directory on the storage server.
+
+        <p>
+        The file or directory is moved with its contents and checksums,
+        without copying its data. Sessions open on files beneath it continue
+        under the new path.
+
+        @param from Path to the file or directory to be renamed. This path may
+                    not be the root directory.
+        @param to New path. The directories leading to it are created if they
+                  do not exist.
+        @return <code>true</code> if the file or directory is renamed;
+                <code>false</code> if it does not exist, if an object exists
+                at the new path or a file is in the way of its parent, or if
+                the new path is the old one or lies beneath it.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public boolean rename(Path from, Path to) throws RMIException;
+
+    /** Copies a file from another storage server.
+
+        <p>
+        The storage server creates the file if it does not exist, and replaces
+        its contents with those of the file on the other storage server. The
+        data is read directly from the other storage server, in chunks of which
+        several are requested at once, and is verified against the checksum of
+        the source file once copied. The copy fails if the source file changes
+        during the copy.
+
+        <p>
+        If the file already exists, the checksum of each chunk is first
+        compared with that of the same chunk of the source, and only the
+        chunks that differ are transferred. Bringing an out-of-date copy up to
+        date therefore moves only the data written since it was made.
+
+        <p>
+        A large copy takes a long time. The stub used to call this method
+        should not have a timeout shorter than the copy.
+
+        @param file Path to the file to be copied. This path may not be the
+                    root directory.
+        @param source Client interface of the storage server holding the file.
+        @param bandwidth Limit on the rate at which data is read from the
+                         source, in bytes per second, or zero for no limit.
+        @return The number of bytes copied.
+        @throws FileNotFoundException If the file cannot be found on the
+                                      source, or the path refers to a directory
+                                      on either storage server.
+        @throws IOException If the copy cannot be completed, or does not
+                            match the checksum of the source.
+        @throws RMIException If the call cannot be completed due to a network
+                             error, or if the source cannot be reached.
+     */
+    public long copy(Path file, Storage source, long bandwidth)
+        throws RMIException, FileNotFoundException, IOException;
 }
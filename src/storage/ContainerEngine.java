@@ -0,0 +1,695 @@
+package storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import common.*;
+
+/** Storage engine keeping the blocks of all files in large container files.
+
+    <p>
+    Each file is divided into blocks of a fixed size, given by the
+    <code>storage.container.block</code> system property in bytes (default
+    64 MB). Blocks are kept in slots of the same size in container files of
+    <code>storage.container.blocks</code> slots each (default 16), under the
+    <code>.dfs/containers</code> directory of the root. A block is given a
+    slot when it is first written, and its slot is freed when the file is
+    truncated or deleted, so that it can be given to another block. Blocks
+    never written, such as those in a gap left by a write past the end of a
+    file, have no slot and read as zeros. Container files only grow, and
+    slots not written to are holes on filesystems with sparse files.
+
+    <p>
+    The lengths of the files, the slots of their blocks and their checksums
+    are kept in memory, and each change is appended to an index file in the
+    same directory. The index is replayed when the engine is created, and
+    rewritten with only the current state when it has grown to several times
+    that size. The block geometry is recorded in the index, so that changing
+    the properties does not affect existing containers.
+ */
+class ContainerEngine implements StorageEngine
+{
+    private static final Log logger = Log.get("storage");
+
+    /** Name of the directory holding the containers, under the reserved
+        directory. */
+    static final String CONTAINERS = "containers";
+
+    private static final int MAGIC = 0x44465343;
+    private static final long UNALLOCATED = -1;
+    // Types of index records.
+    private static final byte CREATE = 1;
+    private static final byte LENGTH = 2;
+    private static final byte BLOCK = 3;
+    private static final byte CHECKSUMS = 4;
+    private static final byte DELETE = 5;
+    private static final byte RENAME = 6;
+
+    private final File directory;
+    private int blockSize;
+    private int containerBlocks;
+    private final HashMap<Path, Entry> files = new HashMap<Path, Entry>();
+    private final ImplicitDirectories directories = new ImplicitDirectories();
+    private final HashMap<Long, FileChannel> containers = new HashMap<Long, FileChannel>();
+    // Free slots below the number of slots in use.
+    private final TreeSet<Long> free = new TreeSet<Long>();
+    private long slots;
+    private DataOutputStream index;
+    // Records appended to the index, and those written when it was last
+    // rewritten.
+    private long records;
+    private long snapshotRecords;
+
+    /** Creates the engine for the given root directory, replaying its index
+        if it has one.
+
+        @throws IOException If the index cannot be read or rewritten.
+     */
+    ContainerEngine(File root) throws IOException
+    {
+        directory = new File(new File(root, METADATA), CONTAINERS);
+        directory.mkdirs();
+
+        File existing = new File(directory, "index");
+        if (existing.exists()) {
+            replay(existing);
+        } else {
+            blockSize = Integer.getInteger("storage.container.block", 64 << 20);
+            containerBlocks = Integer.getInteger("storage.container.blocks", 16);
+            if (blockSize <= 0 || containerBlocks <= 0) {
+                throw new IllegalArgumentException("Invalid container geometry.");
+            }
+        }
+
+        // Rewrite the index at once, which also drops a record torn by a
+        // crash at its end.
+        snapshot();
+    }
+
+    @Override
+    public Path[] list()
+    {
+        return files.keySet().toArray(new Path[0]);
+    }
+
+    @Override
+    public boolean isFile(Path path)
+    {
+        return files.containsKey(path);
+    }
+
+    @Override
+    public boolean isDirectory(Path path)
+    {
+        return directories.contains(path);
+    }
+
+    @Override
+    public long usage(Path path)
+    {
+        Entry entry = files.get(path);
+        if (entry != null) {
+            return entry.length;
+        }
+
+        long total = 0;
+        for (Map.Entry<Path, Entry> file : files.entrySet()) {
+            if (file.getKey().isSubpath(path)) {
+                total += file.getValue().length;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public boolean create(Path file) throws IOException
+    {
+        if (files.containsKey(file) || directories.contains(file)) {
+            return false;
+        }
+        for (Path parent = file.parent(); !parent.isRoot(); parent = parent.parent()) {
+            if (files.containsKey(parent)) {
+                return false;
+            }
+        }
+
+        add(file);
+        log(CREATE, file);
+        flush();
+        return true;
+    }
+
+    @Override
+    public Handle open(Path file, boolean write) throws FileNotFoundException
+    {
+        Entry entry = files.get(file);
+        if (entry == null) {
+            throw new FileNotFoundException("File cannot be found");
+        }
+        return new StoredFile(file, entry);
+    }
+
+    @Override
+    public boolean delete(Path path) throws IOException
+    {
+        ArrayList<Path> deleted = beneath(path);
+        if (deleted.isEmpty()) {
+            return false;
+        }
+
+        for (Path file : deleted) {
+            Entry entry = remove(file);
+            for (long slot : entry.slots) {
+                if (slot != UNALLOCATED) {
+                    free.add(slot);
+                }
+            }
+            log(DELETE, file);
+        }
+        flush();
+        return true;
+    }
+
+    @Override
+    public boolean rename(Path from, Path to) throws IOException
+    {
+        ArrayList<Path> renamed = beneath(from);
+        if (renamed.isEmpty()) {
+            return false;
+        }
+
+        // Only the entries move: the blocks stay in their slots.
+        for (Path file : renamed) {
+            Path target = StorageEngine.moved(file, from, to);
+            move(file, target);
+            log(RENAME, file);
+            index.writeUTF(target.toString());
+        }
+        flush();
+        return true;
+    }
+
+    @Override
+    public long unlink(Path path) throws IOException
+    {
+        // Freeing slots deletes nothing on the local filesystem.
+        long used = usage(path);
+        return delete(path) ? used : -1;
+    }
+
+    @Override
+    public long reclaim(int count)
+    {
+        return -1;
+    }
+
+    @Override
+    public long unlinked()
+    {
+        return 0;
+    }
+
+    @Override
+    public void prune(Path directory)
+    {
+        // Directories exist only while they hold files.
+    }
+
+    @Override
+    public void sync()
+    {
+        // Written back by the operating system.
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            index.close();
+            for (FileChannel container : containers.values()) {
+                container.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to close the containers", e);
+        }
+        containers.clear();
+    }
+
+    // Adds an empty file, counting it in the directories above it.
+    private Entry add(Path file)
+    {
+        Entry entry = new Entry();
+        files.put(file, entry);
+        directories.add(file);
+        return entry;
+    }
+
+    // Removes a file, and the directories left without files.
+    private Entry remove(Path file)
+    {
+        Entry entry = files.remove(file);
+        directories.remove(file);
+        return entry;
+    }
+
+    // Gives a file a new path.
+    private void move(Path file, Path target)
+    {
+        files.put(target, remove(file));
+        directories.add(target);
+    }
+
+    // Returns the file at a path, or the files beneath it if it is a
+    // directory.
+    private ArrayList<Path> beneath(Path path)
+    {
+        ArrayList<Path> found = new ArrayList<Path>();
+        if (files.containsKey(path)) {
+            found.add(path);
+        } else if (directories.contains(path)) {
+            for (Path file : files.keySet()) {
+                if (file.isSubpath(path)) {
+                    found.add(file);
+                }
+            }
+        }
+        return found;
+    }
+
+    // Reads the index, applying each record in turn.
+    private void replay(File existing) throws IOException
+    {
+        DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(existing)));
+        try {
+            if (input.readInt() != MAGIC) {
+                throw new IOException(existing + " is not a container index.");
+            }
+            blockSize = input.readInt();
+            containerBlocks = input.readInt();
+
+            while (true) {
+                int type = input.read();
+                if (type < 0) {
+                    break;
+                }
+
+                Path file = new Path(input.readUTF());
+                Entry entry = files.get(file);
+                if (type != CREATE && entry == null) {
+                    throw new IOException("Index refers to unknown file " + file);
+                }
+
+                switch (type) {
+                case CREATE:
+                    add(file);
+                    break;
+                case LENGTH:
+                    entry.setLength(input.readLong());
+                    break;
+                case BLOCK:
+                    long block = input.readLong();
+                    entry.setSlot(block, input.readLong());
+                    break;
+                case CHECKSUMS:
+                    long first = input.readLong();
+                    int[] sums = new int[input.readInt()];
+                    for (int index = 0; index < sums.length; index++) {
+                        sums[index] = input.readInt();
+                    }
+                    entry.setChecksums(first, sums);
+                    break;
+                case DELETE:
+                    remove(file);
+                    break;
+                case RENAME:
+                    move(file, new Path(input.readUTF()));
+                    break;
+                default:
+                    throw new IOException("Unknown record in " + existing);
+                }
+            }
+        } catch (EOFException e) {
+            // The last record was torn by a crash.
+        } finally {
+            input.close();
+        }
+
+        // Slots not given to any block are free.
+        HashSet<Long> used = new HashSet<Long>();
+        for (Entry entry : files.values()) {
+            for (long slot : entry.slots) {
+                if (slot != UNALLOCATED) {
+                    used.add(slot);
+                    slots = Math.max(slots, slot + 1);
+                }
+            }
+        }
+        for (long slot = 0; slot < slots; slot++) {
+            if (!used.contains(slot)) {
+                free.add(slot);
+            }
+        }
+    }
+
+    // Rewrites the index with the current state, and appends to it from then
+    // on.
+    private void snapshot() throws IOException
+    {
+        if (index != null) {
+            index.close();
+        }
+
+        File replacement = new File(directory, "index.new");
+        FileOutputStream stream = new FileOutputStream(replacement);
+        index = new DataOutputStream(new BufferedOutputStream(stream));
+        records = 0;
+        index.writeInt(MAGIC);
+        index.writeInt(blockSize);
+        index.writeInt(containerBlocks);
+
+        for (Map.Entry<Path, Entry> file : files.entrySet()) {
+            Path path = file.getKey();
+            Entry entry = file.getValue();
+
+            log(CREATE, path);
+            log(LENGTH, path);
+            index.writeLong(entry.length);
+            for (int block = 0; block < entry.slots.length; block++) {
+                if (entry.slots[block] != UNALLOCATED) {
+                    logSlot(path, block, entry.slots[block]);
+                }
+            }
+            logChecksums(path, 0, entry.checksums);
+        }
+
+        // The new index must be on disk before it replaces the old one, and
+        // the rename itself must be on disk before the old index is gone for
+        // good. Otherwise a crash could leave an empty or partial index.
+        index.flush();
+        stream.getChannel().force(true);
+        index.close();
+
+        File current = new File(directory, "index");
+        Files.move(replacement.toPath(), current.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+        index = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(current, true)));
+        snapshotRecords = records;
+    }
+
+    // Forces the entries of the engine's directory to disk, so that a rename
+    // within it survives a crash. Some platforms cannot open a directory, and
+    // make renames durable by other means.
+    private void forceDirectory() throws IOException
+    {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Starts an index record.
+    private void log(byte type, Path file) throws IOException
+    {
+        index.writeByte(type);
+        index.writeUTF(file.toString());
+        records++;
+    }
+
+    private void logSlot(Path file, long block, long slot) throws IOException
+    {
+        log(BLOCK, file);
+        index.writeLong(block);
+        index.writeLong(slot);
+    }
+
+    private void logChecksums(Path file, long first, int[] sums) throws IOException
+    {
+        log(CHECKSUMS, file);
+        index.writeLong(first);
+        index.writeInt(sums.length);
+        for (int sum : sums) {
+            index.writeInt(sum);
+        }
+    }
+
+    // Writes the buffered records to the index, and rewrites the index once
+    // it has grown to several times its size when last rewritten.
+    private void flush() throws IOException
+    {
+        index.flush();
+        if (records > 2 * snapshotRecords + 4096) {
+            snapshot();
+        }
+    }
+
+    // Returns the container holding a slot, opening it if needed.
+    private FileChannel container(long slot) throws IOException
+    {
+        long number = slot / containerBlocks;
+        FileChannel container = containers.get(number);
+        if (container == null) {
+            File file = new File(directory, "container-" + number);
+            container = new RandomAccessFile(file, "rw").getChannel();
+            containers.put(number, container);
+        }
+        return container;
+    }
+
+    // Returns the position of a slot in its container.
+    private long position(long slot)
+    {
+        return (slot % containerBlocks) * blockSize;
+    }
+
+    // The length, block slots and checksums of a file.
+    private static class Entry
+    {
+        long length;
+        long[] slots = new long[0];
+        int[] checksums = new int[0];
+
+        long slot(long block)
+        {
+            return block < slots.length ? slots[(int) block] : UNALLOCATED;
+        }
+
+        void setSlot(long block, long slot)
+        {
+            if (block >= slots.length) {
+                int previous = slots.length;
+                slots = Arrays.copyOf(slots, (int) Math.max(block + 1, 2L * previous));
+                Arrays.fill(slots, previous, slots.length, UNALLOCATED);
+            }
+            slots[(int) block] = slot;
+        }
+
+        // Sets the length, dropping the checksums of blocks past the end.
+        void setLength(long length)
+        {
+            this.length = length;
+            long blocks = BlockChecksums.blocks(length);
+            if (checksums.length > blocks) {
+                checksums = Arrays.copyOf(checksums, (int) blocks);
+            }
+        }
+
+        // Sets the checksums of a sequence of blocks, other than those past
+        // the end.
+        void setChecksums(long first, int[] sums)
+        {
+            int end = (int) Math.min(first + sums.length,
+                                     BlockChecksums.blocks(length));
+            if (checksums.length < end) {
+                checksums = Arrays.copyOf(checksums, end);
+            }
+            for (int index = (int) first; index < end; index++) {
+                checksums[index] = sums[index - (int) first];
+            }
+        }
+    }
+
+    // A file open for access.
+    private class StoredFile implements Handle
+    {
+        private final Path path;
+        private final Entry entry;
+
+        StoredFile(Path path, Entry entry)
+        {
+            this.path = path;
+            this.entry = entry;
+        }
+
+        @Override
+        public long length()
+        {
+            return entry.length;
+        }
+
+        @Override
+        public void setLength(long length) throws IOException
+        {
+            if (length < entry.length) {
+                // Free the slots of the blocks wholly past the new end.
+                long keep = (length + blockSize - 1) / blockSize;
+                for (long block = keep; block < entry.slots.length; block++) {
+                    long slot = entry.slot(block);
+                    if (slot != UNALLOCATED) {
+                        free.add(slot);
+                        entry.setSlot(block, UNALLOCATED);
+                        logSlot(path, block, UNALLOCATED);
+                    }
+                }
+            } else {
+                zero(entry.length, length);
+            }
+
+            entry.setLength(length);
+            log(LENGTH, path);
+            index.writeLong(length);
+        }
+
+        @Override
+        public void read(long position, byte[] buffer, int start, int count)
+            throws IOException
+        {
+            if (position + count > entry.length) {
+                throw new EOFException("Read past the end of " + path);
+            }
+
+            while (count > 0) {
+                long block = position / blockSize;
+                int within = (int) (position % blockSize);
+                int length = Math.min(count, blockSize - within);
+                long slot = entry.slot(block);
+
+                if (slot == UNALLOCATED) {
+                    Arrays.fill(buffer, start, start + length, (byte) 0);
+                } else {
+                    FileChannel container = container(slot);
+                    long base = position(slot) + within - start;
+                    ByteBuffer target = ByteBuffer.wrap(buffer, start, length);
+                    while (target.hasRemaining()) {
+                        if (container.read(target, base + target.position()) < 0) {
+                            // Never written past this point.
+                            Arrays.fill(buffer, target.position(), start + length, (byte) 0);
+                            break;
+                        }
+                    }
+                }
+
+                position += length;
+                start += length;
+                count -= length;
+            }
+        }
+
+        @Override
+        public void write(long position, byte[] buffer, int start, int count)
+            throws IOException
+        {
+            long end = position + count;
+
+            if (count > 0) {
+                for (long block = position / blockSize; block * blockSize < end; block++) {
+                    if (entry.slot(block) == UNALLOCATED) {
+                        long slot = free.isEmpty() ? slots++ : free.pollFirst();
+                        entry.setSlot(block, slot);
+                        logSlot(path, block, slot);
+                    }
+                }
+            }
+
+            // Slots may hold data left by earlier blocks past the end of the
+            // file, which must not show through a gap.
+            if (position > entry.length) {
+                zero(entry.length, position);
+            }
+
+            while (count > 0) {
+                long slot = entry.slot(position / blockSize);
+                int within = (int) (position % blockSize);
+                int length = Math.min(count, blockSize - within);
+
+                ByteBuffer source = ByteBuffer.wrap(buffer, start, length);
+                long base = position(slot) + within - start;
+                FileChannel container = container(slot);
+                while (source.hasRemaining()) {
+                    container.write(source, base + source.position());
+                }
+
+                position += length;
+                start += length;
+                count -= length;
+            }
+
+            if (end > entry.length) {
+                entry.setLength(end);
+                log(LENGTH, path);
+                index.writeLong(end);
+            }
+        }
+
+        // Writes zeros to the slots of the blocks overlapping a range past
+        // the end of the file.
+        private void zero(long from, long to) throws IOException
+        {
+            byte[] zeros = new byte[(int) Math.min(to - from, 65536)];
+
+            for (long block = from / blockSize; block * blockSize < to; block++) {
+                long slot = entry.slot(block);
+                if (slot == UNALLOCATED) {
+                    continue;
+                }
+
+                long start = Math.max(from, block * blockSize);
+                long end = Math.min(to, (block + 1) * blockSize);
+                FileChannel container = container(slot);
+                long base = position(slot) - block * blockSize;
+                while (start < end) {
+                    ByteBuffer source = ByteBuffer.wrap(zeros, 0,
+                            (int) Math.min(zeros.length, end - start));
+                    start += container.write(source, base + start);
+                }
+            }
+        }
+
+        @Override
+        public int[] loadChecksums(long first, int count)
+        {
+            if (first + count > entry.checksums.length) {
+                return null;
+            }
+            return Arrays.copyOfRange(entry.checksums, (int) first, (int) first + count);
+        }
+
+        @Override
+        public void storeChecksums(long first, int[] sums) throws IOException
+        {
+            entry.setChecksums(first, sums);
+            logChecksums(path, first, sums);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flush();
+        }
+    }
+}
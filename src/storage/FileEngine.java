@@ -0,0 +1,554 @@
+package storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.*;
+
+/** Storage engine keeping each file as a file of the local filesystem.
+
+    <p>
+    A file is kept at the same path under the root directory, so that the
+    files of a storage server can be placed in, or taken from, its root
+    directory directly. The checksums of each file are kept in a sidecar file
+    at the same path under the <code>.dfs/checksums</code> directory.
+
+    <p>
+    Files and sidecars are kept open between requests in caches of
+    <code>storage.handles</code> channels each (default 128), so that a file
+    read or written in many small pieces is opened once. The channels of a
+    file are dropped from the caches when it is deleted through the engine.
+
+    <p>
+    Writes past the end of a file and files grown by
+    <code>setLength</code> leave holes rather than zeros written out, so that
+    sparse files such as disk images take only the space of their data.
+
+    <p>
+    A file or directory is unlinked by renaming it, and its checksums, into
+    the <code>.dfs/reclaim</code> directory, from which they are deleted in
+    the background. Unlinking a directory of any size therefore takes one
+    rename, and paths unlinked before a restart are deleted after it. Their
+    space is counted as used until deleted.
+ */
+class FileEngine implements StorageEngine
+{
+    private static final Log logger = Log.get("storage");
+
+    private final File root;
+    private final File checksums;
+    private final File reclaim;
+    // Suffix of the names of checksums in the reclaim directory, whose space
+    // is not counted as used.
+    private static final String CHECKSUMS = ".checksums";
+    final ChannelCache files;
+    final ChannelCache sidecars;
+    // Name of the next path moved into the reclaim directory.
+    private long nextUnlinked;
+    // Number of paths in the reclaim directory.
+    private final AtomicLong unlinked = new AtomicLong();
+    // Directories being deleted from the reclaim directory, innermost first.
+    private final ArrayDeque<Listing> reclaiming = new ArrayDeque<Listing>();
+
+    /** Creates the engine for the given root directory. */
+    FileEngine(File root)
+    {
+        this.root = root;
+        this.checksums = new File(new File(root, METADATA), "checksums");
+        this.reclaim = new File(new File(root, METADATA), "reclaim");
+
+        // Paths unlinked before a restart are still to be deleted.
+        String[] left = reclaim.list();
+        if (left != null) {
+            for (String name : left) {
+                try {
+                    nextUnlinked = Math.max(nextUnlinked,
+                            Long.parseLong(name.replace(CHECKSUMS, "")) + 1);
+                } catch (NumberFormatException e) {
+                    // Not named by this engine, but deleted all the same.
+                }
+            }
+            unlinked.set(left.length);
+        }
+
+        int handles = Integer.getInteger("storage.handles", 128);
+        files = new ChannelCache(handles);
+        sidecars = new ChannelCache(handles);
+    }
+
+    @Override
+    public Path[] list() throws FileNotFoundException
+    {
+        ArrayList<Path> files = new ArrayList<Path>();
+        for (Path file : Path.list(root)) {
+            if (!StorageEngine.reserved(file)) {
+                files.add(file);
+            }
+        }
+        return files.toArray(new Path[0]);
+    }
+
+    @Override
+    public boolean isFile(Path path)
+    {
+        return path.toFile(root).isFile();
+    }
+
+    @Override
+    public boolean isDirectory(Path path)
+    {
+        return path.toFile(root).isDirectory();
+    }
+
+    @Override
+    public long usage(Path path)
+    {
+        if (path.isRoot()) {
+            // Unlinked files take space until they are deleted.
+            long total = usage(root) - usage(new File(root, METADATA));
+            File[] unlinked = reclaim.listFiles();
+            if (unlinked != null) {
+                for (File file : unlinked) {
+                    if (!file.getName().endsWith(CHECKSUMS)) {
+                        total += usage(file);
+                    }
+                }
+            }
+            return total;
+        }
+        return usage(path.toFile(root));
+    }
+
+    // Returns the space used by a file, or by the files beneath a directory.
+    private static long usage(File file)
+    {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+
+        long total = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                total += usage(child);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public boolean create(Path file) throws IOException
+    {
+        File parent = file.parent().toFile(root);
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+
+        if (!file.toFile(root).createNewFile()) {
+            return false;
+        }
+        // Drop any checksums left by an earlier file of the same name.
+        sidecars.invalidate(file);
+        delete(file.toFile(checksums));
+        return true;
+    }
+
+    @Override
+    public Handle open(Path file, boolean write) throws FileNotFoundException
+    {
+        // Opening a directory fails, so that no check is needed when the
+        // file is cached.
+        return new LocalFile(file, files.acquire(file, file.toFile(root), false));
+    }
+
+    /** Forces the contents and checksums of a file to disk, with the entries
+        of the directories that hold them.
+
+        <p>
+        Used by <code>PackedEngine</code> when it hands a file over to this
+        engine, so that the file is on disk before the record which drops the
+        packed copy.
+
+        @param file The path to the file.
+        @throws IOException If the file cannot be forced.
+     */
+    void force(Path file) throws IOException
+    {
+        ChannelCache.Lease data = files.acquire(file, file.toFile(root), false);
+        try {
+            data.channel().force(true);
+        } finally {
+            data.close();
+        }
+        forceDirectory(file.parent().toFile(root));
+
+        File sidecar = file.toFile(checksums);
+        if (sidecar.exists()) {
+            ChannelCache.Lease sums = sidecars.acquire(file, sidecar, false);
+            try {
+                sums.channel().force(true);
+            } finally {
+                sums.close();
+            }
+            forceDirectory(sidecar.getParentFile());
+        }
+    }
+
+    @Override
+    public boolean delete(Path path)
+    {
+        files.invalidate(path);
+        sidecars.invalidate(path);
+        delete(path.toFile(checksums));
+        return delete(path.toFile(root));
+    }
+
+    @Override
+    public boolean rename(Path from, Path to) throws IOException
+    {
+        File source = from.toFile(root);
+        if (!source.exists()) {
+            return false;
+        }
+
+        files.invalidate(from);
+        sidecars.invalidate(from);
+        move(source, to.toFile(root));
+
+        File sidecar = from.toFile(checksums);
+        if (sidecar.exists()) {
+            move(sidecar, to.toFile(checksums));
+        }
+        prune(from.parent());
+        return true;
+    }
+
+    // Renames a file or directory, creating the directories leading to its
+    // new path.
+    private static void move(File file, File target) throws IOException
+    {
+        target.getParentFile().mkdirs();
+        if (!file.renameTo(target)) {
+            throw new IOException("Unable to move " + file + " to " + target);
+        }
+    }
+
+    @Override
+    public long unlink(Path path) throws IOException
+    {
+        File file = path.toFile(root);
+        if (!file.exists()) {
+            return -1;
+        }
+
+        files.invalidate(path);
+        sidecars.invalidate(path);
+        reclaim.mkdirs();
+        long number = nextUnlinked++;
+        moveToReclaim(file, Long.toString(number));
+
+        File sidecar = path.toFile(checksums);
+        if (sidecar.exists()) {
+            moveToReclaim(sidecar, number + CHECKSUMS);
+        }
+        return 0;
+    }
+
+    // Renames a file or directory into the reclaim directory.
+    private void moveToReclaim(File file, String name) throws IOException
+    {
+        File target = new File(reclaim, name);
+        if (!file.renameTo(target)) {
+            throw new IOException("Unable to move " + file + " to " + target);
+        }
+        unlinked.incrementAndGet();
+    }
+
+    @Override
+    public long reclaim(int count) throws IOException
+    {
+        if (reclaiming.isEmpty()) {
+            if (!reclaim.isDirectory()) {
+                return -1;
+            }
+            reclaiming.push(new Listing(reclaim, false));
+        }
+
+        // Walk the reclaim directory depth first, deleting each directory
+        // once its entries are deleted. Each directory is listed as it is
+        // walked, so that no more than one entry of it is held at a time.
+        long freed = 0;
+        int deleted = 0;
+        while (deleted < count && !reclaiming.isEmpty()) {
+            Listing listing = reclaiming.peek();
+            if (listing.entries.hasNext()) {
+                java.nio.file.Path entry = listing.entries.next();
+                // The space of checksums was not counted as used.
+                boolean counted = reclaiming.size() == 1
+                    ? !entry.getFileName().toString().endsWith(CHECKSUMS)
+                    : listing.counted;
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                    reclaiming.push(new Listing(entry.toFile(), counted));
+                    continue;
+                }
+                long length = Files.isRegularFile(entry, LinkOption.NOFOLLOW_LINKS)
+                    ? entry.toFile().length() : 0;
+                if (remove(entry.toFile()) && counted) {
+                    freed += length;
+                }
+            } else {
+                reclaiming.pop().close();
+                if (reclaiming.isEmpty()) {
+                    // The reclaim directory itself is kept.
+                    break;
+                }
+                remove(listing.directory);
+            }
+            deleted++;
+        }
+        return deleted == 0 ? -1 : freed;
+    }
+
+    // Deletes a file or empty directory met while reclaiming, and reports
+    // whether it was deleted. One that cannot be deleted is left until the
+    // next restart.
+    private boolean remove(File file)
+    {
+        boolean removed = file.delete();
+        if (reclaiming.size() == 1) {
+            unlinked.decrementAndGet();
+        }
+        return removed;
+    }
+
+    @Override
+    public long unlinked()
+    {
+        return unlinked.get();
+    }
+
+    // Deletes a file, or a directory and everything beneath it.
+    private static boolean delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (!delete(child)) {
+                    return false;
+                }
+            }
+        }
+        return file.delete();
+    }
+
+    @Override
+    public void prune(Path directory)
+    {
+        while (!directory.isRoot()) {
+            String[] children = directory.toFile(root).list();
+            if (children == null || children.length != 0) {
+                return;
+            }
+            directory.toFile(root).delete();
+            directory = directory.parent();
+        }
+    }
+
+    @Override
+    public void sync()
+    {
+        // Written back by the operating system.
+    }
+
+    @Override
+    public void close()
+    {
+        files.clear();
+        sidecars.clear();
+        while (!reclaiming.isEmpty()) {
+            reclaiming.pop().close();
+        }
+    }
+
+    // A directory being deleted, with the entries not yet listed, and
+    // whether their space is counted as used.
+    private static class Listing
+    {
+        final File directory;
+        final boolean counted;
+        final DirectoryStream<java.nio.file.Path> stream;
+        final Iterator<java.nio.file.Path> entries;
+
+        Listing(File directory, boolean counted) throws IOException
+        {
+            this.directory = directory;
+            this.counted = counted;
+            this.stream = Files.newDirectoryStream(directory.toPath());
+            this.entries = stream.iterator();
+        }
+
+        void close()
+        {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                logger.warn("Unable to close the listing of " + directory, e);
+            }
+        }
+    }
+
+    // Forces the entries of a directory to disk. Some platforms cannot open
+    // a directory, and make its entries durable by other means.
+    private static void forceDirectory(File directory) throws IOException
+    {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    // A file open for access, and its sidecar.
+    private class LocalFile implements Handle
+    {
+        private final Path path;
+        private final ChannelCache.Lease data;
+
+        LocalFile(Path path, ChannelCache.Lease data)
+        {
+            this.path = path;
+            this.data = data;
+        }
+
+        @Override
+        public long length() throws IOException
+        {
+            return data.channel().size();
+        }
+
+        @Override
+        public void setLength(long length) throws IOException
+        {
+            FileChannel channel = data.channel();
+            if (length < channel.size()) {
+                channel.truncate(length);
+            } else if (length > channel.size()) {
+                channel.write(ByteBuffer.allocate(1), length - 1);
+            }
+        }
+
+        @Override
+        public void read(long position, byte[] buffer, int start, int count)
+            throws IOException
+        {
+            readFully(data.channel(), ByteBuffer.wrap(buffer, start, count), position);
+        }
+
+        @Override
+        public void write(long position, byte[] buffer, int start, int count)
+            throws IOException
+        {
+            // A write past the end of the file leaves a hole, which reads as
+            // zeros and takes no space on filesystems that support sparse
+            // files.
+            if (count == 0) {
+                if (position > length()) {
+                    setLength(position);
+                }
+                return;
+            }
+            writeFully(data.channel(), ByteBuffer.wrap(buffer, start, count), position);
+        }
+
+        @Override
+        public int[] loadChecksums(long first, int count) throws IOException
+        {
+            ChannelCache.Lease sidecar;
+            try {
+                sidecar = sidecars.acquire(path, path.toFile(checksums), false);
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+
+            try {
+                if (sidecar.channel().size() < (first + count) * 4) {
+                    return null;
+                }
+
+                ByteBuffer buffer = ByteBuffer.allocate(count * 4);
+                readFully(sidecar.channel(), buffer, first * 4);
+                buffer.flip();
+                int[] sums = new int[count];
+                buffer.asIntBuffer().get(sums);
+                return sums;
+            } finally {
+                sidecar.close();
+            }
+        }
+
+        @Override
+        public void storeChecksums(long first, int[] sums) throws IOException
+        {
+            File file = path.toFile(checksums);
+            file.getParentFile().mkdirs();
+
+            ChannelCache.Lease sidecar = sidecars.acquire(path, file, true);
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(sums.length * 4);
+                buffer.asIntBuffer().put(sums);
+                writeFully(sidecar.channel(), buffer, first * 4);
+
+                long end = BlockChecksums.blocks(length()) * 4;
+                if (sidecar.channel().size() > end) {
+                    sidecar.channel().truncate(end);
+                }
+            } finally {
+                sidecar.close();
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            data.close();
+        }
+    }
+
+    // Reads from a channel until the buffer is full.
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+        throws IOException
+    {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException("Read past the end of the file.");
+            }
+        }
+    }
+
+    // Writes the whole of a buffer to a channel.
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+        throws IOException
+    {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, start + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package storage;
+
+import java.util.HashMap;
+
+import common.*;
+
+/** Directories implied by the paths of files that an engine keeps without
+    directories of the local filesystem.
+
+    <p>
+    A directory other than the root exists while it has a file beneath it.
+ */
+class ImplicitDirectories
+{
+    // Number of files beneath each directory other than the root.
+    private final HashMap<Path, Integer> counts = new HashMap<Path, Integer>();
+
+    /** Determines whether a path refers to a directory. */
+    boolean contains(Path path)
+    {
+        return path.isRoot() || counts.containsKey(path);
+    }
+
+    /** Counts a file added in the directories above it. */
+    void add(Path file)
+    {
+        for (Path parent = file.parent(); !parent.isRoot(); parent = parent.parent()) {
+            Integer count = counts.get(parent);
+            counts.put(parent, count == null ? 1 : count + 1);
+        }
+    }
+
+    /** Counts a file removed, dropping the directories left without
+        files. */
+    void remove(Path file)
+    {
+        for (Path parent = file.parent(); !parent.isRoot(); parent = parent.parent()) {
+            int count = counts.get(parent);
+            if (count == 1) {
+                counts.remove(parent);
+            } else {
+                counts.put(parent, count - 1);
+            }
+        }
+    }
+}
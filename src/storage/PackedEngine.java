@@ -0,0 +1,771 @@
+package storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import common.*;
+
+/** Storage engine packing small files into log-structured segment files.
+
+    <p>
+    Creating a file, and writing a file no longer than the
+    <code>storage.packed.threshold</code> system property in bytes (default
+    64 KB), appends a record holding the whole file and its checksums to the
+    current segment file under the <code>.dfs/packed</code> directory of the
+    root. A new segment is started once the current one is longer than
+    <code>storage.packed.segment</code> bytes (default 16 MB). The location of
+    the latest record of each file is kept in memory, and rebuilt by reading
+    the segments in order when the engine is created. Deleting a file appends
+    a record that marks it deleted. Small files therefore take no file or
+    directory of the local filesystem, and creating or writing one costs a
+    single append.
+
+    <p>
+    A file written past the threshold is moved to the file engine, which
+    keeps it as a file at the same path under the root directory. A path
+    found in both places when the engine is created is taken to be the moved
+    file. The moved file is forced to disk before the record marking its
+    packed copy deleted is appended, so that no flush can make the record
+    durable without the file. Later writes to it are written back by the
+    operating system, as for the file engine.
+
+    <p>
+    Appends are made durable by <code>sync</code>, which the storage server
+    calls without its lock after each change. One caller at a time flushes the
+    segments written to, on behalf of all changes appended until then, and the
+    callers arriving in the meantime wait for the next flush: concurrent
+    writers share flushes rather than each paying for one.
+
+    <p>
+    Once at most half of a segment other than the current one holds the
+    latest records of files, the records still needed are copied to the
+    current segment, which is flushed, and the segment is removed. Records
+    marking files deleted are copied while older segments remain.
+ */
+class PackedEngine implements StorageEngine
+{
+    private static final Log logger = Log.get("storage");
+
+    /** Name of the directory holding the segments, under the reserved
+        directory. */
+    static final String SEGMENTS = "packed";
+
+    // Types of records.
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private final File directory;
+    private final FileEngine large;
+    private final int threshold;
+    private final long segmentSize;
+    private final HashMap<Path, Entry> files = new HashMap<Path, Entry>();
+    private final ImplicitDirectories directories = new ImplicitDirectories();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    private final TreeSet<Integer> compactable = new TreeSet<Integer>();
+    private Segment current;
+
+    // Group commit state, guarded by commit.
+    private final Object commit = new Object();
+    private final HashSet<FileChannel> dirty = new HashSet<FileChannel>();
+    private long appended;
+    private long synced;
+    private boolean syncing;
+    private long flushes;
+
+    /** Creates the engine for the given root directory, reading its
+        segments.
+
+        @throws IOException If the segments cannot be read.
+     */
+    PackedEngine(File root) throws IOException
+    {
+        directory = new File(new File(root, METADATA), SEGMENTS);
+        large = new FileEngine(root);
+        threshold = Integer.getInteger("storage.packed.threshold", 1 << 16);
+        segmentSize = Long.getLong("storage.packed.segment", 16L << 20);
+
+        ArrayList<Integer> numbers = new ArrayList<Integer>();
+        String[] names = directory.list();
+        for (String name : names == null ? new String[0] : names) {
+            if (name.startsWith("segment-")) {
+                numbers.add(Integer.parseInt(name.substring("segment-".length())));
+            }
+        }
+        Collections.sort(numbers);
+        for (int number : numbers) {
+            replay(open(number), number == numbers.get(numbers.size() - 1));
+        }
+
+        if (!segments.isEmpty()) {
+            current = segments.lastEntry().getValue();
+        }
+
+        // Files moved to the file engine may not have been marked deleted.
+        for (Path file : files.keySet().toArray(new Path[0])) {
+            if (large.isFile(file)) {
+                remove(file);
+            }
+        }
+        compact();
+    }
+
+    /** Returns the number of flushes made by <code>sync</code>. */
+    long flushes()
+    {
+        synchronized (commit) {
+            return flushes;
+        }
+    }
+
+    @Override
+    public Path[] list() throws FileNotFoundException
+    {
+        ArrayList<Path> list = new ArrayList<Path>(files.keySet());
+        list.addAll(Arrays.asList(large.list()));
+        return list.toArray(new Path[0]);
+    }
+
+    @Override
+    public boolean isFile(Path path)
+    {
+        return files.containsKey(path) || large.isFile(path);
+    }
+
+    @Override
+    public boolean isDirectory(Path path)
+    {
+        return directories.contains(path) || large.isDirectory(path);
+    }
+
+    @Override
+    public long usage(Path path)
+    {
+        Entry entry = files.get(path);
+        if (entry != null) {
+            return entry.length;
+        }
+
+        long total = large.usage(path);
+        for (Map.Entry<Path, Entry> file : files.entrySet()) {
+            if (file.getKey().isSubpath(path)) {
+                total += file.getValue().length;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public boolean create(Path file) throws IOException
+    {
+        if (isFile(file) || isDirectory(file)) {
+            return false;
+        }
+        for (Path parent = file.parent(); !parent.isRoot(); parent = parent.parent()) {
+            if (isFile(parent)) {
+                return false;
+            }
+        }
+
+        put(file, new byte[0], new int[0]);
+        return true;
+    }
+
+    @Override
+    public Handle open(Path file, boolean write) throws FileNotFoundException
+    {
+        Entry entry = files.get(file);
+        if (entry == null) {
+            return large.open(file, write);
+        }
+
+        try {
+            return new PackedFile(file, entry);
+        } catch (IOException e) {
+            throw new FileNotFoundException("Unable to read " + file + ": "
+                    + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean delete(Path path) throws IOException
+    {
+        boolean deleted = removeAll(path) >= 0;
+        if (large.isFile(path) || large.isDirectory(path)) {
+            deleted = large.delete(path) || deleted;
+        }
+        compact();
+        return deleted;
+    }
+
+    @Override
+    public boolean rename(Path from, Path to) throws IOException
+    {
+        // A packed file is appended again under its new path, which costs no
+        // more than the threshold per file.
+        boolean renamed = false;
+        for (Path file : files.keySet().toArray(new Path[0])) {
+            if (file.isSubpath(from)) {
+                Entry entry = files.get(file);
+                byte[] data = new byte[entry.length];
+                if (!Record.readFully(entry.segment.channel, ByteBuffer.wrap(data), entry.data)) {
+                    throw new EOFException("Segment ends within a record.");
+                }
+                put(StorageEngine.moved(file, from, to), data, entry.checksums);
+                remove(file);
+                renamed = true;
+            }
+        }
+
+        if (large.isFile(from) || large.isDirectory(from)) {
+            renamed = large.rename(from, to) || renamed;
+        }
+        compact();
+        return renamed;
+    }
+
+    @Override
+    public long unlink(Path path) throws IOException
+    {
+        long freed = removeAll(path);
+        if (large.isFile(path) || large.isDirectory(path)) {
+            long unlinked = large.unlink(path);
+            if (unlinked >= 0) {
+                freed = Math.max(freed, 0) + unlinked;
+            }
+        }
+        compact();
+        return freed;
+    }
+
+    // Removes the packed files at or beneath a path, and returns their total
+    // length, or -1 if there are none.
+    private long removeAll(Path path) throws IOException
+    {
+        long removed = -1;
+        if (files.containsKey(path)) {
+            removed = files.get(path).length;
+            remove(path);
+        } else if (directories.contains(path)) {
+            for (Path file : files.keySet().toArray(new Path[0])) {
+                if (file.isSubpath(path)) {
+                    removed = Math.max(removed, 0) + files.get(file).length;
+                    remove(file);
+                }
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public long reclaim(int count) throws IOException
+    {
+        return large.reclaim(count);
+    }
+
+    @Override
+    public long unlinked()
+    {
+        return large.unlinked();
+    }
+
+    @Override
+    public void prune(Path directory)
+    {
+        large.prune(directory);
+    }
+
+    @Override
+    public void sync() throws IOException
+    {
+        long upto;
+        FileChannel[] channels;
+
+        synchronized (commit) {
+            long target = appended;
+            while (true) {
+                if (synced >= target) {
+                    return;
+                }
+                if (!syncing) {
+                    break;
+                }
+                try {
+                    commit.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a flush.");
+                }
+            }
+
+            syncing = true;
+            upto = appended;
+            channels = dirty.toArray(new FileChannel[0]);
+            dirty.clear();
+        }
+
+        boolean flushed = false;
+        try {
+            for (FileChannel channel : channels) {
+                try {
+                    channel.force(false);
+                } catch (ClosedChannelException e) {
+                    // Compacted: its records were copied and flushed.
+                }
+            }
+            flushed = true;
+        } finally {
+            synchronized (commit) {
+                syncing = false;
+                if (flushed) {
+                    synced = Math.max(synced, upto);
+                    flushes++;
+                } else {
+                    dirty.addAll(Arrays.asList(channels));
+                }
+                commit.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to close the segments", e);
+        }
+        large.close();
+    }
+
+    // Opens a segment file, creating it if needed.
+    private Segment open(int number) throws IOException
+    {
+        directory.mkdirs();
+        Segment segment = new Segment(number, new File(directory, "segment-" + number));
+        segments.put(number, segment);
+        return segment;
+    }
+
+    // Reads the records of a segment in order, applying each to the index. A
+    // record that is torn or damaged ends the segment; in the last segment,
+    // it is removed so that appends continue from the last intact record.
+    private void replay(Segment segment, boolean last) throws IOException
+    {
+        long position = 0;
+        long length = segment.channel.size();
+
+        while (position < length) {
+            Record record = Record.read(segment.channel, position);
+            if (record == null) {
+                break;
+            }
+            apply(record, segment, position);
+            position += record.size;
+        }
+
+        segment.size = position;
+        if (last) {
+            segment.channel.truncate(position);
+        }
+    }
+
+    // Applies a record read from a segment to the index.
+    private void apply(Record record, Segment segment, long position)
+    {
+        Entry previous = files.get(record.path);
+        if (previous != null) {
+            release(previous);
+        } else if (record.type == PUT) {
+            directories.add(record.path);
+        }
+
+        if (record.type == PUT) {
+            Entry entry = new Entry(segment, position, record);
+            files.put(record.path, entry);
+            segment.live += record.size;
+        } else if (previous != null) {
+            files.remove(record.path);
+            directories.remove(record.path);
+        }
+    }
+
+    // Appends a record holding the whole of a file.
+    private void put(Path file, byte[] data, int[] checksums) throws IOException
+    {
+        Record record = new Record(PUT, file, data, checksums);
+        long position = append(record.bytes);
+        apply(record, current, position);
+    }
+
+    // Marks a file deleted.
+    private void remove(Path file) throws IOException
+    {
+        Record record = new Record(DELETE, file, new byte[0], new int[0]);
+        append(record.bytes);
+        apply(record, current, 0);
+    }
+
+    // Appends a record to the current segment, starting a new segment if the
+    // current one is full, and returns its position in the segment that is
+    // current afterwards.
+    private long append(byte[] record) throws IOException
+    {
+        if (current == null) {
+            current = open(0);
+        } else if (current.size > 0 && current.size + record.length > segmentSize) {
+            current = open(segments.lastKey() + 1);
+        }
+
+        long position = current.size;
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            current.channel.write(buffer, position + buffer.position());
+        }
+        current.size += record.length;
+
+        synchronized (commit) {
+            dirty.add(current.channel);
+            appended++;
+        }
+        return position;
+    }
+
+    // Accounts for a record that no longer holds the latest version of a
+    // file, and notes the segment for compaction once mostly unused.
+    private void release(Entry entry)
+    {
+        entry.segment.live -= entry.size;
+        if (entry.segment != current && entry.segment.live * 2 <= entry.segment.size) {
+            compactable.add(entry.segment.number);
+        }
+    }
+
+    // Copies the records still needed from the segments noted for
+    // compaction, and removes the segments.
+    private void compact() throws IOException
+    {
+        while (!compactable.isEmpty()) {
+            Segment segment = segments.get(compactable.pollFirst());
+            if (segment == null || segment == current) {
+                continue;
+            }
+
+            boolean oldest = segment.number == segments.firstKey();
+            long position = 0;
+            while (position < segment.size) {
+                Record record = Record.read(segment.channel, position);
+                if (record == null) {
+                    break;
+                }
+
+                Entry entry = files.get(record.path);
+                if (record.type == PUT && entry != null && entry.segment == segment
+                        && entry.position == position) {
+                    long copy = append(record.bytes);
+                    apply(record, current, copy);
+                } else if (record.type == DELETE && entry == null && !oldest) {
+                    append(record.bytes);
+                }
+                position += record.size;
+            }
+
+            // The copies must be on disk before the originals are removed.
+            if (current != null) {
+                current.channel.force(false);
+            }
+            segments.remove(segment.number);
+            segment.channel.close();
+            segment.file.delete();
+        }
+    }
+
+    // A segment file.
+    private static class Segment
+    {
+        final int number;
+        final File file;
+        final FileChannel channel;
+        // Length of the intact records, and of those holding the latest
+        // version of a file.
+        long size;
+        long live;
+
+        Segment(int number, File file) throws IOException
+        {
+            this.number = number;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+    }
+
+    // The location of the latest record of a file.
+    private static class Entry
+    {
+        final Segment segment;
+        final long position;
+        final int size;
+        final long data;
+        final int length;
+        final int[] checksums;
+
+        Entry(Segment segment, long position, Record record)
+        {
+            this.segment = segment;
+            this.position = position;
+            this.size = record.size;
+            this.data = position + record.data;
+            this.length = record.length;
+            this.checksums = record.checksums;
+        }
+    }
+
+    // A record of a segment: its length, then its type, the path of the file,
+    // the contents and checksums of the file, and the CRC-32C checksum of
+    // the record.
+    private static class Record
+    {
+        final byte type;
+        final Path path;
+        final int length;
+        final int[] checksums;
+        // Bytes of the record, offset of the contents, and size.
+        final byte[] bytes;
+        final int data;
+        final int size;
+
+        Record(byte type, Path path, byte[] contents, int[] checksums)
+            throws IOException
+        {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(contents.length + 64);
+            DataOutputStream output = new DataOutputStream(buffer);
+            output.writeInt(0);
+            output.writeByte(type);
+            output.writeUTF(path.toString());
+            output.writeInt(contents.length);
+            data = output.size();
+            output.write(contents);
+            output.writeInt(checksums.length);
+            for (int checksum : checksums) {
+                output.writeInt(checksum);
+            }
+            output.writeInt(0);
+
+            bytes = buffer.toByteArray();
+            ByteBuffer.wrap(bytes).putInt(0, bytes.length);
+            ByteBuffer.wrap(bytes).putInt(bytes.length - 4,
+                    BlockChecksums.checksum(bytes, bytes.length - 4));
+
+            this.type = type;
+            this.path = path;
+            this.length = contents.length;
+            this.checksums = checksums;
+            this.size = bytes.length;
+        }
+
+        private Record(byte[] bytes) throws IOException
+        {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+            input.readInt();
+            type = input.readByte();
+            path = new Path(input.readUTF());
+            length = input.readInt();
+            data = bytes.length - input.available();
+            input.skipBytes(length);
+            checksums = new int[input.readInt()];
+            for (int index = 0; index < checksums.length; index++) {
+                checksums[index] = input.readInt();
+            }
+            this.bytes = bytes;
+            this.size = bytes.length;
+        }
+
+        // Reads the record at a position of a segment, or returns null if it
+        // is torn or damaged.
+        static Record read(FileChannel channel, long position) throws IOException
+        {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            if (!readFully(channel, header, position)) {
+                return null;
+            }
+
+            int size = header.getInt(0);
+            if (size < 16 || position + size > channel.size()) {
+                return null;
+            }
+
+            byte[] bytes = new byte[size];
+            if (!readFully(channel, ByteBuffer.wrap(bytes), position)
+                    || BlockChecksums.checksum(bytes, size - 4)
+                       != ByteBuffer.wrap(bytes).getInt(size - 4)) {
+                return null;
+            }
+
+            try {
+                Record record = new Record(bytes);
+                return record.type == PUT || record.type == DELETE ? record : null;
+            } catch (IOException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException
+        {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // A small file open for access. Its contents are read when it is opened,
+    // and appended as a new record when it is closed if changed. A file
+    // written past the threshold is moved to the file engine, to which the
+    // handle then forwards.
+    private class PackedFile implements Handle
+    {
+        private final Path path;
+        private byte[] contents;
+        private int[] checksums;
+        private boolean changed;
+        private Handle moved;
+
+        PackedFile(Path path, Entry entry) throws IOException
+        {
+            this.path = path;
+            this.contents = new byte[entry.length];
+            this.checksums = entry.checksums;
+            if (!Record.readFully(entry.segment.channel, ByteBuffer.wrap(contents), entry.data)) {
+                throw new EOFException("Segment ends within a record.");
+            }
+        }
+
+        @Override
+        public long length() throws IOException
+        {
+            return moved != null ? moved.length() : contents.length;
+        }
+
+        @Override
+        public void setLength(long length) throws IOException
+        {
+            if (moved == null && length > threshold) {
+                move();
+            }
+            if (moved != null) {
+                moved.setLength(length);
+                return;
+            }
+
+            contents = Arrays.copyOf(contents, (int) length);
+            if (checksums.length > BlockChecksums.blocks(length)) {
+                checksums = Arrays.copyOf(checksums, (int) BlockChecksums.blocks(length));
+            }
+            changed = true;
+        }
+
+        @Override
+        public void read(long position, byte[] buffer, int start, int count)
+            throws IOException
+        {
+            if (moved != null) {
+                moved.read(position, buffer, start, count);
+                return;
+            }
+
+            if (position + count > contents.length) {
+                throw new EOFException("Read past the end of " + path);
+            }
+            System.arraycopy(contents, (int) position, buffer, start, count);
+        }
+
+        @Override
+        public void write(long position, byte[] buffer, int start, int count)
+            throws IOException
+        {
+            if (moved == null && position + count > threshold) {
+                move();
+            }
+            if (moved != null) {
+                moved.write(position, buffer, start, count);
+                return;
+            }
+
+            if (position + count > contents.length) {
+                contents = Arrays.copyOf(contents, (int) (position + count));
+            }
+            System.arraycopy(buffer, start, contents, (int) position, count);
+            changed = true;
+        }
+
+        @Override
+        public int[] loadChecksums(long first, int count) throws IOException
+        {
+            if (moved != null) {
+                return moved.loadChecksums(first, count);
+            }
+
+            if (first + count > checksums.length) {
+                return null;
+            }
+            return Arrays.copyOfRange(checksums, (int) first, (int) first + count);
+        }
+
+        @Override
+        public void storeChecksums(long first, int[] sums) throws IOException
+        {
+            if (moved != null) {
+                moved.storeChecksums(first, sums);
+                return;
+            }
+
+            int end = (int) Math.min(first + sums.length, BlockChecksums.blocks(contents.length));
+            if (checksums.length < end) {
+                checksums = Arrays.copyOf(checksums, end);
+            }
+            for (int index = (int) first; index < end; index++) {
+                checksums[index] = sums[index - (int) first];
+            }
+            changed = true;
+        }
+
+        // Moves the file to the file engine.
+        private void move() throws IOException
+        {
+            if (!large.create(path)) {
+                throw new IOException("Unable to move " + path + " to the local filesystem.");
+            }
+
+            moved = large.open(path, true);
+            moved.write(0, contents, 0, contents.length);
+            moved.storeChecksums(0, checksums);
+
+            // The delete record may reach the disk with the next flush of
+            // any writer, so the moved file must be there first.
+            large.force(path);
+            remove(path);
+            compact();
+            contents = null;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (moved != null) {
+                moved.close();
+            } else if (changed) {
+                put(path, contents, checksums);
+                changed = false;
+                compact();
+            }
+        }
+    }
+}
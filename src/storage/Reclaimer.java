@@ -0,0 +1,197 @@
+package storage;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.*;
+
+import common.Log;
+
+/** Background deletion of the files unlinked from a storage server.
+
+    <p>
+    Deleting a file or directory through the storage server only unlinks it
+    from the storage engine, which for the file engine is one rename whatever
+    the number of files beneath it. The reclaimer then deletes the files
+    unlinked, a batch at a time and without the storage server lock, at no
+    more than <code>storage.reclaim.rate</code> files and directories per
+    second (default 10000, zero for no limit). The space used by the storage
+    server, as reported in heartbeats, drops as the files are deleted.
+
+    <p>
+    While it runs, the reclaimer's progress is published through the platform
+    MBean server under the name <code>storage:type=Reclaimer,root=</code>
+    <em>root</em>, where <em>root</em> is the quoted path of the storage
+    server's root directory.
+ */
+class Reclaimer implements Runnable, ReclaimerMBean
+{
+    private static final Log logger = Log.get("storage");
+
+    /** Largest number of files and directories deleted in one batch. */
+    private static final int BATCH = 256;
+
+    private final StorageServer server;
+    private final TokenBucket rate;
+    private final AtomicLong reclaimed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private boolean woken;
+    private Thread thread;
+    private ObjectName name;
+
+    /** Creates a reclaimer for a storage server.
+
+        @param server The storage server.
+        @param rate Limit on the number of files and directories deleted per
+                    second.
+     */
+    Reclaimer(StorageServer server, long rate)
+    {
+        this.server = server;
+        this.rate = new TokenBucket(rate, Math.max(rate, BATCH));
+    }
+
+    /** Starts the reclaiming thread. Paths unlinked before the storage server
+        was created are deleted first. */
+    synchronized void start()
+    {
+        if (thread == null) {
+            thread = new Thread(this, "storage server reclaimer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+            register();
+        }
+    }
+
+    /** Stops the reclaiming thread, and waits for it to finish its batch.
+        Paths left are deleted when the storage server is next started. */
+    void stop()
+    {
+        Thread stopping;
+        synchronized (this) {
+            stopping = thread;
+            thread = null;
+            unregister();
+        }
+
+        if (stopping != null) {
+            stopping.interrupt();
+            try {
+                stopping.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Wakes the reclaiming thread after a path is unlinked. */
+    synchronized void wake()
+    {
+        woken = true;
+        notifyAll();
+    }
+
+    /** Returns the number of paths unlinked and not yet entirely deleted. */
+    long pending()
+    {
+        return server.engine.unlinked();
+    }
+
+    /** Returns the number of bytes freed so far. */
+    long reclaimed()
+    {
+        return reclaimed.get();
+    }
+
+    /** Returns the number of batches deleted so far. */
+    long batches()
+    {
+        return batches.get();
+    }
+
+    @Override
+    public long getPending()
+    {
+        return pending();
+    }
+
+    @Override
+    public long getReclaimed()
+    {
+        return reclaimed();
+    }
+
+    @Override
+    public long getBatches()
+    {
+        return batches();
+    }
+
+    // Registers the MBean, ignoring failures: the reclaimer runs whether or
+    // not JMX is available.
+    private void register()
+    {
+        try {
+            name = new ObjectName("storage:type=Reclaimer,root="
+                    + ObjectName.quote(server.root.getAbsolutePath()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException e) {
+            logger.warn("Unable to publish the reclaimer metrics", e);
+            name = null;
+        } catch (SecurityException e) {
+            name = null;
+        }
+    }
+
+    // Unregisters the MBean, if it was registered.
+    private void unregister()
+    {
+        if (name == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+        } catch (SecurityException e) {
+        }
+        name = null;
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                rate.acquire(BATCH);
+
+                long freed;
+                try {
+                    freed = server.engine.reclaim(BATCH);
+                } catch (IOException e) {
+                    logger.warn("Unable to reclaim unlinked files", e);
+                    freed = -1;
+                }
+
+                if (freed < 0) {
+                    // Nothing left: wait until something is unlinked.
+                    synchronized (this) {
+                        while (!woken) {
+                            wait();
+                        }
+                        woken = false;
+                    }
+                    continue;
+                }
+
+                synchronized (server) {
+                    server.used -= freed;
+                }
+                reclaimed.addAndGet(freed);
+                batches.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+        }
+    }
+}
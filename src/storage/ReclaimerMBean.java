@@ -0,0 +1,12 @@
+package storage;
+
+/** Management interface of the background reclaimer of a storage server. */
+public interface ReclaimerMBean
+{
+    /** Returns the number of paths unlinked and not yet entirely deleted. */
+    public long getPending();
+    /** Returns the number of bytes freed so far. */
+    public long getReclaimed();
+    /** Returns the number of batches deleted so far. */
+    public long getBatches();
+}
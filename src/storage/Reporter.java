@@ -0,0 +1,207 @@
+package storage;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Path;
+import naming.Registration;
+import rmi.RMIException;
+
+/** Background reporting of file attributes to the naming server.
+
+    <p>
+    Each file created or written through the storage server, whether by a
+    single write or by a write session once it is closed, is marked as
+    changed, with the time of the change. The reporter sends the sizes and
+    modification times of the changed files to the naming server as soon as
+    they are marked, up to <code>BATCH</code> files per report. A file written
+    many times while a report is in flight is reported once in the next one,
+    rather than once per write. Reports that cannot reach the naming server
+    are retried after a heartbeat interval.
+
+    <p>
+    After registering, the storage server also marks the files that it
+    registered, with no modification time, so that the naming server learns
+    their sizes.
+ */
+class Reporter implements Runnable
+{
+    /** Largest number of files in one report. */
+    static final int BATCH = 1024;
+    /** Modification time of files whose time is not known. */
+    static final long UNKNOWN = -1;
+
+    private final StorageServer server;
+    // Files changed since they were last reported, with the time of their
+    // last change, in the order in which they were first changed.
+    private final LinkedHashMap<Path, Long> changed = new LinkedHashMap<Path, Long>();
+    private final AtomicLong reported = new AtomicLong();
+    private Registration namingServer;
+    private Command commandStub;
+    private Thread thread;
+
+    /** Creates a reporter for a storage server.
+
+        @param server The storage server.
+     */
+    Reporter(StorageServer server)
+    {
+        this.server = server;
+    }
+
+    /** Starts the reporting thread.
+
+        @param namingServer The naming server to report to.
+        @param commandStub The command stub with which the storage server
+                           registered.
+     */
+    synchronized void start(Registration namingServer, Command commandStub)
+    {
+        if (thread == null) {
+            this.namingServer = namingServer;
+            this.commandStub = commandStub;
+            thread = new Thread(this, "storage server attribute reporter");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Stops the reporting thread. Changes not yet reported are lost. */
+    void stop()
+    {
+        Thread stopping;
+        synchronized (this) {
+            stopping = thread;
+            thread = null;
+        }
+
+        if (stopping != null) {
+            stopping.interrupt();
+        }
+    }
+
+    /** Marks a file as changed.
+
+        @param file The file.
+        @param time Time of the change, in milliseconds, or
+                    <code>UNKNOWN</code>, which does not replace a time
+                    already marked.
+     */
+    synchronized void changed(Path file, long time)
+    {
+        if (time == UNKNOWN && changed.containsKey(file)) {
+            return;
+        }
+        changed.put(file, time);
+        notifyAll();
+    }
+
+    /** Moves the changes marked at or beneath a path to its new path, after a
+        rename. */
+    synchronized void renamed(Path from, Path to)
+    {
+        ArrayList<Path> moved = new ArrayList<Path>();
+        ArrayList<Long> times = new ArrayList<Long>();
+        Iterator<Map.Entry<Path, Long>> entries = changed.entrySet().iterator();
+
+        while (entries.hasNext()) {
+            Map.Entry<Path, Long> entry = entries.next();
+            if (entry.getKey().isSubpath(from)) {
+                moved.add(StorageEngine.moved(entry.getKey(), from, to));
+                times.add(entry.getValue());
+                entries.remove();
+            }
+        }
+
+        for (int index = 0; index < moved.size(); index++) {
+            changed.put(moved.get(index), times.get(index));
+        }
+    }
+
+    /** Returns the number of files reported so far. */
+    long reported()
+    {
+        return reported.get();
+    }
+
+    @Override
+    public void run()
+    {
+        long interval = Long.getLong("storage.heartbeat.interval", 1000L);
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                ArrayList<Path> marked = new ArrayList<Path>();
+                ArrayList<Long> times = new ArrayList<Long>();
+
+                synchronized (this) {
+                    while (changed.isEmpty()) {
+                        wait();
+                    }
+
+                    Iterator<Map.Entry<Path, Long>> entries = changed.entrySet().iterator();
+                    while (entries.hasNext() && marked.size() < BATCH) {
+                        Map.Entry<Path, Long> entry = entries.next();
+                        marked.add(entry.getKey());
+                        times.add(entry.getValue());
+                        entries.remove();
+                    }
+                }
+
+                // The sizes are read at the time of the report, so that the
+                // last write is always reflected. Files deleted or renamed
+                // in the meantime are skipped.
+                Path[] files = new Path[marked.size()];
+                long[] sizes = new long[marked.size()];
+                long[] modified = new long[marked.size()];
+                int count = 0;
+
+                for (int index = 0; index < marked.size(); index++) {
+                    try {
+                        sizes[count] = server.size(marked.get(index));
+                    } catch (FileNotFoundException e) {
+                        continue;
+                    }
+                    files[count] = marked.get(index);
+                    modified[count] = times.get(index);
+                    count++;
+                }
+
+                if (count == 0) {
+                    continue;
+                }
+
+                if (count < files.length) {
+                    files = Arrays.copyOf(files, count);
+                    sizes = Arrays.copyOf(sizes, count);
+                    modified = Arrays.copyOf(modified, count);
+                }
+
+                try {
+                    namingServer.reportAttributes(commandStub, files, sizes, modified);
+                    reported.addAndGet(count);
+                } catch (IllegalStateException e) {
+                    // Considered failed: the files are reported again after
+                    // the storage server registers again.
+                } catch (RMIException e) {
+                    // The naming server is unreachable: mark the files again,
+                    // unless they changed since, and wait before retrying.
+                    synchronized (this) {
+                        for (int index = 0; index < count; index++) {
+                            if (!changed.containsKey(files[index])) {
+                                changed.put(files[index], modified[index]);
+                            }
+                        }
+                    }
+                    Thread.sleep(interval);
+                }
+            }
+        } catch (InterruptedException e) {
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package storage;
+
+import java.io.*;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.*;
+
+/** Background verification of the blocks of a storage server.
+
+    <p>
+    The scrubber runs at low priority, passing over every file of the storage
+    server and verifying each block against its checksum, so that corruption
+    of data that is rarely read is found before the other copies of the file
+    are lost. Its reads are limited in bandwidth by a token bucket. Each pass
+    starts a fixed interval after the storage server starts or the previous
+    pass ends.
+
+    <p>
+    Corrupted files, whether found by the scrubber or by client reads, are
+    reported to the naming server from the scrubber's thread, which drops the
+    corrupted copy and copies the file again from another location. Reports are
+    not sent from the threads serving clients, which hold the storage server
+    lock that the naming server's resulting commands need.
+ */
+class Scrubber implements Runnable
+{
+    private static final Log logger = Log.get("storage");
+
+    /** Number of blocks verified with the storage server lock held. */
+    private static final int BATCH = 16;
+
+    private final StorageServer server;
+    private final TokenBucket bandwidth;
+    private final long interval;
+    private final LinkedHashSet<Path> reports = new LinkedHashSet<Path>();
+    private final AtomicLong verified = new AtomicLong();
+    private Thread thread;
+
+    /** Creates a scrubber for a storage server.
+
+        @param server The storage server.
+        @param bandwidth Limit on the bandwidth of verification, in bytes per
+                         second.
+        @param interval Time between passes, in milliseconds.
+     */
+    Scrubber(StorageServer server, long bandwidth, long interval)
+    {
+        this.server = server;
+        this.bandwidth = new TokenBucket(bandwidth,
+                Math.max(bandwidth, BATCH * BlockChecksums.BLOCK));
+        this.interval = interval;
+    }
+
+    /** Starts the scrubbing thread. */
+    synchronized void start()
+    {
+        if (thread == null) {
+            thread = new Thread(this, "storage server scrubber");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+    }
+
+    /** Stops the scrubbing thread. Reports not yet sent are dropped. */
+    void stop()
+    {
+        Thread stopping;
+        synchronized (this) {
+            stopping = thread;
+            thread = null;
+        }
+
+        if (stopping != null) {
+            stopping.interrupt();
+        }
+    }
+
+    /** Queues a corrupted file to be reported to the naming server. */
+    synchronized void report(Path file)
+    {
+        if (reports.add(file)) {
+            notifyAll();
+        }
+    }
+
+    /** Returns the number of blocks verified so far. */
+    long verified()
+    {
+        return verified.get();
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                // Wait before each pass, sending reports as they arrive.
+                long end = System.currentTimeMillis() + interval;
+                long remaining;
+                while ((remaining = end - System.currentTimeMillis()) > 0) {
+                    synchronized (this) {
+                        if (reports.isEmpty()) {
+                            wait(remaining);
+                        }
+                    }
+                    send();
+                }
+
+                Path[] files;
+                try {
+                    files = server.files();
+                } catch (FileNotFoundException e) {
+                    // The root directory was removed.
+                    files = new Path[0];
+                }
+
+                for (Path file : files) {
+                    scrub(file);
+                    send();
+                }
+            }
+        } catch (InterruptedException e) {
+        }
+    }
+
+    // Verifies the blocks of a file, and queues a report if one is corrupted.
+    private void scrub(Path file) throws InterruptedException
+    {
+        long step = (long) BATCH * BlockChecksums.BLOCK;
+
+        for (long offset = 0; ; offset += step) {
+            long length;
+            try {
+                synchronized (server) {
+                    StorageEngine.Handle data = server.engine.open(file, false);
+                    try {
+                        length = Math.min(step, data.length() - offset);
+                    } finally {
+                        data.close();
+                    }
+                }
+
+                if (length <= 0) {
+                    return;
+                }
+                bandwidth.acquire(length);
+
+                synchronized (server) {
+                    StorageEngine.Handle data = server.engine.open(file, false);
+                    try {
+                        // The file may have shrunk while waiting for bandwidth.
+                        length = Math.min(length, data.length() - offset);
+                        if (length <= 0) {
+                            return;
+                        }
+                        BlockChecksums.verify(file, data, offset, length);
+                    } finally {
+                        data.close();
+                    }
+                }
+                verified.addAndGet(BlockChecksums.blocks(length));
+            } catch (ChecksumException e) {
+                report(file);
+                return;
+            } catch (IOException e) {
+                // Deleted in the meantime.
+                return;
+            }
+        }
+    }
+
+    // Sends the queued reports to the naming server.
+    private void send()
+    {
+        while (true) {
+            Path file;
+            synchronized (this) {
+                if (reports.isEmpty()) {
+                    return;
+                }
+                file = reports.iterator().next();
+                reports.remove(file);
+            }
+
+            try {
+                server.namingServer.reportCorruption(server.commandStub, file);
+            } catch (Exception e) {
+                logger.warn("Unable to report corrupted file " + file, e);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package storage;
 import java.io.*;
 
 import common.*;
+import rmi.Idempotent;
 import rmi.RMIException;
 
 /** Storage server client interface.
@@ -11,6 +12,13 @@ import rmi.RMIException;
     All methods in this interface may raise {@link NullPointerException} if
     passed <code>null</code> for arguments or {@link SecurityException} if the
     security manager on the server does not allow an operation.
+
+    <p>
+    Files may be of any length up to <code>Long.MAX_VALUE</code> bytes, and
+    offsets are 64-bit throughout. Each call transfers the sequence of bytes
+    it is given or asked for, and neither side holds more of the file in
+    memory than that sequence: larger ranges are moved in several calls, as
+    the client streams and storage server copies do.
  */
 public interface Storage
 {
@@ -23,6 +31,7 @@ public interface Storage
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Idempotent
     public long size(Path file) throws RMIException, FileNotFoundException;
 
     /** Reads a sequence of bytes from a file.
@@ -43,9 +52,42 @@ public interface Storage
         @throws RMIException If the call cannot be completed due to a network
                              error.
      */
+    @Idempotent
     public byte[] read(Path file, long offset, int length)
         throws RMIException, FileNotFoundException, IOException;
 
+    /** Reads a sequence of bytes from a file, with the checksums of the blocks
+        that hold it.
+
+        <p>
+        The storage server keeps a checksum of each block of each file,
+        computed when the block is written. This method returns the blocks
+        overlapping the sequence requested, with their checksums, so that the
+        client can check that the data was not corrupted on its way from the
+        disk to the client. <code>Blocks.verify</code> performs the check and
+        extracts the sequence.
+
+        @param file Path to the file.
+        @param offset Offset into the file to the beginning of the sequence.
+        @param length The number of bytes to be read.
+        @return The blocks holding the sequence.
+        @throws IndexOutOfBoundsException If the sequence specified by
+                                          <code>offset</code> and
+                                          <code>length</code> is outside the
+                                          bounds of the file, or if
+                                          <code>length</code> is negative.
+        @throws FileNotFoundException If the file cannot be found or the path
+                                      refers to a directory.
+        @throws ChecksumException If the storage server finds that one of the
+                                  blocks is corrupted on its disk.
+        @throws IOException If the file read cannot be completed on the server.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    @Idempotent
+    public Blocks readBlocks(Path file, long offset, int length)
+        throws RMIException, FileNotFoundException, IOException;
+
     /** Writes bytes to a file.
 
         @param file Path to the file.
@@ -60,4 +102,108 @@ public interface Storage
      */
     public void write(Path file, long offset, byte[] data)
         throws RMIException, FileNotFoundException, IOException;
+
+    /** Computes the CRC-32C checksum of a sequence of bytes in a file.
+
+        <p>
+        Storage servers use this method to verify the files they copy from
+        each other.
+
+        @param file Path to the file.
+        @param offset Offset into the file to the beginning of the sequence.
+        @param length The number of bytes in the sequence.
+        @return The checksum of the sequence.
+        @throws IndexOutOfBoundsException If the sequence specified by
+                                          <code>offset</code> and
+                                          <code>length</code> is outside the
+                                          bounds of the file, or if
+                                          <code>length</code> is negative.
+        @throws FileNotFoundException If the file cannot be found or the path
+                                      refers to a directory.
+        @throws IOException If the file read cannot be completed on the server.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    @Idempotent
+    public long checksum(Path file, long offset, long length)
+        throws RMIException, FileNotFoundException, IOException;
+
+    /** Opens a session for reading or writing a file in a sequence of
+        chunks.
+
+        <p>
+        The storage server checks the path once, when the session is opened,
+        and keeps the session until it is closed or has been idle for
+        <code>storage.session.timeout</code> milliseconds (default one
+        minute). Chunks of a session may be requested concurrently, so that
+        the client keeps several in flight rather than waiting for each in
+        turn. Writes made through a session reach the disk when it is closed.
+
+        @param file Path to the file.
+        @param write Whether the session is for writing.
+        @return The identifier of the session.
+        @throws FileNotFoundException If the file cannot be found or the path
+                                      refers to a directory.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public long openSession(Path file, boolean write)
+        throws RMIException, FileNotFoundException;
+
+    /** Reads a chunk of a file through a session, with the checksums of the
+        blocks that hold it.
+
+        <p>
+        A session exists only on the storage server that opened it, so this
+        method is not marked idempotent: a failed call is not retried, and in
+        particular not on a replica, which would not know the session.
+
+        @param session Identifier of the session.
+        @param offset Offset into the file to the beginning of the chunk.
+        @param length The number of bytes to be read.
+        @return The blocks holding the chunk, as for <code>readBlocks</code>.
+        @throws IndexOutOfBoundsException If the chunk specified by
+                                          <code>offset</code> and
+                                          <code>length</code> is outside the
+                                          bounds of the file, or if
+                                          <code>length</code> is negative.
+        @throws FileNotFoundException If the file has been deleted since the
+                                      session was opened.
+        @throws ChecksumException If the storage server finds that one of the
+                                  blocks is corrupted on its disk.
+        @throws IOException If the session is unknown or has expired, or if
+                            the file read cannot be completed on the server.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public Blocks readSession(long session, long offset, int length)
+        throws RMIException, FileNotFoundException, IOException;
+
+    /** Writes a chunk of a file through a session.
+
+        @param session Identifier of the session.
+        @param offset Offset into the file where the chunk is to be written.
+        @param data Array of bytes to be written.
+        @throws IndexOutOfBoundsException If <code>offset</code> is negative.
+        @throws FileNotFoundException If the file has been deleted since the
+                                      session was opened.
+        @throws IOException If the session is unknown, has expired or is not
+                            for writing, or if the file write cannot be
+                            completed on the server.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void writeSession(long session, long offset, byte[] data)
+        throws RMIException, FileNotFoundException, IOException;
+
+    /** Closes a session, waiting for the chunks written through it to reach
+        the disk.
+
+        @param session Identifier of the session.
+        @throws IOException If the session is unknown or has expired, or if
+                            the chunks written cannot be flushed to disk.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void closeSession(long session) throws RMIException, IOException;
 }
@@ -0,0 +1,202 @@
+package storage;
+
+import java.io.*;
+
+import common.*;
+
+/** Local storage of the files of a storage server.
+
+    <p>
+    The storage server keeps its files through an engine, chosen by the
+    <code>storage.engine</code> system property: <code>file</code> (the
+    default) keeps each file as a file at the same path under the root
+    directory, <code>container</code> keeps the blocks of all files in a few
+    large container files, and <code>packed</code> appends small files to log
+    segments. Either way, the engine also keeps the block checksums of each
+    file.
+
+    <p>
+    Engines are not thread-safe: the storage server calls them, and uses the
+    handles they return, with its lock held. The exceptions are
+    <code>sync</code>, <code>reclaim</code> and <code>unlinked</code>, which
+    are called without the lock.
+ */
+interface StorageEngine
+{
+    /** Name of the reserved directory in the root of a storage server, in
+        which engines keep their metadata. */
+    static final String METADATA = ".dfs";
+
+    /** Determines whether a path lies in the reserved directory. */
+    static boolean reserved(Path path)
+    {
+        return !path.isRoot() && path.ancestor(1).last().equals(METADATA);
+    }
+
+    /** Returns the path a path takes when a file or directory at or above it
+        is renamed.
+
+        @param path The path, which must be <code>from</code> or lie beneath
+                    it.
+        @param from The path renamed.
+        @param to The new path.
+     */
+    static Path moved(Path path, Path from, Path to)
+    {
+        if (path.depth() == from.depth()) {
+            return to;
+        }
+        return new Path(moved(path.parent(), from, to), path.last());
+    }
+
+    /** Creates the engine selected by the <code>storage.engine</code>
+        property for the given root directory.
+
+        @throws IOException If the engine cannot load its metadata.
+        @throws IllegalArgumentException If the property names no engine.
+     */
+    static StorageEngine open(File root) throws IOException
+    {
+        String name = System.getProperty("storage.engine", "file");
+
+        if (name.equals("file")) {
+            return new FileEngine(root);
+        }
+        if (name.equals("container")) {
+            return new ContainerEngine(root);
+        }
+        if (name.equals("packed")) {
+            return new PackedEngine(root);
+        }
+        throw new IllegalArgumentException("Unknown storage engine " + name);
+    }
+
+    /** Lists the files stored, other than those in the reserved directory.
+
+        @throws FileNotFoundException If the root directory does not exist.
+     */
+    Path[] list() throws FileNotFoundException;
+
+    /** Determines whether a path refers to a stored file. */
+    boolean isFile(Path path);
+
+    /** Determines whether a path refers to a directory: the root, or an
+        ancestor of a stored file. */
+    boolean isDirectory(Path path);
+
+    /** Returns the bytes used by a file, or by the files beneath a
+        directory. */
+    long usage(Path path);
+
+    /** Creates an empty file, and the directories leading to it.
+
+        @return <code>true</code> if the file was created, <code>false</code>
+                if the path refers to an existing file or directory, or a file
+                is in the way of its parent directory.
+        @throws IOException If the file cannot be created.
+     */
+    boolean create(Path file) throws IOException;
+
+    /** Opens a file.
+
+        @param file Path to the file.
+        @param write Whether the file will be written.
+        @throws FileNotFoundException If the path does not refer to a file.
+     */
+    Handle open(Path file, boolean write) throws FileNotFoundException;
+
+    /** Deletes a file, or a directory and all the files beneath it, with
+        their checksums.
+
+        @return <code>true</code> if the path was deleted.
+        @throws IOException If the deletion cannot be recorded.
+     */
+    boolean delete(Path path) throws IOException;
+
+    /** Moves a file, or a directory and all the files beneath it, with their
+        checksums, to another path, creating the directories leading to it.
+
+        <p>
+        The storage server checks beforehand that the source exists, that the
+        target does not, that no file is in the way of the target's parent
+        directory, and that the target is not beneath the source.
+
+        @return <code>true</code> if the path was moved.
+        @throws IOException If the move cannot be made or recorded.
+     */
+    boolean rename(Path from, Path to) throws IOException;
+
+    /** Removes a file, or a directory and all the files beneath it, with
+        their checksums, leaving the space they take to be freed later by
+        <code>reclaim</code>. Engines that free space without deleting files
+        of the local filesystem free it at once.
+
+        @return The number of bytes freed at once, or <code>-1</code> if the
+                path refers to no file or directory.
+        @throws IOException If the removal cannot be recorded.
+     */
+    long unlink(Path path) throws IOException;
+
+    /** Deletes some of the files and directories left by
+        <code>unlink</code>.
+
+        <p>
+        This method is called without the storage server lock, from a single
+        thread.
+
+        @param count The largest number of files and directories to delete.
+        @return The number of bytes freed, or <code>-1</code> if nothing is
+                left to delete.
+        @throws IOException If the files left cannot be listed.
+     */
+    long reclaim(int count) throws IOException;
+
+    /** Returns the number of paths unlinked and not yet entirely deleted. */
+    long unlinked();
+
+    /** Removes a directory and its ancestors, up to the root, for as long as
+        they are empty. */
+    void prune(Path directory);
+
+    /** Waits until the changes made so far are on disk. Engines that leave
+        writing back to the operating system return at once.
+
+        <p>
+        This method is called after each change, without the storage server
+        lock, so that changes made by concurrent requests can share one flush.
+
+        @throws IOException If the changes cannot be written.
+     */
+    void sync() throws IOException;
+
+    /** Releases the resources of the engine. */
+    void close();
+
+    /** An open file. */
+    interface Handle extends Closeable
+    {
+        /** Returns the length of the file. */
+        long length() throws IOException;
+
+        /** Truncates or extends the file. The extension reads as zeros. */
+        void setLength(long length) throws IOException;
+
+        /** Reads a sequence of bytes, which must lie within the file. */
+        void read(long position, byte[] buffer, int start, int count)
+            throws IOException;
+
+        /** Writes a sequence of bytes, extending the file if needed. Any gap
+            between the end of the file and the sequence reads as zeros. */
+        void write(long position, byte[] buffer, int start, int count)
+            throws IOException;
+
+        /** Returns the stored checksums of a sequence of blocks, of size
+            <code>BlockChecksums.BLOCK</code>, or <code>null</code> if any of
+            them is not stored. */
+        int[] loadChecksums(long first, int count) throws IOException;
+
+        /** Stores the checksums of a sequence of blocks, and drops those of
+            blocks past the end of the file. */
+        void storeChecksums(long first, int[] checksums) throws IOException;
+    }
+}
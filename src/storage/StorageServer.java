@@ -2,6 +2,13 @@ package storage;
 
 import java.io.*;
 import java.net.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.*;
+import java.util.zip.CRC32C;
 
 import common.*;
 import rmi.*;
@@ -13,6 +20,51 @@ import naming.*;
     Storage servers respond to client file access requests. The files accessible
     through a storage server are those accessible under a given directory of the
     local filesystem.
+
+    <p>
+    Once registered, the storage server sends heartbeats to the naming server
+    at the interval given by the <code>storage.heartbeat.interval</code> system
+    property, in milliseconds (default 1000). If the naming server has
+    considered the storage server failed in the meantime, the storage server
+    registers again. Each heartbeat reports the space used by the files of the
+    storage server, and its capacity: the value of the
+    <code>storage.capacity</code> property in bytes, or by default the size of
+    the local filesystem holding the directory.
+
+    <p>
+    Files are kept by a storage engine, chosen by the
+    <code>storage.engine</code> system property. The default
+    <code>file</code> engine keeps each file at the same path under the
+    directory. The <code>container</code> engine keeps the fixed-size blocks of
+    all files in large container files, with an index, so that many small
+    files do not each take a file of the local filesystem. The
+    <code>packed</code> engine appends small files to log segments, flushed to
+    disk once for all the changes made concurrently.
+
+    <p>
+    Each block of each file has a checksum, kept by the engine in the
+    reserved <code>.dfs</code> directory of the root, which is verified
+    whenever the block is read. A low-priority scrubber also verifies all
+    blocks, one pass every <code>storage.scrub.interval</code> milliseconds
+    (default one day), reading at most <code>storage.scrub.bandwidth</code>
+    bytes per second (default 1 MB). Corrupted files are reported to the
+    naming server.
+
+    <p>
+    Deleting a file or directory unlinks it at once, and leaves the deletion
+    of its files from the local filesystem to a background reclaimer, so that
+    deleting a large directory does not hold up the server.
+
+    <p>
+    The sizes and modification times of the files created and written through
+    the storage server are reported to the naming server in the background, as
+    described in <code>Reporter</code>, so that the naming server can list
+    them.
+
+    <p>
+    A storage server leaves the cluster with <code>drain</code>, which waits
+    for the naming server to move its files elsewhere before deregistering and
+    stopping the server.
  */
 
 //References :- https://www.javatpoint.com/how-to-create-a-file-in-java
@@ -26,15 +78,43 @@ import naming.*;
 
 public class StorageServer implements Storage, Command
 {
+    private static final Log logger = Log.get("storage");
+
     public File root;
     Skeleton<Storage> storageSkeleton;
     Skeleton<Command> commandSkeleton;
+    Thread heartbeatThread;
+
+    /** Size of the chunks in which files are copied between storage
+        servers. */
+    public static final int COPY_CHUNK = 1 << 20;
+    /** Number of chunks requested at once from the source of a copy. */
+    static final int COPY_DEPTH = 4;
+    // Naming server and command stub given at registration, used to drain.
+    Registration namingServer;
+    Command commandStub;
+    // Space used by the files under the root directory, in bytes.
+    long used;
+    StorageEngine engine;
+    Scrubber scrubber;
+    Reclaimer reclaimer;
+    Reporter reporter;
+    // Open read and write sessions, by identifier.
+    private final HashMap<Long, Session> sessions = new HashMap<Long, Session>();
+    // Identifier of the next session. Starting from the time keeps the
+    // sessions of a restarted server from taking the identifiers of earlier
+    // ones.
+    private long nextSession = System.currentTimeMillis() << 16;
+    // Time after which an idle session is closed, in milliseconds.
+    private final long sessionTimeout = Long.getLong("storage.session.timeout", 60000L);
 
     /** Creates a storage server, given a directory on the local filesystem.
 
         @param root Directory on the local filesystem. The contents of this
                     directory will be accessible through the storage server.
         @throws NullPointerException If <code>root</code> is <code>null</code>.
+        @throws IllegalStateException If the storage engine cannot load the
+                                      files kept in the directory.
     */
     public StorageServer(File root)
     {
@@ -48,6 +128,17 @@ public class StorageServer implements Storage, Command
 
         this.root = root;
 
+        try {
+            engine = StorageEngine.open(root);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open the storage engine.", e);
+        }
+        scrubber = new Scrubber(this,
+                Long.getLong("storage.scrub.bandwidth", 1L << 20),
+                Long.getLong("storage.scrub.interval", 24L * 60 * 60 * 1000));
+        reclaimer = new Reclaimer(this, Long.getLong("storage.reclaim.rate", 10000L));
+        reporter = new Reporter(this);
+
         storageSkeleton = new Skeleton<Storage>(Storage.class, this);
         commandSkeleton = new Skeleton<Command>(Command.class, this);
     }
@@ -85,23 +176,110 @@ public class StorageServer implements Storage, Command
         Storage stub = (Storage)Stub.create(Storage.class, storageSkeleton, hostname);
         Command commandStub = (Command)Stub.create(Command.class, commandSkeleton, hostname);
 
-        Path[] files = Path.list(root);
+        register(naming_server, stub, commandStub);
+        this.namingServer = naming_server;
+        this.commandStub = commandStub;
+
+        heartbeatThread = new Thread(new HeartbeatThread(naming_server, stub, commandStub),
+                "storage server heartbeat");
+        heartbeatThread.setDaemon(true);
+        heartbeatThread.start();
+        scrubber.start();
+        reclaimer.start();
+        reporter.start(naming_server, commandStub);
+    }
+
+    // Registers with the naming server, deletes the duplicate files it
+    // reports, and marks the others to have their sizes reported.
+    private void register(Registration naming_server, Storage stub, Command commandStub)
+        throws RMIException, FileNotFoundException
+    {
+        Path[] files = files();
         Path[] duplicateFiles = naming_server.register(stub, commandStub, files);
 
         for (Path path : duplicateFiles){
-            File file = path.toFile(root);
-            File parentFile = new File(file.getParent());
-            file.delete();
-
-            while(!parentFile.equals(root)){
-                if (parentFile.list().length == 0 ){
-                    parentFile.delete();
-                    parentFile = new File(parentFile.getParent());
-                }else {
-                    break;
-                }
+            try {
+                engine.delete(path);
+            } catch (IOException e) {
+                logger.warn("Unable to delete duplicate file " + path, e);
             }
+            engine.prune(path.parent());
         }
+
+        used = engine.usage(new Path());
+
+        HashSet<Path> duplicates = new HashSet<Path>(Arrays.asList(duplicateFiles));
+        for (Path file : files) {
+            if (!duplicates.contains(file)) {
+                reporter.changed(file, Reporter.UNKNOWN);
+            }
+        }
+    }
+
+    // Lists the files under the root directory, other than those in the
+    // reserved directory.
+    synchronized Path[] files() throws FileNotFoundException
+    {
+        return engine.list();
+    }
+
+    // Opens a file for a request, rejecting paths in the reserved directory.
+    private StorageEngine.Handle open(Path file, boolean write)
+        throws FileNotFoundException
+    {
+        if (StorageEngine.reserved(file)) {
+            throw new FileNotFoundException("File cannot be found");
+        }
+        return engine.open(file, write);
+    }
+
+    /** Removes the storage server from the cluster, then stops it.
+
+        <p>
+        The naming server stops giving the storage server new files, and moves
+        the files that it hosts to other storage servers. The storage server
+        keeps serving its files in the meantime. Once the naming server reports
+        that the storage server hosts no files, the storage server deregisters
+        and stops. The files remain in the local directory.
+
+        @param timeout Time to wait for the files to be moved, in milliseconds.
+        @return <code>true</code> if the storage server deregistered and
+                stopped, <code>false</code> if the files were not moved in time.
+                In that case, the storage server keeps running and draining,
+                and this method may be called again.
+        @throws IllegalStateException If the storage server has not been
+                                      started, or the naming server considers
+                                      it failed.
+        @throws RMIException If the naming server cannot be contacted.
+        @throws InterruptedException If the calling thread is interrupted while
+                                     waiting.
+     */
+    public boolean drain(long timeout)
+        throws RMIException, InterruptedException
+    {
+        if (namingServer == null) {
+            throw new IllegalStateException("Storage server is not registered.");
+        }
+
+        long interval = Long.getLong("storage.heartbeat.interval", 1000L);
+        long deadline = System.currentTimeMillis() + timeout;
+
+        namingServer.drain(commandStub);
+        while (!namingServer.isDrained(commandStub)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(interval, remaining));
+        }
+
+        // Stop the heartbeats first, so that the heartbeat thread does not
+        // register again once the naming server has forgotten this server.
+        heartbeatThread.interrupt();
+        heartbeatThread.join();
+        namingServer.deregister(commandStub);
+        stop();
+        return true;
     }
 
     /** Stops the storage server.
@@ -111,8 +289,18 @@ public class StorageServer implements Storage, Command
      */
     public void stop()
     {
+        if (heartbeatThread != null) {
+            heartbeatThread.interrupt();
+        }
+        scrubber.stop();
+        reclaimer.stop();
+        reporter.stop();
         storageSkeleton.stop();
         commandSkeleton.stop();
+        synchronized (this) {
+            sessions.clear();
+            engine.close();
+        }
         this.stopped(null);
     }
 
@@ -129,125 +317,523 @@ public class StorageServer implements Storage, Command
     @Override
     public synchronized long size(Path file) throws FileNotFoundException
     {
-        File file1 = file.toFile(root);
-
-        if (!file1.exists() || file1.isDirectory()){
-            throw new FileNotFoundException("File not found.");
+        try (StorageEngine.Handle handle = open(file, false)) {
+            return handle.length();
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new FileNotFoundException("File cannot be accessed: " + e.getMessage());
         }
-
-        return file1.length();
     }
 
     @Override
     public synchronized byte[] read(Path file, long offset, int length)
         throws FileNotFoundException, IOException
     {
-        File file1 = file.toFile(root);
+        if (logger.isEnabled(Log.Level.DEBUG)) {
+            logger.debug("Reading " + length + " bytes of " + file + " at " + offset);
+        }
 
-        System.out.println("The File to read is:"+ file.toString());
+        try (StorageEngine.Handle handle = open(file, false)) {
+            if ((offset< 0) || (length < 0) || (length > handle.length() - offset)){
+                throw new IndexOutOfBoundsException("Sequence specified is outside of the bounds of the file," +
+                        "or length is negative.");
+            }
 
-        if (!file1.exists() || file1.isDirectory()){
-            throw new FileNotFoundException("File cannot be found");
+            byte[] output = new byte[length];
+            verify(file, handle, offset, length);
+            handle.read(offset, output, 0, length);
+            return output;
         }
+    }
 
-        if ((offset< 0) || (length < 0) || (offset+length > file1.length())){
+    @Override
+    public synchronized Blocks readBlocks(Path file, long offset, int length)
+        throws FileNotFoundException, IOException
+    {
+        try (StorageEngine.Handle handle = open(file, false)) {
+            return blocks(file, handle, offset, length);
+        }
+    }
+
+    // Reads the blocks holding a sequence of bytes, with their checksums.
+    private Blocks blocks(Path file, StorageEngine.Handle handle, long offset, int length)
+        throws IOException
+    {
+        long size = handle.length();
+        if ((offset< 0) || (length < 0) || (length > size - offset)){
             throw new IndexOutOfBoundsException("Sequence specified is outside of the bounds of the file," +
                     "or length is negative.");
         }
 
-        InputStream reader = new FileInputStream(file1);
-        byte[] output = new byte[length];
-        reader.read(output, (int) offset, length);
-        reader.close();
-        return output;
+        // Extend the sequence to whole blocks.
+        long start = offset / BlockChecksums.BLOCK * BlockChecksums.BLOCK;
+        long end = Math.min(size,
+                BlockChecksums.blocks(offset + length) * BlockChecksums.BLOCK);
+
+        verify(file, handle, start, end - start);
+        byte[] data = new byte[(int) (end - start)];
+        handle.read(start, data, 0, data.length);
+        int[] sums = BlockChecksums.load(handle, start / BlockChecksums.BLOCK,
+                (int) BlockChecksums.blocks(data.length));
+        return new Blocks(file, start, BlockChecksums.BLOCK, data, sums);
+    }
+
+    // Verifies the blocks of a file about to be read, and has a corrupted
+    // file reported to the naming server.
+    private void verify(Path file, StorageEngine.Handle handle, long offset, long length)
+        throws IOException
+    {
+        try {
+            BlockChecksums.verify(file, handle, offset, length);
+        } catch (ChecksumException e) {
+            scrubber.report(file);
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(Path file, long offset, byte[] data)
+        throws FileNotFoundException, IOException
+    {
+        synchronized (this) {
+            store(file, offset, data);
+        }
+        engine.sync();
+        reporter.changed(file, System.currentTimeMillis());
+    }
+
+    // Writes bytes to a file in place, so that the rest of the file is
+    // preserved, and updates the checksums of the blocks written.
+    private void store(Path file, long offset, byte[] data) throws IOException
+    {
+        try (StorageEngine.Handle handle = open(file, true)) {
+            if (offset<0){
+                throw new IndexOutOfBoundsException("Negative Offset.");
+            }
+            if (data.length > Long.MAX_VALUE - offset) {
+                throw new IndexOutOfBoundsException("Write extends past the largest file size.");
+            }
+
+            // A write past the end of the file leaves a hole of zeros, whose
+            // blocks need not be read to compute their checksums.
+            long before = handle.length();
+            handle.write(offset, data, 0, data.length);
+            used += handle.length() - before;
+            BlockChecksums.update(handle, Math.min(before, offset), offset + data.length,
+                    before, offset);
+        }
     }
 
     @Override
-    public synchronized void write(Path file, long offset, byte[] data)
+    public long checksum(Path file, long offset, long length)
         throws FileNotFoundException, IOException
     {
-        File file1 = file.toFile(root);
-        if (!file1.exists() || file1.isDirectory()){
-            throw new FileNotFoundException("File Cannot be Found.");
+        synchronized (this) {
+            try (StorageEngine.Handle handle = open(file, false)) {
+                if ((offset < 0) || (length < 0) || (length > handle.length() - offset)){
+                    throw new IndexOutOfBoundsException("Sequence specified is outside of the bounds of the file," +
+                            "or length is negative.");
+                }
+            }
         }
 
-        if (offset<0){
-            throw new IndexOutOfBoundsException("Negative Offset.");
+        // The lock is held for each piece rather than for the whole file: a
+        // long checksum must not hold up other requests.
+        CRC32C crc = new CRC32C();
+        byte[] buffer = new byte[65536];
+        while (length > 0) {
+            int count = (int) Math.min(length, buffer.length);
+            synchronized (this) {
+                try (StorageEngine.Handle handle = open(file, false)) {
+                    if (offset + count > handle.length()) {
+                        throw new EOFException("File shrank while computing its checksum.");
+                    }
+                    handle.read(offset, buffer, 0, count);
+                }
+            }
+            crc.update(buffer, 0, count);
+            offset += count;
+            length -= count;
         }
+        return crc.getValue();
+    }
 
-        InputStream reader = new FileInputStream(file1);
-        FileOutputStream writerStream = new FileOutputStream(file1);
+    @Override
+    public long openSession(Path file, boolean write) throws FileNotFoundException
+    {
+        boolean unsynced = false;
+        long session;
+        synchronized (this) {
+            // Close the sessions left idle, rather than keep a thread to do
+            // it.
+            long now = System.currentTimeMillis();
+            Iterator<Session> open = sessions.values().iterator();
+            while (open.hasNext()) {
+                Session idle = open.next();
+                if (now - idle.used > sessionTimeout) {
+                    open.remove();
+                    unsynced |= idle.written;
+                    if (idle.written) {
+                        reporter.changed(idle.file, idle.used);
+                    }
+                }
+            }
+
+            // The path is checked once, here, rather than for each chunk.
+            try (StorageEngine.Handle handle = open(file, write)) {
+                handle.length();
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new FileNotFoundException("File cannot be accessed: " + e.getMessage());
+            }
+            session = nextSession++;
+            sessions.put(session, new Session(file, write, now));
+        }
+
+        if (unsynced) {
+            synced();
+        }
+        return session;
+    }
 
-        long readLength = Math.min(offset, file1.length());
-        byte[] bytes = new byte[(int)readLength];
+    @Override
+    public synchronized Blocks readSession(long session, long offset, int length)
+        throws FileNotFoundException, IOException
+    {
+        Session current = session(session);
+        try (StorageEngine.Handle handle = engine.open(current.file, false)) {
+            return blocks(current.file, handle, offset, length);
+        }
+    }
 
-        reader.read(bytes);
-        writerStream.write(bytes, 0, (int) readLength);
-        long fillLength = offset - file1.length();
-        if (fillLength > 0 ){
-            for (int i=0; i<(int) fillLength; i++){
-                writerStream.write(0);
+    @Override
+    public void writeSession(long session, long offset, byte[] data)
+        throws FileNotFoundException, IOException
+    {
+        // The write reaches the disk when the session is closed.
+        synchronized (this) {
+            Session current = session(session);
+            if (!current.write) {
+                throw new IOException("Session " + session + " is not for writing.");
             }
+            store(current.file, offset, data);
+            current.written = true;
+        }
+    }
+
+    @Override
+    public void closeSession(long session) throws IOException
+    {
+        Session closed;
+        synchronized (this) {
+            closed = session(session);
+            sessions.remove(session);
+        }
+
+        if (closed.written) {
+            engine.sync();
+            reporter.changed(closed.file, System.currentTimeMillis());
         }
+    }
 
-        reader.close();
-        writerStream.write(data);
-        writerStream.close();
+    // Returns an open session, and marks it as used.
+    private Session session(long session) throws IOException
+    {
+        Session current = sessions.get(session);
+        if (current == null) {
+            throw new IOException("Session " + session + " is unknown or has expired.");
+        }
+        current.used = System.currentTimeMillis();
+        return current;
     }
 
     // The following methods are documented in Command.java.
     @Override
-    public synchronized boolean create(Path file)
+    public boolean create(Path file)
     {
         if (file == null){
             throw new NullPointerException("Null Argument.");
         }
 
-        if (file.isRoot()){
+        if (file.isRoot() || StorageEngine.reserved(file)){
             return false;
         }
 
-        Path parent = file.parent();
-        File parentFile = parent.toFile(root);
+        boolean created;
+        synchronized (this) {
+            try {
+                created = engine.create(file);
+            } catch (IOException e) {
+                logger.warn("Unable to create " + file, e);
+                return false;
+            }
+        }
+        if (!created || !synced()) {
+            return false;
+        }
+        reporter.changed(file, System.currentTimeMillis());
+        return true;
+    }
 
-        if (!parentFile.exists()){
-            parentFile.mkdirs();
+    @Override
+    public boolean rename(Path from, Path to)
+    {
+        if (from == null || to == null) {
+            throw new NullPointerException("Null Argument.");
+        }
+
+        if (from.isRoot() || to.isRoot() || to.isSubpath(from)
+                || StorageEngine.reserved(from) || StorageEngine.reserved(to)) {
+            return false;
         }
 
-        File file1 =file.toFile(root);
+        synchronized (this) {
+            if (!(engine.isFile(from) || engine.isDirectory(from))
+                    || engine.isFile(to) || engine.isDirectory(to)) {
+                return false;
+            }
+            for (Path parent = to.parent(); !parent.isRoot(); parent = parent.parent()) {
+                if (engine.isFile(parent)) {
+                    return false;
+                }
+            }
 
+            try {
+                if (!engine.rename(from, to)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                logger.warn("Unable to rename " + from + " to " + to, e);
+                return false;
+            }
+
+            for (Session session : sessions.values()) {
+                if (session.file.isSubpath(from)) {
+                    session.file = StorageEngine.moved(session.file, from, to);
+                }
+            }
+            reporter.renamed(from, to);
+        }
+        return synced();
+    }
+
+    @Override
+    public boolean delete(Path path)
+    {
+        if(path.isRoot() || StorageEngine.reserved(path)){
+            return false;
+        }
+
+        // Unlink the path, and leave the deletion of the files beneath it
+        // to the reclaimer.
+        long freed;
+        synchronized (this) {
+            try {
+                freed = engine.unlink(path);
+            } catch (IOException e) {
+                logger.warn("Unable to delete " + path, e);
+                return false;
+            }
+            used -= Math.max(freed, 0);
+        }
+
+        if (freed < 0) {
+            return false;
+        }
+        reclaimer.wake();
+        return synced();
+    }
+
+    // Waits for the changes made so far to reach the disk, and reports
+    // whether they did.
+    private boolean synced()
+    {
         try {
-            return file1.createNewFile();
+            engine.sync();
+            return true;
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.error("Unable to sync the storage engine", e);
             return false;
         }
     }
 
     @Override
-    public synchronized boolean delete(Path path)
+    public long copy(final Path file, final Storage source, long bandwidth)
+        throws RMIException, FileNotFoundException, IOException
     {
-        if(path.isRoot()){
-            return false;
+        if (file == null || source == null){
+            throw new NullPointerException("Null Argument.");
+        }
+
+        if (file.isRoot() || StorageEngine.reserved(file)){
+            throw new FileNotFoundException("Cannot copy to the root or reserved directory.");
+        }
+
+        long size = source.size(file);
+
+        // Create the local file if it does not exist. An existing file is
+        // kept, and only the chunks that differ from the source are read, so
+        // that bringing a stale replica up to date costs as much as the
+        // writes it missed rather than the whole file. As with checksum, the
+        // lock is held for each local operation rather than for the whole
+        // copy.
+        final long existing;
+        synchronized (this) {
+            if (!engine.isFile(file) && !engine.create(file)){
+                throw new FileNotFoundException("Path refers to a directory, or "
+                        + "cannot be created.");
+            }
+            try (StorageEngine.Handle handle = engine.open(file, true)) {
+                existing = handle.length();
+            }
+        }
+
+        final TokenBucket bucket = new TokenBucket(bandwidth, Math.max(bandwidth, COPY_CHUNK));
+        ExecutorService readers = Executors.newFixedThreadPool(COPY_DEPTH);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+        try {
+            long requested = 0;
+            long written = 0;
+
+            // Keep COPY_DEPTH chunks in flight, and write those that differ
+            // in order as they arrive.
+            while (written < size) {
+                while (pending.size() < COPY_DEPTH && requested < size) {
+                    final long offset = requested;
+                    final int length = (int) Math.min(COPY_CHUNK, size - requested);
+
+                    pending.add(readers.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws Exception {
+                            if (offset + length <= existing
+                                    && checksum(file, offset, length)
+                                        == source.checksum(file, offset, length)) {
+                                return null;
+                            }
+                            bucket.acquire(length);
+                            return source.read(file, offset, length);
+                        }
+                    }));
+                    requested += length;
+                }
+
+                byte[] chunk = chunk(pending.remove());
+                if (chunk != null) {
+                    // The block checksums are kept current with each chunk,
+                    // since the copy may be read while it is being made.
+                    synchronized (this) {
+                        store(file, written, chunk);
+                    }
+                }
+                written += Math.min(COPY_CHUNK, size - written);
+            }
+
+            synchronized (this) {
+                try (StorageEngine.Handle handle = engine.open(file, true)) {
+                    if (handle.length() != size) {
+                        used -= handle.length() - size;
+                        handle.setLength(size);
+                        BlockChecksums.update(handle, size, size);
+                    }
+                }
+            }
+            engine.sync();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying " + file);
+        } finally {
+            readers.shutdownNow();
         }
 
-        File file = path.toFile(root);
-        if (file.isFile()){
-            return file.delete();
-        }else {
-            return delete_directory(file);
+        if (checksum(file, 0, size) != source.checksum(file, 0, size)) {
+            throw new IOException("Copy of " + file + " does not match the "
+                    + "checksum of its source.");
         }
+        return size;
     }
 
-    private boolean delete_directory(File f) {
-        if (f.isDirectory()){
-            File[] files = f.listFiles();
-            for (File subFile : files){
-                if (!delete_directory(subFile)){
-                    return false;
+    // Waits for a chunk read from the source of a copy, rethrowing the
+    // exception that the read raised, if any.
+    private static byte[] chunk(Future<byte[]> read)
+        throws RMIException, IOException, InterruptedException
+    {
+        try {
+            return read.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RMIException) {
+                throw (RMIException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Failed to read from the source.", cause);
+        }
+    }
+
+    // A read or write session, open on a file checked when it was opened.
+    private static class Session {
+        Path file;
+        final boolean write;
+        long used;
+        boolean written;
+
+        Session(Path file, boolean write, long used) {
+            this.file = file;
+            this.write = write;
+            this.used = used;
+        }
+    }
+
+    // Sends heartbeats to the naming server until interrupted.
+    private class HeartbeatThread implements Runnable {
+        Registration naming_server;
+        Storage stub;
+        Command commandStub;
+
+        HeartbeatThread(Registration naming_server, Storage stub, Command commandStub) {
+            this.naming_server = naming_server;
+            this.stub = stub;
+            this.commandStub = commandStub;
+        }
+
+        @Override
+        public void run() {
+            long interval = Long.getLong("storage.heartbeat.interval", 1000L);
+            long capacity = Long.getLong("storage.capacity", root.getTotalSpace());
+
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    long usage;
+                    synchronized (StorageServer.this) {
+                        usage = used;
+                    }
+                    naming_server.heartbeat(commandStub, usage, capacity);
+                } catch (IllegalStateException e) {
+                    // Considered failed: register again.
+                    try {
+                        synchronized (StorageServer.this) {
+                            register(naming_server, stub, commandStub);
+                        }
+                    } catch (Exception registrationFailure) {
+                        logger.warn("Unable to register again", registrationFailure);
+                    }
+                } catch (RMIException e) {
+                    // The naming server is unreachable; keep trying.
                 }
             }
         }
-        return f.delete();
     }
 }
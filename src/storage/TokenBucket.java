@@ -0,0 +1,67 @@
+package storage;
+
+/** Token bucket rate limiter.
+
+    <p>
+    Tokens accumulate at a fixed rate, up to the capacity of the bucket. Taking
+    more tokens than are available puts the bucket into debt, and the caller
+    waits until the debt would have been repaid. This lets a caller take a
+    large amount at once while still keeping to the rate on average.
+
+    <p>
+    Storage servers use token buckets to limit the bandwidth of the copies that
+    the naming server commands, with one token per byte.
+ */
+class TokenBucket
+{
+    private final long rate;
+    private final long capacity;
+    private double tokens;
+    private long last;
+
+    /** Creates a token bucket, initially full.
+
+        @param rate Tokens added per second. If zero or negative, the bucket
+                    does not limit the rate at all.
+        @param capacity Largest number of tokens the bucket holds.
+     */
+    TokenBucket(long rate, long capacity)
+    {
+        this.rate = rate;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.last = System.nanoTime();
+    }
+
+    /** Takes tokens from the bucket, waiting if they are not yet available.
+
+        @param count Number of tokens to take.
+        @throws InterruptedException If the calling thread is interrupted while
+                                     waiting.
+     */
+    void acquire(long count) throws InterruptedException
+    {
+        if (rate <= 0) {
+            return;
+        }
+
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - last) * rate / 1e9);
+            last = now;
+            tokens -= count;
+            wait = tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1000 / rate);
+        }
+
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /** Returns the rate of the bucket, in tokens per second. */
+    long rate()
+    {
+        return rate;
+    }
+}
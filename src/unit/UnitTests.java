@@ -8,6 +8,33 @@ import test.*;
     Tests run are:
     <ul>
     <li>{@link common.SampleUnitTest}</li>
+    <li>{@link common.PathRepresentationTest}</li>
+    <li>{@link common.LogTest}</li>
+    <li>{@link rmi.LatencyHistogramTest}</li>
+    <li>{@link rmi.DeadlineTest}</li>
+    <li>{@link rmi.MetricsTest}</li>
+    <li>{@link rmi.TraceTest}</li>
+    <li>{@link rmi.RetryTest}</li>
+    <li>{@link storage.CopyTest}</li>
+    <li>{@link storage.ChecksumTest}</li>
+    <li>{@link storage.ContainerEngineTest}</li>
+    <li>{@link storage.PackedEngineTest}</li>
+    <li>{@link storage.ChannelCacheTest}</li>
+    <li>{@link storage.LargeFileTest}</li>
+    <li>{@link storage.SparseFileTest}</li>
+    <li>{@link storage.ReclaimTest}</li>
+    <li>{@link storage.RenameTest}</li>
+    <li>{@link naming.NamespaceTest}</li>
+    <li>{@link naming.StorageIdTest}</li>
+    <li>{@link naming.ReplicationTest}</li>
+    <li>{@link naming.DrainTest}</li>
+    <li>{@link naming.RebalanceTest}</li>
+    <li>{@link naming.ScrubTest}</li>
+    <li>{@link naming.TrashTest}</li>
+    <li>{@link naming.RenameTest}</li>
+    <li>{@link naming.PagingTest}</li>
+    <li>{@link naming.AttributesTest}</li>
+    <li>{@link client.StreamTest}</li>
     </ul>
  */
 public class UnitTests
@@ -21,7 +48,34 @@ public class UnitTests
         // Create the test list, the series object, and run the test series.
         @SuppressWarnings("unchecked")
         Class<? extends Test>[]     tests =
-            new Class[] {common.SampleUnitTest.class};
+            new Class[] {common.SampleUnitTest.class,
+                         common.PathRepresentationTest.class,
+                         common.LogTest.class,
+                         rmi.LatencyHistogramTest.class,
+                         rmi.DeadlineTest.class,
+                         rmi.MetricsTest.class,
+                         rmi.TraceTest.class,
+                         rmi.RetryTest.class,
+                         storage.CopyTest.class,
+                         storage.ChecksumTest.class,
+                         storage.ContainerEngineTest.class,
+                         storage.PackedEngineTest.class,
+                         storage.ChannelCacheTest.class,
+                         storage.LargeFileTest.class,
+                         storage.SparseFileTest.class,
+                         storage.ReclaimTest.class,
+                         storage.RenameTest.class,
+                         naming.NamespaceTest.class,
+                         naming.StorageIdTest.class,
+                         naming.ReplicationTest.class,
+                         naming.DrainTest.class,
+                         naming.RebalanceTest.class,
+                         naming.ScrubTest.class,
+                         naming.TrashTest.class,
+                         naming.RenameTest.class,
+                         naming.PagingTest.class,
+                         naming.AttributesTest.class,
+                         client.StreamTest.class};
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
 
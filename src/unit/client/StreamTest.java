@@ -0,0 +1,213 @@
+package client;
+
+import java.io.*;
+import java.util.*;
+
+import common.*;
+import naming.*;
+import storage.*;
+import test.*;
+
+/** Unit test for the client streams and storage server sessions.
+
+    <p>
+    Starts a naming server, without its skeletons, and a storage server that
+    registers with it. Writes a file of several chunks through a
+    <code>DFSOutputStream</code>, in pieces of uneven size and skipping a
+    range, and checks the file on the storage server. Reads it back through a
+    <code>DFSInputStream</code>, also skipping ranges, and checks the bytes
+    read. Finally, checks that sessions are checked for their purpose, and
+    that idle sessions expire.
+ */
+public class StreamTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the client streams";
+
+    private NamingServer        naming;
+    private TemporaryDirectory  directory;
+    private StorageServer       server;
+    private String              timeout;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Path                file = new Path("/directory/file");
+        byte[]              contents = new byte[3 * Transfers.CHUNK + 12345];
+        Random              random = new Random(11);
+
+        random.nextBytes(contents);
+
+        // Leave a range of zeros, to be skipped by the output stream.
+        int                 gap = Transfers.CHUNK - 1000;
+
+        Arrays.fill(contents, gap, gap + 5000, (byte)0);
+
+        try
+        {
+            naming = new NamingServer();
+            directory = new TemporaryDirectory();
+            server = new StorageServer(directory.root());
+            server.start("127.0.0.1", naming);
+
+            if(!naming.createDirectory(file.parent()) ||
+               !naming.createFile(file))
+                throw new TestFailed("unable to create file");
+
+            // Write the file in pieces of uneven size.
+            DFSOutputStream output = new DFSOutputStream(naming, file);
+            int             written = 0;
+
+            while(written < contents.length)
+            {
+                if(written == gap)
+                {
+                    output.skip(5000);
+                    written += 5000;
+                    continue;
+                }
+
+                int         count = Math.min(1 + random.nextInt(300000),
+                                             contents.length - written);
+
+                if(written < gap && written + count > gap)
+                    count = gap - written;
+
+                output.write(contents, written, count);
+                written += count;
+            }
+
+            output.close();
+            output.close();
+
+            try
+            {
+                output.write(1);
+                throw new TestFailed("write to closed stream succeeded");
+            }
+            catch(IOException e) { }
+
+            Storage         stub = naming.getStorage(file);
+
+            if(stub.size(file) != contents.length ||
+               !Arrays.equals(stub.read(file, 0, contents.length), contents))
+            {
+                throw new TestFailed("file written incorrectly");
+            }
+
+            // Read the file back in pieces of uneven size, skipping ranges
+            // both within and past the chunk being read.
+            DFSInputStream  input = new DFSInputStream(naming, file);
+            byte[]          buffer = new byte[contents.length];
+            int             read = 0;
+
+            while(read < contents.length)
+            {
+                if(random.nextInt(8) == 0)
+                {
+                    int     skip = random.nextInt(random.nextBoolean() ?
+                                                  100 : 2 * Transfers.CHUNK);
+
+                    read += (int)input.skip(skip);
+                    continue;
+                }
+
+                int         count =
+                    input.read(buffer, read,
+                               Math.min(1 + random.nextInt(300000),
+                                        buffer.length - read));
+
+                if(count < 0)
+                    throw new TestFailed("end of file reached early");
+
+                if(!Arrays.equals(Arrays.copyOfRange(buffer, read, read + count),
+                                  Arrays.copyOfRange(contents, read,
+                                                     read + count)))
+                {
+                    throw new TestFailed("bytes read incorrectly at offset " +
+                                         read);
+                }
+
+                read += count;
+            }
+
+            if(input.read() != -1 || input.available() != 0)
+                throw new TestFailed("end of file not reached");
+
+            input.close();
+
+            // A read session cannot be used to write.
+            long            session = stub.openSession(file, false);
+
+            try
+            {
+                stub.writeSession(session, 0, new byte[1]);
+                throw new TestFailed("write through a read session " +
+                                     "succeeded");
+            }
+            catch(TestFailed e) { throw e; }
+            catch(IOException e) { }
+
+            stub.closeSession(session);
+
+            try
+            {
+                stub.readSession(session, 0, 1);
+                throw new TestFailed("closed session used");
+            }
+            catch(TestFailed e) { throw e; }
+            catch(IOException e) { }
+
+            try
+            {
+                stub.openSession(new Path("/directory"), false);
+                throw new TestFailed("session opened on a directory");
+            }
+            catch(FileNotFoundException e) { }
+
+            // An idle session expires when another session is opened. The
+            // timeout is read when the storage server is created.
+            timeout = System.setProperty("storage.session.timeout", "100");
+
+            StorageServer   idle = new StorageServer(directory.root());
+
+            session = idle.openSession(file, false);
+            Thread.sleep(300);
+            idle.closeSession(idle.openSession(file, false));
+
+            try
+            {
+                idle.readSession(session, 0, 1);
+                throw new TestFailed("idle session did not expire");
+            }
+            catch(TestFailed e) { throw e; }
+            catch(IOException e) { }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Stops the servers, removes the temporary directory and restores the
+        property. */
+    @Override
+    protected void clean()
+    {
+        if(server != null)
+            server.stop();
+
+        if(directory != null)
+            directory.remove();
+
+        if(timeout == null)
+            System.clearProperty("storage.session.timeout");
+        else
+            System.setProperty("storage.session.timeout", timeout);
+    }
+}
@@ -0,0 +1,154 @@
+package common;
+
+import java.util.*;
+
+import test.*;
+
+/** Unit test for structured logging.
+
+    <p>
+    Checks that a subsystem keeps only the records at or above its level,
+    as configured by system property and changed at run time, and that
+    records are formatted as JSON objects on a single line. Then checks that
+    the ring buffer keeps the most recent records, and that a reader stops at
+    a record not yet published.
+ */
+public class LogTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking structured logging";
+
+    /** Name of the subsystem logged to. */
+    private static final String SUBSYSTEM = "logtest";
+
+    private String              property = "log." + SUBSYSTEM + ".level";
+    private String              saved;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            checkLevels();
+            checkBuffer();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks the levels and format of records. */
+    private void checkLevels() throws TestFailed
+    {
+        saved = System.setProperty(property, "warn");
+
+        Log                 log = Log.get(SUBSYSTEM);
+
+        if(log.level() != Log.Level.WARN || log.isEnabled(Log.Level.INFO) ||
+           !log.isEnabled(Log.Level.ERROR) || Log.get(SUBSYSTEM) != log)
+        {
+            throw new TestFailed("level not taken from system property");
+        }
+
+        log.debug("debug");
+        log.info("info");
+        log.warn("warn \"quoted\"\nsecond line", null);
+        log.error("error", new IllegalStateException("cause"));
+        log.setLevel(Log.Level.OFF);
+        log.error("off", null);
+        log.setLevel(Log.Level.DEBUG);
+        log.debug("debug enabled");
+
+        List<Log.Record>    records = new ArrayList<Log.Record>();
+
+        for(Log.Record record : Log.recent())
+        {
+            if(record.subsystem().equals(SUBSYSTEM))
+                records.add(record);
+        }
+
+        if(records.size() != 3 ||
+           !records.get(0).message().startsWith("warn") ||
+           records.get(1).level() != Log.Level.ERROR ||
+           records.get(1).cause() == null ||
+           !records.get(2).message().equals("debug enabled"))
+        {
+            throw new TestFailed("incorrect records kept");
+        }
+
+        String              first = records.get(0).toJson();
+        String              second = records.get(1).toJson();
+
+        if(!first.contains("\"level\":\"WARN\"") ||
+           !first.contains("\"subsystem\":\"logtest\"") ||
+           !first.contains("\"message\":\"warn \\\"quoted\\\"\\nsecond line\"") ||
+           first.indexOf('\n') >= 0 || first.contains("exception"))
+        {
+            throw new TestFailed("record formatted incorrectly: " + first);
+        }
+
+        if(!second.contains("\"exception\":\"java.lang.IllegalStateException: " +
+                            "cause\\n") || second.indexOf('\n') >= 0)
+        {
+            throw new TestFailed("exception formatted incorrectly: " + second);
+        }
+
+        Log.flush();
+    }
+
+    /** Checks the ring buffer. */
+    private void checkBuffer() throws TestFailed
+    {
+        RingBuffer<Log.Record>  buffer = new RingBuffer<Log.Record>(4);
+        List<Log.Record>        records = new ArrayList<Log.Record>();
+
+        for(int index = 0; index < 10; ++index)
+        {
+            buffer.publish(new Log.Record(buffer.claim(), Log.Level.INFO,
+                                          SUBSYSTEM, "record " + index, null));
+        }
+
+        // The six oldest records were overwritten.
+        if(buffer.read(0, records) != 10 || records.size() != 4 ||
+           !records.get(0).message().equals("record 6"))
+        {
+            throw new TestFailed("ring buffer did not keep the most recent " +
+                                 "records");
+        }
+
+        // A record claimed but not published holds up the reader.
+        long                claimed = buffer.claim();
+
+        buffer.publish(new Log.Record(buffer.claim(), Log.Level.INFO,
+                                      SUBSYSTEM, "later", null));
+        records.clear();
+
+        if(buffer.read(10, records) != 10 || !records.isEmpty())
+            throw new TestFailed("reader passed an unpublished record");
+
+        buffer.publish(new Log.Record(claimed, Log.Level.INFO, SUBSYSTEM,
+                                      "claimed", null));
+
+        if(buffer.read(10, records) != 12 || records.size() != 2 ||
+           !records.get(0).message().equals("claimed"))
+        {
+            throw new TestFailed("published records not read in order");
+        }
+    }
+
+    /** Restores the property. */
+    @Override
+    protected void clean()
+    {
+        if(saved == null)
+            System.clearProperty(property);
+        else
+            System.setProperty(property, saved);
+    }
+}
@@ -0,0 +1,134 @@
+package common;
+
+import java.io.*;
+import java.util.*;
+
+import test.*;
+
+/** Unit test for the internal representation of <code>Path</code>.
+
+    <p>
+    Checks that paths built in different ways are equal and hash alike, that
+    <code>parent</code> and <code>ancestor</code> return shared prefixes rather
+    than copies, and that the serialized form is still the component list used
+    by earlier versions of the class.
+ */
+public class PathRepresentationTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking path representation and serialized form";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Path    parsed = new Path("/directory/subdirectory/file");
+        Path    built = new Path(new Path(new Path(new Path(), "directory"),
+                                          "subdirectory"), "file");
+
+        if(!parsed.equals(built) || !built.equals(parsed))
+            throw new TestFailed("equal paths compare unequal");
+
+        if(parsed.hashCode() != built.hashCode())
+            throw new TestFailed("equal paths have different hash codes");
+
+        if(parsed.equals(new Path("/directory/subdirectory/other")) ||
+           parsed.equals(new Path("/directory/file")) ||
+           new Path().equals(parsed) || parsed.equals("/directory"))
+        {
+            throw new TestFailed("unequal paths compare equal");
+        }
+
+        if(!new Path().equals(new Path("/")))
+            throw new TestFailed("root paths compare unequal");
+
+        if(parsed.depth() != 3 || new Path().depth() != 0)
+            throw new TestFailed("incorrect path depth");
+
+        // The parent must be the prefix the path was built from.
+        Path    child = new Path(parsed, "child");
+
+        if(child.parent() != parsed || child.ancestor(3) != parsed ||
+           child.ancestor(4) != child)
+        {
+            throw new TestFailed("parent is not the shared prefix");
+        }
+
+        if(!child.ancestor(1).equals(new Path("/directory")))
+            throw new TestFailed("incorrect ancestor");
+
+        // Components of separately built paths must be the same strings.
+        if(new Path("/" + new String("shared")).last() !=
+           new Path(new Path(), new String("shared")).last())
+        {
+            throw new TestFailed("path components are not interned");
+        }
+
+        checkSerializedForm();
+
+        Path    copy = roundTrip(child);
+
+        if(!copy.equals(child) || copy.hashCode() != child.hashCode() ||
+           !copy.toString().equals("/directory/subdirectory/file/child"))
+        {
+            throw new TestFailed("path changed after serialization");
+        }
+
+        if(!copy.parent().equals(parsed) || !copy.isSubpath(built))
+            throw new TestFailed("deserialized path has incorrect prefixes");
+
+        if(!roundTrip(new Path()).isRoot())
+            throw new TestFailed("root path changed after serialization");
+    }
+
+    /** Checks that the serialized form consists of the single
+        <code>filePath</code> field of earlier versions.
+
+        @throws TestFailed If the serialized form has changed.
+     */
+    private void checkSerializedForm() throws TestFailed
+    {
+        ObjectStreamClass   descriptor = ObjectStreamClass.lookup(Path.class);
+        ObjectStreamField[] fields = descriptor.getFields();
+
+        if(descriptor.getSerialVersionUID() != 6641292594239992029L)
+            throw new TestFailed("serial version UID has changed");
+
+        if(fields.length != 1 || !fields[0].getName().equals("filePath") ||
+           fields[0].getType() != ArrayList.class)
+        {
+            throw new TestFailed("serialized fields have changed");
+        }
+    }
+
+    /** Serializes and deserializes a path.
+
+        @param path The path.
+        @return The deserialized copy.
+        @throws TestFailed If serialization fails.
+     */
+    private Path roundTrip(Path path) throws TestFailed
+    {
+        try
+        {
+            ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+            ObjectOutputStream      output = new ObjectOutputStream(bytes);
+
+            output.writeObject(path);
+            output.close();
+
+            ObjectInputStream       input = new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+
+            return (Path)input.readObject();
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("unable to serialize path", e);
+        }
+    }
+}
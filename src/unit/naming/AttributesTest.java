@@ -0,0 +1,197 @@
+package naming;
+
+import java.util.*;
+
+import common.*;
+import storage.*;
+import test.*;
+
+/** Unit test for file attributes.
+
+    <p>
+    For each namespace implementation, records the attributes of a file, and
+    checks that they are listed with the directory, that reports from storage
+    servers other than its locations are ignored, and that the attributes
+    follow the file when it is renamed.
+
+    <p>
+    Then starts a naming server, without its skeletons, and a storage server
+    that registers with it a file written earlier. Checks that the size of the
+    registered file, and the sizes and modification times of files written
+    through the storage server, are listed by the naming server, a page at a
+    time.
+ */
+public class AttributesTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking file attributes";
+
+    private NamingServer        naming;
+    private TemporaryDirectory  directory;
+    private StorageServer       server;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            checkNamespace(new TreeNamespace(), "tree");
+            checkNamespace(new CompactNamespace(), "compact");
+            checkServer();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks attributes on a namespace. */
+    private void checkNamespace(Namespace namespace, String kind)
+        throws Exception
+    {
+        Path                file = new Path("/a/file");
+
+        namespace.register(file, 3);
+        namespace.addLocation(file, 5);
+        namespace.createDirectory(new Path("/a/directory"));
+
+        if(!namespace.setAttributes(file, 5, 1000, 2000) ||
+           !namespace.setAttributes(file, 3, 1500, -1))
+        {
+            throw new TestFailed("attributes refused in " + kind +
+                                 " namespace");
+        }
+
+        if(namespace.setAttributes(file, 4, 1, 1) ||
+           namespace.setAttributes(new Path("/a/directory"), 3, 1, 1) ||
+           namespace.setAttributes(new Path("/a/absent"), 3, 1, 1))
+        {
+            throw new TestFailed("attributes recorded for other storage " +
+                                 "server or object in " + kind + " namespace");
+        }
+
+        Attributes[]        listed =
+            namespace.attributes(new Path("/a"), null, 10);
+
+        if(listed.length != 2 || !listed[0].name().equals("directory") ||
+           !listed[0].isDirectory() || listed[0].primary() != -1)
+        {
+            throw new TestFailed("directory listed incorrectly in " + kind +
+                                 " namespace");
+        }
+
+        check(listed[1], "file", 1500, 2000, 2, 3, kind);
+
+        if(namespace.attributes(new Path("/a"), "directory", 10).length != 1)
+            throw new TestFailed("attributes listed from incorrect entry in " +
+                                 kind + " namespace");
+
+        namespace.rename(new Path("/a"), new Path("/b"));
+        check(namespace.attributes(new Path("/b"), "directory", 1)[0],
+              "file", 1500, 2000, 2, 3, kind + " renamed");
+    }
+
+    /** Checks the attributes of a file. */
+    private void check(Attributes attributes, String name, long size,
+                       long modified, int replicas, int primary, String kind)
+        throws TestFailed
+    {
+        if(!attributes.name().equals(name) || attributes.isDirectory() ||
+           attributes.size() != size || attributes.modified() != modified ||
+           attributes.replicas() != replicas ||
+           attributes.primary() != primary)
+        {
+            throw new TestFailed("incorrect attributes of " + name + " in " +
+                                 kind + " namespace");
+        }
+    }
+
+    /** Checks attributes reported by a storage server. */
+    private void checkServer() throws Exception
+    {
+        Path                parent = new Path("/directory");
+        Path                registered = new Path(parent, "registered");
+        Path                written = new Path(parent, "written");
+        Path                session = new Path(parent, "session");
+
+        // The registered file is written before the storage server that
+        // registers it is created, so that its modification time is not
+        // known.
+        naming = new NamingServer();
+        directory = new TemporaryDirectory();
+        server = new StorageServer(directory.root());
+        server.create(registered);
+        server.write(registered, 0, new byte[300]);
+        server.stop();
+        server = new StorageServer(directory.root());
+        server.start("127.0.0.1", naming);
+
+        long                before = System.currentTimeMillis();
+
+        naming.createFile(written);
+        naming.getStorage(written).write(written, 0, new byte[1000]);
+        naming.getStorage(written).write(written, 1000, new byte[24]);
+        naming.createFile(session);
+
+        Storage             storage = naming.getStorage(session);
+        long                id = storage.openSession(session, true);
+
+        storage.writeSession(id, 0, new byte[5000]);
+        storage.closeSession(id);
+
+        long                deadline = System.currentTimeMillis() + 2000;
+        Attributes[]        listed;
+
+        while(true)
+        {
+            // List a page at a time, to check that attributes are kept
+            // across pages.
+            Listing         first = naming.listAttributes(parent, null, 2);
+            Listing         second =
+                naming.listAttributes(parent, first.token(), 2);
+
+            listed = new Attributes[] {first.attributes()[0],
+                                       first.attributes()[1],
+                                       second.attributes()[0]};
+
+            if(second.token() == null && listed[0].size() == 300 &&
+               listed[1].size() == 5000 && listed[2].size() == 1024)
+            {
+                break;
+            }
+
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("sizes of files not reported");
+
+            Thread.sleep(10);
+        }
+
+        if(!Arrays.equals(naming.listAttributes(parent, null, 2).names(),
+                          new String[] {"registered", "session"}))
+        {
+            throw new TestFailed("incorrect names listed with attributes");
+        }
+
+        if(listed[0].modified() != 0 || listed[1].modified() < before ||
+           listed[2].modified() < before || listed[2].replicas() != 1)
+        {
+            throw new TestFailed("incorrect modification times reported");
+        }
+    }
+
+    /** Stops the storage server and removes the temporary directory. */
+    @Override
+    protected void clean()
+    {
+        if(server != null)
+            server.stop();
+
+        if(directory != null)
+            directory.remove();
+    }
+}
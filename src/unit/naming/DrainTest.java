@@ -0,0 +1,157 @@
+package naming;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import common.*;
+import storage.*;
+import test.*;
+
+/** Unit test for storage server draining.
+
+    <p>
+    Starts a naming server, without its skeletons, and two storage servers
+    that register with it directly. The first storage server holds two files
+    initially. Checks that when the first storage server drains, its files are
+    moved to the second one, that it is given no new files in the meantime,
+    and that it deregisters and stops once drained.
+ */
+public class DrainTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking storage server draining";
+
+    private NamingServer        naming;
+    private TemporaryDirectory[] directories = new TemporaryDirectory[2];
+    private StorageServer[]     servers = new StorageServer[2];
+    private String              interval;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Path[]              files = {new Path("/directory/file"),
+                                     new Path("/other")};
+        byte[]              contents = new byte[100000];
+
+        new Random(5).nextBytes(contents);
+
+        try
+        {
+            naming = new NamingServer();
+            naming.heartbeatTimeout = 300;
+            naming.startMonitoring();
+
+            interval = System.setProperty("storage.heartbeat.interval", "50");
+
+            for(int index = 0; index < servers.length; ++index)
+            {
+                directories[index] = new TemporaryDirectory();
+                servers[index] = new StorageServer(directories[index].root());
+            }
+
+            for(Path file : files)
+            {
+                File        local = file.toFile(directories[0].root());
+
+                local.getParentFile().mkdirs();
+                Files.write(local.toPath(), contents);
+            }
+
+            servers[0].start("127.0.0.1", naming);
+            servers[1].start("127.0.0.1", naming);
+
+            if(naming.isDrained(naming.command(0)))
+                throw new TestFailed("live storage server reported drained");
+
+            if(!servers[0].drain(2000))
+                throw new TestFailed("storage server not drained in time");
+
+            for(Path file : files)
+            {
+                int[]       locations = naming.namespace.locations(file);
+
+                if(locations.length != 1 || locations[0] != 1)
+                {
+                    throw new TestFailed("file " + file + " not moved off " +
+                                         "the drained storage server: " +
+                                         "locations " +
+                                         Arrays.toString(locations));
+                }
+
+                Storage     stub = naming.getStorage(file);
+
+                if(stub.size(file) != contents.length ||
+                   !Arrays.equals(stub.read(file, 0, contents.length),
+                                  contents))
+                {
+                    throw new TestFailed("moved file " + file + " has " +
+                                         "incorrect contents");
+                }
+            }
+
+            if(naming.namespace.count(0) != 0 || naming.namespace.count(1) != 2)
+                throw new TestFailed("incorrect file counts after draining");
+
+            if(naming.liveStorage().length != 1 || naming.isAvailable(0))
+                throw new TestFailed("drained storage server still available");
+
+            // New files can only go to the remaining storage server.
+            for(int index = 0; index < 8; ++index)
+            {
+                Path        file = new Path("/new" + index);
+
+                naming.createFile(file);
+
+                if(naming.namespace.locations(file)[0] != 1)
+                {
+                    throw new TestFailed("file created on drained storage " +
+                                         "server");
+                }
+            }
+
+            // The drained storage server must register again to rejoin.
+            try
+            {
+                naming.heartbeat(naming.command(0), 0, 0);
+                throw new TestFailed("heartbeat accepted from deregistered " +
+                                     "storage server");
+            }
+            catch(IllegalStateException e) { }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Stops the servers and removes the temporary directories. */
+    @Override
+    protected void clean()
+    {
+        for(StorageServer server : servers)
+        {
+            if(server != null)
+                server.stop();
+        }
+
+        if(naming != null)
+            naming.stopMonitoring();
+
+        for(TemporaryDirectory directory : directories)
+        {
+            if(directory != null)
+                directory.remove();
+        }
+
+        if(interval == null)
+            System.clearProperty("storage.heartbeat.interval");
+        else
+            System.setProperty("storage.heartbeat.interval", interval);
+    }
+}
@@ -0,0 +1,280 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import common.*;
+import test.*;
+
+/** Unit test for the namespace implementations.
+
+    <p>
+    Applies the same random sequence of operations to a
+    <code>TreeNamespace</code> and a <code>CompactNamespace</code>, and checks
+    that every operation has the same outcome on both, and that both list the
+    files of a storage server in the same order, a page at a time. Also
+    checks that the compact namespace compacts its name table after many
+    deletions.
+ */
+public class NamespaceTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking namespace implementations";
+
+    /** Number of random operations applied. */
+    private static final int    OPERATIONS = 40000;
+    /** Number of files listed in each page. */
+    private static final int    PAGE = 64;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Namespace           tree = new TreeNamespace();
+        CompactNamespace    compact = new CompactNamespace();
+        Random              random = new Random(7);
+        List<Path>          paths = new ArrayList<Path>();
+
+        paths.add(new Path());
+
+        for(int step = 0; step < OPERATIONS; ++step)
+        {
+            Path            existing = paths.get(random.nextInt(paths.size()));
+            Path            path = existing;
+            int             choice = random.nextInt(10);
+
+            // Most operations name a new entry in a known directory, with a
+            // long name so that deleted names take up a lot of space.
+            if(choice < 7)
+            {
+                path = new Path(existing, name(random));
+                paths.add(path);
+            }
+
+            String          operation;
+            String          expected;
+            String          actual;
+
+            switch(choice)
+            {
+            case 0:
+            case 1:
+                operation = "createDirectory";
+                expected = outcome(tree, operation, path, 0);
+                actual = outcome(compact, operation, path, 0);
+                break;
+            case 2:
+            case 3:
+                operation = "createFile";
+                expected = outcome(tree, operation, path, step % 5);
+                actual = outcome(compact, operation, path, step % 5);
+                break;
+            case 4:
+            case 5:
+            case 6:
+                operation = "register";
+                path = new Path(path, name(random));
+                paths.add(path);
+                expected = outcome(tree, operation, path, step % 5);
+                actual = outcome(compact, operation, path, step % 5);
+                break;
+            case 7:
+                operation = "delete";
+                expected = outcome(tree, operation, path, 0);
+                actual = outcome(compact, operation, path, 0);
+                break;
+            case 8:
+                operation = "list";
+                expected = outcome(tree, operation, path, 0);
+                actual = outcome(compact, operation, path, 0);
+                break;
+            default:
+                operation = "lookup";
+                expected = outcome(tree, operation, path, 0);
+                actual = outcome(compact, operation, path, 0);
+                break;
+            }
+
+            if(!expected.equals(actual))
+            {
+                throw new TestFailed(operation + " " + path + " returned " +
+                                     actual + " on the compact namespace, " +
+                                     "but " + expected + " on the tree " +
+                                     "namespace");
+            }
+
+            if(tree.size() != compact.size())
+            {
+                throw new TestFailed("namespaces have different sizes after " +
+                                     operation + " " + path);
+            }
+
+            for(int storage = 0; storage < 5; ++storage)
+            {
+                if(tree.count(storage) != compact.count(storage))
+                {
+                    throw new TestFailed("namespaces have different file " +
+                                         "counts for storage server " +
+                                         storage + " after " + operation +
+                                         " " + path);
+                }
+            }
+        }
+
+        if(tree.size() == 0)
+            throw new TestFailed("random operations left namespaces empty");
+
+        for(int storage = 0; storage < 5; ++storage)
+        {
+            if(tree.count(storage) != tree.files(storage).length)
+            {
+                throw new TestFailed("file count for storage server " +
+                                     storage + " does not match the files " +
+                                     "listed");
+            }
+        }
+
+        checkPages(tree, compact, 0);
+
+        checkCompaction();
+    }
+
+    /** Lists the files of a storage server a page at a time on both
+        namespaces, and checks that the pages agree and cover every file once.
+
+        @throws TestFailed If the pages differ, or do not cover the files.
+     */
+    private void checkPages(Namespace tree, Namespace compact, int storage)
+        throws TestFailed
+    {
+        Set<Path>           listed = new HashSet<Path>();
+        Path                after = null;
+
+        while(true)
+        {
+            Path[]          expected = tree.files(storage, after, PAGE);
+            Path[]          actual = compact.files(storage, after, PAGE);
+
+            if(!Arrays.equals(expected, actual))
+            {
+                throw new TestFailed("namespaces list different pages of " +
+                                     "files of storage server " + storage +
+                                     " after " + after);
+            }
+
+            for(Path file : expected)
+            {
+                if(!listed.add(file))
+                    throw new TestFailed(file + " listed twice");
+            }
+
+            if(expected.length < PAGE)
+                break;
+
+            after = expected[expected.length - 1];
+        }
+
+        if(!listed.equals(new HashSet<Path>(Arrays.asList(
+                tree.files(storage)))))
+        {
+            throw new TestFailed("pages do not cover the files of storage " +
+                                 "server " + storage);
+        }
+    }
+
+    /** Checks that the compact namespace releases the space of deleted names.
+
+        @throws TestFailed If the test fails.
+     */
+    private void checkCompaction() throws TestFailed
+    {
+        CompactNamespace    namespace = new CompactNamespace();
+        StringBuilder       prefix = new StringBuilder();
+        Path                root = new Path();
+
+        for(int index = 0; index < 200; ++index)
+            prefix.append('x');
+
+        try
+        {
+            for(int index = 0; index < 20000; ++index)
+                namespace.createFile(new Path(root, prefix + "" + index), 0);
+
+            long            allocated = namespace.offHeapBytes();
+
+            for(int index = 1; index < 20000; ++index)
+                namespace.delete(new Path(root, prefix + "" + index));
+
+            if(namespace.offHeapBytes() >= allocated)
+                throw new TestFailed("name table not compacted after deletion");
+
+            if(namespace.lookup(new Path(root, prefix + "0")) != 0 ||
+               namespace.list(root).length != 1)
+            {
+                throw new TestFailed("remaining entry lost by compaction");
+            }
+        }
+        catch(FileNotFoundException e)
+        {
+            throw new TestFailed("unexpected exception", e);
+        }
+    }
+
+    /** Returns a random entry name. */
+    private String name(Random random)
+    {
+        StringBuilder       name = new StringBuilder("entry-");
+
+        name.append(random.nextInt(8));
+
+        for(int index = random.nextInt(200); index > 0; --index)
+            name.append((char)('a' + random.nextInt(26)));
+
+        return name.toString();
+    }
+
+    /** Applies an operation to a namespace, and describes its outcome. */
+    private String outcome(Namespace namespace, String operation, Path path,
+                           int storage) throws TestFailed
+    {
+        try
+        {
+            if(operation.equals("createDirectory"))
+                return String.valueOf(namespace.createDirectory(path));
+            if(operation.equals("createFile"))
+                return String.valueOf(namespace.createFile(path, storage));
+            if(operation.equals("register"))
+                return String.valueOf(namespace.register(path, storage));
+            if(operation.equals("lookup"))
+                return String.valueOf(namespace.lookup(path));
+
+            if(operation.equals("list"))
+            {
+                String[]    list = namespace.list(path);
+
+                Arrays.sort(list);
+                return Arrays.toString(list);
+            }
+
+            if(path.isRoot())
+                return "root";
+
+            return Arrays.toString(namespace.delete(path));
+        }
+        catch(FileNotFoundException e)
+        {
+            return "FileNotFoundException";
+        }
+        catch(IllegalArgumentException e)
+        {
+            return "IllegalArgumentException";
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed(operation + " " + path + " failed", t);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import common.*;
+import test.*;
+
+/** Unit test for listing directories a page at a time.
+
+    <p>
+    For each namespace implementation, creates a large directory through a
+    naming server, with names that order differently by code point and by
+    <code>String.compareTo</code>. Lists it a page at a time, creating and
+    deleting entries between pages, and checks that the entries that exist
+    throughout are listed exactly once, in code point order, and that pages
+    are no larger than requested or than the largest page allowed.
+ */
+public class PagingTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking paged directory listing";
+
+    /** Number of entries in the directory. */
+    private static final int    ENTRIES = 10000;
+    /** Number of entries requested per page. */
+    private static final int    LIMIT = 333;
+
+    private String              saved;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            saved = System.getProperty("naming.namespace");
+
+            for(String kind : new String[] {"tree", "compact"})
+            {
+                System.setProperty("naming.namespace", kind);
+                check(new NamingServer(), kind);
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks paged listing on a naming server. */
+    private void check(NamingServer naming, String kind) throws Exception
+    {
+        Path                directory = new Path("/directory");
+        Random              random = new Random(48);
+        TreeSet<String>     kept = new TreeSet<String>(new Comparator<String>() {
+                @Override
+                public int compare(String first, String second)
+                {
+                    return PathNode.compare(first, second);
+                }
+            });
+
+        naming.createDirectory(directory);
+
+        for(int index = 0; index < ENTRIES; ++index)
+        {
+            // Some names hold a character beyond the first 65536, which
+            // orders after U+FFFD by code point but not by compareTo.
+            String          name = "entry" + random.nextInt(1 << 20) +
+                                   (index % 3 == 0 ? "\uD83D\uDE00" :
+                                    index % 3 == 1 ? "\uFFFD" : "");
+
+            if(naming.createDirectory(new Path(directory, name)))
+                kept.add(name);
+        }
+
+        ArrayList<String>   listed = new ArrayList<String>();
+        String              token = null;
+        int                 pages = 0;
+
+        do
+        {
+            Listing         page = naming.list(directory, token, LIMIT);
+
+            if(page.names().length > LIMIT)
+                throw new TestFailed("page larger than requested with " + kind);
+
+            listed.addAll(Arrays.asList(page.names()));
+            token = page.token();
+            ++pages;
+
+            // Entries created and deleted between pages may or may not be
+            // listed, but do not disturb the others.
+            String          added = "added" + pages;
+
+            naming.createDirectory(new Path(directory, added));
+            naming.delete(new Path(directory, added));
+            naming.createDirectory(new Path(directory, "temporary" + pages));
+        }
+        while(token != null);
+
+        Iterator<String>    names = listed.iterator();
+
+        while(names.hasNext())
+        {
+            String          name = names.next();
+
+            if(name.startsWith("temporary") || name.startsWith("added"))
+                names.remove();
+        }
+
+        if(!listed.equals(new ArrayList<String>(kept)))
+        {
+            throw new TestFailed("directory listed incorrectly in pages " +
+                                 "with " + kind);
+        }
+
+        if(naming.list(directory, null, Integer.MAX_VALUE).names().length !=
+           Service.MAXIMUM_PAGE)
+        {
+            throw new TestFailed("page larger than the largest allowed " +
+                                 "with " + kind);
+        }
+
+        if(naming.list(new Path("/"), null, 10).token() != null)
+            throw new TestFailed("token returned with last page with " + kind);
+
+        try
+        {
+            naming.list(directory, null, 0);
+            throw new TestFailed("empty page requested");
+        }
+        catch(IllegalArgumentException e) { }
+
+        try
+        {
+            naming.list(new Path("/absent"), null, 10);
+            throw new TestFailed("missing directory listed");
+        }
+        catch(FileNotFoundException e) { }
+    }
+
+    /** Restores the property. */
+    @Override
+    protected void clean()
+    {
+        if(saved == null)
+            System.clearProperty("naming.namespace");
+        else
+            System.setProperty("naming.namespace", saved);
+    }
+}
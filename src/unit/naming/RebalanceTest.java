@@ -0,0 +1,256 @@
+package naming;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import common.*;
+import storage.*;
+import test.*;
+
+/** Unit test for the rebalancer.
+
+    <p>
+    Starts a naming server, without its skeletons or rebalancing thread, and
+    two storage servers of equal capacity that register with it directly. The
+    first storage server holds all the files initially. Checks that a dry run
+    plans moves without making them, and that a rebalancing round then moves
+    files to the second storage server until both are equally full. Finally,
+    checks that a move is abandoned if its source is written during the copy.
+ */
+public class RebalanceTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking rebalancing of files";
+
+    /** Capacity reported by each storage server. */
+    private static final long   CAPACITY = 1000000;
+    /** Number of files, all initially on the first storage server. */
+    private static final int    FILES = 6;
+    /** Size of each file. */
+    private static final int    SIZE = 100000;
+
+    private WritingNamingServer naming;
+    private TemporaryDirectory[] directories = new TemporaryDirectory[2];
+    private StorageServer[]     servers = new StorageServer[2];
+    private String              interval;
+    private String              capacity;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Path[]              files = new Path[FILES];
+        byte[]              contents = new byte[SIZE];
+
+        new Random(11).nextBytes(contents);
+        // Differs from the byte written to the source during a copy.
+        contents[0] = 0;
+
+        try
+        {
+            naming = new WritingNamingServer();
+            naming.rebalancer.interval = 0;
+            naming.startMonitoring();
+
+            interval = System.setProperty("storage.heartbeat.interval", "50");
+            capacity = System.setProperty("storage.capacity",
+                                          String.valueOf(CAPACITY));
+
+            for(int index = 0; index < servers.length; ++index)
+            {
+                directories[index] = new TemporaryDirectory();
+                servers[index] = new StorageServer(directories[index].root());
+            }
+
+            for(int index = 0; index < FILES; ++index)
+            {
+                files[index] = new Path("/directory/file" + index);
+
+                File        local = files[index].toFile(directories[0].root());
+
+                local.getParentFile().mkdirs();
+                Files.write(local.toPath(), contents);
+            }
+
+            servers[0].start("127.0.0.1", naming);
+            servers[1].start("127.0.0.1", naming);
+
+            awaitReports();
+
+            // A dry run plans moves but leaves the files in place.
+            naming.rebalancer.dryRun = true;
+
+            List<Rebalancer.Move>   plan = naming.rebalancer.rebalance();
+
+            if(plan.size() != FILES / 2)
+            {
+                throw new TestFailed("dry run planned " + plan.size() +
+                                     " moves instead of " + FILES / 2);
+            }
+
+            if(naming.namespace.count(0) != FILES ||
+               naming.rebalancer.moves() != 0)
+            {
+                throw new TestFailed("dry run moved files");
+            }
+
+            naming.rebalancer.dryRun = false;
+            naming.rebalancer.rebalance();
+
+            if(naming.namespace.count(0) != FILES / 2 ||
+               naming.namespace.count(1) != FILES / 2 ||
+               naming.rebalancer.moves() != FILES / 2)
+            {
+                throw new TestFailed("storage servers not balanced: " +
+                                     naming.namespace.count(0) + " and " +
+                                     naming.namespace.count(1) + " files");
+            }
+
+            for(Path file : files)
+            {
+                int[]       locations = naming.namespace.locations(file);
+                Storage     stub = naming.getStorage(file);
+
+                if(locations.length != 1)
+                    throw new TestFailed("moved file has several locations");
+
+                if(!Arrays.equals(stub.read(file, 0, SIZE), contents))
+                    throw new TestFailed("file " + file + " has incorrect " +
+                                         "contents after rebalancing");
+
+                // The copy on the source must be gone.
+                boolean     local = file.toFile(directories[0].root()).exists();
+
+                if(local != (locations[0] == 0))
+                {
+                    throw new TestFailed("file " + file + " not deleted " +
+                                         "from the source storage server");
+                }
+            }
+
+            if(!naming.rebalancer.plan().isEmpty())
+                throw new TestFailed("balanced storage servers still " +
+                                     "rebalanced");
+
+            checkWrittenDuringCopy(files);
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks that a move is abandoned if the source is written during the
+        copy. */
+    private void checkWrittenDuringCopy(Path[] files) throws Exception
+    {
+        Path                file = null;
+
+        for(Path candidate : files)
+        {
+            if(naming.namespace.locations(candidate)[0] == 0)
+                file = candidate;
+        }
+
+        naming.written = file;
+
+        if(naming.move(file, 0, 1, Long.MAX_VALUE))
+            throw new TestFailed("move made although the source was written");
+
+        if(!Arrays.equals(naming.namespace.locations(file), new int[] {0}) ||
+           file.toFile(directories[1].root()).exists())
+        {
+            throw new TestFailed("abandoned move left the file on the " +
+                                 "target storage server");
+        }
+
+        Storage             stub = naming.getStorage(file);
+
+        if(stub.read(file, 0, 1)[0] != WritingNamingServer.BYTE)
+            throw new TestFailed("write to the source lost");
+    }
+
+    /** Naming server which writes to the source of a copy once the copy is
+        made, as a client would. */
+    private static class WritingNamingServer extends NamingServer
+    {
+        /** Byte written at the start of the file. */
+        static final byte   BYTE = 42;
+
+        /** File written after its copy, or <code>null</code>. */
+        volatile Path       written;
+
+        @Override
+        long copy(Path file, int source, int target, long bandwidth)
+            throws IOException, rmi.RMIException
+        {
+            long            size = super.copy(file, source, target, bandwidth);
+
+            if(file.equals(written))
+                storage(source).write(file, 0, new byte[] {BYTE});
+
+            return size;
+        }
+    }
+
+    /** Waits until both storage servers have reported their capacity, and the
+        first the space used by its files. */
+    private void awaitReports() throws Exception
+    {
+        long                deadline = System.currentTimeMillis() + 10000;
+
+        while(System.currentTimeMillis() < deadline)
+        {
+            synchronized(naming)
+            {
+                if(naming.capacity[0] == CAPACITY &&
+                   naming.capacity[1] == CAPACITY &&
+                   naming.used[0] == (long)FILES * SIZE)
+                {
+                    return;
+                }
+            }
+
+            Thread.sleep(20);
+        }
+
+        throw new TestFailed("storage servers did not report their usage");
+    }
+
+    /** Stops the servers and removes the temporary directories. */
+    @Override
+    protected void clean()
+    {
+        for(StorageServer server : servers)
+        {
+            if(server != null)
+                server.stop();
+        }
+
+        if(naming != null)
+            naming.stopMonitoring();
+
+        for(TemporaryDirectory directory : directories)
+        {
+            if(directory != null)
+                directory.remove();
+        }
+
+        restore("storage.heartbeat.interval", interval);
+        restore("storage.capacity", capacity);
+    }
+
+    /** Restores the previous value of a system property. */
+    private static void restore(String property, String value)
+    {
+        if(value == null)
+            System.clearProperty(property);
+        else
+            System.setProperty(property, value);
+    }
+}
@@ -0,0 +1,237 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import common.*;
+import storage.*;
+import test.*;
+
+/** Unit test for renaming through the naming server.
+
+    <p>
+    For each namespace implementation, renames a file and a directory, and
+    checks that they are found only at their new paths, with their locations
+    and counts unchanged, and that renames onto an existing object are
+    refused.
+
+    <p>
+    Then starts a naming server, without its skeletons, and a storage server
+    that registers with it. Renames a directory holding a file, and checks
+    that the file is read at its new path, and that invalid renames are
+    refused.
+
+    <p>
+    Finally registers a second storage server directly, without stubs, and
+    renames a directory while it is considered failed. Checks that the rename
+    is kept for it, that its files are registered at their new paths when it
+    registers again, and that the rename is made on it at its next heartbeat.
+ */
+public class RenameTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking renaming";
+
+    private NamingServer        naming;
+    private TemporaryDirectory  directory;
+    private StorageServer       server;
+    private TemporaryDirectory  away_directory;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            checkNamespace(new TreeNamespace(), "tree");
+            checkNamespace(new CompactNamespace(), "compact");
+            checkServer();
+            checkPending();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks renaming on a namespace. */
+    private void checkNamespace(Namespace namespace, String kind)
+        throws Exception
+    {
+        Path                file = new Path("/a/b/file");
+        Path                other = new Path("/a/other");
+
+        namespace.register(file, 0);
+        namespace.addLocation(file, 1);
+        namespace.register(other, 2);
+        namespace.createDirectory(new Path("/c"));
+
+        long                size = namespace.size();
+
+        // Rename a file within its directory, then a directory elsewhere.
+        if(!Arrays.equals(namespace.rename(file, new Path("/a/b/z")),
+                          new int[] {0, 1}))
+        {
+            throw new TestFailed("incorrect storage servers of renamed file " +
+                                 "in " + kind + " namespace");
+        }
+
+        if(!Arrays.equals(namespace.rename(new Path("/a"), new Path("/c/d")),
+                          new int[] {0, 1, 2}))
+        {
+            throw new TestFailed("incorrect storage servers of renamed " +
+                                 "directory in " + kind + " namespace");
+        }
+
+        if(!Arrays.equals(namespace.locations(new Path("/c/d/b/z")),
+                          new int[] {0, 1}) ||
+           !Arrays.equals(namespace.list(new Path("/")), new String[] {"c"}) ||
+           namespace.size() != size || namespace.count(1) != 1 ||
+           !Arrays.equals(namespace.files(2),
+                          new Path[] {new Path("/c/d/other")}))
+        {
+            throw new TestFailed("objects renamed incorrectly in " + kind +
+                                 " namespace");
+        }
+
+        try
+        {
+            namespace.lookup(file);
+            throw new TestFailed("renamed file found at old path in " + kind +
+                                 " namespace");
+        }
+        catch(FileNotFoundException e) { }
+
+        if(namespace.rename(new Path("/c/d/other"), new Path("/c/d/b")) != null)
+            throw new TestFailed("rename onto existing directory succeeded " +
+                                 "in " + kind + " namespace");
+    }
+
+    /** Checks renaming through a naming server and its storage server. */
+    private void checkServer() throws Exception
+    {
+        naming = new NamingServer();
+        directory = new TemporaryDirectory();
+        server = new StorageServer(directory.root());
+        server.start("127.0.0.1", naming);
+
+        Path                parent = new Path("/directory");
+        Path                file = new Path(parent, "file");
+        Path                moved = new Path("/moved/file");
+        byte[]              contents = new byte[1000];
+
+        new Random(47).nextBytes(contents);
+
+        naming.createDirectory(parent);
+        naming.createFile(file);
+        naming.getStorage(file).write(file, 0, contents);
+
+        if(!naming.rename(parent, new Path("/moved")))
+            throw new TestFailed("unable to rename directory");
+
+        if(!Arrays.equals(naming.getStorage(moved).read(moved, 0, 1000),
+                          contents) ||
+           file.toFile(directory.root()).exists())
+        {
+            throw new TestFailed("file not renamed on storage server");
+        }
+
+        naming.createFile(new Path("/other"));
+
+        if(naming.rename(moved, new Path("/other")) ||
+           naming.rename(new Path("/moved"), new Path("/moved/inner")) ||
+           naming.rename(new Path("/"), new Path("/root")))
+        {
+            throw new TestFailed("invalid rename succeeded");
+        }
+
+        try
+        {
+            naming.rename(moved, new Path("/absent/file"));
+            throw new TestFailed("rename into missing directory succeeded");
+        }
+        catch(FileNotFoundException e) { }
+    }
+
+    /** Checks that a rename missed by an unavailable storage server is
+        made when it returns. */
+    private void checkPending() throws Exception
+    {
+        away_directory = new TemporaryDirectory();
+
+        StorageServer       away = new StorageServer(away_directory.root());
+        Path                file = new Path("/pending/file");
+        Path                moved = new Path("/renamed/file");
+        byte[]              contents = new byte[100];
+
+        new Random(53).nextBytes(contents);
+
+        naming.register(away, away, new Path[0]);
+
+        int                 id = naming.commandIds.get(away);
+
+        away.create(file);
+        away.write(file, 0, contents);
+        naming.namespace.register(file, id);
+
+        synchronized(naming)
+        {
+            naming.states[id] = NamingServer.FAILED;
+        }
+
+        if(!naming.rename(new Path("/pending"), new Path("/renamed")))
+            throw new TestFailed("unable to rename directory of failed server");
+
+        if(naming.unrenamed.get(id) == null ||
+           !file.toFile(away_directory.root()).exists())
+        {
+            throw new TestFailed("rename not kept for failed storage server");
+        }
+
+        // The storage server registers again with the file at its old path.
+        Path[]              duplicates =
+            naming.register(away, away, new Path[] {file});
+
+        if(duplicates.length != 0 ||
+           !Arrays.equals(naming.namespace.locations(moved), new int[] {id}))
+        {
+            throw new TestFailed("file of returning storage server not " +
+                                 "registered at its new path");
+        }
+
+        try
+        {
+            naming.namespace.lookup(file);
+            throw new TestFailed("file of returning storage server " +
+                                 "registered at its old path");
+        }
+        catch(FileNotFoundException e) { }
+
+        naming.heartbeat(away, 0, 0);
+
+        if(naming.unrenamed.containsKey(id) ||
+           file.toFile(away_directory.root()).exists() ||
+           !Arrays.equals(away.read(moved, 0, contents.length), contents))
+        {
+            throw new TestFailed("rename not made at heartbeat");
+        }
+    }
+
+    /** Stops the storage server and removes the temporary directories. */
+    @Override
+    protected void clean()
+    {
+        if(server != null)
+            server.stop();
+
+        if(directory != null)
+            directory.remove();
+
+        if(away_directory != null)
+            away_directory.remove();
+    }
+}
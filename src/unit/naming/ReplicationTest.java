@@ -0,0 +1,246 @@
+package naming;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import common.*;
+import storage.*;
+import test.*;
+
+/** Unit test for failure detection and re-replication.
+
+    <p>
+    Starts a naming server, without its skeletons, keeping two copies of each
+    file, and three storage servers that register with it directly and send
+    heartbeats frequently. Checks that a file registered by one storage server
+    is copied to a second one, and that when one of the storage servers
+    hosting the file stops, the naming server considers it failed and copies
+    the file to the third storage server. Finally, writes to the file through
+    the stub given by the naming server, and checks that its other copy stays
+    a location and is brought up to date with the new contents.
+ */
+public class ReplicationTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking failure detection and re-replication";
+
+    /** Contents of the replicated file: more than one copy chunk. */
+    private static final int    SIZE = StorageServer.COPY_CHUNK * 2 + 1000;
+
+    private NamingServer        naming;
+    private TemporaryDirectory[] directories = new TemporaryDirectory[3];
+    private StorageServer[]     servers = new StorageServer[3];
+    private String              interval;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Path                file = new Path("/directory/file");
+        byte[]              contents = new byte[SIZE];
+
+        new Random(3).nextBytes(contents);
+
+        try
+        {
+            naming = new NamingServer();
+            naming.heartbeatTimeout = 300;
+            naming.replication = 2;
+            naming.startMonitoring();
+
+            interval = System.setProperty("storage.heartbeat.interval", "50");
+
+            for(int index = 0; index < servers.length; ++index)
+            {
+                directories[index] = new TemporaryDirectory();
+                servers[index] = new StorageServer(directories[index].root());
+            }
+
+            // Only the first storage server holds the file initially.
+            File            local = file.toFile(directories[0].root());
+
+            local.getParentFile().mkdirs();
+            Files.write(local.toPath(), contents);
+
+            servers[0].start("127.0.0.1", naming);
+            servers[1].start("127.0.0.1", naming);
+
+            int[]           locations = await(file, 2, -1);
+
+            if(locations.length != 2)
+                throw new TestFailed("file not replicated to a second server");
+
+            check(file, locations[1], contents);
+
+            // Stop one of the storage servers hosting the file, then start
+            // the third, which must receive the new copy.
+            servers[2].start("127.0.0.1", naming);
+            servers[1].stop();
+
+            locations = await(file, 2, 1);
+
+            if(locations.length != 2 || contains(locations, 1) ||
+               !contains(locations, 2))
+            {
+                throw new TestFailed("file not re-replicated after failure: " +
+                                     "locations " +
+                                     Arrays.toString(locations));
+            }
+
+            check(file, 2, contents);
+
+            if(contains(naming.liveStorage(), 1))
+                throw new TestFailed("stopped storage server still live");
+
+            // The other copy is stale until it is brought up to date, but
+            // stays a location of the file.
+            byte[]          written = new byte[1000];
+
+            new Random(4).nextBytes(written);
+            System.arraycopy(written, 0, contents, 0, written.length);
+            naming.getStorage(file).write(file, 0, written);
+
+            if(!awaitContents(file, locations, contents))
+            {
+                throw new TestFailed("copy not brought up to date after the " +
+                                     "file was written");
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Waits until a file has the given number of locations, none of which is
+        the given excluded storage server.
+
+        @return The locations of the file when the condition is met, or after
+                ten seconds.
+     */
+    private int[] await(Path file, int count, int excluded) throws Exception
+    {
+        long                deadline = System.currentTimeMillis() + 10000;
+        int[]               locations = naming.namespace.locations(file);
+
+        while(System.currentTimeMillis() < deadline)
+        {
+            locations = naming.namespace.locations(file);
+
+            if(locations.length == count && !contains(locations, excluded))
+                break;
+
+            Thread.sleep(20);
+        }
+
+        return locations;
+    }
+
+    /** Waits until both locations of a file hold the given contents, and
+        neither is stale.
+
+        @return <code>true</code> if the condition is met within ten seconds.
+        @throws TestFailed If the locations of the file change.
+     */
+    private boolean awaitContents(Path file, int[] expected, byte[] contents)
+        throws Exception
+    {
+        long                deadline = System.currentTimeMillis() + 10000;
+
+        while(System.currentTimeMillis() < deadline)
+        {
+            int[]           locations = naming.namespace.locations(file);
+            boolean         current =
+                naming.stale(file, locations).length == 0;
+
+            if(!Arrays.equals(locations, expected))
+            {
+                throw new TestFailed("locations changed to " +
+                                     Arrays.toString(locations) +
+                                     " after the file was written");
+            }
+
+            for(int location : locations)
+                current = current && holds(location, file, contents);
+
+            if(current)
+                return true;
+
+            Thread.sleep(20);
+        }
+
+        return false;
+    }
+
+    /** Determines whether a storage server holds a file with the given
+        contents. A copy being brought up to date may hold neither. */
+    private boolean holds(int storage, Path file, byte[] contents)
+        throws Exception
+    {
+        try
+        {
+            return Arrays.equals(naming.storage(storage).read(file, 0,
+                                                              contents.length),
+                                 contents);
+        }
+        catch(IOException e) { return false; }
+        catch(IndexOutOfBoundsException e) { return false; }
+    }
+
+    /** Checks the contents of a file on a storage server. */
+    private void check(Path file, int storage, byte[] contents)
+        throws Exception
+    {
+        Storage             stub = naming.storage(storage);
+
+        if(stub.size(file) != contents.length ||
+           !Arrays.equals(stub.read(file, 0, contents.length), contents))
+        {
+            throw new TestFailed("replica on storage server " + storage +
+                                 " has incorrect contents");
+        }
+    }
+
+    /** Determines whether an array contains a value. */
+    private static boolean contains(int[] values, int value)
+    {
+        for(int element : values)
+        {
+            if(element == value)
+                return true;
+        }
+
+        return false;
+    }
+
+    /** Stops the servers and removes the temporary directories. */
+    @Override
+    protected void clean()
+    {
+        for(StorageServer server : servers)
+        {
+            if(server != null)
+                server.stop();
+        }
+
+        if(naming != null)
+            naming.stopMonitoring();
+
+        for(TemporaryDirectory directory : directories)
+        {
+            if(directory != null)
+                directory.remove();
+        }
+
+        if(interval == null)
+            System.clearProperty("storage.heartbeat.interval");
+        else
+            System.setProperty("storage.heartbeat.interval", interval);
+    }
+}
@@ -0,0 +1,153 @@
+package naming;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+import common.*;
+import storage.*;
+import test.*;
+
+/** Unit test for scrubbing and repair of corrupted files.
+
+    <p>
+    Starts a naming server, without its skeletons, keeping two copies of each
+    file, and two storage servers that register with it directly and scrub
+    their files frequently. Once a file has been replicated, corrupts the copy
+    on the second storage server's disk, and checks that the scrubber reports
+    it and that the naming server replaces it with a fresh copy.
+ */
+public class ScrubTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking scrubbing and repair of corrupted files";
+
+    private NamingServer        naming;
+    private TemporaryDirectory[] directories = new TemporaryDirectory[2];
+    private StorageServer[]     servers = new StorageServer[2];
+    private String[]            properties = {"storage.heartbeat.interval",
+                                              "storage.scrub.interval",
+                                              "storage.scrub.bandwidth"};
+    private String[]            saved = new String[properties.length];
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Path                file = new Path("/directory/file");
+        byte[]              contents = new byte[200000];
+
+        new Random(19).nextBytes(contents);
+
+        try
+        {
+            naming = new NamingServer();
+            naming.heartbeatTimeout = 300;
+            naming.replication = 2;
+            naming.startMonitoring();
+
+            String[]        values = {"50", "100", "0"};
+
+            for(int index = 0; index < properties.length; ++index)
+                saved[index] = System.setProperty(properties[index],
+                                                  values[index]);
+
+            for(int index = 0; index < servers.length; ++index)
+            {
+                directories[index] = new TemporaryDirectory();
+                servers[index] = new StorageServer(directories[index].root());
+            }
+
+            File            local = file.toFile(directories[0].root());
+
+            local.getParentFile().mkdirs();
+            Files.write(local.toPath(), contents);
+
+            servers[0].start("127.0.0.1", naming);
+            servers[1].start("127.0.0.1", naming);
+
+            await(file, 1);
+
+            // Corrupt the copy on the second storage server.
+            RandomAccessFile    replica =
+                new RandomAccessFile(file.toFile(directories[1].root()), "rw");
+
+            try
+            {
+                replica.seek(150000);
+                replica.write(contents[150000] ^ 1);
+            }
+            finally
+            {
+                replica.close();
+            }
+
+            await(file, 2);
+
+            byte[]          repaired = naming.storage(1).read(file, 0,
+                                                             contents.length);
+
+            if(!Arrays.equals(repaired, contents))
+                throw new TestFailed("corrupted copy not replaced");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Waits until the replicator has made the given number of copies, and
+        the file has two locations. */
+    private void await(Path file, long copies) throws Exception
+    {
+        long                deadline = System.currentTimeMillis() + 10000;
+
+        while(System.currentTimeMillis() < deadline)
+        {
+            if(naming.replicator.copies() >= copies &&
+               naming.namespace.locations(file).length == 2)
+            {
+                return;
+            }
+
+            Thread.sleep(20);
+        }
+
+        throw new TestFailed("file not copied: " + naming.replicator.copies() +
+                             " copies made, locations " +
+                             Arrays.toString(naming.namespace.locations(file)));
+    }
+
+    /** Stops the servers and removes the temporary directories. */
+    @Override
+    protected void clean()
+    {
+        for(StorageServer server : servers)
+        {
+            if(server != null)
+                server.stop();
+        }
+
+        if(naming != null)
+            naming.stopMonitoring();
+
+        for(TemporaryDirectory directory : directories)
+        {
+            if(directory != null)
+                directory.remove();
+        }
+
+        for(int index = 0; index < properties.length; ++index)
+        {
+            if(saved[index] == null)
+                System.clearProperty(properties[index]);
+            else
+                System.setProperty(properties[index], saved[index]);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package naming;
+
+import java.util.*;
+
+import common.*;
+import storage.*;
+import test.*;
+
+/** Unit test for storage server identifiers and file location sets.
+
+    <p>
+    Registers storage servers with a naming server directly, without stubs,
+    and checks that they are given dense identifiers in order of
+    registration, that a storage server which deregistered or was considered
+    failed keeps its identifier when it registers again, and that a new one
+    is not given an identifier in use. Checks the location set of each file
+    as locations are added and removed, as a storage server fails, and as it
+    registers again. Both namespace implementations are checked.
+ */
+public class StorageIdTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking storage server identifiers and file locations";
+
+    private TemporaryDirectory[] directories = new TemporaryDirectory[4];
+    private StorageServer[]     servers = new StorageServer[4];
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            for(int index = 0; index < servers.length; ++index)
+            {
+                directories[index] = new TemporaryDirectory();
+                servers[index] = new StorageServer(directories[index].root());
+            }
+
+            NamingServer    tree = new NamingServer();
+
+            tree.namespace = new TreeNamespace();
+            check(tree);
+
+            NamingServer    compact = new NamingServer();
+
+            compact.namespace = new CompactNamespace();
+            check(compact);
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Removes the temporary directories. */
+    @Override
+    protected void clean()
+    {
+        for(TemporaryDirectory directory : directories)
+        {
+            if(directory != null)
+                directory.remove();
+        }
+    }
+
+    /** Runs the checks against a naming server with no storage servers.
+
+        @throws TestFailed If a check fails.
+     */
+    private void check(NamingServer naming) throws Exception
+    {
+        Path                a = new Path("/a");
+        Path                b = new Path("/directory/b");
+        Path                shared = new Path("/shared");
+
+        // Storage servers are numbered in order of registration, and a file
+        // already registered is a duplicate on the next storage server.
+        register(naming, 0, new Path[] {a, shared});
+
+        Path[]              duplicates = register(naming, 1,
+                                                  new Path[] {b, shared});
+
+        if(!Arrays.equals(duplicates, new Path[] {shared}))
+        {
+            throw new TestFailed("incorrect duplicates: " +
+                                 Arrays.toString(duplicates));
+        }
+
+        register(naming, 2, new Path[0]);
+
+        if(naming.storageCount != 3)
+            throw new TestFailed("identifiers are not dense");
+
+        expect(naming, a, 0);
+        expect(naming, b, 1);
+        expect(naming, shared, 0);
+
+        // Locations are added after the primary, and the primary moves to
+        // the next location when it is removed. The last location stays.
+        if(!naming.namespace.addLocation(a, 2) ||
+           naming.namespace.addLocation(a, 2))
+        {
+            throw new TestFailed("location added twice");
+        }
+
+        expect(naming, a, 0, 2);
+
+        if(!naming.namespace.removeLocation(a, 0))
+            throw new TestFailed("location not removed");
+
+        expect(naming, a, 2);
+
+        if(naming.namespace.removeLocation(a, 2) ||
+           naming.namespace.removeLocation(a, 1))
+        {
+            throw new TestFailed("last or absent location removed");
+        }
+
+        if(naming.namespace.count(2) != 1 || naming.namespace.count(0) != 1 ||
+           !Arrays.equals(naming.namespace.files(2), new Path[] {a}))
+        {
+            throw new TestFailed("incorrect files of storage servers");
+        }
+
+        naming.namespace.addLocation(a, 0);
+        naming.namespace.addLocation(shared, 1);
+        expect(naming, shared, 0, 1);
+
+        // A storage server that deregistered keeps its identifier when it
+        // registers again. A new storage server does not take it.
+        naming.namespace.removeLocation(a, 2);
+        naming.drain(servers[2]);
+        naming.deregister(servers[2]);
+
+        register(naming, 3, new Path[0]);
+        register(naming, 2, new Path[0]);
+
+        if(naming.storageCount != 4)
+            throw new TestFailed("identifier given out twice");
+
+        if(!naming.isLive(2))
+            throw new TestFailed("storage server not live after returning");
+
+        // A failed storage server is removed from the files that have other
+        // locations, and kept as the last location of the others.
+        naming.heartbeatTimeout = 1;
+        naming.heartbeat(servers[0], 0, 0);
+        Thread.sleep(20);
+        naming.detectFailures();
+
+        if(naming.isAvailable(0) || !naming.isAvailable(1))
+            throw new TestFailed("incorrect storage servers failed");
+
+        expect(naming, a, 0);
+        expect(naming, shared, 1);
+
+        // On registering again, it keeps the files of which it is still a
+        // location, and the others are duplicates.
+        duplicates = register(naming, 0, new Path[] {a, shared});
+
+        if(!Arrays.equals(duplicates, new Path[] {shared}))
+        {
+            throw new TestFailed("incorrect duplicates on returning: " +
+                                 Arrays.toString(duplicates));
+        }
+
+        expect(naming, a, 0);
+        expect(naming, shared, 1);
+
+        if(naming.storageCount != 4 || naming.liveStorage().length != 4)
+            throw new TestFailed("storage servers not live after returning");
+    }
+
+    /** Registers a storage server, and checks the identifier it is given.
+
+        @return The duplicates returned by the naming server.
+        @throws TestFailed If the identifier is not the expected one.
+     */
+    private Path[] register(NamingServer naming, int index, Path[] files)
+        throws TestFailed
+    {
+        Path[]              duplicates =
+            naming.register(servers[index], servers[index], files);
+        Integer             id = naming.commandIds.get(servers[index]);
+
+        if(id == null || id != index)
+        {
+            throw new TestFailed("storage server " + index + " given " +
+                                 "identifier " + id);
+        }
+
+        return duplicates;
+    }
+
+    /** Checks the locations of a file, in order.
+
+        @throws TestFailed If the locations differ.
+     */
+    private static void expect(NamingServer naming, Path file,
+                               int... expected) throws Exception
+    {
+        int[]               locations = naming.namespace.locations(file);
+
+        if(!Arrays.equals(locations, expected))
+        {
+            throw new TestFailed("locations of " + file + " are " +
+                                 Arrays.toString(locations) + ", expected " +
+                                 Arrays.toString(expected));
+        }
+
+        if(naming.namespace.lookup(file) != expected[0])
+            throw new TestFailed("incorrect primary location of " + file);
+    }
+}
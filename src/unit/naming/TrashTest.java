@@ -0,0 +1,300 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import common.*;
+import storage.*;
+import test.*;
+
+/** Unit test for the trash.
+
+    <p>
+    For each namespace implementation, moves a directory to the trash, and
+    checks that it can no longer be found, that its files are no longer
+    counted, and that it can be restored whole. Checks that expired entries
+    are found oldest first, and that purged entries are gone.
+
+    <p>
+    Then starts a naming server, without its skeletons, and a storage server
+    that registers with it. Checks that a deleted directory is kept on the
+    storage server and can be restored, that restoring or creating a file in
+    its place purges the trash around it, and that the trash collector
+    purges it once it expires. Finally, checks that files of the trash are
+    left in place when their storage server registers again, and that a
+    purge the storage server cannot make is made when it registers again.
+ */
+public class TrashTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the trash";
+
+    private NamingServer        naming;
+    private TemporaryDirectory  directory;
+    private StorageServer       server;
+    private String[]            properties = {"naming.trash.retention",
+                                              "naming.trash.interval"};
+    private String[]            saved = new String[properties.length];
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            checkNamespace(new TreeNamespace(), "tree");
+            checkNamespace(new CompactNamespace(), "compact");
+            checkServer();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks trashing, restoring and purging on a namespace. */
+    private void checkNamespace(Namespace namespace, String kind)
+        throws Exception
+    {
+        Path                a = new Path("/a");
+        Path                deep = new Path("/a/b/first");
+        Path                second = new Path("/a/second");
+        Path                c = new Path("/c");
+
+        namespace.register(deep, 0);
+        namespace.register(second, 1);
+        namespace.addLocation(second, 2);
+        namespace.register(c, 0);
+
+        long                size = namespace.size();
+        long                first = namespace.trash(a, 100);
+
+        try
+        {
+            namespace.lookup(deep);
+            throw new TestFailed("trashed file found in " + kind +
+                                 " namespace");
+        }
+        catch(FileNotFoundException e) { }
+
+        if(!Arrays.equals(namespace.list(new Path()), new String[] {"c"}))
+            throw new TestFailed("trash listed in " + kind + " namespace");
+
+        if(namespace.size() != 1 || namespace.count(0) != 1 ||
+           namespace.count(1) != 0 || namespace.files(2).length != 0)
+        {
+            throw new TestFailed("trashed files counted in " + kind +
+                                 " namespace");
+        }
+
+        if(namespace.trashed(deep).length != 1 ||
+           namespace.trashed(new Path()).length != 1 ||
+           namespace.trashed(c).length != 0)
+        {
+            throw new TestFailed("trash overlapping paths not found in " +
+                                 kind + " namespace");
+        }
+
+        // The directory cannot be restored over an object of the same name,
+        // but can once it is removed.
+        namespace.createDirectory(a);
+
+        if(namespace.restore(a))
+            throw new TestFailed("trash restored over existing directory " +
+                                 "in " + kind + " namespace");
+
+        namespace.delete(a);
+
+        if(!namespace.restore(a))
+            throw new TestFailed("unable to restore " + kind + " namespace");
+
+        if(namespace.lookup(deep) != 0 || namespace.size() != size ||
+           namespace.count(0) != 2 || namespace.count(2) != 1 ||
+           namespace.trashed(deep).length != 0)
+        {
+            throw new TestFailed("trash restored incorrectly in " + kind +
+                                 " namespace");
+        }
+
+        // Expired entries are found oldest first, and purged for good.
+        long                older = namespace.trash(a, 200);
+        long                newer = namespace.trash(c, 300);
+
+        if(older == first ||
+           !Arrays.equals(namespace.expired(250, 10), new long[] {older}) ||
+           !Arrays.equals(namespace.expired(1000, 1), new long[] {older}))
+        {
+            throw new TestFailed("incorrect expired entries in " + kind +
+                                 " namespace");
+        }
+
+        if(!Arrays.equals(namespace.purge(older), new int[] {0, 1, 2}))
+            throw new TestFailed("incorrect storage servers of purged " +
+                                 "entry in " + kind + " namespace");
+
+        if(namespace.purge(older) != null || namespace.trashPath(older) != null ||
+           namespace.restore(a) || namespace.count(0) != 0)
+        {
+            throw new TestFailed("purged entry left in " + kind +
+                                 " namespace");
+        }
+
+        if(!c.equals(namespace.trashPath(newer)) || namespace.size() != 0)
+            throw new TestFailed("incorrect trash left in " + kind +
+                                 " namespace");
+    }
+
+    /** Checks the trash of a naming server and its storage server. */
+    private void checkServer() throws Exception
+    {
+        saved[0] = System.setProperty(properties[0], "300");
+        saved[1] = System.setProperty(properties[1], "50");
+
+        naming = new NamingServer();
+        directory = new TemporaryDirectory();
+        server = new StorageServer(directory.root());
+        server.start("127.0.0.1", naming);
+
+        Path                parent = new Path("/directory");
+        Path                file = new Path(parent, "file");
+        File                local = file.toFile(directory.root());
+        byte[]              contents = new byte[1000];
+
+        new Random(46).nextBytes(contents);
+
+        naming.createDirectory(parent);
+        naming.createFile(file);
+        naming.getStorage(file).write(file, 0, contents);
+
+        // A deleted directory stays on the storage server until purged, and
+        // can be restored.
+        naming.delete(parent);
+
+        if(naming.list(new Path()).length != 0 || !local.exists())
+            throw new TestFailed("deleted directory not moved to the trash");
+
+        if(!naming.restore(parent) ||
+           !Arrays.equals(naming.getStorage(file).read(file, 0, 1000),
+                          contents))
+        {
+            throw new TestFailed("deleted directory not restored");
+        }
+
+        // Restoring a file purges the trash around it, whose files would
+        // otherwise shadow it.
+        naming.delete(file);
+        naming.delete(parent);
+        naming.createDirectory(parent);
+
+        if(!naming.restore(file) || naming.restore(parent) ||
+           !Arrays.equals(naming.getStorage(file).read(file, 0, 1000),
+                          contents))
+        {
+            throw new TestFailed("file not restored into new directory");
+        }
+
+        // Creating a file in its place purges it.
+        naming.delete(parent);
+        naming.createDirectory(parent);
+
+        if(!naming.createFile(file) || naming.getStorage(file).size(file) != 0)
+            throw new TestFailed("file not created in place of trash");
+
+        if(naming.restore(parent))
+            throw new TestFailed("purged directory restored");
+
+        // The collector purges expired trash.
+        naming.delete(parent);
+        naming.startMonitoring();
+
+        long                deadline = System.currentTimeMillis() + 2000;
+
+        while(naming.collector.purged() == 0)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("expired trash not purged");
+
+            Thread.sleep(10);
+        }
+
+        if(naming.collector.purged() != 1 || local.exists())
+            throw new TestFailed("expired trash purged incorrectly");
+
+        checkRegistration(parent, file, contents);
+    }
+
+    /** Checks that registration neither brings back nor deletes files of the
+        trash, and makes the deletions of purges left pending. */
+    private void checkRegistration(Path parent, Path file, byte[] contents)
+        throws Exception
+    {
+        File                local = file.toFile(directory.root());
+
+        naming.stopMonitoring();
+        naming.createDirectory(parent);
+        naming.createFile(file);
+        naming.getStorage(file).write(file, 0, contents);
+        naming.delete(parent);
+
+        // The storage server restarts, and registers the same files under a
+        // new identifier.
+        server.stop();
+        server = new StorageServer(directory.root());
+        server.start("127.0.0.1", naming);
+
+        if(!local.exists() || naming.list(new Path()).length != 0)
+        {
+            throw new TestFailed("trashed file deleted or brought back by " +
+                                 "registration");
+        }
+
+        // The storage server that hosted the trash is considered failed, so
+        // the deletion of the purged files waits for it to register again.
+        synchronized(naming)
+        {
+            naming.states[0] = NamingServer.FAILED;
+        }
+
+        naming.purge(naming.namespace.trashed(parent)[0]);
+
+        if(!local.exists() || naming.restore(parent))
+            throw new TestFailed("purge made on unavailable storage server");
+
+        Path[]              duplicates =
+            naming.register(naming.storage(0), naming.command(0),
+                            new Path[] {file});
+
+        if(!Arrays.equals(duplicates, new Path[] {file}) ||
+           !naming.undeleted.isEmpty())
+        {
+            throw new TestFailed("pending deletion not made on registration");
+        }
+    }
+
+    /** Stops the servers, removes the temporary directory and restores the
+        properties. */
+    @Override
+    protected void clean()
+    {
+        if(naming != null)
+            naming.stopMonitoring();
+
+        if(server != null)
+            server.stop();
+
+        if(directory != null)
+            directory.remove();
+
+        for(int index = 0; index < properties.length; ++index)
+        {
+            if(saved[index] == null)
+                System.clearProperty(properties[index]);
+            else
+                System.setProperty(properties[index], saved[index]);
+        }
+    }
+}
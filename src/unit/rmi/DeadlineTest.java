@@ -0,0 +1,297 @@
+package rmi;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.*;
+
+/** Unit test for call deadlines and stub timeouts.
+
+    <p>
+    Checks that a call to a slow remote method through a stub with a timeout
+    fails with <code>RMITimeoutException</code> without waiting for the method,
+    that a skeleton does not execute a request whose deadline has expired by
+    the time it is read, and that a remote call made by a server while
+    handling a request is bounded by the deadline of the original caller.
+ */
+public class DeadlineTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking call deadlines";
+
+    /** Time for which the slow remote method sleeps, in milliseconds. */
+    private static final long   SLOW = 2000;
+    /** Timeout given to the stub calling the slow method, in milliseconds. */
+    private static final long   TIMEOUT = 200;
+
+    /** Server which makes nested calls. */
+    private Server              outer = new Server();
+    /** Server which receives nested calls. */
+    private Server              inner = new Server();
+    /** Skeletons for the two servers. */
+    private Skeleton<Remote>    outer_skeleton;
+    private Skeleton<Remote>    inner_skeleton;
+
+    /** Starts the skeletons. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        outer_skeleton = new Skeleton<Remote>(Remote.class, outer);
+        inner_skeleton = new Skeleton<Remote>(Remote.class, inner);
+
+        try
+        {
+            outer_skeleton.start();
+            inner_skeleton.start();
+
+            outer.next = Stub.create(Remote.class, inner_skeleton);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeletons", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Remote              stub;
+
+        try
+        {
+            stub = Stub.create(Remote.class, outer_skeleton);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub", t);
+        }
+
+        checkTimeout(stub);
+        checkExpiredRequest();
+        checkNestedDeadline(stub);
+    }
+
+    /** Stops the skeletons. */
+    @Override
+    protected void clean()
+    {
+        if(outer_skeleton != null)
+        {
+            outer_skeleton.stop();
+            outer_skeleton = null;
+        }
+
+        if(inner_skeleton != null)
+        {
+            inner_skeleton.stop();
+            inner_skeleton = null;
+        }
+    }
+
+    /** Checks that a call through a stub with a timeout gives up on a slow
+        method.
+
+        @throws TestFailed If the call does not time out, or waits for the
+                           method to finish.
+     */
+    private void checkTimeout(Remote stub) throws TestFailed
+    {
+        if(Stub.getTimeout(stub) != Long.getLong("rmi.timeout", 0L))
+            throw new TestFailed("new stub has incorrect timeout");
+
+        try
+        {
+            Stub.setTimeout(stub, -1);
+            throw new TestFailed("negative timeout accepted");
+        }
+        catch(IllegalArgumentException e) { }
+
+        Stub.setTimeout(stub, TIMEOUT);
+
+        if(Stub.getTimeout(stub) != TIMEOUT)
+            throw new TestFailed("stub timeout not set");
+
+        long                started = System.nanoTime();
+
+        try
+        {
+            stub.sleep(SLOW);
+            throw new TestFailed("call to slow method did not time out");
+        }
+        catch(RMITimeoutException e) { }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call to slow method failed without timing " +
+                                 "out", e);
+        }
+
+        long                elapsed = (System.nanoTime() - started) / 1000000L;
+
+        if(elapsed >= SLOW)
+        {
+            throw new TestFailed("timed out call waited " + elapsed +
+                                 " ms for the method");
+        }
+
+        Stub.setTimeout(stub, 0);
+    }
+
+    /** Checks that the skeleton drops a request whose deadline expired while
+        it was being sent.
+
+        <p>
+        The request is written by hand: the header is sent with a short
+        deadline, and the rest of the request only once that deadline has
+        passed.
+
+        @throws TestFailed If the method is executed, or the caller is not told
+                           that the deadline expired.
+     */
+    private void checkExpiredRequest() throws TestFailed
+    {
+        int                 executed = outer.calls.get();
+
+        try
+        {
+            Socket          socket = new Socket();
+
+            try
+            {
+                socket.connect(outer_skeleton.getAddress());
+
+                ObjectOutputStream  output =
+                    new ObjectOutputStream(socket.getOutputStream());
+
+                output.flush();
+
+                ObjectInputStream   input =
+                    new ObjectInputStream(socket.getInputStream());
+
+                output.writeObject(new CallHeader(50, 0, 0));
+                output.flush();
+
+                Thread.sleep(250);
+
+                output.writeObject("sleep");
+                output.writeObject(new Class<?>[] {long.class});
+                output.writeObject(new Object[] {Long.valueOf(0)});
+                output.flush();
+
+                if((Boolean)input.readObject())
+                    throw new TestFailed("expired request succeeded");
+
+                if(!(input.readObject() instanceof RMITimeoutException))
+                {
+                    throw new TestFailed("expired request did not fail with " +
+                                         "RMITimeoutException");
+                }
+            }
+            finally
+            {
+                socket.close();
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to send expired request", t);
+        }
+
+        if(outer.calls.get() != executed)
+            throw new TestFailed("expired request was executed");
+    }
+
+    /** Checks that a nested call inherits the deadline of the original
+        caller, and that a call without a deadline passes none on.
+
+        @throws TestFailed If the nested call has no deadline, or a later one.
+     */
+    private void checkNestedDeadline(Remote stub) throws TestFailed
+    {
+        try
+        {
+            if(stub.forward() != Deadline.NONE)
+                throw new TestFailed("nested call given a deadline");
+
+            Deadline.set(5000);
+
+            long            remaining;
+
+            try
+            {
+                remaining = stub.forward();
+            }
+            finally
+            {
+                Deadline.clear();
+            }
+
+            if(remaining <= 0 || remaining > 5000)
+            {
+                throw new TestFailed("nested call has " + remaining +
+                                     " ms remaining, expected at most 5000");
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to make nested call", e);
+        }
+    }
+
+    /** Remote interface used in the test. */
+    interface Remote
+    {
+        /** Sleeps for the given time. */
+        void sleep(long millis) throws RMIException;
+
+        /** Returns the time remaining until the deadline of the service
+            thread, as seen by the server. */
+        long remaining() throws RMIException;
+
+        /** Calls <code>remaining</code> on the next server and returns its
+            result. */
+        long forward() throws RMIException;
+    }
+
+    /** Server counting the calls it executes. */
+    private static class Server implements Remote
+    {
+        /** Number of calls executed. */
+        final AtomicInteger calls = new AtomicInteger();
+        /** Stub for the server receiving nested calls. */
+        volatile Remote     next;
+
+        @Override
+        public void sleep(long millis)
+        {
+            calls.incrementAndGet();
+
+            try
+            {
+                Thread.sleep(millis);
+            }
+            catch(InterruptedException e) { }
+        }
+
+        @Override
+        public long remaining()
+        {
+            calls.incrementAndGet();
+
+            return Deadline.remaining();
+        }
+
+        @Override
+        public long forward() throws RMIException
+        {
+            calls.incrementAndGet();
+
+            return next.remaining();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package rmi;
+
+import test.*;
+
+/** Unit test for <code>LatencyHistogram</code>.
+
+    <p>
+    Checks that bucket boundaries are contiguous, and that percentiles are
+    reported within the histogram's precision.
+ */
+public class LatencyHistogramTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking latency histogram";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        // Every value must fall into a bucket whose range contains it, and
+        // consecutive buckets must not overlap or leave gaps.
+        long previous = -1;
+        for (int index = 0; index < 512; ++index)
+        {
+            long highest = LatencyHistogram.highest(index);
+
+            if(LatencyHistogram.index(previous + 1) != index ||
+               LatencyHistogram.index(highest) != index)
+            {
+                throw new TestFailed("bucket " + index + " does not cover " +
+                                     "values " + (previous + 1) + " to " +
+                                     highest);
+            }
+
+            previous = highest;
+        }
+
+        LatencyHistogram    histogram = new LatencyHistogram();
+
+        if(histogram.percentile(0.5) != 0)
+            throw new TestFailed("empty histogram reports non-zero median");
+
+        for(long value = 1; value <= 100000; ++value)
+            histogram.record(value);
+
+        checkPercentile(histogram, 0.5, 50000);
+        checkPercentile(histogram, 0.99, 99000);
+
+        if(histogram.count() != 100000 || histogram.max() != 100000)
+            throw new TestFailed("incorrect count or maximum");
+
+        histogram.reset();
+
+        if(histogram.count() != 0 || histogram.percentile(0.99) != 0)
+            throw new TestFailed("histogram not empty after reset");
+    }
+
+    /** Checks that a percentile is within the precision of the histogram.
+
+        @throws TestFailed If the reported percentile is too far from the
+                           expected value.
+     */
+    private void checkPercentile(LatencyHistogram histogram, double percentile,
+                                 long expected) throws TestFailed
+    {
+        long    reported = histogram.percentile(percentile);
+
+        if(reported < expected || reported > expected + expected / 16)
+        {
+            throw new TestFailed("percentile " + percentile + " reported as " +
+                                 reported + ", expected " + expected);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package rmi;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.util.concurrent.CountDownLatch;
+import javax.management.*;
+
+import test.*;
+
+/** Unit test for call metrics.
+
+    <p>
+    Makes calls through a stub and skeleton, and checks that both sides count
+    the calls, remote exceptions, bytes transferred and calls in progress,
+    that the statistics are registered as MBeans, and that the text report
+    carries them. Also checks that a request for a method which the interface
+    does not declare is counted without creating statistics for it.
+ */
+public class MetricsTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking call metrics";
+
+    /** Number of calls made to <code>echo</code>. */
+    private static final int    CALLS = 10;
+    /** Size of the argument of each call to <code>echo</code>. */
+    private static final int    SIZE = 1000;
+
+    /** Released to let the call to <code>block</code> return. */
+    private final CountDownLatch    release = new CountDownLatch(1);
+    /** Skeleton for the test server. */
+    private Skeleton<Remote>    skeleton;
+
+    /** Starts the skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<Remote>(Remote.class, new Server());
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeleton", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        final Remote        stub;
+
+        try
+        {
+            stub = Stub.create(Remote.class, skeleton);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub", t);
+        }
+
+        MethodMetrics       client = Metrics.client(Remote.class, "echo");
+        MethodMetrics       server = Metrics.server(Remote.class, "echo");
+
+        try
+        {
+            for(int call = 0; call < CALLS; ++call)
+            {
+                if(stub.echo(new byte[SIZE]).length != SIZE)
+                    throw new TestFailed("echo returned incorrect data");
+            }
+
+            stub.fail();
+            throw new TestFailed("remote exception not thrown");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(IOException e) { }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to call remote method", e);
+        }
+
+        // The skeleton finishes its statistics after sending the result.
+        awaitCalls(server, CALLS);
+        awaitCalls(Metrics.server(Remote.class, "fail"), 1);
+
+        if(client.getCalls() != CALLS || client.getErrors() != 0 ||
+           client.getExceptions() != 0)
+        {
+            throw new TestFailed("client counted " + client.getCalls() +
+                                 " calls, " + client.getErrors() +
+                                 " errors and " + client.getExceptions() +
+                                 " exceptions");
+        }
+
+        if(Metrics.client(Remote.class, "fail").getExceptions() != 1 ||
+           Metrics.server(Remote.class, "fail").getExceptions() != 1)
+        {
+            throw new TestFailed("remote exception not counted");
+        }
+
+        checkBytes(client, server);
+        checkInFlight(stub);
+        checkReport();
+        checkMBean();
+        checkUnknownMethod();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        release.countDown();
+
+        if(skeleton != null)
+        {
+            skeleton.stop();
+            skeleton = null;
+        }
+    }
+
+    /** Checks that both sides count the bytes of the calls to
+        <code>echo</code>, and agree on them.
+
+        @throws TestFailed If the counts are too small or differ.
+     */
+    private void checkBytes(MethodMetrics client, MethodMetrics server)
+        throws TestFailed
+    {
+        if(client.getBytesOut() < CALLS * SIZE ||
+           client.getBytesIn() < CALLS * SIZE)
+        {
+            throw new TestFailed("client counted " + client.getBytesOut() +
+                                 " bytes out and " + client.getBytesIn() +
+                                 " in, expected at least " + CALLS * SIZE);
+        }
+
+        if(server.getBytesIn() != client.getBytesOut() ||
+           server.getBytesOut() != client.getBytesIn())
+        {
+            throw new TestFailed("server counted " + server.getBytesIn() +
+                                 " bytes in and " + server.getBytesOut() +
+                                 " out, client " + client.getBytesOut() +
+                                 " out and " + client.getBytesIn() + " in");
+        }
+    }
+
+    /** Checks that a call is counted as in progress on both sides until it
+        returns.
+
+        @throws TestFailed If the in-flight gauges are incorrect.
+     */
+    private void checkInFlight(final Remote stub) throws TestFailed
+    {
+        MethodMetrics       client = Metrics.client(Remote.class, "block");
+        MethodMetrics       server = Metrics.server(Remote.class, "block");
+
+        Thread              caller = new Thread() {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    stub.block();
+                }
+                catch(Throwable t)
+                {
+                    failure(new TestFailed("unable to call block", t));
+                }
+            }
+        };
+
+        caller.start();
+
+        task("waiting for the call to block to start");
+        while(client.getInFlight() != 1 || server.getInFlight() != 1)
+            pause();
+        task();
+
+        release.countDown();
+
+        try
+        {
+            caller.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for call", e);
+        }
+
+        awaitCalls(server, 1);
+
+        if(client.getInFlight() != 0 || server.getInFlight() != 0)
+            throw new TestFailed("finished call still counted in flight");
+    }
+
+    /** Checks that the report carries the statistics of the calls.
+
+        @throws TestFailed If a line is missing from the report.
+     */
+    private void checkReport() throws TestFailed
+    {
+        String              report = Metrics.report();
+        String              labels = "interface=\"" + Remote.class.getName() +
+                                     "\",method=\"echo\"}";
+
+        String[]            lines =
+            {"rmi_calls_total{side=\"client\"," + labels + " " + CALLS,
+             "rmi_calls_total{side=\"server\"," + labels + " " + CALLS,
+             "rmi_exceptions_total{side=\"client\",interface=\"" +
+                Remote.class.getName() + "\",method=\"fail\"} 1",
+             "rmi_in_flight{side=\"server\"," + labels + " 0",
+             "rmi_latency_us_count{side=\"client\"," + labels + " " + CALLS};
+
+        for(String line : lines)
+        {
+            if(!report.contains(line + "\n"))
+                throw new TestFailed("report does not contain " + line);
+        }
+    }
+
+    /** Checks that the statistics are registered as MBeans.
+
+        @throws TestFailed If an MBean is missing or has incorrect attributes.
+     */
+    private void checkMBean() throws TestFailed
+    {
+        MBeanServer         mbeans = ManagementFactory.getPlatformMBeanServer();
+
+        try
+        {
+            ObjectName      name =
+                new ObjectName("rmi:type=Method,side=client,interface=" +
+                               Remote.class.getName() + ",method=echo");
+
+            if(!mbeans.isRegistered(name))
+                throw new TestFailed("method statistics not registered");
+
+            if(((Long)mbeans.getAttribute(name, "Calls")) != CALLS)
+                throw new TestFailed("MBean reports incorrect call count");
+
+            String          report = (String)mbeans.getAttribute(
+                new ObjectName("rmi:type=Metrics"), "Report");
+
+            if(!report.contains("rmi_calls_total"))
+                throw new TestFailed("registry MBean report is empty");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(JMException e)
+        {
+            throw new TestFailed("unable to read MBean", e);
+        }
+    }
+
+    /** Checks that a request for a method not in the interface is counted,
+        and creates no statistics.
+
+        @throws TestFailed If the request is not counted, or statistics are
+                           registered for it.
+     */
+    private void checkUnknownMethod() throws TestFailed
+    {
+        long                before = Metrics.unknownMethods();
+
+        try
+        {
+            Socket          socket = new Socket();
+
+            try
+            {
+                socket.connect(skeleton.getAddress());
+
+                ObjectOutputStream  output =
+                    new ObjectOutputStream(socket.getOutputStream());
+
+                output.flush();
+
+                ObjectInputStream   input =
+                    new ObjectInputStream(socket.getInputStream());
+
+                output.writeObject(new CallHeader(0, 0, 0));
+                output.writeObject("absent");
+                output.writeObject(new Class<?>[0]);
+                output.writeObject(new Object[0]);
+                output.flush();
+
+                if((Boolean)input.readObject())
+                    throw new TestFailed("call to unknown method succeeded");
+            }
+            finally
+            {
+                socket.close();
+            }
+
+            if(Metrics.unknownMethods() != before + 1)
+                throw new TestFailed("unknown method not counted");
+
+            if(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName("rmi:type=Method,side=server,interface=" +
+                               Remote.class.getName() + ",method=absent")))
+            {
+                throw new TestFailed("statistics created for unknown method");
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to call unknown method", t);
+        }
+    }
+
+    /** Waits until the given statistics have counted at least the given
+        number of calls. */
+    private void awaitCalls(MethodMetrics metrics, long calls)
+    {
+        task("waiting for " + metrics.method + " to be counted");
+        while(metrics.getCalls() < calls)
+            pause();
+        task();
+    }
+
+    /** Sleeps briefly, ignoring interrupts. */
+    private static void pause()
+    {
+        try
+        {
+            Thread.sleep(10);
+        }
+        catch(InterruptedException e) { }
+    }
+
+    /** Remote interface used in the test. */
+    interface Remote
+    {
+        /** Returns its argument. */
+        byte[] echo(byte[] data) throws RMIException;
+
+        /** Throws <code>IOException</code>. */
+        void fail() throws RMIException, IOException;
+
+        /** Returns once the test releases it. */
+        void block() throws RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private class Server implements Remote
+    {
+        @Override
+        public byte[] echo(byte[] data)
+        {
+            return data;
+        }
+
+        @Override
+        public void fail() throws IOException
+        {
+            throw new IOException("failing as requested");
+        }
+
+        @Override
+        public void block()
+        {
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e) { }
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package rmi;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.*;
+
+/** Unit test for retries, failover and hedging.
+
+    <p>
+    Checks that retry policies reject invalid limits and keep their backoff
+    within bounds, that a failed call to an idempotent method is attempted as
+    many times as the policy allows while other calls are attempted once,
+    that a stub with replicas fails over to a replica when its skeleton cannot
+    be reached, and that a slow attempt is hedged on a replica whose answer is
+    used.
+ */
+public class RetryTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking retries and hedging";
+
+    /** Released to let slow calls to the first server return. */
+    private final CountDownLatch    release = new CountDownLatch(1);
+    /** Servers answering with their own numbers. */
+    private Server              first = new Server(1);
+    private Server              second = new Server(2);
+    /** Skeletons for the two servers. */
+    private Skeleton<Remote>    first_skeleton;
+    private Skeleton<Remote>    second_skeleton;
+    /** Socket which accepts connections and closes them at once. */
+    private ServerSocket        refusing;
+    /** Number of connections accepted by <code>refusing</code>. */
+    private final AtomicInteger accepted = new AtomicInteger();
+
+    /** Starts the skeletons, and the thread closing connections. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        first_skeleton = new Skeleton<Remote>(Remote.class, first);
+        second_skeleton = new Skeleton<Remote>(Remote.class, second);
+
+        try
+        {
+            first_skeleton.start();
+            second_skeleton.start();
+
+            refusing = new ServerSocket(0, 50,
+                                        InetAddress.getByName("127.0.0.1"));
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start servers", t);
+        }
+
+        Thread              closer = new Thread() {
+            @Override
+            public void run()
+            {
+                while(true)
+                {
+                    try
+                    {
+                        refusing.accept().close();
+                        accepted.incrementAndGet();
+                    }
+                    catch(IOException e) { return; }
+                }
+            }
+        };
+
+        closer.setDaemon(true);
+        closer.start();
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        checkPolicy();
+        checkRetries();
+        checkFailover();
+        checkHedging();
+    }
+
+    /** Stops the skeletons and closes the socket. */
+    @Override
+    protected void clean()
+    {
+        release.countDown();
+
+        if(first_skeleton != null)
+        {
+            first_skeleton.stop();
+            first_skeleton = null;
+        }
+
+        if(second_skeleton != null)
+        {
+            second_skeleton.stop();
+            second_skeleton = null;
+        }
+
+        if(refusing != null)
+        {
+            try
+            {
+                refusing.close();
+            }
+            catch(IOException e) { }
+
+            refusing = null;
+        }
+    }
+
+    /** Checks the validation of retry policies and the bounds of their
+        backoff.
+
+        @throws TestFailed If an invalid policy is accepted, or a delay is out
+                           of bounds.
+     */
+    private void checkPolicy() throws TestFailed
+    {
+        long[][]            invalid =
+            {{0, 0, 0}, {1, -1, 0}, {1, 10, 5}};
+
+        for(long[] limits : invalid)
+        {
+            try
+            {
+                new RetryPolicy((int)limits[0], limits[1], limits[2], 0);
+                throw new TestFailed("invalid retry limits accepted");
+            }
+            catch(IllegalArgumentException e) { }
+        }
+
+        for(double percentile : new double[] {-0.5, 1})
+        {
+            try
+            {
+                new RetryPolicy(1, 0, 0, percentile);
+                throw new TestFailed("hedging percentile " + percentile +
+                                     " accepted");
+            }
+            catch(IllegalArgumentException e) { }
+        }
+
+        RetryPolicy         policy = new RetryPolicy(5, 10, 35, 0);
+
+        for(int trial = 0; trial < 100; ++trial)
+        {
+            if(policy.delay(0) < 0 || policy.delay(0) >= 10 ||
+               policy.delay(1) >= 20 || policy.delay(2) >= 35 ||
+               policy.delay(10) >= 35)
+            {
+                throw new TestFailed("backoff out of bounds");
+            }
+        }
+
+        if(RetryPolicy.NONE.attempts() != 1 || RetryPolicy.NONE.delay(3) != 0)
+            throw new TestFailed("policy NONE retries");
+    }
+
+    /** Checks that idempotent calls are attempted as many times as the
+        policy allows, and others only once.
+
+        @throws TestFailed If the number of attempts is incorrect, or a failed
+                           call does not throw <code>RMIException</code>.
+     */
+    private void checkRetries() throws TestFailed
+    {
+        Remote              stub = Stub.create(Remote.class,
+            (InetSocketAddress)refusing.getLocalSocketAddress());
+
+        Stub.setRetryPolicy(stub, new RetryPolicy(4, 0, 0, 0));
+
+        expectAttempts(stub, true, 4);
+        expectAttempts(stub, false, 1);
+
+        Stub.setRetryPolicy(stub, RetryPolicy.NONE);
+
+        expectAttempts(stub, true, 1);
+    }
+
+    /** Makes a call which fails, and checks the number of attempts.
+
+        @param idempotent Whether to call the idempotent method.
+        @throws TestFailed If the call does not fail, or the number of
+                           attempts is incorrect.
+     */
+    private void expectAttempts(Remote stub, boolean idempotent, int attempts)
+        throws TestFailed
+    {
+        int                 before = accepted.get();
+
+        try
+        {
+            if(idempotent)
+                stub.number();
+            else
+                stub.once();
+
+            throw new TestFailed("call to closed connection succeeded");
+        }
+        catch(RMIException e) { }
+
+        // The connection may be counted shortly after the attempt fails.
+        task("waiting for attempts to be counted");
+        while(accepted.get() < before + attempts)
+            pause();
+        task();
+
+        pause();
+
+        if(accepted.get() != before + attempts)
+        {
+            throw new TestFailed((accepted.get() - before) + " attempts " +
+                                 "made, expected " + attempts);
+        }
+    }
+
+    /** Checks that a stub with a replica fails over to it for idempotent
+        calls, and not for others.
+
+        @throws TestFailed If the replica is not used, or used for a call that
+                           is not idempotent.
+     */
+    private void checkFailover() throws TestFailed
+    {
+        Remote              unreachable = Stub.create(Remote.class,
+            (InetSocketAddress)refusing.getLocalSocketAddress());
+        Remote              replicated;
+
+        try
+        {
+            replicated = Stub.withReplicas(unreachable,
+                Stub.create(Remote.class, second_skeleton));
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub with replicas", t);
+        }
+
+        if(!replicated.equals(unreachable))
+            throw new TestFailed("stub with replicas differs from its primary");
+
+        Stub.setRetryPolicy(replicated, new RetryPolicy(2, 0, 0, 0));
+
+        try
+        {
+            if(replicated.number() != 2)
+                throw new TestFailed("call not failed over to replica");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("idempotent call not failed over", e);
+        }
+
+        try
+        {
+            replicated.once();
+            throw new TestFailed("call that is not idempotent failed over");
+        }
+        catch(RMIException e) { }
+
+        try
+        {
+            Stub.withReplicas(unreachable, new Server(3));
+            throw new TestFailed("object that is not a stub accepted as " +
+                                 "replica");
+        }
+        catch(IllegalArgumentException e) { }
+    }
+
+    /** Checks that an attempt slower than the hedging percentile is
+        duplicated on the replica, whose answer is returned.
+
+        @throws TestFailed If the slow attempt is waited for.
+     */
+    private void checkHedging() throws TestFailed
+    {
+        Remote              hedged;
+
+        try
+        {
+            hedged = Stub.withReplicas(
+                Stub.create(Remote.class, first_skeleton),
+                Stub.create(Remote.class, second_skeleton));
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub with replicas", t);
+        }
+
+        try
+        {
+            // Build up the latency history of the stub without hedging, so
+            // that no fast call is answered by the replica.
+            Stub.setRetryPolicy(hedged, RetryPolicy.NONE);
+
+            for(int call = 0; call < 50; ++call)
+            {
+                if(hedged.number() != 1)
+                    throw new TestFailed("call answered by replica");
+            }
+
+            Stub.setRetryPolicy(hedged, new RetryPolicy(1, 0, 0, 0.5));
+            first.slow = true;
+
+            if(hedged.number() != 2)
+                throw new TestFailed("slow call not hedged on replica");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to make hedged call", e);
+        }
+    }
+
+    /** Sleeps briefly, ignoring interrupts. */
+    private static void pause()
+    {
+        try
+        {
+            Thread.sleep(10);
+        }
+        catch(InterruptedException e) { }
+    }
+
+    /** Remote interface used in the test. */
+    interface Remote
+    {
+        /** Returns the number of the server. */
+        @Idempotent
+        int number() throws RMIException;
+
+        /** Returns the number of the server. Not retried. */
+        int once() throws RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private class Server implements Remote
+    {
+        /** Number returned by the server. */
+        private final int   number;
+        /** Whether calls wait until the test releases them. */
+        volatile boolean    slow = false;
+
+        Server(int number)
+        {
+            this.number = number;
+        }
+
+        @Override
+        public int number()
+        {
+            if(slow)
+            {
+                try
+                {
+                    release.await();
+                }
+                catch(InterruptedException e) { }
+            }
+
+            return number;
+        }
+
+        @Override
+        public int once()
+        {
+            return number;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package rmi;
+
+import java.util.*;
+
+import test.*;
+
+/** Unit test for distributed tracing.
+
+    <p>
+    Makes a call, grouped under a local span, to a server which makes a
+    nested call to a second server. Checks that every span of the operation
+    carries the same trace, that each span is the child of the one which
+    caused it, and that a call made outside of any span starts a new trace.
+ */
+public class TraceTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking trace propagation";
+
+    /** Server which makes nested calls. */
+    private Server              outer = new Server();
+    /** Server which receives nested calls. */
+    private Server              inner = new Server();
+    /** Skeletons for the two servers. */
+    private Skeleton<Remote>    outer_skeleton;
+    private Skeleton<Remote>    inner_skeleton;
+
+    /** Starts the skeletons. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        outer_skeleton = new Skeleton<Remote>(Remote.class, outer);
+        inner_skeleton = new Skeleton<Remote>(Remote.class, inner);
+
+        try
+        {
+            outer_skeleton.start();
+            inner_skeleton.start();
+
+            outer.next = Stub.create(Remote.class, inner_skeleton);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to start skeletons", t);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Remote              stub;
+
+        try
+        {
+            stub = Stub.create(Remote.class, outer_skeleton);
+        }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to create stub", t);
+        }
+
+        try
+        {
+            Trace.finish();
+            throw new TestFailed("span finished without being started");
+        }
+        catch(IllegalStateException e) { }
+
+        long                trace = Trace.start("operation");
+        long                seen;
+
+        try
+        {
+            seen = stub.forward();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to make nested call", e);
+        }
+        finally
+        {
+            Trace.finish();
+        }
+
+        if(Trace.currentTrace() != 0)
+            throw new TestFailed("finished span still current");
+
+        if(seen != trace)
+            throw new TestFailed("nested call made under a different trace");
+
+        // Server spans are recorded after the result is sent.
+        List<Span>          spans = awaitSpans(trace, 5);
+
+        Span                local = find(spans, "local", "operation");
+        Span                client = find(spans, "client", "forward");
+        Span                server = find(spans, "server", "forward");
+        Span                nested_client = find(spans, "client", "trace");
+        Span                nested_server = find(spans, "server", "trace");
+
+        if(local.parent != 0)
+            throw new TestFailed("local span is not the root of its trace");
+
+        checkParent(client, local);
+        checkParent(server, client);
+        checkParent(nested_client, server);
+        checkParent(nested_server, nested_client);
+
+        // A call outside of any span starts its own trace.
+        try
+        {
+            if(stub.trace() == trace)
+                throw new TestFailed("call outside of span joined old trace");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to make call", e);
+        }
+    }
+
+    /** Stops the skeletons. */
+    @Override
+    protected void clean()
+    {
+        if(outer_skeleton != null)
+        {
+            outer_skeleton.stop();
+            outer_skeleton = null;
+        }
+
+        if(inner_skeleton != null)
+        {
+            inner_skeleton.stop();
+            inner_skeleton = null;
+        }
+    }
+
+    /** Waits until the ring buffer holds the given number of spans of a
+        trace, and returns them. */
+    private List<Span> awaitSpans(long trace, int count)
+    {
+        List<Span>          spans = new ArrayList<Span>();
+
+        task("waiting for spans to be recorded");
+        while(true)
+        {
+            spans.clear();
+
+            for(Span span : Trace.spans())
+            {
+                if(span.trace == trace)
+                    spans.add(span);
+            }
+
+            if(spans.size() >= count)
+                break;
+
+            try
+            {
+                Thread.sleep(10);
+            }
+            catch(InterruptedException e) { }
+        }
+        task();
+
+        return spans;
+    }
+
+    /** Returns the only span of the given kind and operation.
+
+        @throws TestFailed If there is no such span, or more than one.
+     */
+    private static Span find(List<Span> spans, String kind, String operation)
+        throws TestFailed
+    {
+        Span                found = null;
+
+        for(Span span : spans)
+        {
+            if(span.kind.equals(kind) && span.operation.equals(operation))
+            {
+                if(found != null)
+                {
+                    throw new TestFailed("more than one " + kind + " span " +
+                                         "for " + operation);
+                }
+
+                found = span;
+            }
+        }
+
+        if(found == null)
+            throw new TestFailed("no " + kind + " span for " + operation);
+
+        return found;
+    }
+
+    /** Checks that one span is the child of another.
+
+        @throws TestFailed If it is not.
+     */
+    private static void checkParent(Span child, Span parent) throws TestFailed
+    {
+        if(child.parent != parent.id)
+        {
+            throw new TestFailed(child + " is not a child of " + parent);
+        }
+    }
+
+    /** Remote interface used in the test. */
+    interface Remote
+    {
+        /** Returns the trace of the service thread. */
+        long trace() throws RMIException;
+
+        /** Calls <code>trace</code> on the next server and returns its
+            result. */
+        long forward() throws RMIException;
+    }
+
+    /** Server implementing the remote interface. */
+    private static class Server implements Remote
+    {
+        /** Stub for the server receiving nested calls. */
+        volatile Remote     next;
+
+        @Override
+        public long trace()
+        {
+            return Trace.currentTrace();
+        }
+
+        @Override
+        public long forward() throws RMIException
+        {
+            return next.trace();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package storage;
+
+import java.io.*;
+import java.nio.file.Files;
+
+import common.*;
+import test.*;
+
+/** Unit test for the cache of open file channels.
+
+    <p>
+    Checks that channels are reused while cached, that the least recently
+    used channel not in use is closed when the cache is full, that channels
+    in use are never closed, and that invalidated channels are closed once
+    no longer in use. Finally, checks that a storage server reading a file in
+    many pieces opens it once.
+ */
+public class ChannelCacheTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the cache of open files";
+
+    private TemporaryDirectory  directory;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            directory = new TemporaryDirectory();
+
+            Path[]          paths = {new Path("/a"), new Path("/b"),
+                                     new Path("/directory/c")};
+            File[]          files = new File[paths.length];
+
+            for(int index = 0; index < paths.length; ++index)
+            {
+                files[index] = paths[index].toFile(directory.root());
+                files[index].getParentFile().mkdirs();
+                Files.write(files[index].toPath(), new byte[100]);
+            }
+
+            ChannelCache    cache = new ChannelCache(2);
+
+            // A cached channel is reused.
+            ChannelCache.Lease  a = cache.acquire(paths[0], files[0], false);
+            a.close();
+
+            if(cache.acquire(paths[0], files[0], false) != a)
+                throw new TestFailed("cached channel not reused");
+
+            // The lease on a is held: opening two more files must not close
+            // it, but closes b once it is no longer in use.
+            ChannelCache.Lease  b = cache.acquire(paths[1], files[1], false);
+            b.close();
+            ChannelCache.Lease  c = cache.acquire(paths[2], files[2], false);
+
+            if(!a.channel().isOpen())
+                throw new TestFailed("channel in use closed");
+
+            if(b.channel().isOpen())
+                throw new TestFailed("least recently used channel not closed");
+
+            // Invalidating a directory drops the channels beneath it, closing
+            // them once no longer in use.
+            cache.invalidate(new Path("/directory"));
+
+            if(!c.channel().isOpen())
+                throw new TestFailed("invalidated channel closed while in use");
+
+            c.close();
+
+            if(c.channel().isOpen())
+                throw new TestFailed("invalidated channel not closed");
+
+            if(cache.acquire(paths[2], files[2], false) == c)
+                throw new TestFailed("invalidated channel reused");
+
+            a.close();
+
+            try
+            {
+                cache.acquire(new Path("/absent"),
+                              new File(directory.root(), "absent"), false);
+                throw new TestFailed("missing file opened");
+            }
+            catch(FileNotFoundException e) { }
+
+            // A file read in many pieces is opened once.
+            StorageServer   server = new StorageServer(directory.root());
+            FileEngine      engine = (FileEngine)server.engine;
+            long            misses = engine.files.misses();
+
+            for(int offset = 0; offset < 100; offset += 10)
+                server.read(paths[0], offset, 10);
+
+            if(engine.files.misses() - misses != 1)
+                throw new TestFailed("file opened for each read");
+
+            // Deleting the file through the server drops its channel.
+            server.delete(paths[0]);
+
+            try
+            {
+                server.size(paths[0]);
+                throw new TestFailed("deleted file still accessible");
+            }
+            catch(FileNotFoundException e) { }
+
+            cache.clear();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Removes the temporary directory. */
+    @Override
+    protected void clean()
+    {
+        if(directory != null)
+            directory.remove();
+    }
+}
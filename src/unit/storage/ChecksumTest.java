@@ -0,0 +1,161 @@
+package storage;
+
+import java.io.*;
+import java.util.*;
+
+import common.*;
+import test.*;
+
+/** Unit test for block checksums.
+
+    <p>
+    Calls a storage server directly rather than through stubs. Writes a file
+    spanning several blocks in unaligned pieces, including past the end of the
+    file, and checks that reads succeed and that the blocks returned with
+    checksums verify. Then corrupts one block on disk, and checks that reads
+    overlapping it fail while others succeed, and that blocks corrupted after
+    leaving the storage server are detected by the client.
+ */
+public class ChecksumTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking block checksums";
+
+    /** Block size. */
+    private static final int    BLOCK = BlockChecksums.BLOCK;
+
+    private TemporaryDirectory  directory;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Path                file = new Path("/directory/file");
+        byte[]              contents = new byte[BLOCK * 4 + 100];
+        Random              random = new Random(17);
+
+        random.nextBytes(contents);
+
+        try
+        {
+            directory = new TemporaryDirectory();
+
+            StorageServer   server = new StorageServer(directory.root());
+
+            server.create(file);
+
+            // Write the end of the file first, leaving a gap, then fill the
+            // gap in pieces that do not line up with blocks.
+            int             tail = BLOCK * 3 + 17;
+
+            server.write(file, tail,
+                         Arrays.copyOfRange(contents, tail, contents.length));
+
+            for(int offset = 0; offset < tail; offset += 10007)
+            {
+                int         end = Math.min(tail, offset + 10007);
+
+                server.write(file, offset,
+                             Arrays.copyOfRange(contents, offset, end));
+            }
+
+            if(!Arrays.equals(server.read(file, 0, contents.length), contents))
+                throw new TestFailed("file read back incorrectly");
+
+            Blocks          blocks = server.readBlocks(file, BLOCK + 5, 300);
+
+            if(!Arrays.equals(blocks.verify(BLOCK + 5, 300),
+                              Arrays.copyOfRange(contents, BLOCK + 5,
+                                                 BLOCK + 305)))
+            {
+                throw new TestFailed("blocks returned incorrect sequence");
+            }
+
+            // Corrupt the third block on disk.
+            RandomAccessFile    local =
+                new RandomAccessFile(file.toFile(directory.root()), "rw");
+
+            try
+            {
+                local.seek(BLOCK * 2 + 50);
+                local.write(contents[BLOCK * 2 + 50] ^ 1);
+            }
+            finally
+            {
+                local.close();
+            }
+
+            try
+            {
+                server.read(file, BLOCK * 2 + 10, 100);
+                throw new TestFailed("read of corrupted block succeeded");
+            }
+            catch(ChecksumException e)
+            {
+                if(e.getOffset() != BLOCK * 2)
+                    throw new TestFailed("corrupted block misidentified");
+            }
+
+            try
+            {
+                server.readBlocks(file, BLOCK * 2 - 10, 20);
+                throw new TestFailed("read of corrupted block succeeded");
+            }
+            catch(ChecksumException e) { }
+
+            if(!Arrays.equals(server.read(file, BLOCK * 3, 100),
+                              Arrays.copyOfRange(contents, BLOCK * 3,
+                                                 BLOCK * 3 + 100)))
+            {
+                throw new TestFailed("intact block read back incorrectly");
+            }
+
+            // Corruption between the storage server and the client.
+            byte[]          data = Arrays.copyOfRange(contents, BLOCK * 3,
+                                                      contents.length);
+            int[]           sums = {BlockChecksums.checksum(data, BLOCK),
+                                    BlockChecksums.checksum(
+                                        Arrays.copyOfRange(data, BLOCK,
+                                                           data.length), 100)};
+
+            new Blocks(file, BLOCK * 3, BLOCK, data, sums)
+                .verify(BLOCK * 3, data.length);
+
+            data[BLOCK + 7] ^= 1;
+
+            try
+            {
+                new Blocks(file, BLOCK * 3, BLOCK, data, sums)
+                    .verify(BLOCK * 4, 100);
+                throw new TestFailed("client accepted damaged block");
+            }
+            catch(ChecksumException e) { }
+
+            // The reserved directory is not visible to clients.
+            if(server.create(new Path("/" + StorageEngine.METADATA + "/file")))
+                throw new TestFailed("file created in reserved directory");
+
+            for(Path listed : server.files())
+            {
+                if(!listed.equals(file))
+                    throw new TestFailed("unexpected file " + listed);
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Removes the temporary directory. */
+    @Override
+    protected void clean()
+    {
+        if(directory != null)
+            directory.remove();
+    }
+}
@@ -0,0 +1,171 @@
+package storage;
+
+import java.io.*;
+import java.util.*;
+
+import common.*;
+import test.*;
+
+/** Unit test for the container storage engine.
+
+    <p>
+    Calls storage servers using the container engine directly rather than
+    through stubs, with blocks not aligned with checksummed blocks, and
+    containers of a few blocks. Writes a file spanning several blocks in
+    unaligned pieces, then deletes it and checks that a file written past its
+    end in the freed slots reads as zeros in the gap. Checks directory
+    semantics, that a new storage server on the same directory finds the files
+    through the index, that files can be copied, and that the files are not
+    kept as files of the local filesystem.
+ */
+public class ContainerEngineTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the container storage engine";
+
+    /** Size of the blocks of the engine. */
+    private static final int    BLOCK = 100000;
+
+    private TemporaryDirectory[] directories = new TemporaryDirectory[2];
+    private String[]            properties = {"storage.engine",
+                                              "storage.container.block",
+                                              "storage.container.blocks"};
+    private String[]            saved = new String[properties.length];
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Path                large = new Path("/directory/large");
+        Path                small = new Path("/directory/small");
+        Path                sparse = new Path("/sparse");
+        byte[]              contents = new byte[BLOCK * 3 + 500];
+
+        new Random(23).nextBytes(contents);
+
+        try
+        {
+            String[]        values = {"container", Integer.toString(BLOCK), "3"};
+
+            for(int index = 0; index < properties.length; ++index)
+                saved[index] = System.setProperty(properties[index],
+                                                  values[index]);
+
+            directories[0] = new TemporaryDirectory();
+            directories[1] = new TemporaryDirectory();
+
+            StorageServer   server = new StorageServer(directories[0].root());
+
+            if(!server.create(large) || !server.create(small))
+                throw new TestFailed("unable to create files");
+
+            if(server.create(large) || server.create(new Path("/directory")) ||
+               server.create(new Path("/directory/large/file")))
+            {
+                throw new TestFailed("file created over an existing path");
+            }
+
+            // Write the end of the file first, then fill the gap in pieces
+            // that do not line up with blocks.
+            int             tail = BLOCK * 2 + 77;
+
+            server.write(large, tail,
+                         Arrays.copyOfRange(contents, tail, contents.length));
+
+            for(int offset = 0; offset < tail; offset += 30011)
+            {
+                int         end = Math.min(tail, offset + 30011);
+
+                server.write(large, offset,
+                             Arrays.copyOfRange(contents, offset, end));
+            }
+
+            server.write(small, 0, "small".getBytes());
+
+            if(!Arrays.equals(server.read(large, 0, contents.length), contents))
+                throw new TestFailed("file read back incorrectly");
+
+            // Reuse the slots of the deleted file for a file with a gap.
+            if(!server.delete(large))
+                throw new TestFailed("unable to delete file");
+
+            if(!server.create(sparse))
+                throw new TestFailed("unable to create file");
+
+            server.write(sparse, BLOCK + 10, "end".getBytes());
+
+            byte[]          expected = new byte[BLOCK + 13];
+
+            System.arraycopy("end".getBytes(), 0, expected, BLOCK + 10, 3);
+
+            if(!Arrays.equals(server.read(sparse, 0, expected.length), expected))
+                throw new TestFailed("gap does not read as zeros");
+
+            if(!server.create(new Path("/directory/deep/file")))
+                throw new TestFailed("unable to create file");
+
+            if(!server.delete(new Path("/directory/deep")))
+                throw new TestFailed("unable to delete directory");
+
+            // A new storage server on the same directory finds the files.
+            StorageServer   restarted = new StorageServer(directories[0].root());
+            Set<Path>       files =
+                new HashSet<Path>(Arrays.asList(restarted.files()));
+
+            if(!files.equals(new HashSet<Path>(Arrays.asList(small, sparse))))
+                throw new TestFailed("files not found after restart: " + files);
+
+            if(!Arrays.equals(restarted.read(sparse, 0, expected.length),
+                              expected) ||
+               !Arrays.equals(restarted.readBlocks(small, 0, 5).verify(0, 5),
+                              "small".getBytes()))
+            {
+                throw new TestFailed("file read back incorrectly after restart");
+            }
+
+            StorageServer   target = new StorageServer(directories[1].root());
+
+            if(target.copy(sparse, restarted, 0) != expected.length ||
+               !Arrays.equals(target.read(sparse, 0, expected.length),
+                              expected))
+            {
+                throw new TestFailed("file copied incorrectly");
+            }
+
+            String[]        local = directories[0].root().list();
+
+            if(local.length != 1 || !local[0].equals(StorageEngine.METADATA))
+            {
+                throw new TestFailed("files kept in the local filesystem: " +
+                                     Arrays.toString(local));
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Removes the temporary directories and restores the properties. */
+    @Override
+    protected void clean()
+    {
+        for(TemporaryDirectory directory : directories)
+        {
+            if(directory != null)
+                directory.remove();
+        }
+
+        for(int index = 0; index < properties.length; ++index)
+        {
+            if(saved[index] == null)
+                System.clearProperty(properties[index]);
+            else
+                System.setProperty(properties[index], saved[index]);
+        }
+    }
+}
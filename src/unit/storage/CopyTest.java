@@ -0,0 +1,169 @@
+package storage;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+import common.*;
+import test.*;
+
+/** Unit test for copies between storage servers.
+
+    <p>
+    Calls the storage servers directly rather than through stubs. Checks that
+    a file of several chunks is copied exactly, replacing any existing file,
+    that checksums are those of the file contents, and that a copy whose
+    source reports a different checksum fails.
+ */
+public class CopyTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking copies between storage servers";
+
+    /** Size of the copied file: several chunks and a partial chunk. */
+    private static final int    SIZE = StorageServer.COPY_CHUNK * 3 + 123;
+
+    private TemporaryDirectory[] directories = new TemporaryDirectory[2];
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Path                file = new Path("/directory/file");
+        byte[]              contents = new byte[SIZE];
+
+        new Random(13).nextBytes(contents);
+
+        try
+        {
+            directories[0] = new TemporaryDirectory();
+            directories[1] = new TemporaryDirectory();
+
+            final StorageServer source =
+                new StorageServer(directories[0].root());
+            StorageServer   target = new StorageServer(directories[1].root());
+
+            File            local = file.toFile(directories[0].root());
+
+            local.getParentFile().mkdirs();
+            Files.write(local.toPath(), contents);
+
+            // An existing, longer file on the target must be replaced.
+            File            existing = file.toFile(directories[1].root());
+
+            existing.getParentFile().mkdirs();
+            Files.write(existing.toPath(), new byte[SIZE + 1000]);
+
+            if(target.copy(file, source, 0) != SIZE)
+                throw new TestFailed("copy returned incorrect size");
+
+            if(!Arrays.equals(Files.readAllBytes(existing.toPath()), contents))
+                throw new TestFailed("copied file has incorrect contents");
+
+            CRC32C          crc = new CRC32C();
+
+            crc.update(contents, 1000, 5000);
+
+            if(target.checksum(file, 1000, 5000) != crc.getValue())
+                throw new TestFailed("checksum of a sequence is incorrect");
+
+            // A source whose checksum does not match the data it returns.
+            Storage         corrupt = new Storage() {
+                @Override
+                public long size(Path path) throws FileNotFoundException
+                {
+                    return source.size(path);
+                }
+
+                @Override
+                public byte[] read(Path path, long offset, int length)
+                    throws IOException
+                {
+                    return source.read(path, offset, length);
+                }
+
+                @Override
+                public Blocks readBlocks(Path path, long offset, int length)
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void write(Path path, long offset, byte[] data)
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public long checksum(Path path, long offset, long length)
+                    throws IOException
+                {
+                    return source.checksum(path, offset, length) + 1;
+                }
+
+                @Override
+                public long openSession(Path path, boolean write)
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Blocks readSession(long session, long offset,
+                                          int length)
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void writeSession(long session, long offset,
+                                         byte[] data)
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void closeSession(long session)
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+
+            try
+            {
+                target.copy(file, corrupt, 0);
+                throw new TestFailed("copy with mismatched checksum " +
+                                     "succeeded");
+            }
+            catch(TestFailed e) { throw e; }
+            catch(IOException e) { }
+
+            try
+            {
+                target.copy(new Path("/absent"), source, 0);
+                throw new TestFailed("copy of missing file succeeded");
+            }
+            catch(FileNotFoundException e) { }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Removes the temporary directories. */
+    @Override
+    protected void clean()
+    {
+        for(TemporaryDirectory directory : directories)
+        {
+            if(directory != null)
+                directory.remove();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package storage;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+import common.*;
+import test.*;
+
+/** Unit test for files larger than 2 GB.
+
+    <p>
+    Places a sparse file of several gigabytes in the root directory of a
+    storage server, with the checksums of its blocks, so that the test does
+    not have to write the whole file. Reads, writes and checksums sequences
+    of the file at offsets beyond the range of an <code>int</code>, including
+    through a read session, and checks that sequences whose end is beyond
+    the range of a <code>long</code> are rejected.
+ */
+public class LargeFileTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking files larger than 2 GB";
+
+    /** Length of the sparse file. */
+    private static final long   SIZE = (5L << 30) + 12345;
+
+    private TemporaryDirectory  directory;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Path                file = new Path("/directory/large");
+
+        try
+        {
+            directory = new TemporaryDirectory();
+            sparse(file);
+
+            StorageServer   server = new StorageServer(directory.root());
+
+            if(server.size(file) != SIZE)
+                throw new TestFailed("incorrect size of large file");
+
+            byte[]          zeros = new byte[1000];
+
+            if(!Arrays.equals(server.read(file, (4L << 30) + 7, 1000), zeros))
+                throw new TestFailed("hole in large file read incorrectly");
+
+            // Write across the end of the file, and read the data back in
+            // each way a storage server serves it.
+            byte[]          data = new byte[1000];
+            long            offset = SIZE - 100;
+
+            new Random(43).nextBytes(data);
+            server.write(file, offset, data);
+
+            if(server.size(file) != offset + data.length)
+                throw new TestFailed("incorrect size after extending file");
+
+            if(!Arrays.equals(server.read(file, offset, data.length), data))
+                throw new TestFailed("data read back incorrectly");
+
+            if(!Arrays.equals(server.readBlocks(file, offset, data.length)
+                                    .verify(offset, data.length), data))
+            {
+                throw new TestFailed("blocks read back incorrectly");
+            }
+
+            long            session = server.openSession(file, false);
+
+            if(!Arrays.equals(server.readSession(session, offset, data.length)
+                                    .verify(offset, data.length), data))
+            {
+                throw new TestFailed("data read through session incorrectly");
+            }
+
+            server.closeSession(session);
+
+            CRC32C          crc = new CRC32C();
+
+            crc.update(data);
+
+            if(server.checksum(file, offset, data.length) != crc.getValue())
+                throw new TestFailed("incorrect checksum of data");
+
+            if(!Arrays.equals(server.read(file, 3L << 30, 1000), zeros))
+                throw new TestFailed("hole changed by write");
+
+            // Sequences whose end overflows a long are outside the file.
+            try
+            {
+                server.read(file, Long.MAX_VALUE - 10, 100);
+                throw new TestFailed("read past the largest offset " +
+                                     "succeeded");
+            }
+            catch(IndexOutOfBoundsException e) { }
+
+            try
+            {
+                server.write(file, Long.MAX_VALUE - 10, data);
+                throw new TestFailed("write past the largest offset " +
+                                     "succeeded");
+            }
+            catch(IndexOutOfBoundsException e) { }
+
+            server.stop();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Creates a sparse file of zeros, and the sidecar file holding the
+        checksums of its blocks. */
+    private void sparse(Path file) throws IOException
+    {
+        File                local = file.toFile(directory.root());
+
+        local.getParentFile().mkdirs();
+
+        try(RandomAccessFile output = new RandomAccessFile(local, "rw"))
+        {
+            output.setLength(SIZE);
+        }
+
+        File                sidecar =
+            file.toFile(new File(new File(directory.root(),
+                                          StorageEngine.METADATA),
+                                 "checksums"));
+        byte[]              block = new byte[BlockChecksums.BLOCK];
+        long                blocks = BlockChecksums.blocks(SIZE);
+        int                 last = (int)(SIZE - (blocks - 1) *
+                                                BlockChecksums.BLOCK);
+
+        sidecar.getParentFile().mkdirs();
+
+        try(DataOutputStream output =
+                new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(sidecar))))
+        {
+            int             full = BlockChecksums.checksum(block, block.length);
+
+            for(long index = 0; index < blocks - 1; ++index)
+                output.writeInt(full);
+
+            output.writeInt(BlockChecksums.checksum(block, last));
+        }
+    }
+
+    /** Removes the temporary directory. */
+    @Override
+    protected void clean()
+    {
+        if(directory != null)
+            directory.remove();
+    }
+}
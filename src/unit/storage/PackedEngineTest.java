@@ -0,0 +1,241 @@
+package storage;
+
+import java.io.*;
+import java.util.*;
+
+import common.*;
+import test.*;
+
+/** Unit test for the packed storage engine.
+
+    <p>
+    Calls a storage server using the packed engine directly rather than
+    through stubs, with small segments. Creates and writes many small files,
+    some from concurrent threads, and checks that they take no files of the
+    local filesystem, and that the concurrent writes share flushes. Deletes most of them and checks that compaction
+    reclaims the space of their segments. Writes a file past the threshold and
+    checks that it is moved to a local file. Finally, checks that a new
+    storage server on the same directory finds the same files.
+ */
+public class PackedEngineTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the packed storage engine";
+
+    /** Number of small files. */
+    private static final int    FILES = 200;
+    /** Number of concurrent writers. */
+    private static final int    WRITERS = 8;
+    /** Number of writes made by each concurrent writer. */
+    private static final int    ROUNDS = 10;
+
+    private TemporaryDirectory  directory;
+    private String[]            properties = {"storage.engine",
+                                              "storage.packed.threshold",
+                                              "storage.packed.segment"};
+    private String[]            saved = new String[properties.length];
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            String[]        values = {"packed", "1000", "4096"};
+
+            for(int index = 0; index < properties.length; ++index)
+                saved[index] = System.setProperty(properties[index],
+                                                  values[index]);
+
+            directory = new TemporaryDirectory();
+
+            final StorageServer server = new StorageServer(directory.root());
+
+            // Write each file in two pieces, so that its first record is
+            // superseded.
+            for(int index = 0; index < FILES; ++index)
+            {
+                byte[]      contents = contents(index);
+
+                if(!server.create(file(index)))
+                    throw new TestFailed("unable to create file");
+
+                server.write(file(index), 0,
+                             Arrays.copyOf(contents, contents.length / 2));
+                server.write(file(index), contents.length / 2,
+                             Arrays.copyOfRange(contents, contents.length / 2,
+                                                contents.length));
+            }
+
+            // Rewrite some files from concurrent threads.
+            PackedEngine    engine = (PackedEngine)server.engine;
+            long            flushes = engine.flushes();
+            Thread[]        writers = new Thread[WRITERS];
+            final Throwable[] failures = new Throwable[WRITERS];
+
+            for(int writer = 0; writer < WRITERS; ++writer)
+            {
+                final int   index = writer;
+
+                writers[writer] = new Thread() {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            for(int round = 0; round < ROUNDS; ++round)
+                                server.write(file(index), 0, contents(index));
+                        }
+                        catch(Throwable t)
+                        {
+                            failures[index] = t;
+                        }
+                    }
+                };
+                writers[writer].start();
+            }
+
+            for(int writer = 0; writer < WRITERS; ++writer)
+            {
+                writers[writer].join();
+
+                if(failures[writer] != null)
+                    throw new TestFailed("concurrent write failed",
+                                         failures[writer]);
+            }
+
+            // Writes that arrive while another writer is flushing wait for
+            // the next flush, which covers them all.
+            flushes = engine.flushes() - flushes;
+
+            if(flushes >= WRITERS * ROUNDS)
+            {
+                throw new TestFailed(WRITERS * ROUNDS + " concurrent writes " +
+                                     "took " + flushes + " flushes");
+            }
+
+            check(server, 0);
+
+            String[]        local = directory.root().list();
+
+            if(local.length != 1 || !local[0].equals(StorageEngine.METADATA))
+            {
+                throw new TestFailed("files kept in the local filesystem: " +
+                                     Arrays.toString(local));
+            }
+
+            // Delete most of the files.
+            long            before = segments();
+
+            for(int index = 0; index < FILES - 20; ++index)
+            {
+                if(!server.delete(file(index)))
+                    throw new TestFailed("unable to delete file");
+            }
+
+            if(segments() * 2 > before)
+            {
+                throw new TestFailed("space of deleted files not reclaimed: " +
+                                     segments() + " of " + before +
+                                     " bytes remain");
+            }
+
+            // Move a file past the threshold.
+            Path            large = file(FILES - 1);
+            byte[]          grown = new byte[2000];
+
+            new Random(29).nextBytes(grown);
+            server.write(large, 0, grown);
+
+            if(!large.toFile(directory.root()).isFile())
+                throw new TestFailed("large file not moved to a local file");
+
+            if(!Arrays.equals(server.read(large, 0, grown.length), grown))
+                throw new TestFailed("moved file read back incorrectly");
+
+            // A new storage server on the same directory finds the files.
+            StorageServer   restarted = new StorageServer(directory.root());
+
+            if(restarted.files().length != 20)
+            {
+                throw new TestFailed("files not found after restart: " +
+                                     Arrays.toString(restarted.files()));
+            }
+
+            check(restarted, FILES - 20);
+
+            if(!Arrays.equals(restarted.read(large, 0, grown.length), grown))
+                throw new TestFailed("moved file read back incorrectly");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Returns the path of a small file. */
+    private static Path file(int index)
+    {
+        return new Path("/d" + (index % 10) + "/f" + index);
+    }
+
+    /** Returns the contents of a small file. */
+    private static byte[] contents(int index)
+    {
+        byte[]              contents = new byte[50 + index % 150];
+
+        new Random(index).nextBytes(contents);
+        return contents;
+    }
+
+    /** Checks the contents of the small files from the given one, other than
+        the last. */
+    private void check(StorageServer server, int first) throws Exception
+    {
+        for(int index = first; index < FILES - 1; ++index)
+        {
+            byte[]          contents = contents(index);
+
+            if(!Arrays.equals(server.read(file(index), 0, contents.length),
+                              contents))
+            {
+                throw new TestFailed("file " + file(index) +
+                                     " read back incorrectly");
+            }
+        }
+    }
+
+    /** Returns the total length of the segment files. */
+    private long segments()
+    {
+        File                packed = new File(new File(directory.root(),
+                                                       StorageEngine.METADATA),
+                                              PackedEngine.SEGMENTS);
+        long                total = 0;
+
+        for(File segment : packed.listFiles())
+            total += segment.length();
+
+        return total;
+    }
+
+    /** Removes the temporary directory and restores the properties. */
+    @Override
+    protected void clean()
+    {
+        if(directory != null)
+            directory.remove();
+
+        for(int index = 0; index < properties.length; ++index)
+        {
+            if(saved[index] == null)
+                System.clearProperty(properties[index]);
+            else
+                System.setProperty(properties[index], saved[index]);
+        }
+    }
+}
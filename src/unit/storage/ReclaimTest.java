@@ -0,0 +1,199 @@
+package storage;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.*;
+
+import common.*;
+import test.*;
+
+/** Unit test for background deletion.
+
+    <p>
+    Calls a storage server directly rather than through stubs. Deletes a
+    directory of many files, and checks that it is gone at once while its
+    files wait in the reclaim directory, and that a file can be created at
+    the same path in the meantime. Starts the reclaimer and checks that the
+    files are deleted, their space is no longer counted as used, and the
+    progress of the reclaimer is published as an MBean until it stops.
+    Finally, checks that files unlinked before a restart are deleted after it.
+ */
+public class ReclaimTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking background deletion";
+
+    /** Number of files in the deleted directory. */
+    private static final int    FILES = 300;
+    /** Length of each file. */
+    private static final int    LENGTH = 1000;
+
+    private TemporaryDirectory  directory;
+    private StorageServer[]     servers = new StorageServer[2];
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            directory = new TemporaryDirectory();
+            servers[0] = new StorageServer(directory.root());
+
+            StorageServer   server = servers[0];
+            File            reclaim =
+                new File(new File(directory.root(), StorageEngine.METADATA),
+                         "reclaim");
+
+            fill(server, new Path("/deleted"));
+
+            // The directory is gone at once, and its files wait for the
+            // reclaimer, which is not running.
+            if(!server.delete(new Path("/deleted")))
+                throw new TestFailed("unable to delete directory");
+
+            if(server.engine.isDirectory(new Path("/deleted")))
+                throw new TestFailed("deleted directory still present");
+
+            if(server.reclaimer.pending() != 2)
+            {
+                throw new TestFailed("directory and checksums not pending: " +
+                                     server.reclaimer.pending() + " pending");
+            }
+
+            if(server.used != (long)FILES * LENGTH)
+                throw new TestFailed("unlinked files not counted as used");
+
+            // A file can be created in its place meanwhile.
+            Path            file = new Path("/deleted/file0");
+            byte[]          contents = new byte[LENGTH];
+
+            new Random(45).nextBytes(contents);
+
+            if(!server.create(file))
+                throw new TestFailed("unable to create file in place of " +
+                                     "deleted directory");
+
+            server.write(file, 0, contents);
+
+            server.reclaimer.start();
+            waitReclaimed(server);
+
+            if(reclaim.list().length != 0)
+                throw new TestFailed("files left in the reclaim directory");
+
+            if(server.reclaimer.reclaimed() != (long)FILES * LENGTH)
+            {
+                throw new TestFailed("incorrect space reclaimed: " +
+                                     server.reclaimer.reclaimed());
+            }
+
+            if(server.used != LENGTH || server.engine.usage(new Path()) != LENGTH)
+                throw new TestFailed("incorrect space used after reclaiming");
+
+            if(!Arrays.equals(server.read(file, 0, LENGTH), contents))
+                throw new TestFailed("new file changed by reclaiming");
+
+            MBeanServer     mbeans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName      name =
+                new ObjectName("storage:type=Reclaimer,root=" +
+                    ObjectName.quote(directory.root().getAbsolutePath()));
+
+            if(!mbeans.getAttribute(name, "Reclaimed").equals(
+                    server.reclaimer.reclaimed()) ||
+               !mbeans.getAttribute(name, "Pending").equals(0L) ||
+               !mbeans.getAttribute(name, "Batches").equals(
+                    server.reclaimer.batches()))
+            {
+                throw new TestFailed("reclaimer progress published " +
+                                     "incorrectly");
+            }
+
+            // Paths unlinked before a restart are deleted after it.
+            server.reclaimer.stop();
+
+            if(mbeans.isRegistered(name))
+                throw new TestFailed("stopped reclaimer still published");
+            fill(server, new Path("/left"));
+            server.delete(new Path("/left"));
+            server.stop();
+
+            servers[1] = new StorageServer(directory.root());
+
+            if(servers[1].reclaimer.pending() != 2)
+                throw new TestFailed("unlinked paths not found after restart");
+
+            servers[1].reclaimer.start();
+            waitReclaimed(servers[1]);
+
+            if(reclaim.list().length != 0)
+            {
+                throw new TestFailed("files left in the reclaim directory " +
+                                     "after restart");
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Creates a directory of files, spread over subdirectories. */
+    private void fill(StorageServer server, Path root) throws IOException
+    {
+        byte[]              contents = new byte[LENGTH];
+
+        for(int index = 0; index < FILES; ++index)
+        {
+            Path            file = new Path(root, "d" + (index % 7));
+
+            file = new Path(file, "f" + index);
+
+            if(!server.create(file))
+                throw new IOException("unable to create " + file);
+
+            server.write(file, 0, contents);
+        }
+    }
+
+    /** Waits for the reclaimer of a storage server to delete all the paths
+        pending. */
+    private void waitReclaimed(StorageServer server) throws Exception
+    {
+        long                deadline = System.currentTimeMillis() + 2000;
+
+        while(server.reclaimer.pending() != 0)
+        {
+            if(System.currentTimeMillis() > deadline)
+            {
+                throw new TestFailed("unlinked paths not reclaimed: " +
+                                     server.reclaimer.pending() +
+                                     " pending");
+            }
+
+            Thread.sleep(10);
+        }
+
+        // The space is accounted for once the batch completes.
+        Thread.sleep(50);
+    }
+
+    /** Stops the servers and removes the temporary directory. */
+    @Override
+    protected void clean()
+    {
+        for(StorageServer server : servers)
+        {
+            if(server != null)
+                server.reclaimer.stop();
+        }
+
+        if(directory != null)
+            directory.remove();
+    }
+}
@@ -0,0 +1,145 @@
+package storage;
+
+import java.util.*;
+
+import common.*;
+import test.*;
+
+/** Unit test for renaming on storage servers.
+
+    <p>
+    For each storage engine, renames a file and a directory of files, and
+    checks that their contents and checksums follow them, that a session open
+    on a renamed file continues under the new path, and that renames that
+    would overwrite a file or move a directory beneath itself are refused.
+    Finally, checks that the renames are kept after a restart.
+ */
+public class RenameTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking renaming on storage servers";
+
+    private String[]            engines = {"file", "container", "packed"};
+    private TemporaryDirectory[] directories =
+        new TemporaryDirectory[engines.length];
+    private String              saved;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Path                file = new Path("/file");
+        Path                directory = new Path("/directory");
+        Path                nested = new Path("/directory/sub/nested");
+        byte[]              contents = new byte[5000];
+
+        new Random(47).nextBytes(contents);
+
+        try
+        {
+            saved = System.getProperty("storage.engine");
+
+            for(int index = 0; index < engines.length; ++index)
+            {
+                String      engine = engines[index];
+
+                System.setProperty("storage.engine", engine);
+                directories[index] = new TemporaryDirectory();
+
+                StorageServer   server =
+                    new StorageServer(directories[index].root());
+
+                server.create(file);
+                server.write(file, 0, contents);
+                server.create(nested);
+                server.write(nested, 0, contents);
+
+                // A session follows the file it is open on.
+                long        session = server.openSession(file, true);
+
+                if(!server.rename(file, new Path("/renamed/file")))
+                    throw new TestFailed("unable to rename file with " + engine);
+
+                server.writeSession(session, 0, new byte[] {1});
+                server.closeSession(session);
+
+                byte[]      expected = contents.clone();
+
+                expected[0] = 1;
+                check(server, new Path("/renamed/file"), expected, engine);
+
+                if(server.engine.isFile(file))
+                    throw new TestFailed("renamed file left with " + engine);
+
+                if(!server.rename(directory, new Path("/moved")))
+                {
+                    throw new TestFailed("unable to rename directory with " +
+                                         engine);
+                }
+
+                check(server, new Path("/moved/sub/nested"), contents, engine);
+
+                if(server.engine.isDirectory(directory))
+                {
+                    throw new TestFailed("renamed directory left with " +
+                                         engine);
+                }
+
+                // Renames that would overwrite or nest are refused.
+                if(server.rename(new Path("/moved"), new Path("/renamed/file")) ||
+                   server.rename(new Path("/moved"), new Path("/moved/sub/x")) ||
+                   server.rename(new Path("/absent"), new Path("/other")))
+                {
+                    throw new TestFailed("invalid rename succeeded with " +
+                                         engine);
+                }
+
+                server.stop();
+
+                StorageServer   restarted =
+                    new StorageServer(directories[index].root());
+
+                check(restarted, new Path("/moved/sub/nested"), contents,
+                      engine + " after restart");
+                restarted.stop();
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks the contents and checksums of a file. */
+    private void check(StorageServer server, Path file, byte[] contents,
+                       String engine) throws Exception
+    {
+        if(server.size(file) != contents.length ||
+           !Arrays.equals(server.readBlocks(file, 0, contents.length)
+                                .verify(0, contents.length), contents))
+        {
+            throw new TestFailed("renamed file " + file + " read " +
+                                 "incorrectly with " + engine);
+        }
+    }
+
+    /** Removes the temporary directories and restores the property. */
+    @Override
+    protected void clean()
+    {
+        for(TemporaryDirectory directory : directories)
+        {
+            if(directory != null)
+                directory.remove();
+        }
+
+        if(saved == null)
+            System.clearProperty("storage.engine");
+        else
+            System.setProperty("storage.engine", saved);
+    }
+}
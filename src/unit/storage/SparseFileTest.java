@@ -0,0 +1,125 @@
+package storage;
+
+import java.util.*;
+import java.util.zip.CRC32C;
+
+import common.*;
+import test.*;
+
+/** Unit test for writes past the end of a file.
+
+    <p>
+    For each storage engine, writes a sequence of bytes gigabytes past the
+    end of a new file, and checks that the gap reads as zeros, that the
+    blocks spanning the gap and the data match their checksums, and that the
+    data reads back. The write leaves a hole rather than writing the zeros of
+    the gap, without which the test would not finish in time.
+ */
+public class SparseFileTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking writes past the end of files";
+
+    /** Offset of the data written. */
+    private static final long   OFFSET = (5L << 30) + 3;
+
+    private String[]            engines = {"file", "container", "packed"};
+    private TemporaryDirectory[] directories =
+        new TemporaryDirectory[engines.length];
+    private String              saved;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        Path                file = new Path("/directory/sparse");
+        byte[]              data = new byte[1000];
+
+        new Random(44).nextBytes(data);
+
+        try
+        {
+            saved = System.getProperty("storage.engine");
+
+            for(int index = 0; index < engines.length; ++index)
+            {
+                System.setProperty("storage.engine", engines[index]);
+                directories[index] = new TemporaryDirectory();
+
+                StorageServer   server =
+                    new StorageServer(directories[index].root());
+
+                if(!server.create(file))
+                    throw new TestFailed("unable to create file");
+
+                server.write(file, OFFSET, data);
+                check(server, file, data, engines[index]);
+
+                // Extending the file again leaves a second hole.
+                server.write(file, 2 * OFFSET, data);
+
+                if(server.size(file) != 2 * OFFSET + data.length)
+                {
+                    throw new TestFailed("incorrect size after second " +
+                                         "write with " + engines[index] +
+                                         " engine");
+                }
+
+                check(server, file, data, engines[index]);
+                server.stop();
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks the hole before the data written, and the data. */
+    private void check(StorageServer server, Path file, byte[] data,
+                       String engine) throws Exception
+    {
+        if(!Arrays.equals(server.read(file, 2L << 30, 1000), new byte[1000]))
+            throw new TestFailed("hole read incorrectly with " + engine);
+
+        // Read across the end of the hole, so that the block holding the
+        // start of the data is verified.
+        byte[]              expected = new byte[1500];
+
+        System.arraycopy(data, 0, expected, 500, data.length);
+
+        if(!Arrays.equals(server.readBlocks(file, OFFSET - 500, 1500)
+                                .verify(OFFSET - 500, 1500), expected))
+        {
+            throw new TestFailed("end of hole read incorrectly with " +
+                                 engine);
+        }
+
+        CRC32C              crc = new CRC32C();
+
+        crc.update(data);
+
+        if(server.checksum(file, OFFSET, data.length) != crc.getValue())
+            throw new TestFailed("incorrect checksum of data with " + engine);
+    }
+
+    /** Removes the temporary directories and restores the property. */
+    @Override
+    protected void clean()
+    {
+        for(TemporaryDirectory directory : directories)
+        {
+            if(directory != null)
+                directory.remove();
+        }
+
+        if(saved == null)
+            System.clearProperty("storage.engine");
+        else
+            System.setProperty("storage.engine", saved);
+    }
+}